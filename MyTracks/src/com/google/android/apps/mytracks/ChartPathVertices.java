@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks;
+
+/**
+ * The vertices of a chart value series path, in data coordinates. Data points
+ * are grouped into columns of a fixed x width, typically one pixel, and only
+ * the first, min, max, and last points of each column are kept. Thus the
+ * number of vertices is bounded by the number of columns, not by the number
+ * of data points. Data points must be added in increasing x order.
+ */
+class ChartPathVertices {
+
+  private static final int INITIAL_SIZE = 64;
+
+  // Completed columns
+  private float[] xs = new float[INITIAL_SIZE];
+  private float[] ys = new float[INITIAL_SIZE];
+  private int size;
+
+  // Vertices of the current column
+  private final float[] pendingXs = new float[4];
+  private final float[] pendingYs = new float[4];
+  private int pendingSize;
+
+  private double columnWidth;
+  private long column;
+
+  // The first, min, max, and last data points of the current column
+  private final int[] indices = new int[4];
+  private final double[] columnXs = new double[4];
+  private final double[] columnYs = new double[4];
+
+  /**
+   * Clears the vertices.
+   * 
+   * @param newColumnWidth the column width, 0 to keep every data point
+   */
+  public void reset(double newColumnWidth) {
+    columnWidth = newColumnWidth;
+    size = 0;
+    pendingSize = 0;
+  }
+
+  /**
+   * Gets the column width.
+   */
+  public double getColumnWidth() {
+    return columnWidth;
+  }
+
+  /**
+   * Adds a data point.
+   * 
+   * @param index the index of the data point
+   * @param x the x value
+   * @param y the y value
+   */
+  public void add(int index, double x, double y) {
+    long newColumn = columnWidth > 0 ? (long) Math.floor(x / columnWidth) : index;
+    if (pendingSize == 0 || newColumn != column) {
+      // Complete the current column
+      for (int i = 0; i < pendingSize; i++) {
+        append(pendingXs[i], pendingYs[i]);
+      }
+      column = newColumn;
+      for (int i = 0; i < 4; i++) {
+        set(i, index, x, y);
+      }
+    } else {
+      if (y < columnYs[1]) {
+        set(1, index, x, y);
+      }
+      if (y > columnYs[2]) {
+        set(2, index, x, y);
+      }
+      set(3, index, x, y);
+    }
+    updatePending();
+  }
+
+  /**
+   * Gets the number of vertices.
+   */
+  public int getSize() {
+    return size + pendingSize;
+  }
+
+  /**
+   * Gets the x value of a vertex.
+   * 
+   * @param i the vertex index
+   */
+  public float getX(int i) {
+    return i < size ? xs[i] : pendingXs[i - size];
+  }
+
+  /**
+   * Gets the y value of a vertex.
+   * 
+   * @param i the vertex index
+   */
+  public float getY(int i) {
+    return i < size ? ys[i] : pendingYs[i - size];
+  }
+
+  /**
+   * Sets one of the data points of the current column.
+   * 
+   * @param i 0 for first, 1 for min, 2 for max, 3 for last
+   * @param index the data point index
+   * @param x the x value
+   * @param y the y value
+   */
+  private void set(int i, int index, double x, double y) {
+    indices[i] = index;
+    columnXs[i] = x;
+    columnYs[i] = y;
+  }
+
+  /**
+   * Updates the vertices of the current column, the data points in index order
+   * without duplicates.
+   */
+  private void updatePending() {
+    pendingSize = 0;
+    int lastIndex = -1;
+    for (int n = 0; n < 4; n++) {
+      // Find the next smallest index
+      int next = -1;
+      for (int i = 0; i < 4; i++) {
+        if (indices[i] > lastIndex && (next == -1 || indices[i] < indices[next])) {
+          next = i;
+        }
+      }
+      if (next == -1) {
+        break;
+      }
+      lastIndex = indices[next];
+      pendingXs[pendingSize] = (float) columnXs[next];
+      pendingYs[pendingSize] = (float) columnYs[next];
+      pendingSize++;
+    }
+  }
+
+  /**
+   * Appends a vertex, growing the arrays if necessary.
+   * 
+   * @param x the x value
+   * @param y the y value
+   */
+  private void append(float x, float y) {
+    if (size == xs.length) {
+      float[] newXs = new float[size * 2];
+      float[] newYs = new float[size * 2];
+      System.arraycopy(xs, 0, newXs, 0, size);
+      System.arraycopy(ys, 0, newYs, 0, size);
+      xs = newXs;
+      ys = newYs;
+    }
+    xs[size] = x;
+    ys[size] = y;
+    size++;
+  }
+}
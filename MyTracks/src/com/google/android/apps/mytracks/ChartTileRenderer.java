@@ -0,0 +1,266 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Path;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.View;
+
+import java.util.LinkedList;
+
+/**
+ * Renders the chart series paths into tile bitmaps on a background thread.
+ * Each tile is as wide as the chart's visible area, thus the whole chart at
+ * the current zoom level has zoom level tiles. While scrolling, the chart
+ * view blits the tiles instead of drawing the paths.
+ */
+class ChartTileRenderer {
+
+  /**
+   * A source of the content to render.
+   */
+  interface Source {
+
+    /**
+     * Gets a snapshot of the series paths to render. Called on the render
+     * thread. Returns null if the generation is no longer current.
+     * 
+     * @param generation the paths generation
+     */
+    Snapshot getSnapshot(int generation);
+  }
+
+  /**
+   * A snapshot of the series paths, safe to draw off the UI thread.
+   */
+  static class Snapshot {
+    final int left;
+    final int top;
+    final int tileWidth;
+    final int tileHeight;
+    final ChartValueSeries[] series;
+    final Path[] paths;
+
+    /**
+     * Constructor.
+     * 
+     * @param left the x position of the chart's left edge
+     * @param top the y position of the chart's top edge
+     * @param tileWidth the tile width
+     * @param tileHeight the tile height
+     * @param series the series to draw
+     * @param paths copies of the series paths
+     */
+    Snapshot(int left, int top, int tileWidth, int tileHeight,
+        ChartValueSeries[] series, Path[] paths) {
+      this.left = left;
+      this.top = top;
+      this.tileWidth = tileWidth;
+      this.tileHeight = tileHeight;
+      this.series = series;
+      this.paths = paths;
+    }
+  }
+
+  /**
+   * A rendered tile.
+   */
+  private static class Tile {
+    final int index;
+    final int generation;
+    final Bitmap bitmap;
+
+    Tile(int index, int generation, Bitmap bitmap) {
+      this.index = index;
+      this.generation = generation;
+      this.bitmap = bitmap;
+    }
+  }
+
+  private static final String TAG = ChartTileRenderer.class.getSimpleName();
+
+  // The visible tiles plus one ahead in the scroll direction, plus one spare
+  private static final int MAX_TILES = 4;
+
+  private final Source source;
+  private final View view;
+
+  // Most recently used first. Guarded by tiles.
+  private final LinkedList<Tile> tiles = new LinkedList<Tile>();
+
+  private HandlerThread handlerThread;
+  private Handler handler;
+
+  /**
+   * Constructor.
+   * 
+   * @param source the source
+   * @param view the view to invalidate when a tile is rendered
+   */
+  ChartTileRenderer(Source source, View view) {
+    this.source = source;
+    this.view = view;
+  }
+
+  /**
+   * Starts the render thread.
+   */
+  void start() {
+    if (handlerThread != null) {
+      return;
+    }
+    handlerThread = new HandlerThread(TAG);
+    handlerThread.start();
+    handler = new Handler(handlerThread.getLooper());
+  }
+
+  /**
+   * Stops the render thread and drops the tiles.
+   */
+  void stop() {
+    if (handlerThread != null) {
+      handlerThread.getLooper().quit();
+      handlerThread = null;
+    }
+    handler = null;
+    synchronized (tiles) {
+      tiles.clear();
+    }
+  }
+
+  /**
+   * Requests rendering a range of tiles. Replaces any pending request.
+   * 
+   * @param generation the paths generation
+   * @param first the first tile index
+   * @param last the last tile index
+   */
+  void requestTiles(final int generation, final int first, final int last) {
+    if (handler == null) {
+      return;
+    }
+    handler.removeCallbacksAndMessages(null);
+    handler.post(new Runnable() {
+        @Override
+      public void run() {
+        renderTiles(generation, first, last);
+      }
+    });
+  }
+
+  /**
+   * Draws a range of tiles if all are rendered for a generation. To be called
+   * on the UI thread.
+   * 
+   * @param canvas the canvas
+   * @param generation the paths generation
+   * @param first the first tile index
+   * @param last the last tile index
+   * @param left the x position of the chart's left edge
+   * @param top the y position of the chart's top edge
+   * @param tileWidth the tile width
+   * @return true if drawn
+   */
+  boolean drawTiles(
+      Canvas canvas, int generation, int first, int last, int left, int top, int tileWidth) {
+    synchronized (tiles) {
+      for (int i = first; i <= last; i++) {
+        if (getTile(i, generation) == null) {
+          return false;
+        }
+      }
+      for (int i = first; i <= last; i++) {
+        canvas.drawBitmap(getTile(i, generation).bitmap, left + i * tileWidth, top, null);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Gets a tile and marks it as most recently used. Returns null if not
+   * rendered for the generation. Called with tiles locked.
+   * 
+   * @param index the tile index
+   * @param generation the paths generation
+   */
+  private Tile getTile(int index, int generation) {
+    for (Tile tile : tiles) {
+      if (tile.index == index && tile.generation == generation) {
+        if (tiles.getFirst() != tile) {
+          tiles.remove(tile);
+          tiles.addFirst(tile);
+        }
+        return tile;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Renders a range of tiles. Called on the render thread.
+   * 
+   * @param generation the paths generation
+   * @param first the first tile index
+   * @param last the last tile index
+   */
+  private void renderTiles(int generation, int first, int last) {
+    Snapshot snapshot = null;
+    for (int i = first; i <= last; i++) {
+      synchronized (tiles) {
+        if (getTile(i, generation) != null) {
+          continue;
+        }
+      }
+      if (snapshot == null) {
+        snapshot = source.getSnapshot(generation);
+        if (snapshot == null || snapshot.tileWidth <= 0 || snapshot.tileHeight <= 0) {
+          return;
+        }
+      }
+      Bitmap bitmap;
+      try {
+        bitmap = Bitmap.createBitmap(
+            snapshot.tileWidth, snapshot.tileHeight, Bitmap.Config.ARGB_8888);
+      } catch (OutOfMemoryError e) {
+        Log.w(TAG, "Unable to create a tile bitmap.", e);
+        return;
+      }
+      Canvas canvas = new Canvas(bitmap);
+      canvas.translate(-(snapshot.left + i * snapshot.tileWidth), -snapshot.top);
+      for (int j = 0; j < snapshot.series.length; j++) {
+        snapshot.series[j].drawPath(canvas, snapshot.paths[j]);
+      }
+      synchronized (tiles) {
+        // Drop the least recently used and the outdated tiles
+        while (tiles.size() >= MAX_TILES) {
+          tiles.removeLast();
+        }
+        for (int k = tiles.size() - 1; k >= 0; k--) {
+          if (tiles.get(k).generation != generation) {
+            tiles.remove(k);
+          }
+        }
+        tiles.addFirst(new Tile(i, generation, bitmap));
+      }
+      view.postInvalidate();
+    }
+  }
+}
@@ -149,8 +149,18 @@ public class ChartValueSeries {
    * @param canvas the canvas
    */
   public void drawPath(Canvas canvas) {
-    canvas.drawPath(path, fillPaint);
-    canvas.drawPath(path, strokePaint);
+    drawPath(canvas, path);
+  }
+
+  /**
+   * Draws a path on canvas with the series paints.
+   * 
+   * @param canvas the canvas
+   * @param seriesPath a path of this series
+   */
+  public void drawPath(Canvas canvas, Path seriesPath) {
+    canvas.drawPath(seriesPath, fillPaint);
+    canvas.drawPath(seriesPath, strokePaint);
   }
 
   /**
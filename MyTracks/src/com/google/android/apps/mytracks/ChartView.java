@@ -82,8 +82,31 @@ public class ChartView extends View {
   private static final int SPACER = 4;
   private static final int Y_AXIS_OFFSET = 16;
 
+  private static final int INITIAL_DATA_SIZE = 1024;
+
   private final ChartValueSeries[] series = new ChartValueSeries[NUM_SERIES];
-  private final ArrayList<double[]> chartData = new ArrayList<double[]>();
+
+  /*
+   * The chart data, one array per series. xValues[i] is the x value of the
+   * i-th data point and seriesValues[j][i] its value for series j, NaN if not
+   * available. Guarded by lock.
+   */
+  private final Object lock = new Object();
+  private double[] xValues = new double[INITIAL_DATA_SIZE];
+  private final double[][] seriesValues = new double[NUM_SERIES][INITIAL_DATA_SIZE];
+  private int numDataPoints = 0;
+
+  // The path vertices of each series, rebuilt when the columns get too narrow
+  private final ChartPathVertices[] pathVertices = new ChartPathVertices[NUM_SERIES];
+  private double columnsMaxX = 0.0;
+  private boolean pathsDirty = true;
+
+  // Incremented each time the paths change, to tell outdated tiles apart
+  private int pathsGeneration = 0;
+
+  private final ChartTileRenderer tileRenderer;
+  private int lastScrollX = 0;
+
   private final ArrayList<Waypoint> waypoints = new ArrayList<Waypoint>();
   private final ExtremityMonitor xExtremityMonitor = new ExtremityMonitor();
   private double maxX = 1.0;
@@ -211,6 +234,16 @@ public class ChartView extends View {
     waypointMarker = getResources().getDrawable(R.drawable.ic_marker_blue_pushpin);
     waypointMarker.setBounds(0, 0, markerWidth, markerHeight);
 
+    for (int i = 0; i < NUM_SERIES; i++) {
+      pathVertices[i] = new ChartPathVertices();
+    }
+
+    tileRenderer = new ChartTileRenderer(new ChartTileRenderer.Source() {
+        @Override
+      public ChartTileRenderer.Snapshot getSnapshot(int generation) {
+        return getTileSnapshot(generation);
+      }
+    }, this);
     scroller = new Scroller(context);
     setFocusable(true);
     setClickable(true);
@@ -228,7 +261,10 @@ public class ChartView extends View {
    * @param index the chart value series index
    */
   public void setChartValueSeriesEnabled(int index, boolean enabled) {
-    series[index].setEnabled(enabled);
+    synchronized (lock) {
+      series[index].setEnabled(enabled);
+      pathsDirty = true;
+    }
   }
 
   /**
@@ -274,19 +310,30 @@ public class ChartView extends View {
    * @param dataPoints an array of data points to be added
    */
   public void addDataPoints(ArrayList<double[]> dataPoints) {
-    synchronized (chartData) {
-      chartData.addAll(dataPoints);
+    synchronized (lock) {
+      ensureDataCapacity(numDataPoints + dataPoints.size());
+      int start = numDataPoints;
       for (int i = 0; i < dataPoints.size(); i++) {
         double[] dataPoint = dataPoints.get(i);
+        xValues[numDataPoints] = dataPoint[0];
         xExtremityMonitor.update(dataPoint[0]);
         for (int j = 0; j < series.length; j++) {
-          if (!Double.isNaN(dataPoint[j + 1])) {
-            series[j].update(dataPoint[j + 1]);
+          double value = dataPoint[j + 1];
+          seriesValues[j][numDataPoints] = value;
+          if (!Double.isNaN(value)) {
+            series[j].update(value);
           }
         }
+        numDataPoints++;
       }
       updateDimensions();
-      updatePaths();
+
+      // Rebuild if the columns are now narrower than half a pixel
+      if (maxX > 2 * columnsMaxX) {
+        rebuildPathVertices();
+      } else {
+        addPathVertices(start);
+      }
     }
   }
 
@@ -294,11 +341,12 @@ public class ChartView extends View {
    * Clears all data.
    */
   public void reset() {
-    synchronized (chartData) {
-      chartData.clear();
+    synchronized (lock) {
+      numDataPoints = 0;
       xExtremityMonitor.reset();
       zoomLevel = 1;
       updateDimensions();
+      rebuildPathVertices();
     }
   }
 
@@ -349,7 +397,9 @@ public class ChartView extends View {
   public void zoomIn() {
     if (canZoomIn()) {
       zoomLevel++;
-      updatePaths();
+      synchronized (lock) {
+        rebuildPathVertices();
+      }
       invalidate();
     }
   }
@@ -367,7 +417,9 @@ public class ChartView extends View {
         scrollX = maxWidth;
         scrollTo(scrollX, 0);
       }
-      updatePaths();
+      synchronized (lock) {
+        rebuildPathVertices();
+      }
       invalidate();
     }
   }
@@ -489,6 +541,18 @@ public class ChartView extends View {
     return true;
   }
 
+  @Override
+  protected void onAttachedToWindow() {
+    super.onAttachedToWindow();
+    tileRenderer.start();
+  }
+
+  @Override
+  protected void onDetachedFromWindow() {
+    tileRenderer.stop();
+    super.onDetachedFromWindow();
+  }
+
   @Override
   protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
     updateEffectiveDimensionsIfChanged(
@@ -498,7 +562,10 @@ public class ChartView extends View {
 
   @Override
   protected void onDraw(Canvas canvas) {
-    synchronized (chartData) {
+    synchronized (lock) {
+      if (pathsDirty) {
+        updatePaths();
+      }
 
       canvas.save();
       
@@ -507,7 +574,9 @@ public class ChartView extends View {
       canvas.save();
       
       clipToGraphArea(canvas);
-      drawDataSeries(canvas);
+      if (!drawDataSeriesTiles(canvas)) {
+        drawDataSeries(canvas);
+      }
       drawWaypoints(canvas);
       drawGrid(canvas);
       
@@ -549,6 +618,55 @@ public class ChartView extends View {
     }
   }
 
+  /**
+   * Draws the data series from the rendered tiles. While scrolling, requests
+   * the visible tiles and the next one in the scroll direction. Returns false
+   * if the visible tiles are not rendered for the current paths.
+   * 
+   * @param canvas the canvas
+   */
+  private boolean drawDataSeriesTiles(Canvas canvas) {
+    int scrollX = getScrollX();
+    int deltaX = scrollX - lastScrollX;
+    lastScrollX = scrollX;
+    if (zoomLevel == 1 || effectiveWidth == 0 || effectiveHeight == 0) {
+      return false;
+    }
+    int first = scrollX / effectiveWidth;
+    int last = Math.min(zoomLevel - 1, (scrollX + effectiveWidth - 1) / effectiveWidth);
+    if (deltaX != 0 || !scroller.isFinished()) {
+      int ahead = deltaX < 0 ? Math.max(0, first - 1) : Math.min(zoomLevel - 1, last + 1);
+      tileRenderer.requestTiles(pathsGeneration, Math.min(first, ahead), Math.max(last, ahead));
+    }
+    return tileRenderer.drawTiles(
+        canvas, pathsGeneration, first, last, leftBorder, topBorder, effectiveWidth);
+  }
+
+  /**
+   * Gets a snapshot of the series paths for the tile renderer. Returns null if
+   * the generation is no longer current.
+   * 
+   * @param generation the paths generation
+   */
+  private ChartTileRenderer.Snapshot getTileSnapshot(int generation) {
+    synchronized (lock) {
+      if (pathsDirty || generation != pathsGeneration) {
+        return null;
+      }
+      ArrayList<ChartValueSeries> enabledSeries = new ArrayList<ChartValueSeries>();
+      ArrayList<Path> paths = new ArrayList<Path>();
+      for (ChartValueSeries chartValueSeries : series) {
+        if (chartValueSeries.isEnabled() && chartValueSeries.hasData()) {
+          enabledSeries.add(chartValueSeries);
+          paths.add(new Path(chartValueSeries.getPath()));
+        }
+      }
+      return new ChartTileRenderer.Snapshot(leftBorder, topBorder, effectiveWidth,
+          effectiveHeight, enabledSeries.toArray(new ChartValueSeries[enabledSeries.size()]),
+          paths.toArray(new Path[paths.size()]));
+    }
+  }
+
   /**
    * Draws the waypoints.
    * 
@@ -803,9 +921,9 @@ public class ChartView extends View {
         break;
       }
     }
-    if (index != -1 && chartData.size() > 0) {
+    if (index != -1 && numDataPoints > 0) {
       int dx = getX(maxX) - pointer.getIntrinsicWidth() / 2;
-      int dy = getY(series[index], chartData.get(chartData.size() - 1)[index + 1])
+      int dy = getY(series[index], seriesValues[index][numDataPoints - 1])
           - pointer.getIntrinsicHeight();
       canvas.translate(dx, dy);
       pointer.draw(canvas);
@@ -813,81 +931,88 @@ public class ChartView extends View {
   }
 
   /**
-   * Updates paths. The path needs to be updated any time after the data or the
-   * dimensions change.
+   * Ensures the chart data arrays can hold a number of data points.
+   * 
+   * @param capacity the number of data points
    */
-  private void updatePaths() {
-    synchronized (chartData) {
-      for (ChartValueSeries chartValueSeries : series) {
-        chartValueSeries.getPath().reset();
-      }
-      drawPaths();
-      closePaths();
+  private void ensureDataCapacity(int capacity) {
+    if (capacity <= xValues.length) {
+      return;
+    }
+    int newLength = Math.max(capacity, xValues.length * 2);
+    double[] newXValues = new double[newLength];
+    System.arraycopy(xValues, 0, newXValues, 0, numDataPoints);
+    xValues = newXValues;
+    for (int i = 0; i < seriesValues.length; i++) {
+      double[] newValues = new double[newLength];
+      System.arraycopy(seriesValues[i], 0, newValues, 0, numDataPoints);
+      seriesValues[i] = newValues;
     }
   }
 
   /**
-   * Draws all paths.
+   * Rebuilds the path vertices with one column per pixel of the chart width.
+   * To be called when the data is reset or the zoom level or the dimensions
+   * change.
    */
-  private void drawPaths() {
-    boolean[] hasMoved = new boolean[series.length];
-    
-    for (int i = 0; i < chartData.size(); i++) {
-      double[] dataPoint = chartData.get(i);
-      for (int j = 0; j < series.length; j++) {
-        double value = dataPoint[j + 1];
-        if (Double.isNaN(value)) {
-          continue;
-        }
-        ChartValueSeries chartValueSeries = series[j];
-        Path path = chartValueSeries.getPath();
-        int x = getX(dataPoint[0]);
-        int y = getY(chartValueSeries, value);
-        if (!hasMoved[j]) {
-          hasMoved[j] = true;
-          path.moveTo(x, y);
-        } else {
-          path.lineTo(x, y);
-        }
-      }
+  private void rebuildPathVertices() {
+    int chartWidth = effectiveWidth * zoomLevel;
+    columnsMaxX = maxX;
+    double columnWidth = chartWidth > 0 ? maxX / chartWidth : 0.0;
+    for (ChartPathVertices vertices : pathVertices) {
+      vertices.reset(columnWidth);
     }
+    addPathVertices(0);
   }
 
   /**
-   * Closes all paths.
+   * Adds data points to the path vertices.
+   * 
+   * @param start the index of the first data point to add
    */
-  private void closePaths() {
-    for (int i = 0; i < series.length; i++) {
-      int first = getFirstPopulatedChartDataIndex(i);
-
-      if (first != -1) {
-        int xCorner = getX(chartData.get(first)[0]);
-        int yCorner = topBorder + effectiveHeight;
-        ChartValueSeries chartValueSeries = series[i];
-        Path path = chartValueSeries.getPath();
-        // Bottom right corner
-        path.lineTo(getX(chartData.get(chartData.size() - 1)[0]), yCorner);
-        // Bottom left corner
-        path.lineTo(xCorner, yCorner);
-        // Top right corner
-        path.lineTo(xCorner, getY(chartValueSeries, chartData.get(first)[i + 1]));
+  private void addPathVertices(int start) {
+    for (int j = 0; j < series.length; j++) {
+      ChartPathVertices vertices = pathVertices[j];
+      double[] values = seriesValues[j];
+      for (int i = start; i < numDataPoints; i++) {
+        if (!Double.isNaN(values[i])) {
+          vertices.add(i, xValues[i], values[i]);
+        }
       }
     }
+    pathsDirty = true;
   }
 
   /**
-   * Finds the index of the first data point containing data for a series.
-   * Returns -1 if no data point contains data for the series.
-   * 
-   * @param seriesIndex the series's index
+   * Updates paths from the path vertices. The path needs to be updated any time
+   * after the data or the dimensions change.
    */
-  private int getFirstPopulatedChartDataIndex(int seriesIndex) {
-    for (int i = 0; i < chartData.size(); i++) {
-      if (!Double.isNaN(chartData.get(i)[seriesIndex + 1])) {
-        return i;
+  private void updatePaths() {
+    int yCorner = topBorder + effectiveHeight;
+    for (int i = 0; i < series.length; i++) {
+      ChartValueSeries chartValueSeries = series[i];
+      ChartPathVertices vertices = pathVertices[i];
+      Path path = chartValueSeries.getPath();
+      path.reset();
+      int size = vertices.getSize();
+      if (size == 0) {
+        continue;
+      }
+      int xCorner = getX(vertices.getX(0));
+      int yFirst = getY(chartValueSeries, vertices.getY(0));
+      path.moveTo(xCorner, yFirst);
+      for (int j = 1; j < size; j++) {
+        path.lineTo(getX(vertices.getX(j)), getY(chartValueSeries, vertices.getY(j)));
       }
+      // Bottom right corner
+      path.lineTo(getX(vertices.getX(size - 1)), yCorner);
+      // Bottom left corner
+      path.lineTo(xCorner, yCorner);
+      // Top right corner
+      path.lineTo(xCorner, yFirst);
     }
-    return -1;
+    pathsDirty = false;
+    pathsGeneration++;
   }
 
   /**
@@ -920,6 +1045,7 @@ public class ChartView extends View {
         + (int) (xAxisLabelRect.height() / 2));
     rightBorder = (int) (density * BORDER + xAxisLabelRect.width() + spacer);
     updateEffectiveDimensions();
+    pathsDirty = true;
   }
 
   /**
@@ -940,8 +1066,10 @@ public class ChartView extends View {
     if (width != newWidth || height != newHeight) {
       width = newWidth;
       height = newHeight;
-      updateEffectiveDimensions();
-      updatePaths();
+      synchronized (lock) {
+        updateEffectiveDimensions();
+        rebuildPathVertices();
+      }
     }
   }
 
@@ -998,12 +1126,12 @@ public class ChartView extends View {
   }
 
   /**
-   * Returns true if the index is allowed when the chartData is empty.
+   * Returns true if the index is allowed when there is no chart data.
    * 
    * @param index the index
    */
   private boolean allowIfEmpty(int index) {
-    if (!chartData.isEmpty()) {
+    if (numDataPoints != 0) {
       return false;
     }
     switch (index) {
@@ -20,6 +20,7 @@ import static com.google.android.apps.mytracks.content.TrackDataHub.TARGET_DISPL
 
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
+import com.google.android.apps.mytracks.maps.PathSimplifier;
 import com.google.android.apps.mytracks.maps.TrackPath;
 import com.google.android.apps.mytracks.maps.TrackPathFactory;
 import com.google.android.apps.mytracks.stats.TripStatistics;
@@ -29,6 +30,7 @@ import com.google.android.apps.mytracks.util.UnitConversions;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.MarkerOptions;
 import com.google.android.gms.maps.model.Polyline;
 import com.google.android.maps.mytracks.R;
@@ -60,6 +62,15 @@ public class MapOverlay {
   private static final float MARKER_Y_ANCHOR = 90f / 96f;
   private static final int INITIAL_LOCATIONS_SIZE = 1024;
 
+  /*
+   * The margin added to each side of the visible region when simplifying the
+   * path, as a fraction of the visible region. Allows panning a bit before the
+   * clipped path shows.
+   */
+  private static final double VIEWPORT_MARGIN = 0.5;
+
+  private static final CachedLocation SPLIT_LOCATION = new CachedLocation();
+
   private final OnSharedPreferenceChangeListener
       sharedPreferenceChangeListener = new OnSharedPreferenceChangeListener() {
           @Override
@@ -77,6 +88,24 @@ public class MapOverlay {
   private final List<CachedLocation> locations;
   private final BlockingQueue<CachedLocation> pendingLocations;
   private final List<Waypoint> waypoints;
+  private final PathSimplifier pathSimplifier = new PathSimplifier();
+
+  // Work arrays of simplifyPath, guarded by pathSimplifier
+  private CachedLocation[] snapshot = new CachedLocation[0];
+  private double[] xs = new double[0];
+  private double[] ys = new double[0];
+  private boolean[] valid = new boolean[0];
+  private int[] indices = new int[0];
+
+  /*
+   * The path simplified for the visible region, covering the first
+   * viewportSize locations. Null if not available. Guarded by locations.
+   */
+  private List<CachedLocation> viewportLocations;
+  private int viewportSize;
+
+  // Incremented each time the locations are cleared. Guarded by locations.
+  private int locationsVersion;
 
   private String trackColorMode = PreferencesUtils.TRACK_COLOR_MODE_DEFAULT;
 
@@ -93,6 +122,8 @@ public class MapOverlay {
     private final boolean valid;
     private final LatLng latLng;
     private final double speed;
+    private final double x;
+    private final double y;
 
     /**
      * Constructor for an invalid cached location.
@@ -101,6 +132,8 @@ public class MapOverlay {
       this.valid = false;
       this.latLng = null;
       this.speed = -1.0;
+      this.x = 0.0;
+      this.y = 0.0;
     }
 
     /**
@@ -110,6 +143,8 @@ public class MapOverlay {
       this.valid = LocationUtils.isValidLocation(location);
       this.latLng = valid ? new LatLng(location.getLatitude(), location.getLongitude()) : null;
       this.speed = location.hasSpeed() ? location.getSpeed() * UnitConversions.MS_TO_KMH : -1.0;
+      this.x = valid ? PathSimplifier.getX(location.getLongitude()) : 0.0;
+      this.y = valid ? PathSimplifier.getY(location.getLatitude()) : 0.0;
     }
 
     /**
@@ -177,6 +212,81 @@ public class MapOverlay {
     synchronized (locations) {
       locations.clear();
       pendingLocations.clear();
+      viewportLocations = null;
+      viewportSize = 0;
+      locationsVersion++;
+    }
+  }
+
+  /**
+   * Simplifies the track path for the visible region of the map. Segments
+   * outside the visible region, plus a margin, are clipped and the rest is
+   * simplified to about a pixel at the zoom level. Can be called off the UI
+   * thread. The next {@link #updatePaths} or {@link #update} reloading all
+   * points draws the simplified path, followed by any location added since.
+   * 
+   * @param bounds the visible region
+   * @param zoom the zoom level
+   * @return true if the simplified path is available
+   */
+  public boolean simplifyPath(LatLngBounds bounds, float zoom) {
+    synchronized (pathSimplifier) {
+      int size;
+      int version;
+      synchronized (locations) {
+        size = locations.size();
+        version = locationsVersion;
+        if (snapshot.length < size) {
+          int length = Math.max(size, snapshot.length * 2);
+          snapshot = new CachedLocation[length];
+          xs = new double[length];
+          ys = new double[length];
+          valid = new boolean[length];
+          indices = new int[2 * length];
+        }
+        for (int i = 0; i < size; i++) {
+          CachedLocation cachedLocation = locations.get(i);
+          snapshot[i] = cachedLocation;
+          xs[i] = cachedLocation.x;
+          ys[i] = cachedLocation.y;
+          valid[i] = cachedLocation.valid;
+        }
+      }
+
+      double left = PathSimplifier.getX(bounds.southwest.longitude);
+      double right = PathSimplifier.getX(bounds.northeast.longitude);
+      if (left > right) {
+        // Crossing the 180th meridian, don't clip the longitudes
+        left = 0.0;
+        right = 1.0;
+      }
+      double top = PathSimplifier.getY(bounds.northeast.latitude);
+      double bottom = PathSimplifier.getY(bounds.southwest.latitude);
+      double marginX = (right - left) * VIEWPORT_MARGIN;
+      double marginY = (bottom - top) * VIEWPORT_MARGIN;
+      int count = pathSimplifier.simplify(xs, ys, valid, size, left - marginX, top - marginY,
+          right + marginX, bottom + marginY, PathSimplifier.getTolerance(zoom), indices);
+
+      List<CachedLocation> simplified = new ArrayList<CachedLocation>(count + 1);
+      for (int i = 0; i < count; i++) {
+        simplified.add(indices[i] == PathSimplifier.SPLIT ? SPLIT_LOCATION : snapshot[indices[i]]);
+      }
+      if (size != 0 && !valid[size - 1]) {
+        // Keep the trailing split so appended locations start a new segment
+        simplified.add(SPLIT_LOCATION);
+      }
+      for (int i = 0; i < size; i++) {
+        snapshot[i] = null;
+      }
+
+      synchronized (locations) {
+        if (version != locationsVersion) {
+          return false;
+        }
+        viewportLocations = simplified;
+        viewportSize = size;
+        return true;
+      }
     }
   }
 
@@ -229,7 +339,7 @@ public class MapOverlay {
       if (trackPath.updateState(tripStatistics) || reload) {
         googleMap.clear();
         paths.clear();
-        trackPath.updatePath(googleMap, paths, 0, locations);
+        trackPath.updatePath(googleMap, paths, 0, getPathLocations());
         hasStartMarker = updateStartAndEndMarkers(googleMap);
         updateWaypoints(googleMap);
       } else {
@@ -242,6 +352,39 @@ public class MapOverlay {
     }
   }
 
+  /**
+   * Redraws the paths, keeping the markers and the waypoints. Used to draw the
+   * path simplified for the visible region.
+   * 
+   * @param googleMap the google map
+   * @param paths the paths
+   */
+  public void updatePaths(GoogleMap googleMap, ArrayList<Polyline> paths) {
+    synchronized (locations) {
+      pendingLocations.drainTo(locations);
+      for (Polyline polyline : paths) {
+        polyline.remove();
+      }
+      paths.clear();
+      trackPath.updatePath(googleMap, paths, 0, getPathLocations());
+    }
+  }
+
+  /**
+   * Gets the locations to draw when reloading the path. Uses the path
+   * simplified for the visible region if available.
+   */
+  private List<CachedLocation> getPathLocations() {
+    if (viewportLocations == null) {
+      return locations;
+    }
+    List<CachedLocation> pathLocations = new ArrayList<CachedLocation>(
+        viewportLocations.size() + locations.size() - viewportSize);
+    pathLocations.addAll(viewportLocations);
+    pathLocations.addAll(locations.subList(viewportSize, locations.size()));
+    return pathLocations;
+  }
+
   /**
    * Updates the start and end markers.
    * 
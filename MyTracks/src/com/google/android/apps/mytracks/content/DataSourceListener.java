@@ -35,9 +35,15 @@ public interface DataSourceListener {
   public void notifyWaypointsTableUpdated();
 
   /**
-   * Notifies when the track points table is updated.
+   * Notifies when the track points table is updated. If track points are
+   * inserted into one track, the track id and the id range of the inserted
+   * track points are provided. Otherwise they are -1L.
+   * 
+   * @param trackId the track id
+   * @param firstId the first inserted track point id
+   * @param lastId the last inserted track point id
    */
-  public void notifyTrackPointsTableUpdated();
+  public void notifyTrackPointsTableUpdated(long trackId, long firstId, long lastId);
 
   /**
    * Notifies when a preference changes.
@@ -19,6 +19,7 @@ package com.google.android.apps.mytracks.content;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.database.ContentObserver;
+import android.net.Uri;
 import android.os.Handler;
 import android.util.Log;
 
@@ -83,7 +84,24 @@ public class DataSourceManager {
 
     @Override
     public void onChange(boolean selfChange) {
-      dataSourceListener.notifyTrackPointsTableUpdated();
+      // Before API level 16, the uri is not available
+      onChange(selfChange, null);
+    }
+
+    @Override
+    public void onChange(boolean selfChange, Uri uri) {
+      long firstId = NotificationCoalescer.getLongParameter(
+          uri, NotificationCoalescer.FIRST_ID_PARAMETER);
+      long lastId = NotificationCoalescer.getLongParameter(
+          uri, NotificationCoalescer.LAST_ID_PARAMETER);
+      long trackId = NotificationCoalescer.getLongParameter(
+          uri, NotificationCoalescer.TRACK_ID_PARAMETER);
+      if (firstId == -1L || lastId == -1L) {
+        trackId = -1L;
+        firstId = -1L;
+        lastId = -1L;
+      }
+      dataSourceListener.notifyTrackPointsTableUpdated(trackId, firstId, lastId);
     }
   }
 
@@ -35,6 +35,8 @@ import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 import android.os.Binder;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelFileDescriptor;
 import android.os.Process;
 import android.text.TextUtils;
@@ -42,6 +44,11 @@ import android.util.Log;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * A {@link ContentProvider} that handles access to track points, tracks, and
@@ -53,11 +60,15 @@ public class MyTracksProvider extends ContentProvider {
 
   private static final String TAG = MyTracksProvider.class.getSimpleName();
   @VisibleForTesting
-  static final int DATABASE_VERSION = 22;
+  static final int DATABASE_VERSION = 29;
 
   @VisibleForTesting
   static final String DATABASE_NAME = "mytracks.db";
 
+  // The window to coalesce content change notifications
+  @VisibleForTesting
+  static final long NOTIFY_CHANGE_WINDOW = 250L;
+
   /**
    * Database helper for creating and upgrading the database.
    */
@@ -78,6 +89,17 @@ public class MyTracksProvider extends ContentProvider {
       db.execSQL(TrackPointsColumns.CREATE_TABLE);
       db.execSQL(TracksColumns.CREATE_TABLE);
       db.execSQL(WaypointsColumns.CREATE_TABLE);
+      db.execSQL(TrackPointChunksColumns.CREATE_TABLE);
+      db.execSQL(TripStatisticsCheckpointsColumns.CREATE_TABLE);
+      db.execSQL(TrackPointLevelsColumns.CREATE_TABLE);
+      db.execSQL(TrackCellsColumns.CREATE_TABLE);
+      createIndexes(db);
+      db.execSQL(TrackPointChunksColumns.CREATE_TRACKID_STARTID_INDEX);
+      db.execSQL(TrackPointChunksColumns.CREATE_TRACKID_MINTIME_INDEX);
+      db.execSQL(TripStatisticsCheckpointsColumns.CREATE_TRACKID_TRACKPOINTID_INDEX);
+      db.execSQL(TrackPointLevelsColumns.CREATE_TRACKID_LEVEL_STARTID_INDEX);
+      db.execSQL(TrackCellsColumns.CREATE_CELL_TRACKID_INDEX);
+      db.execSQL(TrackCellsColumns.CREATE_TRACKID_INDEX);
     }
 
     @Override
@@ -145,8 +167,80 @@ public class MyTracksProvider extends ContentProvider {
           db.execSQL("ALTER TABLE " + TracksColumns.TABLE_NAME + " ADD " + TracksColumns.CALORIE
               + " FLOAT");
         }
+
+        // Add track point TRACKID/_ID and TRACKID/TIME indexes. Add waypoint
+        // TRACKID/TYPE/_ID index.
+        if (oldVersion <= 22) {
+          Log.w(TAG, "Upgrade DB: Adding track point and waypoint indexes.");
+          createIndexes(db);
+        }
+
+        // Add track point chunks table
+        if (oldVersion <= 23) {
+          Log.w(TAG, "Upgrade DB: Adding track point chunks table.");
+          db.execSQL(TrackPointChunksColumns.CREATE_TABLE);
+          db.execSQL(TrackPointChunksColumns.CREATE_TRACKID_STARTID_INDEX);
+        }
+
+        // Add trip statistics checkpoints table
+        if (oldVersion <= 24) {
+          Log.w(TAG, "Upgrade DB: Adding trip statistics checkpoints table.");
+          db.execSQL(TripStatisticsCheckpointsColumns.CREATE_TABLE);
+          db.execSQL(TripStatisticsCheckpointsColumns.CREATE_TRACKID_TRACKPOINTID_INDEX);
+        }
+
+        // Add track point levels table
+        if (oldVersion <= 25) {
+          Log.w(TAG, "Upgrade DB: Adding track point levels table.");
+          db.execSQL(TrackPointLevelsColumns.CREATE_TABLE);
+          db.execSQL(TrackPointLevelsColumns.CREATE_TRACKID_LEVEL_STARTID_INDEX);
+        }
+
+        // Add track cells table
+        if (oldVersion <= 26) {
+          Log.w(TAG, "Upgrade DB: Adding track cells table.");
+          db.execSQL(TrackCellsColumns.CREATE_TABLE);
+          db.execSQL(TrackCellsColumns.CREATE_CELL_TRACKID_INDEX);
+          db.execSQL(TrackCellsColumns.CREATE_TRACKID_INDEX);
+        }
+
+        // Add track point chunk MINTIME and MAXTIME columns. A chunks table
+        // created by an earlier step already has them.
+        if (oldVersion <= 27) {
+          if (oldVersion >= 24) {
+            Log.w(TAG, "Upgrade DB: Adding track point chunk mintime and maxtime columns.");
+            db.execSQL("ALTER TABLE " + TrackPointChunksColumns.TABLE_NAME + " ADD "
+                + TrackPointChunksColumns.MINTIME + " INTEGER");
+            db.execSQL("ALTER TABLE " + TrackPointChunksColumns.TABLE_NAME + " ADD "
+                + TrackPointChunksColumns.MAXTIME + " INTEGER");
+          }
+          db.execSQL(TrackPointChunksColumns.CREATE_TRACKID_MINTIME_INDEX);
+        }
+
+        // Mark the tracks whose cells were written by the version 27 upgrade.
+        // The tracks of earlier versions are indexed in the background.
+        if (oldVersion >= 27 && oldVersion <= 28) {
+          Log.w(TAG, "Upgrade DB: Marking the tracks with track cells.");
+          db.execSQL("INSERT OR IGNORE INTO " + TrackCellsColumns.TABLE_NAME + " ("
+              + TrackCellsColumns.TRACKID + ", " + TrackCellsColumns.CELL + ") SELECT "
+              + TracksColumns._ID + ", " + TrackCellsColumns.INDEXED_CELL + " FROM "
+              + TracksColumns.TABLE_NAME);
+        }
       }
     }
+
+    /**
+     * Creates the indexes used by the per track lookups. Without them, finding
+     * the first/last track point of a track scans the whole track points
+     * table.
+     * 
+     * @param db the database
+     */
+    private void createIndexes(SQLiteDatabase db) {
+      db.execSQL(TrackPointsColumns.CREATE_TRACKID_ID_INDEX);
+      db.execSQL(TrackPointsColumns.CREATE_TRACKID_TIME_INDEX);
+      db.execSQL(WaypointsColumns.CREATE_TRACKID_TYPE_ID_INDEX);
+    }
   }
 
   /**
@@ -156,11 +250,85 @@ public class MyTracksProvider extends ContentProvider {
    */
   @VisibleForTesting
   enum UrlType {
-    TRACKPOINTS, TRACKPOINTS_ID, TRACKS, TRACKS_ID, WAYPOINTS, WAYPOINTS_ID
+    TRACKPOINTS,
+    TRACKPOINTS_ID,
+    TRACKS,
+    TRACKS_ID,
+    WAYPOINTS,
+    WAYPOINTS_ID,
+    TRACKPOINT_CHUNKS,
+    TRIPSTATISTICS_CHECKPOINTS,
+    TRACKPOINT_LEVELS,
+    TRACK_CELLS
+  }
+
+  /**
+   * Writes the cells of inserted track points to the track cells table.
+   * Consecutive track points mostly share a cell, so only a change of cell is
+   * written.
+   */
+  private static class TrackCellWriter {
+    private long lastTrackId = -1L;
+    private long lastCell = -1L;
+
+    /**
+     * Writes the cell of a track point.
+     * 
+     * @param db the database
+     * @param trackId the track id
+     * @param latitudeE6 the latitude in micro degrees
+     * @param longitudeE6 the longitude in micro degrees
+     */
+    public void write(SQLiteDatabase db, long trackId, int latitudeE6, int longitudeE6) {
+      if (!TrackCells.isValid(latitudeE6, longitudeE6)) {
+        return;
+      }
+      long cell = TrackCells.getCell(latitudeE6, longitudeE6);
+      if (trackId == lastTrackId && cell == lastCell) {
+        return;
+      }
+      ContentValues values = new ContentValues();
+      values.put(TrackCellsColumns.TRACKID, trackId);
+      values.put(TrackCellsColumns.CELL, cell);
+      db.insertWithOnConflict(
+          TrackCellsColumns.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+      lastTrackId = trackId;
+      lastCell = cell;
+    }
+
+    /**
+     * Marks a track as having all its cells.
+     * 
+     * @param db the database
+     * @param trackId the track id
+     */
+    public static void writeIndexed(SQLiteDatabase db, long trackId) {
+      ContentValues values = new ContentValues();
+      values.put(TrackCellsColumns.TRACKID, trackId);
+      values.put(TrackCellsColumns.CELL, TrackCellsColumns.INDEXED_CELL);
+      db.insertWithOnConflict(
+          TrackCellsColumns.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+    }
   }
 
+  /*
+   * Writes the track cells of the tracks created before the track cells table,
+   * so that upgrading the database does not read all the track points. A
+   * daemon thread, so that it does not keep a process alive.
+   */
+  private static final ExecutorService TRACK_CELLS_EXECUTOR = Executors.newSingleThreadExecutor(
+      new ThreadFactory() {
+          @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, TAG + "TrackCells");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
   private final UriMatcher uriMatcher;
   private SQLiteDatabase db;
+  private NotificationCoalescer notificationCoalescer;
 
   public MyTracksProvider() {
     uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
@@ -176,6 +344,14 @@ public class MyTracksProvider extends ContentProvider {
         MyTracksProviderUtils.AUTHORITY, WaypointsColumns.TABLE_NAME, UrlType.WAYPOINTS.ordinal());
     uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, WaypointsColumns.TABLE_NAME + "/#",
         UrlType.WAYPOINTS_ID.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, TrackPointChunksColumns.TABLE_NAME,
+        UrlType.TRACKPOINT_CHUNKS.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, TripStatisticsCheckpointsColumns.TABLE_NAME,
+        UrlType.TRIPSTATISTICS_CHECKPOINTS.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, TrackPointLevelsColumns.TABLE_NAME,
+        UrlType.TRACKPOINT_LEVELS.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, TrackCellsColumns.TABLE_NAME,
+        UrlType.TRACK_CELLS.ordinal());
   }
 
   @Override
@@ -191,6 +367,8 @@ public class MyTracksProvider extends ContentProvider {
    */
   @VisibleForTesting
   boolean onCreate(Context context) {
+    notificationCoalescer = new NotificationCoalescer(
+        context.getContentResolver(), new Handler(Looper.getMainLooper()), NOTIFY_CHANGE_WINDOW);
     if (!canAccess()) {
       return false;
     }
@@ -200,7 +378,103 @@ public class MyTracksProvider extends ContentProvider {
     } catch (SQLiteException e) {
       Log.e(TAG, "Unable to open database for writing.", e);
     }
-    return db != null;
+    if (db == null) {
+      return false;
+    }
+    final SQLiteDatabase database = db;
+    TRACK_CELLS_EXECUTOR.execute(new Runnable() {
+        @Override
+      public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+          indexTrackCells(database);
+        } catch (SQLiteException e) {
+          Log.e(TAG, "Unable to write the track cells.", e);
+        }
+      }
+    });
+    return true;
+  }
+
+  /**
+   * Writes the track cells of the tracks without an
+   * {@link TrackCellsColumns#INDEXED_CELL} row, one track per transaction.
+   * Until then, searches rank a track by its mean location only.
+   * 
+   * @param db the database
+   */
+  @VisibleForTesting
+  static void indexTrackCells(SQLiteDatabase db) {
+    List<Long> trackIds = new ArrayList<Long>();
+    Cursor cursor = null;
+    try {
+      cursor = db.rawQuery("SELECT " + TracksColumns._ID + " FROM " + TracksColumns.TABLE_NAME
+          + " WHERE " + TracksColumns._ID + " NOT IN (SELECT " + TrackCellsColumns.TRACKID
+          + " FROM " + TrackCellsColumns.TABLE_NAME + " WHERE " + TrackCellsColumns.CELL + "="
+          + TrackCellsColumns.INDEXED_CELL + ")", null);
+      while (cursor.moveToNext()) {
+        trackIds.add(cursor.getLong(0));
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+
+    for (long trackId : trackIds) {
+      Log.i(TAG, "Writing the track cells of track " + trackId);
+      db.beginTransaction();
+      try {
+        indexTrackCells(db, trackId);
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
+    }
+  }
+
+  /**
+   * Writes the track cells of a track from its track points and track point
+   * chunks.
+   * 
+   * @param db the database
+   * @param trackId the track id
+   */
+  private static void indexTrackCells(SQLiteDatabase db, long trackId) {
+    TrackCellWriter writer = new TrackCellWriter();
+    String[] selectionArgs = new String[] { Long.toString(trackId) };
+    Cursor cursor = null;
+    try {
+      cursor = db.query(TrackPointsColumns.TABLE_NAME, new String[] {
+          TrackPointsColumns.LATITUDE, TrackPointsColumns.LONGITUDE },
+          TrackPointsColumns.TRACKID + "=?", selectionArgs, null, null, null);
+      while (cursor.moveToNext()) {
+        writer.write(db, trackId, cursor.getInt(0), cursor.getInt(1));
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+
+    TrackPointChunk chunk = new TrackPointChunk();
+    cursor = null;
+    try {
+      cursor = db.query(TrackPointChunksColumns.TABLE_NAME,
+          new String[] { TrackPointChunksColumns.DATA }, TrackPointChunksColumns.TRACKID + "=?",
+          selectionArgs, null, null, null);
+      while (cursor.moveToNext()) {
+        chunk.decode(cursor.getBlob(0));
+        for (int i = 0; i < chunk.size(); i++) {
+          writer.write(db, trackId, chunk.getLatitudeE6(i), chunk.getLongitudeE6(i));
+        }
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    TrackCellWriter.writeIndexed(db, trackId);
   }
 
   @Override
@@ -210,9 +484,11 @@ public class MyTracksProvider extends ContentProvider {
     }
     String table;
     boolean shouldVacuum = false;
+    boolean invalidateTrackPoints = false;
     switch (getUrlType(url)) {
       case TRACKPOINTS:
         table = TrackPointsColumns.TABLE_NAME;
+        invalidateTrackPoints = true;
         break;
       case TRACKS:
         table = TracksColumns.TABLE_NAME;
@@ -221,6 +497,19 @@ public class MyTracksProvider extends ContentProvider {
       case WAYPOINTS:
         table = WaypointsColumns.TABLE_NAME;
         break;
+      case TRACKPOINT_CHUNKS:
+        table = TrackPointChunksColumns.TABLE_NAME;
+        invalidateTrackPoints = true;
+        break;
+      case TRIPSTATISTICS_CHECKPOINTS:
+        table = TripStatisticsCheckpointsColumns.TABLE_NAME;
+        break;
+      case TRACKPOINT_LEVELS:
+        table = TrackPointLevelsColumns.TABLE_NAME;
+        break;
+      case TRACK_CELLS:
+        table = TrackCellsColumns.TABLE_NAME;
+        break;
       default:
         throw new IllegalArgumentException("Unknown URL " + url);
     }
@@ -234,7 +523,10 @@ public class MyTracksProvider extends ContentProvider {
     } finally {
       db.endTransaction();
     }
-    getContext().getContentResolver().notifyChange(url, null, false);
+    if (invalidateTrackPoints) {
+      TrackPointCache.getInstance().invalidateAll();
+    }
+    notificationCoalescer.notifyChange(url);
 
     if (shouldVacuum) {
       // If a potentially large amount of data was deleted, reclaim its space.
@@ -262,6 +554,14 @@ public class MyTracksProvider extends ContentProvider {
         return WaypointsColumns.CONTENT_TYPE;
       case WAYPOINTS_ID:
         return WaypointsColumns.CONTENT_ITEMTYPE;
+      case TRACKPOINT_CHUNKS:
+        return TrackPointChunksColumns.CONTENT_TYPE;
+      case TRIPSTATISTICS_CHECKPOINTS:
+        return TripStatisticsCheckpointsColumns.CONTENT_TYPE;
+      case TRACKPOINT_LEVELS:
+        return TrackPointLevelsColumns.CONTENT_TYPE;
+      case TRACK_CELLS:
+        return TrackCellsColumns.CONTENT_TYPE;
       default:
         throw new IllegalArgumentException("Unknown URL " + url);
     }
@@ -276,14 +576,22 @@ public class MyTracksProvider extends ContentProvider {
       initialValues = new ContentValues();
     }
     Uri result = null;
+    UrlType urlType = getUrlType(url);
+    TrackCellWriter trackCellWriter = new TrackCellWriter();
     try {
       db.beginTransaction();
-      result = insertContentValues(url, getUrlType(url), initialValues);
+      result = insertContentValues(url, urlType, initialValues, trackCellWriter);
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
     }
-    getContext().getContentResolver().notifyChange(url, null, false);
+    if (urlType == UrlType.TRACKPOINTS) {
+      long id = ContentUris.parseId(result);
+      notificationCoalescer.notifyChange(
+          getTrackPointsNotificationUri(url, new ContentValues[] { initialValues }, id, id));
+    } else {
+      notificationCoalescer.notifyChange(url);
+    }
     return result;
   }
 
@@ -293,23 +601,37 @@ public class MyTracksProvider extends ContentProvider {
       return 0;
     }
     int numInserted = 0;
+    UrlType urlType = getUrlType(url);
+    long firstId = -1L;
+    long lastId = -1L;
+    TrackCellWriter trackCellWriter = new TrackCellWriter();
     try {
       // Use a transaction in order to make the insertions run as a single batch
       db.beginTransaction();
 
-      UrlType urlType = getUrlType(url);
       for (numInserted = 0; numInserted < valuesBulk.length; numInserted++) {
         ContentValues contentValues = valuesBulk[numInserted];
         if (contentValues == null) {
           contentValues = new ContentValues();
         }
-        insertContentValues(url, urlType, contentValues);
+        Uri result = insertContentValues(url, urlType, contentValues, trackCellWriter);
+        if (urlType == UrlType.TRACKPOINTS) {
+          lastId = ContentUris.parseId(result);
+          if (firstId == -1L) {
+            firstId = lastId;
+          }
+        }
       }
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
     }
-    getContext().getContentResolver().notifyChange(url, null, false);
+    if (urlType == UrlType.TRACKPOINTS && numInserted != 0) {
+      notificationCoalescer.notifyChange(
+          getTrackPointsNotificationUri(url, valuesBulk, firstId, lastId));
+    } else {
+      notificationCoalescer.notifyChange(url);
+    }
     return numInserted;
   }
 
@@ -346,6 +668,24 @@ public class MyTracksProvider extends ContentProvider {
         queryBuilder.setTables(WaypointsColumns.TABLE_NAME);
         queryBuilder.appendWhere("_id=" + url.getPathSegments().get(1));
         break;
+      case TRACKPOINT_CHUNKS:
+        queryBuilder.setTables(TrackPointChunksColumns.TABLE_NAME);
+        sortOrder = sort != null ? sort : TrackPointChunksColumns.DEFAULT_SORT_ORDER;
+        break;
+      case TRIPSTATISTICS_CHECKPOINTS:
+        queryBuilder.setTables(TripStatisticsCheckpointsColumns.TABLE_NAME);
+        sortOrder = sort != null ? sort : TripStatisticsCheckpointsColumns.DEFAULT_SORT_ORDER;
+        break;
+      case TRACKPOINT_LEVELS:
+        queryBuilder.setTables(TrackPointLevelsColumns.TABLE_NAME);
+        sortOrder = sort != null ? sort : TrackPointLevelsColumns.DEFAULT_SORT_ORDER;
+        break;
+      case TRACK_CELLS:
+        // A track passes through many cells, return each track once
+        queryBuilder.setTables(TrackCellsColumns.TABLE_NAME);
+        queryBuilder.setDistinct(true);
+        sortOrder = sort;
+        break;
       default:
         throw new IllegalArgumentException("Unknown url " + url);
     }
@@ -362,7 +702,8 @@ public class MyTracksProvider extends ContentProvider {
     }
     String table;
     String whereClause;
-    switch (getUrlType(url)) {
+    UrlType urlType = getUrlType(url);
+    switch (urlType) {
       case TRACKPOINTS:
         table = TrackPointsColumns.TABLE_NAME;
         whereClause = where;
@@ -396,6 +737,18 @@ public class MyTracksProvider extends ContentProvider {
           whereClause += " AND (" + where + ")";
         }
         break;
+      case TRACKPOINT_CHUNKS:
+        table = TrackPointChunksColumns.TABLE_NAME;
+        whereClause = where;
+        break;
+      case TRIPSTATISTICS_CHECKPOINTS:
+        table = TripStatisticsCheckpointsColumns.TABLE_NAME;
+        whereClause = where;
+        break;
+      case TRACKPOINT_LEVELS:
+        table = TrackPointLevelsColumns.TABLE_NAME;
+        whereClause = where;
+        break;
       default:
         throw new IllegalArgumentException("Unknown url " + url);
     }
@@ -407,7 +760,11 @@ public class MyTracksProvider extends ContentProvider {
     } finally {
       db.endTransaction();
     }
-    getContext().getContentResolver().notifyChange(url, null, false);
+    if (urlType == UrlType.TRACKPOINTS || urlType == UrlType.TRACKPOINTS_ID
+        || urlType == UrlType.TRACKPOINT_CHUNKS) {
+      TrackPointCache.getInstance().invalidateAll();
+    }
+    notificationCoalescer.notifyChange(url);
     return count;
   }
 
@@ -449,33 +806,66 @@ public class MyTracksProvider extends ContentProvider {
     return UrlType.values()[uriMatcher.match(url)];
   }
 
+  /**
+   * Gets the notification uri for inserted track points. The uri carries the
+   * track id and the id range of the track points if they all belong to the
+   * same track.
+   * 
+   * @param url the content url
+   * @param valuesBulk the inserted content values
+   * @param firstId the first inserted track point id
+   * @param lastId the last inserted track point id
+   */
+  private Uri getTrackPointsNotificationUri(
+      Uri url, ContentValues[] valuesBulk, long firstId, long lastId) {
+    Long trackId = null;
+    for (ContentValues contentValues : valuesBulk) {
+      Long id = contentValues != null ? contentValues.getAsLong(TrackPointsColumns.TRACKID) : null;
+      if (id == null || (trackId != null && !trackId.equals(id))) {
+        return url;
+      }
+      trackId = id;
+    }
+    return trackId == null ? url
+        : NotificationCoalescer.getTrackPointsUri(trackId, firstId, lastId);
+  }
+
   /**
    * Inserts a content based on the url type.
    * 
    * @param url the content url
    * @param urlType the url type
    * @param contentValues the content values
+   * @param trackCellWriter the writer of the track cells of the track points
    */
-  private Uri insertContentValues(Uri url, UrlType urlType, ContentValues contentValues) {
+  private Uri insertContentValues(
+      Uri url, UrlType urlType, ContentValues contentValues, TrackCellWriter trackCellWriter) {
     switch (urlType) {
       case TRACKPOINTS:
-        return insertTrackPoint(url, contentValues);
+        return insertTrackPoint(url, contentValues, trackCellWriter);
       case TRACKS:
         return insertTrack(url, contentValues);
       case WAYPOINTS:
         return insertWaypoint(url, contentValues);
+      case TRACKPOINT_CHUNKS:
+        return insertTrackPointChunk(url, contentValues);
+      case TRIPSTATISTICS_CHECKPOINTS:
+        return insertTripStatisticsCheckpoint(url, contentValues);
+      case TRACKPOINT_LEVELS:
+        return insertTrackPointLevelBlock(url, contentValues);
       default:
         throw new IllegalArgumentException("Unknown url " + url);
     }
   }
 
   /**
-   * Inserts a track point.
+   * Inserts a track point and its track cell.
    * 
    * @param url the content url
    * @param values the content values
+   * @param trackCellWriter the writer of the track cells
    */
-  private Uri insertTrackPoint(Uri url, ContentValues values) {
+  private Uri insertTrackPoint(Uri url, ContentValues values, TrackCellWriter trackCellWriter) {
     boolean hasLatitude = values.containsKey(TrackPointsColumns.LATITUDE);
     boolean hasLongitude = values.containsKey(TrackPointsColumns.LONGITUDE);
     boolean hasTime = values.containsKey(TrackPointsColumns.TIME);
@@ -484,6 +874,12 @@ public class MyTracksProvider extends ContentProvider {
     }
     long rowId = db.insert(TrackPointsColumns.TABLE_NAME, TrackPointsColumns._ID, values);
     if (rowId >= 0) {
+      Long trackId = values.getAsLong(TrackPointsColumns.TRACKID);
+      Integer latitude = values.getAsInteger(TrackPointsColumns.LATITUDE);
+      Integer longitude = values.getAsInteger(TrackPointsColumns.LONGITUDE);
+      if (trackId != null && latitude != null && longitude != null) {
+        trackCellWriter.write(db, trackId, latitude, longitude);
+      }
       return ContentUris.appendId(TrackPointsColumns.CONTENT_URI.buildUpon(), rowId).build();
     }
     throw new SQLiteException("Failed to insert a track point " + url);
@@ -503,6 +899,8 @@ public class MyTracksProvider extends ContentProvider {
     }
     long rowId = db.insert(TracksColumns.TABLE_NAME, TracksColumns._ID, contentValues);
     if (rowId >= 0) {
+      // The cells of a new track are written as its track points are inserted
+      TrackCellWriter.writeIndexed(db, rowId);
       return ContentUris.appendId(TracksColumns.CONTENT_URI.buildUpon(), rowId).build();
     }
     throw new SQLException("Failed to insert a track " + url);
@@ -521,4 +919,67 @@ public class MyTracksProvider extends ContentProvider {
     }
     throw new SQLException("Failed to insert a waypoint " + url);
   }
-}
\ No newline at end of file
+
+  /**
+   * Inserts a track point chunk.
+   * 
+   * @param url the content url
+   * @param contentValues the content values
+   */
+  private Uri insertTrackPointChunk(Uri url, ContentValues contentValues) {
+    boolean hasTrackId = contentValues.containsKey(TrackPointChunksColumns.TRACKID);
+    boolean hasData = contentValues.containsKey(TrackPointChunksColumns.DATA);
+    if (!hasTrackId || !hasData) {
+      throw new IllegalArgumentException("Both track id and data values are required.");
+    }
+    long rowId = db.insert(
+        TrackPointChunksColumns.TABLE_NAME, TrackPointChunksColumns._ID, contentValues);
+    if (rowId >= 0) {
+      return ContentUris.appendId(TrackPointChunksColumns.CONTENT_URI.buildUpon(), rowId).build();
+    }
+    throw new SQLException("Failed to insert a track point chunk " + url);
+  }
+
+  /**
+   * Inserts a trip statistics checkpoint.
+   * 
+   * @param url the content url
+   * @param contentValues the content values
+   */
+  private Uri insertTripStatisticsCheckpoint(Uri url, ContentValues contentValues) {
+    boolean hasTrackId = contentValues.containsKey(TripStatisticsCheckpointsColumns.TRACKID);
+    boolean hasData = contentValues.containsKey(TripStatisticsCheckpointsColumns.DATA);
+    if (!hasTrackId || !hasData) {
+      throw new IllegalArgumentException("Both track id and data values are required.");
+    }
+    long rowId = db.insert(TripStatisticsCheckpointsColumns.TABLE_NAME,
+        TripStatisticsCheckpointsColumns._ID, contentValues);
+    if (rowId >= 0) {
+      return ContentUris.appendId(
+          TripStatisticsCheckpointsColumns.CONTENT_URI.buildUpon(), rowId).build();
+    }
+    throw new SQLException("Failed to insert a trip statistics checkpoint " + url);
+  }
+
+  /**
+   * Inserts a track point level block, replacing the block of the same track
+   * and level with the same start id.
+   * 
+   * @param url the content url
+   * @param contentValues the content values
+   */
+  private Uri insertTrackPointLevelBlock(Uri url, ContentValues contentValues) {
+    boolean hasTrackId = contentValues.containsKey(TrackPointLevelsColumns.TRACKID);
+    boolean hasLevel = contentValues.containsKey(TrackPointLevelsColumns.LEVEL);
+    boolean hasStartId = contentValues.containsKey(TrackPointLevelsColumns.STARTID);
+    if (!hasTrackId || !hasLevel || !hasStartId) {
+      throw new IllegalArgumentException("Track id, level, and start id values are required.");
+    }
+    long rowId = db.replace(
+        TrackPointLevelsColumns.TABLE_NAME, TrackPointLevelsColumns._ID, contentValues);
+    if (rowId >= 0) {
+      return ContentUris.appendId(TrackPointLevelsColumns.CONTENT_URI.buildUpon(), rowId).build();
+    }
+    throw new SQLException("Failed to insert a track point level block " + url);
+  }
+}
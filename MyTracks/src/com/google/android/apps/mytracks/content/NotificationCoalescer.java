@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Coalesces content change notifications. The first change to a uri schedules
+ * a notification at the end of the window, later changes to the same uri
+ * within the window are merged into it.
+ * <p>
+ * A track points uri can carry the track id and the id range of the inserted
+ * track points as query parameters, see {@link #getTrackPointsUri(long, long,
+ * long)}. Changes to the same track are merged by extending the id range.
+ * Content observers ignore the query parameters when matching uris.
+ */
+public class NotificationCoalescer {
+
+  public static final String TRACK_ID_PARAMETER = "trackid";
+  public static final String FIRST_ID_PARAMETER = "firstid";
+  public static final String LAST_ID_PARAMETER = "lastid";
+
+  /**
+   * A pending notification.
+   */
+  private class PendingNotification implements Runnable {
+
+    private final Uri key;
+    private long firstId;
+    private long lastId;
+
+    public PendingNotification(Uri key, long firstId, long lastId) {
+      this.key = key;
+      this.firstId = firstId;
+      this.lastId = lastId;
+    }
+
+    /**
+     * Merges an id range. If either range is unknown, the merged range is
+     * unknown.
+     *
+     * @param newFirstId the new first id
+     * @param newLastId the new last id
+     */
+    public void merge(long newFirstId, long newLastId) {
+      if (firstId == -1L || newFirstId == -1L) {
+        firstId = -1L;
+        lastId = -1L;
+      } else {
+        firstId = Math.min(firstId, newFirstId);
+        lastId = Math.max(lastId, newLastId);
+      }
+    }
+
+    @Override
+    public void run() {
+      Uri uri;
+      synchronized (pendingNotifications) {
+        pendingNotifications.remove(key);
+        uri = firstId == -1L ? key
+            : key.buildUpon()
+                .appendQueryParameter(FIRST_ID_PARAMETER, Long.toString(firstId))
+                .appendQueryParameter(LAST_ID_PARAMETER, Long.toString(lastId)).build();
+      }
+      contentResolver.notifyChange(uri, null, false);
+    }
+  }
+
+  private final ContentResolver contentResolver;
+  private final Handler handler;
+  private final long window;
+
+  // Pending notifications keyed by the uri without the id range
+  private final Map<Uri, PendingNotification> pendingNotifications =
+      new HashMap<Uri, PendingNotification>();
+
+  /**
+   * Constructor.
+   *
+   * @param contentResolver the content resolver
+   * @param handler the handler to send the notifications
+   * @param window the coalescing window in milliseconds. 0 to notify
+   *          immediately
+   */
+  public NotificationCoalescer(ContentResolver contentResolver, Handler handler, long window) {
+    this.contentResolver = contentResolver;
+    this.handler = handler;
+    this.window = window;
+  }
+
+  /**
+   * Notifies a change to a uri.
+   *
+   * @param uri the uri
+   */
+  public void notifyChange(Uri uri) {
+    if (window <= 0) {
+      contentResolver.notifyChange(uri, null, false);
+      return;
+    }
+    long firstId = getLongParameter(uri, FIRST_ID_PARAMETER);
+    long lastId = getLongParameter(uri, LAST_ID_PARAMETER);
+    Uri key = uri;
+    if (firstId != -1L) {
+      key = uri.buildUpon().clearQuery()
+          .appendQueryParameter(TRACK_ID_PARAMETER, uri.getQueryParameter(TRACK_ID_PARAMETER))
+          .build();
+    }
+    synchronized (pendingNotifications) {
+      PendingNotification pendingNotification = pendingNotifications.get(key);
+      if (pendingNotification != null) {
+        pendingNotification.merge(firstId, lastId);
+        return;
+      }
+      pendingNotification = new PendingNotification(key, firstId, lastId);
+      pendingNotifications.put(key, pendingNotification);
+      handler.postDelayed(pendingNotification, window);
+    }
+  }
+
+  /**
+   * Gets the track points uri for track points inserted into a track.
+   *
+   * @param trackId the track id
+   * @param firstId the first inserted track point id
+   * @param lastId the last inserted track point id
+   */
+  public static Uri getTrackPointsUri(long trackId, long firstId, long lastId) {
+    return TrackPointsColumns.CONTENT_URI.buildUpon()
+        .appendQueryParameter(TRACK_ID_PARAMETER, Long.toString(trackId))
+        .appendQueryParameter(FIRST_ID_PARAMETER, Long.toString(firstId))
+        .appendQueryParameter(LAST_ID_PARAMETER, Long.toString(lastId)).build();
+  }
+
+  /**
+   * Gets a long query parameter. Returns -1L if not available.
+   *
+   * @param uri the uri
+   * @param key the parameter key
+   */
+  public static long getLongParameter(Uri uri, String key) {
+    if (uri == null || uri.isOpaque()) {
+      return -1L;
+    }
+    String value = uri.getQueryParameter(key);
+    if (value == null) {
+      return -1L;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      return -1L;
+    }
+  }
+}
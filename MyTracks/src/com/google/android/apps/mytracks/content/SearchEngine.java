@@ -24,8 +24,10 @@ import android.location.Location;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Locale;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -72,6 +74,15 @@ public class SearchEngine {
   /** Maximum number of waypoints which will be retrieved and scored. */
   private static final int MAX_SCORED_WAYPOINTS = 100;
 
+  /**
+   * Radius around the current location within which a track passing by is
+   * ranked as if it were centered at that distance, in meters.
+   */
+  private static final double NEARBY_TRACK_RADIUS = 500.0;
+
+  /** {@link #NEARBY_TRACK_RADIUS} in micro degrees of latitude. */
+  private static final int NEARBY_TRACK_LATITUDE_E6 = (int) (NEARBY_TRACK_RADIUS / 111320.0 * 1E6);
+
   /** Oldest timestamp for which we rank based on time (2000-01-01 00:00:00.000) */
   private static final long OLDEST_ALLOWED_TIMESTAMP = 946692000000L;
 
@@ -167,8 +178,9 @@ public class SearchEngine {
 
     retrieveTracks(query, tracks);
     retrieveWaypoints(query, waypoints);
+    Set<Long> nearbyTrackIds = retrieveNearbyTrackIds(query);
 
-    scoreTrackResults(tracks, query, scoredResults);
+    scoreTrackResults(tracks, query, nearbyTrackIds, scoredResults);
     scoreWaypointResults(waypoints, query, scoredResults);
 
     return scoredResults;
@@ -236,38 +248,100 @@ public class SearchEngine {
     }
   }
 
+  /**
+   * Retrieves the ids of the tracks which may pass near the current location
+   * from the spatial index. Tracks not indexed yet are not included, and are
+   * only ranked by their mean location.
+   *
+   * @param query the query to retrieve for
+   */
+  private Set<Long> retrieveNearbyTrackIds(SearchQuery query) {
+    if (!LocationUtils.isValidLocation(query.currentLocation)) {
+      return Collections.emptySet();
+    }
+    return providerUtils.getTrackIdsNear(query.currentLocation.getLatitude(),
+        query.currentLocation.getLongitude(), NEARBY_TRACK_RADIUS);
+  }
+
   /**
    * Scores a collection of track results.
    *
    * @param tracks the results to score
    * @param query the query to score for
+   * @param nearbyTrackIds the ids of the tracks passing near the current location
    * @param output the collection to fill with scored results
    */
-  private void scoreTrackResults(Collection<Track> tracks, SearchQuery query, Collection<ScoredResult> output) {
+  private void scoreTrackResults(Collection<Track> tracks, SearchQuery query,
+      Set<Long> nearbyTrackIds, Collection<ScoredResult> output) {
     for (Track track : tracks) {
       // Calculate the score.
-      double score = scoreTrackResult(query, track);
+      boolean nearby = nearbyTrackIds.contains(track.getId())
+          && isTrackNear(track.getId(), query.currentLocation);
+      double score = scoreTrackResult(query, track, nearby);
 
       // Add to the output.
       output.add(new ScoredResult(track, score));
     }
   }
 
+  /**
+   * Returns true if a track point of a track is within
+   * {@link #NEARBY_TRACK_RADIUS} of a location. The spatial index only finds
+   * the tracks passing through the cells around the location.
+   *
+   * @param trackId the track id
+   * @param location the location
+   */
+  private boolean isTrackNear(long trackId, Location location) {
+    int latitudeE6 = (int) (location.getLatitude() * 1E6);
+    float[] results = new float[1];
+    TrackPointCursor trackPointCursor = null;
+    try {
+      trackPointCursor = providerUtils.openTrackPointCursor(trackId, -1L, false);
+      while (trackPointCursor.moveToNext()) {
+        if (!trackPointCursor.isValid()
+            || Math.abs(trackPointCursor.getLatitudeE6() - latitudeE6)
+                > NEARBY_TRACK_LATITUDE_E6) {
+          continue;
+        }
+        Location.distanceBetween(location.getLatitude(), location.getLongitude(),
+            trackPointCursor.getLatitudeE6() / 1E6, trackPointCursor.getLongitudeE6() / 1E6,
+            results);
+        if (results[0] <= NEARBY_TRACK_RADIUS) {
+          return true;
+        }
+      }
+    } finally {
+      if (trackPointCursor != null) {
+        trackPointCursor.close();
+      }
+    }
+    return false;
+  }
+
   /**
    * Scores a single track result.
    *
    * @param query the query to score for
    * @param track the results to score
+   * @param nearby true if the track passes near the current location
    * @return the score for the track
    */
-  private double scoreTrackResult(SearchQuery query, Track track) {
+  private double scoreTrackResult(SearchQuery query, Track track, boolean nearby) {
     double score = 1.0;
 
     score *= getTitleBoost(query, track.getName(), track.getDescription(), track.getCategory());
 
     TripStatistics statistics = track.getTripStatistics();
     // TODO: Also boost for proximity to the currently-centered position on the map.
-    score *= getDistanceBoost(query, statistics.getMeanLatitude(), statistics.getMeanLongitude());
+    double distanceBoost = getDistanceBoost(
+        query, statistics.getMeanLatitude(), statistics.getMeanLongitude());
+    if (nearby) {
+      // A long track can pass by the current location far from its mean location.
+      distanceBoost = Math.max(
+          distanceBoost, squash(NEARBY_TRACK_RADIUS * UnitConversions.M_TO_KM));
+    }
+    score *= distanceBoost;
 
     long meanTimestamp = (statistics.getStartTime() + statistics.getStopTime()) / 2L;
     score *= getTimeBoost(query, meanTimestamp);
@@ -16,7 +16,7 @@
 
 package com.google.android.apps.mytracks.content;
 
-import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
+import com.google.android.apps.mytracks.content.TrackDataHubExecutor.TaskType;
 import com.google.android.apps.mytracks.util.LocationUtils;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
 import com.google.android.maps.mytracks.R;
@@ -25,12 +25,13 @@ import com.google.common.annotations.VisibleForTesting;
 import android.content.Context;
 import android.database.Cursor;
 import android.location.Location;
-import android.os.Handler;
-import android.os.HandlerThread;
 import android.util.Log;
 
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -58,11 +59,11 @@ public class TrackDataHub implements DataSourceListener {
   private final Context context;
   private final TrackDataManager trackDataManager;
   private final MyTracksProviderUtils myTracksProviderUtils;
+  private final TrackPointCache trackPointCache;
   private final int targetNumPoints;
 
   private boolean started;
-  private HandlerThread handlerThread;
-  private Handler handler;
+  private TrackDataHubExecutor executor;
   private DataSource dataSource;
   private DataSourceManager dataSourceManager;
 
@@ -76,17 +77,22 @@ public class TrackDataHub implements DataSourceListener {
   private int recordingDistanceInterval;
   private int mapType;
 
-  // Track points sampling state
-  private int numLoadedPoints;
-  private long firstSeenLocationId;
-  private long lastSeenLocationId;
+  // The track id of the last loadTrack call
+  private volatile long requestedTrackId;
+
+  // True if a track points load was cancelled by loadTrack
+  private boolean loadCancelled;
+
+  // Track points sampling state of each listener
+  private final Map<TrackDataListener, SamplingState>
+      samplingStates = new HashMap<TrackDataListener, SamplingState>();
 
   /**
    * Creates a new instance.
    */
   public synchronized static TrackDataHub newInstance(Context context) {
     return new TrackDataHub(context, new TrackDataManager(), MyTracksProviderUtils.Factory.get(
-        context), TARGET_DISPLAYED_TRACK_POINTS);
+        context), TrackPointCache.getInstance(), TARGET_DISPLAYED_TRACK_POINTS);
   }
 
   /**
@@ -95,16 +101,18 @@ public class TrackDataHub implements DataSourceListener {
    * @param context the context
    * @param trackDataManager the track data manager
    * @param myTracksProviderUtils the my tracks provider utils
+   * @param trackPointCache the track point cache
    * @param targetNumPoints the target number of points
    */
   @VisibleForTesting
   TrackDataHub(Context context, TrackDataManager trackDataManager,
-      MyTracksProviderUtils myTracksProviderUtils, int targetNumPoints) {
+      MyTracksProviderUtils myTracksProviderUtils, TrackPointCache trackPointCache,
+      int targetNumPoints) {
     this.context = context;
     this.trackDataManager = trackDataManager;
     this.myTracksProviderUtils = myTracksProviderUtils;
+    this.trackPointCache = trackPointCache;
     this.targetNumPoints = targetNumPoints;
-    resetSamplingState();
   }
 
   /**
@@ -116,14 +124,12 @@ public class TrackDataHub implements DataSourceListener {
       return;
     }
     started = true;
-    handlerThread = new HandlerThread("TrackDataHubHandlerThread");
-    handlerThread.start();
-    handler = new Handler(handlerThread.getLooper());
+    executor = new TrackDataHubExecutor("TrackDataHubExecutor");
     dataSource = newDataSource();
     dataSourceManager = new DataSourceManager(dataSource, this);
 
     notifyPreferenceChanged(null);
-    runInHanderThread(new Runnable() {
+    runInExecutor(TaskType.LISTENER, new Runnable() {
         @Override
       public void run() {
         if (dataSourceManager != null) {
@@ -145,11 +151,10 @@ public class TrackDataHub implements DataSourceListener {
     started = false;
 
     dataSourceManager.unregisterAllListeners();
-    if (handlerThread != null) {
-      handlerThread.getLooper().quit();
-      handlerThread = null;
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
     }
-    handler = null;
     dataSource = null;
     dataSourceManager = null;
   }
@@ -160,10 +165,15 @@ public class TrackDataHub implements DataSourceListener {
    * @param trackId the track id
    */
   public void loadTrack(final long trackId) {
-    runInHanderThread(new Runnable() {
+    // Cancels the in-flight and the pending loads of the previous track
+    requestedTrackId = trackId;
+    if (executor != null) {
+      executor.removeTasks(TaskType.LOAD_TRACK);
+    }
+    runInExecutor(TaskType.LOAD_TRACK, new Runnable() {
         @Override
       public void run() {
-        if (trackId == selectedTrackId) {
+        if (trackId == selectedTrackId && !loadCancelled) {
           Log.i(TAG, "Not reloading track " + trackId);
           return;
         }
@@ -180,11 +190,28 @@ public class TrackDataHub implements DataSourceListener {
    * @param trackDataTypes the track data types
    */
   public void registerTrackDataListener(
-      final TrackDataListener trackDataListener, final EnumSet<TrackDataType> trackDataTypes) {
-    runInHanderThread(new Runnable() {
+      TrackDataListener trackDataListener, EnumSet<TrackDataType> trackDataTypes) {
+    registerTrackDataListener(trackDataListener, trackDataTypes, targetNumPoints);
+  }
+
+  /**
+   * Registers a {@link TrackDataListener} with its own target number of track
+   * points.
+   * 
+   * @param trackDataListener the track data listener
+   * @param trackDataTypes the track data types
+   * @param listenerTargetNumPoints the target number of track points of the
+   *          listener
+   */
+  public void registerTrackDataListener(final TrackDataListener trackDataListener,
+      final EnumSet<TrackDataType> trackDataTypes, final int listenerTargetNumPoints) {
+    runInExecutor(TaskType.LISTENER, new Runnable() {
         @Override
       public void run() {
         trackDataManager.registerListener(trackDataListener, trackDataTypes);
+        if (!samplingStates.containsKey(trackDataListener)) {
+          samplingStates.put(trackDataListener, new SamplingState(listenerTargetNumPoints));
+        }
         if (dataSourceManager != null) {
           dataSourceManager.updateListeners(trackDataManager.getRegisteredTrackDataTypes());
           loadDataForListener(trackDataListener);
@@ -199,10 +226,11 @@ public class TrackDataHub implements DataSourceListener {
    * @param trackDataListener the track data listener
    */
   public void unregisterTrackDataListener(final TrackDataListener trackDataListener) {
-    runInHanderThread(new Runnable() {
+    runInExecutor(TaskType.LISTENER, new Runnable() {
         @Override
       public void run() {
         trackDataManager.unregisterListener(trackDataListener);
+        samplingStates.remove(trackDataListener);
         if (dataSourceManager != null) {
           dataSourceManager.updateListeners(trackDataManager.getRegisteredTrackDataTypes());
         }
@@ -214,7 +242,7 @@ public class TrackDataHub implements DataSourceListener {
    * Reloads data for a {@link TrackDataListener}.
    */
   public void reloadDataForListener(final TrackDataListener trackDataListener) {
-    runInHanderThread(new Runnable() {
+    runInExecutor(TaskType.LISTENER, new Runnable() {
         @Override
       public void run() {
         loadDataForListener(trackDataListener);
@@ -239,7 +267,7 @@ public class TrackDataHub implements DataSourceListener {
 
   @Override
   public void notifyTracksTableUpdated() {
-    runInHanderThread(new Runnable() {
+    runInExecutor(TaskType.TRACKS_TABLE, new Runnable() {
         @Override
       public void run() {
         notifyTracksTableUpdate(trackDataManager.getListeners(TrackDataType.TRACKS_TABLE));
@@ -249,7 +277,7 @@ public class TrackDataHub implements DataSourceListener {
 
   @Override
   public void notifyWaypointsTableUpdated() {
-    runInHanderThread(new Runnable() {
+    runInExecutor(TaskType.WAYPOINTS_TABLE, new Runnable() {
         @Override
       public void run() {
         notifyWaypointsTableUpdate(trackDataManager.getListeners(TrackDataType.WAYPOINTS_TABLE));
@@ -258,20 +286,28 @@ public class TrackDataHub implements DataSourceListener {
   }
 
   @Override
-  public void notifyTrackPointsTableUpdated() {
-    runInHanderThread(new Runnable() {
+  public void notifyTrackPointsTableUpdated(
+      final long trackId, final long firstId, final long lastId) {
+    runInExecutor(TaskType.TRACK_POINTS_TABLE, new Runnable() {
         @Override
       public void run() {
-        notifyTrackPointsTableUpdate(
-            true, trackDataManager.getListeners(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE),
-            trackDataManager.getListeners(TrackDataType.SAMPLED_OUT_TRACK_POINTS_TABLE));
+        Set<TrackDataListener> trackDataListeners = getTrackPointsListeners();
+        long lastTrackPointId = -1L;
+        if (trackId != -1L) {
+          // Only new track points, skip if none belongs to the selected track
+          if (trackId != selectedTrackId || !hasUnseenTrackPoints(trackDataListeners, lastId)) {
+            return;
+          }
+          lastTrackPointId = lastId;
+        }
+        notifyTrackPointsTableUpdate(trackDataListeners, lastTrackPointId);
       }
     });
   }
 
   @Override
   public void notifyPreferenceChanged(final String key) {
-    runInHanderThread(new Runnable() {
+    runInExecutor(TaskType.PREFERENCE, new Runnable() {
         @Override
       public void run() {
         if (key == null
@@ -352,10 +388,13 @@ public class TrackDataHub implements DataSourceListener {
   }
 
   /**
-   * Loads data for all listeners. To be run in the {@link #handler} thread.
+   * Loads data for all listeners. To be run in the {@link #executor} thread.
    */
   private void loadDataForAll() {
-    resetSamplingState();
+    loadCancelled = false;
+    for (SamplingState samplingState : samplingStates.values()) {
+      samplingState.reset();
+    }
     if (trackDataManager.getNumberOfListeners() == 0) {
       return;
     }
@@ -371,18 +410,16 @@ public class TrackDataHub implements DataSourceListener {
 
     notifyTracksTableUpdate(trackDataManager.getListeners(TrackDataType.TRACKS_TABLE));
 
-    for (TrackDataListener listener :
-        trackDataManager.getListeners(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE)) {
+    Set<TrackDataListener> trackPointsListeners = getTrackPointsListeners();
+    for (TrackDataListener listener : trackPointsListeners) {
       listener.clearTrackPoints();
     }
-    notifyTrackPointsTableUpdate(true,
-        trackDataManager.getListeners(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE),
-        trackDataManager.getListeners(TrackDataType.SAMPLED_OUT_TRACK_POINTS_TABLE));
+    notifyTrackPointsTableUpdate(trackPointsListeners, -1L);
     notifyWaypointsTableUpdate(trackDataManager.getListeners(TrackDataType.WAYPOINTS_TABLE));
   }
 
   /**
-   * Loads data for a listener. To be run in the {@link #handler} thread.
+   * Loads data for a listener. To be run in the {@link #executor} thread.
    * 
    * @param trackDataListener the track data listener.
    */
@@ -406,14 +443,8 @@ public class TrackDataHub implements DataSourceListener {
     boolean hasSampledOut = trackDataTypes.contains(TrackDataType.SAMPLED_OUT_TRACK_POINTS_TABLE);
     if (hasSampledIn || hasSampledOut) {
       trackDataListener.clearTrackPoints();
-      boolean isOnlyListener = trackDataManager.getNumberOfListeners() == 1;
-      if (isOnlyListener) {
-        resetSamplingState();
-      }
-      Set<TrackDataListener> sampledInListeners = trackDataListeners;
-      Set<TrackDataListener> sampledOutListeners = hasSampledOut ? trackDataListeners
-          : Collections.<TrackDataListener> emptySet();
-      notifyTrackPointsTableUpdate(isOnlyListener, sampledInListeners, sampledOutListeners);
+      samplingStates.get(trackDataListener).reset();
+      notifyTrackPointsTableUpdate(trackDataListeners, -1L);
     }
 
     if (trackDataTypes.contains(TrackDataType.WAYPOINTS_TABLE)) {
@@ -422,7 +453,7 @@ public class TrackDataHub implements DataSourceListener {
   }
 
   /**
-   * Notifies track table update. To be run in the {@link #handler} thread.
+   * Notifies track table update. To be run in the {@link #executor} thread.
    * 
    * @param trackDataListeners the track data listeners to notify
    */
@@ -438,7 +469,7 @@ public class TrackDataHub implements DataSourceListener {
 
   /**
    * Notifies waypoint table update. Currently, reloads all the waypoints up to
-   * {@link #MAX_DISPLAYED_WAYPOINTS}. To be run in the {@link #handler}
+   * {@link #MAX_DISPLAYED_WAYPOINTS}. To be run in the {@link #executor}
    * thread.
    * 
    * @param trackDataListeners the track data listeners to notify
@@ -479,107 +510,199 @@ public class TrackDataHub implements DataSourceListener {
   }
 
   /**
-   * Notifies track points table update. To be run in the {@link #handler}
-   * thread.
+   * Notifies track points table update. Reads the track points once and
+   * delivers each one to the listeners that have not seen it yet, each
+   * listener sampling at its own frequency. A listener only gets the
+   * callbacks of the track data types it registered for. To be run in the
+   * {@link #executor} thread.
    * 
-   * @param updateSamplingState true to update the sampling state
-   * @param sampledInListeners the sampled-in listeners
-   * @param sampledOutListeners the sampled-out listeners
+   * @param trackDataListeners the track data listeners to notify
+   * @param knownLastTrackPointId the last track point id of the selected track
+   *          if known. -1L to read it from the database
    */
-  private void notifyTrackPointsTableUpdate(boolean updateSamplingState,
-      Set<TrackDataListener> sampledInListeners, Set<TrackDataListener> sampledOutListeners) {
-    if (sampledInListeners.isEmpty() && sampledOutListeners.isEmpty()) {
+  private void notifyTrackPointsTableUpdate(
+      Set<TrackDataListener> trackDataListeners, long knownLastTrackPointId) {
+    if (trackDataListeners.isEmpty()) {
       return;
     }
-    if (updateSamplingState && numLoadedPoints >= targetNumPoints) {
-      // Reload and resample the track at a lower frequency.
-      Log.i(TAG, "Resampling track after " + numLoadedPoints + " points.");
-      resetSamplingState();
-      for (TrackDataListener listener : sampledInListeners) {
-        listener.clearTrackPoints();
+    int numListeners = trackDataListeners.size();
+    TrackDataListener[] listeners = trackDataListeners.toArray(
+        new TrackDataListener[numListeners]);
+    SamplingState[] states = new SamplingState[numListeners];
+    long startId = Long.MAX_VALUE;
+    boolean canReadLevel = true;
+    int maxTargetNumPoints = 0;
+    for (int i = 0; i < numListeners; i++) {
+      SamplingState state = samplingStates.get(listeners[i]);
+      if (state.numLoadedPoints >= state.targetNumPoints) {
+        // Reload and resample the track at a lower frequency.
+        Log.i(TAG, "Resampling track after " + state.numLoadedPoints + " points.");
+        state.reset();
+        listeners[i].clearTrackPoints();
       }
+      EnumSet<TrackDataType> trackDataTypes = trackDataManager.getTrackDataTypes(listeners[i]);
+      state.sampledIn = trackDataTypes.contains(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE);
+      state.sampledOut = trackDataTypes.contains(TrackDataType.SAMPLED_OUT_TRACK_POINTS_TABLE);
+      state.samplingFrequency = -1;
+      state.includeNextPoint = false;
+      states[i] = state;
+
+      startId = Math.min(startId, state.lastSeenLocationId + 1);
+      canReadLevel &= state.numLoadedPoints == 0 && !state.sampledOut;
+      maxTargetNumPoints = Math.max(maxTargetNumPoints, state.targetNumPoints);
     }
 
-    int localNumLoadedPoints = updateSamplingState ? numLoadedPoints : 0;
-    long localFirstSeenLocationId = updateSamplingState ? firstSeenLocationId : -1L;
-    long localLastSeenLocationId = updateSamplingState ? lastSeenLocationId : -1L;
-    long maxPointId = updateSamplingState ? -1L : lastSeenLocationId;
-
-    long lastTrackPointId = myTracksProviderUtils.getLastTrackPointId(selectedTrackId);
-    int samplingFrequency = -1;
-    boolean includeNextPoint = false;
-    LocationIterator locationIterator = null;
+    long lastTrackPointId = knownLastTrackPointId != -1L ? knownLastTrackPointId
+        : myTracksProviderUtils.getLastTrackPointId(selectedTrackId);
+    boolean readLevel = false;
+    long levelNumPoints = 0L;
+    TrackPointCursor trackPointCursor = null;
 
     try {
-      locationIterator = myTracksProviderUtils.getTrackPointLocationIterator(selectedTrackId,
-          localLastSeenLocationId + 1, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
-
-      while (locationIterator.hasNext()) {
-        Location location = locationIterator.next();
-        long locationId = locationIterator.getLocationId();
-
-        // Stop if past the last wanted point
-        if (maxPointId != -1L && locationId > maxPointId) {
+      // Listeners registering later and other hubs reuse the decoded track points
+      trackPointCursor = trackPointCache.openTrackPointCursor(
+          myTracksProviderUtils, selectedTrackId, startId);
+
+      boolean firstPoint = true;
+      while (trackPointCursor.moveToNext()) {
+        if (requestedTrackId != selectedTrackId) {
+          // The pending loadTrack reloads all the listeners
+          Log.i(TAG, "Cancelling track points load of track " + selectedTrackId);
+          loadCancelled = true;
           break;
         }
-
-        if (localFirstSeenLocationId == -1) {
-          localFirstSeenLocationId = locationId;
-        }
-
-        if (samplingFrequency == -1) {
-          long numTotalPoints = Math.max(0L, lastTrackPointId - localFirstSeenLocationId);
-          samplingFrequency = 1 + (int) (numTotalPoints / targetNumPoints);
+        long locationId = trackPointCursor.getId();
+
+        if (firstPoint) {
+          firstPoint = false;
+
+          /*
+           * When loading a long track from the start for sampled-in listeners
+           * only, read a level of the track point pyramid instead of sampling
+           * all the track points. Until the pyramid is built in the
+           * background, sample the track points.
+           */
+          long numTotalPoints = Math.max(0L, lastTrackPointId - locationId);
+          int level = canReadLevel
+              ? TrackPointPyramid.getLevel(numTotalPoints + 1, maxTargetNumPoints) : 0;
+          if (level > 0 && !TrackPointPyramid.isBuilt(
+              myTracksProviderUtils, selectedTrackId, lastTrackPointId)) {
+            TrackPointPyramid.updateInBackground(myTracksProviderUtils, selectedTrackId);
+            level = 0;
+          }
+          if (level > 0) {
+            trackPointCursor.close();
+            trackPointCursor = TrackPointPyramid.openTrackPointCursor(
+                myTracksProviderUtils, selectedTrackId, level);
+            if (!trackPointCursor.moveToNext()) {
+              break;
+            }
+            locationId = trackPointCursor.getId();
+            levelNumPoints = numTotalPoints + 1;
+            for (int i = 0; i < level; i++) {
+              levelNumPoints /= TrackPointPyramid.LEVEL_FACTOR;
+            }
+            readLevel = true;
+          }
         }
 
-        if (!LocationUtils.isValidLocation(location)) {
-          // TODO: also include the last valid point before a split
-          for (TrackDataListener trackDataListener : sampledInListeners) {
-            trackDataListener.onSegmentSplit(location);
-            includeNextPoint = true;
+        /*
+         * Only create a location for the track points delivered to a listener.
+         * Most points of a long track are sampled out. The location is shared
+         * by the listeners.
+         */
+        Location location = null;
+        boolean valid = trackPointCursor.isValid();
+        for (int i = 0; i < numListeners; i++) {
+          SamplingState state = states[i];
+          if (locationId <= state.lastSeenLocationId) {
+            continue;
+          }
+          if (state.firstSeenLocationId == -1L) {
+            state.firstSeenLocationId = locationId;
+          }
+          if (state.samplingFrequency == -1) {
+            state.samplingFrequency = readLevel
+                ? 1 + (int) (Math.max(0L, levelNumPoints - 1) / state.targetNumPoints)
+                : 1 + (int) (Math.max(0L, lastTrackPointId - state.firstSeenLocationId)
+                    / state.targetNumPoints);
           }
-        } else {
-          // Also include the last point if the selected track is not recording.
-          if (includeNextPoint || (localNumLoadedPoints % samplingFrequency == 0)
+
+          if (!valid) {
+            // TODO: also include the last valid point before a split
+            if (state.sampledIn) {
+              if (location == null) {
+                location = trackPointCursor.getLocation();
+              }
+              listeners[i].onSegmentSplit(location);
+            }
+            state.includeNextPoint = true;
+          } else if (state.includeNextPoint
+              || (state.numLoadedPoints % state.samplingFrequency == 0)
               || (locationId == lastTrackPointId && !isSelectedTrackRecording())) {
-            includeNextPoint = false;
-            for (TrackDataListener trackDataListener : sampledInListeners) {
-              trackDataListener.onSampledInTrackPoint(location);
+            // Also include the last point if the selected track is not recording.
+            state.includeNextPoint = false;
+            if (state.sampledIn) {
+              if (location == null) {
+                location = trackPointCursor.getLocation();
+              }
+              listeners[i].onSampledInTrackPoint(location);
             }
-          } else {
-            for (TrackDataListener trackDataListener : sampledOutListeners) {
-              trackDataListener.onSampledOutTrackPoint(location);
+          } else if (state.sampledOut) {
+            if (location == null) {
+              location = trackPointCursor.getLocation();
             }
+            listeners[i].onSampledOutTrackPoint(location);
           }
-        }
 
-        localNumLoadedPoints++;
-        localLastSeenLocationId = locationId;
+          state.numLoadedPoints++;
+          state.lastSeenLocationId = locationId;
+        }
       }
     } finally {
-      if (locationIterator != null) {
-        locationIterator.close();
+      if (trackPointCursor != null) {
+        trackPointCursor.close();
       }
     }
 
-    if (updateSamplingState) {
-      numLoadedPoints = localNumLoadedPoints;
-      firstSeenLocationId = localFirstSeenLocationId;
-      lastSeenLocationId = localLastSeenLocationId;
+    for (int i = 0; i < numListeners; i++) {
+      SamplingState state = states[i];
+      if (readLevel && state.firstSeenLocationId != -1L) {
+        // Account for the track points reduced away by the level
+        state.numLoadedPoints = (int) (
+            state.lastSeenLocationId - state.firstSeenLocationId + 1);
+      }
+      if (state.sampledIn) {
+        listeners[i].onNewTrackPointsDone();
+      }
     }
+  }
 
-    for (TrackDataListener listener : sampledInListeners) {
-      listener.onNewTrackPointsDone();
-    }
+  /**
+   * Gets the listeners of the sampled in or sampled out track points.
+   */
+  private Set<TrackDataListener> getTrackPointsListeners() {
+    Set<TrackDataListener> trackDataListeners = new LinkedHashSet<TrackDataListener>(
+        trackDataManager.getListeners(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE));
+    trackDataListeners.addAll(
+        trackDataManager.getListeners(TrackDataType.SAMPLED_OUT_TRACK_POINTS_TABLE));
+    return trackDataListeners;
   }
 
   /**
-   * Resets the track points sampling states.
+   * Returns true if a listener has not seen a track point.
+   * 
+   * @param trackDataListeners the track data listeners
+   * @param trackPointId the track point id
    */
-  private void resetSamplingState() {
-    numLoadedPoints = 0;
-    firstSeenLocationId = -1L;
-    lastSeenLocationId = -1L;
+  private boolean hasUnseenTrackPoints(
+      Set<TrackDataListener> trackDataListeners, long trackPointId) {
+    for (TrackDataListener trackDataListener : trackDataListeners) {
+      if (samplingStates.get(trackDataListener).lastSeenLocationId < trackPointId) {
+        return true;
+      }
+    }
+    return false;
   }
 
   /**
@@ -591,18 +714,19 @@ public class TrackDataHub implements DataSourceListener {
   }
 
   /**
-   * Run in the handler thread.
+   * Run in the executor thread.
    * 
+   * @param taskType the task type
    * @param runnable the runnable
    */
   @VisibleForTesting
-  protected void runInHanderThread(Runnable runnable) {
-    if (handler == null) {
+  protected void runInExecutor(TaskType taskType, Runnable runnable) {
+    if (executor == null) {
       // Use a Throwable to ensure the stack trace is logged.
-      Log.d(TAG, "handler is null.", new Throwable());
+      Log.d(TAG, "executor is null.", new Throwable());
       return;
     }
-    handler.post(runnable);
+    executor.execute(taskType, runnable);
   }
   
   /**
@@ -641,4 +765,34 @@ public class TrackDataHub implements DataSourceListener {
   boolean isReportSpeed() {
     return reportSpeed;
   }
-}
\ No newline at end of file
+
+  /**
+   * The track points sampling state of a listener.
+   */
+  private static class SamplingState {
+    private final int targetNumPoints;
+    private int numLoadedPoints;
+    private long firstSeenLocationId;
+    private long lastSeenLocationId;
+
+    // Set for each read of the track points
+    private boolean sampledIn;
+    private boolean sampledOut;
+    private int samplingFrequency;
+    private boolean includeNextPoint;
+
+    public SamplingState(int targetNumPoints) {
+      this.targetNumPoints = targetNumPoints;
+      reset();
+    }
+
+    /**
+     * Resets to read the track points from the start.
+     */
+    public void reset() {
+      numLoadedPoints = 0;
+      firstSeenLocationId = -1L;
+      lastSeenLocationId = -1L;
+    }
+  }
+}
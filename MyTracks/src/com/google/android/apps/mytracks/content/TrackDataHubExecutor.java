@@ -0,0 +1,208 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Runs the tasks of a {@link TrackDataHub} one at a time in a worker thread.
+ * Tasks run in the order of the priority of their {@link TaskType}, then in
+ * the order they were submitted. Records the queue latency, i.e., the time
+ * between the submission and the start of a task, of each task type.
+ */
+class TrackDataHubExecutor {
+
+  /**
+   * Task types, from the highest to the lowest priority. Cheap updates of the
+   * displayed track run before bulk reloads. The listener and the track loading
+   * tasks have the same priority so that they run in submission order.
+   */
+  enum TaskType {
+    TRACKS_TABLE(0),
+    TRACK_POINTS_TABLE(0),
+    WAYPOINTS_TABLE(1),
+    PREFERENCE(1),
+    LISTENER(2),
+    LOAD_TRACK(2);
+
+    private final int priority;
+
+    private TaskType(int priority) {
+      this.priority = priority;
+    }
+  }
+
+  private static final String TAG = TrackDataHubExecutor.class.getSimpleName();
+
+  // Guarded by this
+  private final PriorityQueue<Task> queue = new PriorityQueue<Task>();
+  private final int[] numTasks = new int[TaskType.values().length];
+  private final long[] totalLatencies = new long[TaskType.values().length];
+  private final long[] maxLatencies = new long[TaskType.values().length];
+  private long nextSequence;
+  private boolean shutdown;
+
+  /**
+   * Constructor. Starts the worker thread.
+   * 
+   * @param name the name of the worker thread
+   */
+  public TrackDataHubExecutor(String name) {
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        Task task;
+        while ((task = takeTask()) != null) {
+          try {
+            task.runnable.run();
+          } catch (RuntimeException e) {
+            // Keep running the following tasks
+            Log.e(TAG, "Failed to run " + task.taskType + " task", e);
+          }
+        }
+      }
+    }, name);
+    thread.start();
+  }
+
+  /**
+   * Submits a task.
+   * 
+   * @param taskType the task type
+   * @param runnable the runnable
+   */
+  public synchronized void execute(TaskType taskType, Runnable runnable) {
+    if (shutdown) {
+      Log.d(TAG, "Executor is shut down, ignoring " + taskType);
+      return;
+    }
+    queue.add(new Task(taskType, runnable, nextSequence++, SystemClock.elapsedRealtime()));
+    notifyAll();
+  }
+
+  /**
+   * Removes the pending tasks of a type.
+   * 
+   * @param taskType the task type
+   */
+  public synchronized void removeTasks(TaskType taskType) {
+    Iterator<Task> iterator = queue.iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().taskType == taskType) {
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Shuts down. The pending tasks are dropped, the running task completes.
+   */
+  public synchronized void shutdown() {
+    shutdown = true;
+    queue.clear();
+    notifyAll();
+    for (TaskType taskType : TaskType.values()) {
+      int index = taskType.ordinal();
+      if (numTasks[index] != 0) {
+        Log.d(TAG, taskType + " queue latency: " + numTasks[index] + " tasks, average "
+            + totalLatencies[index] / numTasks[index] + "ms, max " + maxLatencies[index] + "ms");
+      }
+    }
+  }
+
+  /**
+   * Gets the number of started tasks of a type.
+   * 
+   * @param taskType the task type
+   */
+  public synchronized int getNumTasks(TaskType taskType) {
+    return numTasks[taskType.ordinal()];
+  }
+
+  /**
+   * Gets the average queue latency in milliseconds of a type of tasks.
+   * 
+   * @param taskType the task type
+   */
+  public synchronized long getAverageQueueLatency(TaskType taskType) {
+    int index = taskType.ordinal();
+    return numTasks[index] == 0 ? 0L : totalLatencies[index] / numTasks[index];
+  }
+
+  /**
+   * Gets the maximum queue latency in milliseconds of a type of tasks.
+   * 
+   * @param taskType the task type
+   */
+  public synchronized long getMaxQueueLatency(TaskType taskType) {
+    return maxLatencies[taskType.ordinal()];
+  }
+
+  /**
+   * Waits for the next task and records its queue latency. Returns null when
+   * shut down.
+   */
+  private synchronized Task takeTask() {
+    while (queue.isEmpty() && !shutdown) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Log.d(TAG, "Interrupted while waiting for a task.", e);
+        return null;
+      }
+    }
+    if (shutdown) {
+      return null;
+    }
+    Task task = queue.poll();
+    int index = task.taskType.ordinal();
+    long latency = SystemClock.elapsedRealtime() - task.submitTime;
+    numTasks[index]++;
+    totalLatencies[index] += latency;
+    maxLatencies[index] = Math.max(maxLatencies[index], latency);
+    return task;
+  }
+
+  /**
+   * A submitted task.
+   */
+  private static class Task implements Comparable<Task> {
+    private final TaskType taskType;
+    private final Runnable runnable;
+    private final long sequence;
+    private final long submitTime;
+
+    public Task(TaskType taskType, Runnable runnable, long sequence, long submitTime) {
+      this.taskType = taskType;
+      this.runnable = runnable;
+      this.sequence = sequence;
+      this.submitTime = submitTime;
+    }
+
+    @Override
+    public int compareTo(Task another) {
+      if (taskType.priority != another.taskType.priority) {
+        return taskType.priority < another.taskType.priority ? -1 : 1;
+      }
+      return sequence < another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+    }
+  }
+}
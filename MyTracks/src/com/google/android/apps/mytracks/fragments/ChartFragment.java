@@ -26,7 +26,6 @@ import com.google.android.apps.mytracks.content.TrackDataHub;
 import com.google.android.apps.mytracks.content.TrackDataListener;
 import com.google.android.apps.mytracks.content.TrackDataType;
 import com.google.android.apps.mytracks.content.Waypoint;
-import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.apps.mytracks.stats.TripStatisticsUpdater;
 import com.google.android.apps.mytracks.util.CalorieUtils.ActivityType;
 import com.google.android.apps.mytracks.util.LocationUtils;
@@ -460,15 +459,14 @@ public class ChartFragment extends Fragment implements TrackDataListener {
     if (tripStatisticsUpdater != null) {
       tripStatisticsUpdater.addLocation(
           location, recordingDistanceInterval, false, ActivityType.INVALID, 0.0);
-      TripStatistics tripStatistics = tripStatisticsUpdater.getTripStatistics();
       if (chartByDistance) {
-        double distance = tripStatistics.getTotalDistance() * UnitConversions.M_TO_KM;
+        double distance = tripStatisticsUpdater.getTotalDistance() * UnitConversions.M_TO_KM;
         if (!metricUnits) {
           distance *= UnitConversions.KM_TO_MI;
         }
         timeOrDistance = distance;
       } else {
-        timeOrDistance = tripStatistics.getTotalTime();
+        timeOrDistance = tripStatisticsUpdater.getTotalTime();
       }
 
       elevation = tripStatisticsUpdater.getSmoothedElevation();
@@ -50,6 +50,7 @@ import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.Polyline;
 import com.google.android.maps.mytracks.R;
 
+import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.location.Location;
@@ -72,6 +73,8 @@ import android.widget.Toast;
 
 import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * A fragment to display map to the user.
@@ -128,6 +131,12 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
   private ArrayList<Polyline> paths = new ArrayList<Polyline>();
   boolean reloadPaths = true;
 
+  // Simplifies the paths for the visible region off the UI thread
+  private ExecutorService simplifyPathExecutor;
+
+  // Incremented for each simplifyPath request, so that only the last is drawn
+  private volatile int simplifyPathRequest;
+
   // UI elements
   private GoogleMap googleMap;
   private MapOverlay mapOverlay;
@@ -140,6 +149,16 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
     super.onCreate(bundle);
     setHasOptionsMenu(true);
     mapOverlay = new MapOverlay(getActivity());
+    simplifyPathExecutor = Executors.newSingleThreadExecutor();
+  }
+
+  @Override
+  public void onDestroy() {
+    super.onDestroy();
+
+    // Ignore the results of the running request
+    simplifyPathRequest++;
+    simplifyPathExecutor.shutdownNow();
   }
 
   @Override
@@ -278,6 +297,9 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
               && !isLocationVisible(currentLocation)) {
             keepCurrentLocationVisible = false;
           }
+          if (isResumed()) {
+            simplifyPath(cameraPosition.zoom);
+          }
         }
       });
     }
@@ -405,8 +427,12 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
       getActivity().runOnUiThread(new Runnable() {
         public void run() {
           if (isResumed() && googleMap != null && currentTrack != null) {
+            boolean reload = reloadPaths;
             boolean hasStartMarker = mapOverlay.update(
-                googleMap, paths, currentTrack.getTripStatistics(), reloadPaths);
+                googleMap, paths, currentTrack.getTripStatistics(), reload);
+            if (reload) {
+              simplifyPath(googleMap.getCameraPosition().zoom);
+            }
 
             /*
              * If has the start marker, then don't need to reload the paths each
@@ -501,9 +527,20 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
    */
   private synchronized void resumeTrackDataHub() {
     trackDataHub = ((TrackDetailActivity) getActivity()).getTrackDataHub();
-    trackDataHub.registerTrackDataListener(this, EnumSet.of(TrackDataType.TRACKS_TABLE,
+    EnumSet<TrackDataType> trackDataTypes = EnumSet.of(TrackDataType.TRACKS_TABLE,
         TrackDataType.WAYPOINTS_TABLE, TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE,
-        TrackDataType.SAMPLED_OUT_TRACK_POINTS_TABLE, TrackDataType.PREFERENCE));
+        TrackDataType.PREFERENCE);
+
+    /*
+     * The sampled-out track points are only needed to show the current location
+     * of a recording track. Without them, the trackDataHub can read a long
+     * track from its track point pyramid.
+     */
+    long trackId = ((TrackDetailActivity) getActivity()).getTrackId();
+    if (trackId == PreferencesUtils.getLong(getActivity(), R.string.recording_track_id_key)) {
+      trackDataTypes.add(TrackDataType.SAMPLED_OUT_TRACK_POINTS_TABLE);
+    }
+    trackDataHub.registerTrackDataListener(this, trackDataTypes);
   }
 
   /**
@@ -525,6 +562,38 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
     return trackDataHub != null && trackDataHub.isSelectedTrackRecording();
   }
 
+  /**
+   * Simplifies the paths for the visible region in the background, then
+   * redraws the paths unless a newer request was made in the meantime. The
+   * markers and the waypoints are not redrawn.
+   * 
+   * @param zoom the zoom level
+   */
+  private void simplifyPath(final float zoom) {
+    if (googleMap == null || simplifyPathExecutor.isShutdown()) {
+      return;
+    }
+    final Activity activity = getActivity();
+    final LatLngBounds bounds = googleMap.getProjection().getVisibleRegion().latLngBounds;
+    final int request = ++simplifyPathRequest;
+    simplifyPathExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (request != simplifyPathRequest || !mapOverlay.simplifyPath(bounds, zoom)) {
+          return;
+        }
+        activity.runOnUiThread(new Runnable() {
+          @Override
+          public void run() {
+            if (request == simplifyPathRequest && isResumed() && googleMap != null) {
+              mapOverlay.updatePaths(googleMap, paths);
+            }
+          }
+        });
+      }
+    });
+  }
+
   /**
    * Sets the current location.
    * 
@@ -19,10 +19,9 @@ package com.google.android.apps.mytracks.io.file.exporter;
 import com.google.android.apps.mytracks.Constants;
 import com.google.android.apps.mytracks.content.MyTracksLocation;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
-import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TrackPointCursor;
 import com.google.android.apps.mytracks.content.Waypoint;
-import com.google.android.apps.mytracks.util.LocationUtils;
 
 import android.database.Cursor;
 import android.location.Location;
@@ -127,34 +126,36 @@ public class FileTrackExporter implements TrackExporter {
   }
 
   /**
-   * Writes the locations.
+   * Writes the locations. Keeps the current and the last locations and reuses
+   * them for every track point. Invalid track points are never filled.
    */
   private void writeLocations(Track track, long offset) throws InterruptedException {
     boolean wroteTrack = false;
     boolean wroteSegment = false;
     boolean isLastLocationValid = false;
-    TrackWriterLocationFactory locationFactory = new TrackWriterLocationFactory();
+    Location location = new MyTracksLocation("");
+    Location lastLocation = new MyTracksLocation("");
     int locationNumber = 0;
-    LocationIterator locationIterator = null;
+    TrackPointCursor trackPointCursor = null;
 
     try {
-      locationIterator = myTracksProviderUtils.getTrackPointLocationIterator(
-          track.getId(), -1L, false, locationFactory);
+      trackPointCursor = myTracksProviderUtils.openTrackPointCursor(track.getId(), -1L, false);
 
-      while (locationIterator.hasNext()) {
+      while (trackPointCursor.moveToNext()) {
         if (Thread.interrupted()) {
           throw new InterruptedException();
         }
-        Location location = locationIterator.next();
-
-        setLocationTime(location, offset);
         locationNumber++;
 
-        boolean isLocationValid = LocationUtils.isValidLocation(location);
+        boolean isLocationValid = trackPointCursor.isValid();
+        if (isLocationValid) {
+          trackPointCursor.fill(location);
+          setLocationTime(location, offset);
+        }
         boolean isSegmentValid = isLocationValid && isLastLocationValid;
         if (!wroteTrack && isSegmentValid) {
           // Found the first two consecutive locations that are valid
-          trackWriter.writeBeginTrack(track, locationFactory.lastLocation);
+          trackWriter.writeBeginTrack(track, lastLocation);
           wroteTrack = true;
         }
 
@@ -165,7 +166,7 @@ public class FileTrackExporter implements TrackExporter {
             wroteSegment = true;
 
             // Write the previous location, which we had previously skipped
-            trackWriter.writeLocation(locationFactory.lastLocation);
+            trackWriter.writeLocation(lastLocation);
           }
 
           // Write the current location
@@ -179,7 +180,11 @@ public class FileTrackExporter implements TrackExporter {
             wroteSegment = false;
           }
         }
-        locationFactory.swapLocations();
+        if (isLocationValid) {
+          Location tempLocation = lastLocation;
+          lastLocation = location;
+          location = tempLocation;
+        }
         isLastLocationValid = isLocationValid;
       }
 
@@ -197,8 +202,8 @@ public class FileTrackExporter implements TrackExporter {
         trackWriter.writeEndTrack(track, null);
       }
     } finally {
-      if (locationIterator != null) {
-        locationIterator.close();
+      if (trackPointCursor != null) {
+        trackPointCursor.close();
       }
     }
   }
@@ -214,31 +219,4 @@ public class FileTrackExporter implements TrackExporter {
       location.setTime(location.getTime() - offset);
     }
   }
-
-  /**
-   * Track writer location factory. Keeping the last two locations.
-   * 
-   * @author Jimmy Shih
-   */
-  private class TrackWriterLocationFactory implements MyTracksProviderUtils.LocationFactory {
-    Location currentLocation;
-    Location lastLocation;
-
-    @Override
-    public Location createLocation() {
-      if (currentLocation == null) {
-        currentLocation = new MyTracksLocation("");
-      }
-      return currentLocation;
-    }
-
-    public void swapLocations() {
-      Location tempLocation = lastLocation;
-      lastLocation = currentLocation;
-      currentLocation = tempLocation;
-      if (currentLocation != null) {
-        currentLocation.reset();
-      }
-    }
-  }
 }
@@ -19,16 +19,12 @@ package com.google.android.apps.mytracks.io.file.exporter;
 import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.io.file.TrackFileFormat;
-import com.google.android.apps.mytracks.util.StringUtils;
 import com.google.android.maps.mytracks.R;
 
 import android.content.Context;
 import android.location.Location;
 
 import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.text.NumberFormat;
-import java.util.Locale;
 
 /**
  * Write track as GPX to a file.
@@ -37,23 +33,11 @@ import java.util.Locale;
  */
 public class GpxTrackWriter implements TrackWriter {
 
-  private static final NumberFormat ELEVATION_FORMAT = NumberFormat.getInstance(Locale.US);
-  private static final NumberFormat COORDINATE_FORMAT = NumberFormat.getInstance(Locale.US);
-  static {
-    /*
-     * GPX readers expect to see fractional numbers with US-style punctuation.
-     * That is, they want periods for decimal points, rather than commas.
-     */
-    ELEVATION_FORMAT.setMaximumFractionDigits(1);
-    ELEVATION_FORMAT.setGroupingUsed(false);
-
-    COORDINATE_FORMAT.setMaximumFractionDigits(6);
-    COORDINATE_FORMAT.setMaximumIntegerDigits(3);
-    COORDINATE_FORMAT.setGroupingUsed(false);
-  }
+  private static final int ELEVATION_FRACTION_DIGITS = 1;
+  private static final int COORDINATE_FRACTION_DIGITS = 6;
 
   private final Context context;
-  private PrintWriter printWriter;
+  private StreamingXmlWriter xmlWriter;
 
   public GpxTrackWriter(Context context) {
     this.context = context;
@@ -66,45 +50,45 @@ public class GpxTrackWriter implements TrackWriter {
 
   @Override
   public void prepare(OutputStream outputStream) {
-    this.printWriter = new PrintWriter(outputStream);
+    this.xmlWriter = new StreamingXmlWriter(outputStream);
   }
   
   @Override
   public void close() {
-    if (printWriter != null) {
-      printWriter.flush();
-      printWriter = null;
+    if (xmlWriter != null) {
+      xmlWriter.flush();
+      xmlWriter = null;
     }
   }
 
   @Override
   public void writeHeader(Track[] tracks) {
-    if (printWriter != null) {
-      printWriter.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-      printWriter.println("<gpx");
-      printWriter.println("version=\"1.1\"");
-      printWriter.println(
+    if (xmlWriter != null) {
+      xmlWriter.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      xmlWriter.println("<gpx");
+      xmlWriter.println("version=\"1.1\"");
+      xmlWriter.println(
           "creator=\"" + context.getString(R.string.send_google_by_my_tracks, "", "") + "\"");
-      printWriter.println("xmlns=\"http://www.topografix.com/GPX/1/1\"");
-      printWriter.println(
+      xmlWriter.println("xmlns=\"http://www.topografix.com/GPX/1/1\"");
+      xmlWriter.println(
           "xmlns:topografix=\"http://www.topografix.com/GPX/Private/TopoGrafix/0/1\"");
-      printWriter.println("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"");
-      printWriter.println("xsi:schemaLocation=\"http://www.topografix.com/GPX/1/1"
+      xmlWriter.println("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"");
+      xmlWriter.println("xsi:schemaLocation=\"http://www.topografix.com/GPX/1/1"
           + " http://www.topografix.com/GPX/1/1/gpx.xsd"
           + " http://www.topografix.com/GPX/Private/TopoGrafix/0/1"
           + " http://www.topografix.com/GPX/Private/TopoGrafix/0/1/topografix.xsd\">");
-      printWriter.println("<metadata>");
+      xmlWriter.println("<metadata>");
       Track track = tracks[0];
-      printWriter.println("<name>" + StringUtils.formatCData(track.getName()) + "</name>");
-      printWriter.println("<desc>" + StringUtils.formatCData(track.getDescription()) + "</desc>");
-      printWriter.println("</metadata>");
+      xmlWriter.printlnCDataElement("name", track.getName());
+      xmlWriter.printlnCDataElement("desc", track.getDescription());
+      xmlWriter.println("</metadata>");
     }
   }
 
   @Override
   public void writeFooter() {
-    if (printWriter != null) {
-      printWriter.println("</gpx>");
+    if (xmlWriter != null) {
+      xmlWriter.println("</gpx>");
     }
   }
 
@@ -120,21 +104,18 @@ public class GpxTrackWriter implements TrackWriter {
 
   @Override
   public void writeWaypoint(Waypoint waypoint) {
-    if (printWriter != null) {
+    if (xmlWriter != null) {
       Location location = waypoint.getLocation();
       if (location != null) {
-        printWriter.println("<wpt " + formatLocation(location) + ">");
-        if (location.hasAltitude()) {
-          printWriter.println("<ele>" + ELEVATION_FORMAT.format(location.getAltitude()) + "</ele>");
-        }
-        printWriter.println(
-            "<time>" + StringUtils.formatDateTimeIso8601(location.getTime()) + "</time>");
-        printWriter.println("<name>" + StringUtils.formatCData(waypoint.getName()) + "</name>");
-        printWriter.println("<cmt>" + StringUtils.formatCData(waypoint.getType().name()) + "</cmt>");
-        printWriter.println(
-            "<desc>" + StringUtils.formatCData(waypoint.getDescription()) + "</desc>");
-        printWriter.println("<type>" + StringUtils.formatCData(waypoint.getCategory()) + "</type>");
-        printWriter.println("</wpt>");
+        xmlWriter.print("<wpt ");
+        writeCoordinates(location);
+        xmlWriter.println(">");
+        writeElevationAndTime(location);
+        xmlWriter.printlnCDataElement("name", waypoint.getName());
+        xmlWriter.printlnCDataElement("cmt", waypoint.getType().name());
+        xmlWriter.printlnCDataElement("desc", waypoint.getDescription());
+        xmlWriter.printlnCDataElement("type", waypoint.getCategory());
+        xmlWriter.println("</wpt>");
       }
     }
   }
@@ -151,52 +132,69 @@ public class GpxTrackWriter implements TrackWriter {
   
   @Override
   public void writeBeginTrack(Track track, Location startLocation) {
-    if (printWriter != null) {
-      printWriter.println("<trk>");
-      printWriter.println("<name>" + StringUtils.formatCData(track.getName()) + "</name>");
-      printWriter.println("<desc>" + StringUtils.formatCData(track.getDescription()) + "</desc>");
-      printWriter.println("<type>" + StringUtils.formatCData(track.getCategory()) + "</type>");
-      printWriter.println("<extensions><topografix:color>c0c0c0</topografix:color></extensions>");
+    if (xmlWriter != null) {
+      xmlWriter.println("<trk>");
+      xmlWriter.printlnCDataElement("name", track.getName());
+      xmlWriter.printlnCDataElement("desc", track.getDescription());
+      xmlWriter.printlnCDataElement("type", track.getCategory());
+      xmlWriter.println("<extensions><topografix:color>c0c0c0</topografix:color></extensions>");
     }
   }
 
   @Override
   public void writeEndTrack(Track track, Location endLocation) {
-    if (printWriter != null) {
-      printWriter.println("</trk>");
+    if (xmlWriter != null) {
+      xmlWriter.println("</trk>");
     }
   }
 
   @Override
   public void writeOpenSegment() {
-    printWriter.println("<trkseg>");
+    xmlWriter.println("<trkseg>");
   }
 
   @Override
   public void writeCloseSegment() {
-    printWriter.println("</trkseg>");
+    xmlWriter.println("</trkseg>");
   }
 
   @Override
   public void writeLocation(Location location) {
-    if (printWriter != null) {
-      printWriter.println("<trkpt " + formatLocation(location) + ">");
-      if (location.hasAltitude()) {
-        printWriter.println("<ele>" + ELEVATION_FORMAT.format(location.getAltitude()) + "</ele>");
-      }
-      printWriter.println(
-          "<time>" + StringUtils.formatDateTimeIso8601(location.getTime()) + "</time>");
-      printWriter.println("</trkpt>");
+    if (xmlWriter != null) {
+      xmlWriter.print("<trkpt ");
+      writeCoordinates(location);
+      xmlWriter.println(">");
+      writeElevationAndTime(location);
+      xmlWriter.println("</trkpt>");
     }
   }
 
   /**
-   * Formats a location with latitude and longitude coordinates.
+   * Writes the latitude and longitude attributes of a location.
+   * 
+   * @param location the location
+   */
+  private void writeCoordinates(Location location) {
+    xmlWriter.print("lat=\"");
+    xmlWriter.printDecimal(location.getLatitude(), COORDINATE_FRACTION_DIGITS);
+    xmlWriter.print("\" lon=\"");
+    xmlWriter.printDecimal(location.getLongitude(), COORDINATE_FRACTION_DIGITS);
+    xmlWriter.print('"');
+  }
+
+  /**
+   * Writes the elevation and the time elements of a location.
    * 
    * @param location the location
    */
-  private String formatLocation(Location location) {
-    return "lat=\"" + COORDINATE_FORMAT.format(location.getLatitude()) + "\" lon=\""
-        + COORDINATE_FORMAT.format(location.getLongitude()) + "\"";
+  private void writeElevationAndTime(Location location) {
+    if (location.hasAltitude()) {
+      xmlWriter.print("<ele>");
+      xmlWriter.printDecimal(location.getAltitude(), ELEVATION_FRACTION_DIGITS);
+      xmlWriter.println("</ele>");
+    }
+    xmlWriter.print("<time>");
+    xmlWriter.printTime(location.getTime());
+    xmlWriter.println("</time>");
   }
 }
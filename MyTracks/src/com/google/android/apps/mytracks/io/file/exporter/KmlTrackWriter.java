@@ -18,7 +18,6 @@ package com.google.android.apps.mytracks.io.file.exporter;
 import com.google.android.apps.mytracks.content.DescriptionGenerator;
 import com.google.android.apps.mytracks.content.DescriptionGeneratorImpl;
 import com.google.android.apps.mytracks.content.MyTracksLocation;
-import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
 import com.google.android.apps.mytracks.content.Sensor;
 import com.google.android.apps.mytracks.content.Sensor.SensorData;
 import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
@@ -27,27 +26,41 @@ import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
 import com.google.android.apps.mytracks.io.file.TrackFileFormat;
 import com.google.android.apps.mytracks.util.GoogleEarthUtils;
-import com.google.android.apps.mytracks.util.StringUtils;
 import com.google.android.maps.mytracks.R;
 import com.google.common.annotations.VisibleForTesting;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.location.Location;
 import android.net.Uri;
+import android.util.Log;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 /**
- * Write track as KML to a file.
+ * Write track as KML to a file. Writes in a single pass with memory bounded
+ * in the track length. The sensor values of a segment beyond a buffer are
+ * spilled to a temporary file until the segment is closed. The photo overlays
+ * are written after their track, with the headings computed from the recent
+ * track points as the track is written.
  * 
  * @author Leif Hendrik Wilden
  */
 public class KmlTrackWriter implements TrackWriter {
 
+  private static final String TAG = KmlTrackWriter.class.getSimpleName();
+
   private static final String WAYPOINT_STYLE = "waypoint";
   private static final String STATISTICS_STYLE = "statistics";
   private static final String START_STYLE = "start";
@@ -69,20 +82,70 @@ public class KmlTrackWriter implements TrackWriter {
   private static final String
       TRACK_ICON = "http://earth.google.com/images/kml-icons/track-directional/track-0.png";
 
+  private static final int COORDINATE_FRACTION_DIGITS = 6;
+  private static final int ALTITUDE_FRACTION_DIGITS = 1;
+
+  // Indexes of the sensor values of a track point
+  private static final int POWER_INDEX = 0;
+  private static final int CADENCE_INDEX = 1;
+  private static final int HEART_RATE_INDEX = 2;
+  private static final int NUM_SENSORS = 3;
+
+  // Number of track points of sensor values buffered before spilling
+  private static final int SENSOR_BUFFER_POINTS = 1024;
+
+  // Number of track points back to the location viewing a photo
+  private static final int HEADING_POINTS = 10;
+
   private final Context context;
   private final boolean multiple;
   private final boolean playTrack;
   private final DescriptionGenerator descriptionGenerator;  
-  private final MyTracksProviderUtils myTracksProviderUtils;
 
-  private PrintWriter printWriter;
-  private ArrayList<Integer> powerList = new ArrayList<Integer>();
-  private ArrayList<Integer> cadenceList = new ArrayList<Integer>();
-  private ArrayList<Integer> heartRateList = new ArrayList<Integer>();
+  private StreamingXmlWriter xmlWriter;
+
+  // The buffered sensor values of the current segment, -1 if not available
+  private final int[] sensorValues = new int[SENSOR_BUFFER_POINTS * NUM_SENSORS];
+  private int numBufferedPoints;
+  private int numSpilledPoints;
+  private File sensorFile;
+  private DataOutputStream sensorOutputStream;
+  private boolean sensorError;
   private boolean hasPower;
   private boolean hasCadence;
   private boolean hasHeartRate;
 
+  // The photo waypoints waiting for their track to be written
+  private final List<PhotoWaypoint> photoWaypoints = new ArrayList<PhotoWaypoint>();
+
+  // The photo waypoints of the current track, ordered by time
+  private final List<PhotoWaypoint> trackPhotoWaypoints = new ArrayList<PhotoWaypoint>();
+  private int nextPhotoWaypoint;
+
+  // The recent track points of the current track, a ring buffer
+  private final Location[] recentLocations = new Location[HEADING_POINTS];
+  private int numRecentLocations;
+  private int nextRecentLocation;
+
+  // The start time of the first track
+  private long startTime;
+
+  // The time offset of the written track points of the current track
+  private long timeOffset;
+
+  /**
+   * A photo waypoint and the heading to view it.
+   */
+  private static class PhotoWaypoint {
+    final Waypoint waypoint;
+    float heading;
+
+    PhotoWaypoint(Waypoint waypoint) {
+      this.waypoint = waypoint;
+      this.heading = waypoint.getLocation().getBearing();
+    }
+  }
+
   public KmlTrackWriter(Context context, boolean multiple, boolean playTrack) {
     this(context, multiple, playTrack, new DescriptionGeneratorImpl(context));
   }
@@ -94,7 +157,6 @@ public class KmlTrackWriter implements TrackWriter {
     this.multiple = multiple;
     this.playTrack = playTrack;
     this.descriptionGenerator = descriptionGenerator;
-    this.myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
   }
 
   @Override
@@ -104,175 +166,196 @@ public class KmlTrackWriter implements TrackWriter {
 
   @Override
   public void prepare(OutputStream outputStream) {
-    this.printWriter = new PrintWriter(outputStream);
+    this.xmlWriter = new StreamingXmlWriter(outputStream);
   }
 
   @Override
   public void close() {
-    if (printWriter != null) {
-      printWriter.flush();
-      printWriter = null;
+    if (xmlWriter != null) {
+      xmlWriter.flush();
+      xmlWriter = null;
     }
+    deleteSensorFile();
   }
 
   @Override
   public void writeHeader(Track[] tracks) {
-    if (printWriter != null) {
-      printWriter.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-      printWriter.println("<kml xmlns=\"http://www.opengis.net/kml/2.2\"");
-      printWriter.println("xmlns:gx=\"http://www.google.com/kml/ext/2.2\"");
-      printWriter.println("xmlns:atom=\"http://www.w3.org/2005/Atom\">");
-      printWriter.println("<Document>");
-      printWriter.println("<open>1</open>");
-      printWriter.println("<visibility>1</visibility>");
+    if (xmlWriter != null) {
+      xmlWriter.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      xmlWriter.println("<kml xmlns=\"http://www.opengis.net/kml/2.2\"");
+      xmlWriter.println("xmlns:gx=\"http://www.google.com/kml/ext/2.2\"");
+      xmlWriter.println("xmlns:atom=\"http://www.w3.org/2005/Atom\">");
+      xmlWriter.println("<Document>");
+      xmlWriter.println("<open>1</open>");
+      xmlWriter.println("<visibility>1</visibility>");
       Track track = tracks[0];
-      printWriter.println("<name>" + StringUtils.formatCData(track.getName()) + "</name>");
-      printWriter.println("<atom:author><atom:name>"
-          + StringUtils.formatCData(context.getString(R.string.send_google_by_my_tracks, "", ""))
-          + "</atom:name></atom:author>");
+      startTime = track.getTripStatistics().getStartTime();
+      xmlWriter.printlnCDataElement("name", track.getName());
+      xmlWriter.print("<atom:author><atom:name>");
+      xmlWriter.printCData(context.getString(R.string.send_google_by_my_tracks, "", ""));
+      xmlWriter.println("</atom:name></atom:author>");
       writeTrackStyle();
       writePlacemarkerStyle(START_STYLE, START_ICON, 32, 1);
       writePlacemarkerStyle(END_STYLE, END_ICON, 32, 1);
       writePlacemarkerStyle(STATISTICS_STYLE, STATISTICS_ICON, 20, 2);
       writePlacemarkerStyle(WAYPOINT_STYLE, WAYPOINT_ICON, 20, 2);
-      printWriter.println("<Schema id=\"" + SCHEMA_ID + "\">");
+      xmlWriter.println("<Schema id=\"" + SCHEMA_ID + "\">");
       writeSensorStyle(POWER, context.getString(R.string.description_sensor_power));
       writeSensorStyle(CADENCE, context.getString(R.string.description_sensor_cadence));
       writeSensorStyle(HEART_RATE, context.getString(R.string.description_sensor_heart_rate));
-      printWriter.println("</Schema>");
+      xmlWriter.println("</Schema>");
     }
   }
 
   @Override
   public void writeFooter() {
-    if (printWriter != null) {
-      printWriter.println("</Document>");
-      printWriter.println("</kml>");
+    if (xmlWriter != null) {
+      // Photo waypoints without a written track
+      for (PhotoWaypoint photoWaypoint : photoWaypoints) {
+        writePhotoOverlay(photoWaypoint);
+      }
+      photoWaypoints.clear();
+      xmlWriter.println("</Document>");
+      xmlWriter.println("</kml>");
     }
   }
 
   @Override
   public void writeBeginWaypoints(Track track) {
-    if (printWriter != null) {
-      printWriter.println("<Folder><name>"
-          + StringUtils.formatCData(context.getString(R.string.track_markers, track.getName()))
-          + "</name>");
-      printWriter.println("<open>1</open>");
+    if (xmlWriter != null) {
+      xmlWriter.print("<Folder>");
+      xmlWriter.printlnCDataElement(
+          "name", context.getString(R.string.track_markers, track.getName()));
+      xmlWriter.println("<open>1</open>");
     }
   }
 
   @Override
   public void writeEndWaypoints() {
-    if (printWriter != null) {
-      printWriter.println("</Folder>");
+    if (xmlWriter != null) {
+      xmlWriter.println("</Folder>");
     }
   }
 
   @Override
   public void writeWaypoint(Waypoint waypoint) {
-    if (printWriter != null) {
-      String styleName = waypoint.getType() == WaypointType.STATISTICS ? STATISTICS_STYLE
-          : WAYPOINT_STYLE;
+    if (xmlWriter != null) {
       String photoUrl = waypoint.getPhotoUrl();
       if (photoUrl != null && !photoUrl.equals("")) {
-        float heading = getHeading(waypoint.getTrackId(), waypoint.getLocation());
-        writePhotoOverlay(waypoint.getName(), waypoint.getCategory(), waypoint.getDescription(),
-            styleName, waypoint.getLocation(), photoUrl, heading);
+        // Written after the track, once the heading is known
+        if (waypoint.getLocation() != null) {
+          photoWaypoints.add(new PhotoWaypoint(waypoint));
+        }
       } else {
         writePlacemark(waypoint.getName(), waypoint.getCategory(), waypoint.getDescription(),
-            styleName, waypoint.getLocation());
+            getStyleName(waypoint), waypoint.getLocation());
       }
     }
   }
 
   @Override
   public void writeBeginTracks() {
-    if (printWriter != null && multiple) {
-      printWriter.println("<Folder id=\"" + GoogleEarthUtils.TOUR_FEATURE_ID_VALUE + "\">");
-      printWriter.println("<name>" + context.getString(R.string.generic_tracks) + "</name>");
-      printWriter.println("<open>1</open>");
+    if (xmlWriter != null && multiple) {
+      xmlWriter.println("<Folder id=\"" + GoogleEarthUtils.TOUR_FEATURE_ID_VALUE + "\">");
+      xmlWriter.println("<name>" + context.getString(R.string.generic_tracks) + "</name>");
+      xmlWriter.println("<open>1</open>");
     }
   }
 
   @Override
   public void writeEndTracks() {
-    if (printWriter != null && multiple) {
-      printWriter.println("</Folder>");
+    if (xmlWriter != null && multiple) {
+      xmlWriter.println("</Folder>");
     }
   }
   
   @Override
   public void writeBeginTrack(Track track, Location startLocation) {
-    if (printWriter != null) {
+    if (xmlWriter != null) {
+      beginPhotoHeadings(track);
       String name = context.getString(R.string.marker_label_start, track.getName());
       writePlacemark(name, "", "", START_STYLE, startLocation);
       if (multiple) {
         // No need to add TOUR_FEATURE_ID_VALUE
-        printWriter.println("<Placemark>");
+        xmlWriter.println("<Placemark>");
       } else {
-        printWriter.println("<Placemark id=\"" + GoogleEarthUtils.TOUR_FEATURE_ID_VALUE + "\">");
+        xmlWriter.println("<Placemark id=\"" + GoogleEarthUtils.TOUR_FEATURE_ID_VALUE + "\">");
       }
-      printWriter.println("<name>" + StringUtils.formatCData(track.getName()) + "</name>");
-      printWriter.println(
-          "<description>" + StringUtils.formatCData(track.getDescription()) + "</description>");
-      printWriter.println("<styleUrl>#" + TRACK_STYLE + "</styleUrl>");
+      xmlWriter.printlnCDataElement("name", track.getName());
+      xmlWriter.printlnCDataElement("description", track.getDescription());
+      xmlWriter.println("<styleUrl>#" + TRACK_STYLE + "</styleUrl>");
       writeCategory(track.getCategory());
-      printWriter.println("<gx:MultiTrack>");
-      printWriter.println("<altitudeMode>absolute</altitudeMode>");
-      printWriter.println("<gx:interpolate>1</gx:interpolate>");
+      xmlWriter.println("<gx:MultiTrack>");
+      xmlWriter.println("<altitudeMode>absolute</altitudeMode>");
+      xmlWriter.println("<gx:interpolate>1</gx:interpolate>");
     }
   }
 
   @Override
   public void writeEndTrack(Track track, Location endLocation) {
-    if (printWriter != null) {
-      printWriter.println("</gx:MultiTrack>");
-      printWriter.println("</Placemark>");
+    if (xmlWriter != null) {
+      xmlWriter.println("</gx:MultiTrack>");
+      xmlWriter.println("</Placemark>");
       String name = context.getString(R.string.marker_label_end, track.getName());
       String description = descriptionGenerator.generateTrackDescription(track, null, null, false);
       writePlacemark(name, "", description, END_STYLE, endLocation);
+      for (PhotoWaypoint photoWaypoint : trackPhotoWaypoints) {
+        writePhotoOverlay(photoWaypoint);
+      }
+      trackPhotoWaypoints.clear();
     }
   }
 
   @Override
   public void writeOpenSegment() {
-    if (printWriter != null) {
-      printWriter.println("<gx:Track>");
+    if (xmlWriter != null) {
+      xmlWriter.println("<gx:Track>");
       hasPower = false;
       hasCadence = false;
       hasHeartRate = false;
-      powerList.clear();
-      cadenceList.clear();
-      heartRateList.clear();
+      numBufferedPoints = 0;
+      numSpilledPoints = 0;
+      sensorError = false;
+      deleteSensorFile();
     }
   }
 
   @Override
   public void writeCloseSegment() {
-    if (printWriter != null) {
-      printWriter.println("<ExtendedData>");
-      printWriter.println("<SchemaData schemaUrl=\"#" + SCHEMA_ID + "\">");
-      if (hasPower) {
-        writeSensorData(powerList, POWER);
-      }
-      if (hasCadence) {
-        writeSensorData(cadenceList, CADENCE);
-      }
-      if (hasHeartRate) {
-        writeSensorData(heartRateList, HEART_RATE);
+    if (xmlWriter != null) {
+      xmlWriter.println("<ExtendedData>");
+      xmlWriter.println("<SchemaData schemaUrl=\"#" + SCHEMA_ID + "\">");
+      closeSensorOutputStream();
+      if (sensorError) {
+        Log.e(TAG, "Unable to write the sensor data of the segment");
+      } else {
+        if (hasPower) {
+          writeSensorData(POWER_INDEX, POWER);
+        }
+        if (hasCadence) {
+          writeSensorData(CADENCE_INDEX, CADENCE);
+        }
+        if (hasHeartRate) {
+          writeSensorData(HEART_RATE_INDEX, HEART_RATE);
+        }
       }
-      printWriter.println("</SchemaData>");
-      printWriter.println("</ExtendedData>");
-      printWriter.println("</gx:Track>");
+      deleteSensorFile();
+      xmlWriter.println("</SchemaData>");
+      xmlWriter.println("</ExtendedData>");
+      xmlWriter.println("</gx:Track>");
     }
   }
 
   @Override
   public void writeLocation(Location location) {
-    if (printWriter != null) {
-      printWriter.println(
-          "<when>" + StringUtils.formatDateTimeIso8601(location.getTime()) + "</when>");
-      printWriter.println("<gx:coord>" + getCoordinates(location, " ") + "</gx:coord>");
+    if (xmlWriter != null) {
+      xmlWriter.print("<when>");
+      xmlWriter.printTime(location.getTime());
+      xmlWriter.println("</when>");
+      xmlWriter.print("<gx:coord>");
+      writeCoordinates(location, ' ');
+      xmlWriter.println("</gx:coord>");
+      updatePhotoHeadings(location);
       if (location instanceof MyTracksLocation) {
         SensorDataSet sensorDataSet = ((MyTracksLocation) location).getSensorDataSet();
         int power = -1;
@@ -302,25 +385,184 @@ public class KmlTrackWriter implements TrackWriter {
             }
           }
         }
-        powerList.add(power);
-        cadenceList.add(cadence);
-        heartRateList.add(heartRate);
+        if (numBufferedPoints == SENSOR_BUFFER_POINTS) {
+          spillSensorValues();
+        }
+        int offset = numBufferedPoints * NUM_SENSORS;
+        sensorValues[offset + POWER_INDEX] = power;
+        sensorValues[offset + CADENCE_INDEX] = cadence;
+        sensorValues[offset + HEART_RATE_INDEX] = heartRate;
+        numBufferedPoints++;
       }
     }
   }
 
   /**
-   * Writes the sensor data.
+   * Writes the sensor data, first the spilled values, then the buffered ones.
    * 
-   * @param list a list of sensor data
+   * @param index the index of the sensor values of a track point
    * @param name the name of the sensor data
    */
-  private void writeSensorData(ArrayList<Integer> list, String name) {
-    printWriter.println("<gx:SimpleArrayData name=\"" + name + "\">");
-    for (int i = 0; i < list.size(); i++) {
-      printWriter.println("<gx:value>" + list.get(i) + "</gx:value>");
+  private void writeSensorData(int index, String name) {
+    xmlWriter.println("<gx:SimpleArrayData name=\"" + name + "\">");
+    if (sensorFile != null) {
+      DataInputStream dataInputStream = null;
+      try {
+        dataInputStream = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(sensorFile)));
+        for (int i = 0; i < numSpilledPoints; i++) {
+          for (int j = 0; j < NUM_SENSORS; j++) {
+            int value = dataInputStream.readInt();
+            if (j == index) {
+              writeSensorValue(value);
+            }
+          }
+        }
+      } catch (IOException e) {
+        Log.e(TAG, "Unable to read the sensor data", e);
+      } finally {
+        if (dataInputStream != null) {
+          try {
+            dataInputStream.close();
+          } catch (IOException e) {
+            Log.e(TAG, "Unable to close the sensor data", e);
+          }
+        }
+      }
+    }
+    for (int i = 0; i < numBufferedPoints; i++) {
+      writeSensorValue(sensorValues[i * NUM_SENSORS + index]);
+    }
+    xmlWriter.println("</gx:SimpleArrayData>");
+  }
+
+  /**
+   * Writes a sensor value.
+   * 
+   * @param value the value
+   */
+  private void writeSensorValue(int value) {
+    xmlWriter.print("<gx:value>");
+    xmlWriter.print(value);
+    xmlWriter.println("</gx:value>");
+  }
+
+  /**
+   * Spills the buffered sensor values to the sensor file and empties the
+   * buffer. On error, the sensor data of the segment is dropped.
+   */
+  private void spillSensorValues() {
+    if (!sensorError) {
+      try {
+        if (sensorOutputStream == null) {
+          sensorFile = File.createTempFile("kml", ".tmp", context.getCacheDir());
+          sensorOutputStream = new DataOutputStream(
+              new BufferedOutputStream(new FileOutputStream(sensorFile)));
+        }
+        int count = numBufferedPoints * NUM_SENSORS;
+        for (int i = 0; i < count; i++) {
+          sensorOutputStream.writeInt(sensorValues[i]);
+        }
+        numSpilledPoints += numBufferedPoints;
+      } catch (IOException e) {
+        Log.e(TAG, "Unable to spill the sensor data", e);
+        sensorError = true;
+      }
+    }
+    numBufferedPoints = 0;
+  }
+
+  /**
+   * Closes the sensor output stream, flushing the spilled sensor values.
+   */
+  private void closeSensorOutputStream() {
+    if (sensorOutputStream != null) {
+      try {
+        sensorOutputStream.close();
+      } catch (IOException e) {
+        Log.e(TAG, "Unable to close the sensor data", e);
+        sensorError = true;
+      }
+      sensorOutputStream = null;
+    }
+  }
+
+  /**
+   * Deletes the sensor file.
+   */
+  private void deleteSensorFile() {
+    closeSensorOutputStream();
+    if (sensorFile != null) {
+      if (!sensorFile.delete()) {
+        Log.d(TAG, "Unable to delete the sensor file");
+      }
+      sensorFile = null;
+    }
+  }
+
+  /**
+   * Begins computing the headings of the photo waypoints of a track. Takes the
+   * photo waypoints of the track, ordered by time.
+   * 
+   * @param track the track
+   */
+  private void beginPhotoHeadings(Track track) {
+    trackPhotoWaypoints.clear();
+    for (int i = photoWaypoints.size() - 1; i >= 0; i--) {
+      if (photoWaypoints.get(i).waypoint.getTrackId() == track.getId()) {
+        trackPhotoWaypoints.add(photoWaypoints.remove(i));
+      }
+    }
+    Collections.sort(trackPhotoWaypoints, new Comparator<PhotoWaypoint>() {
+        @Override
+      public int compare(PhotoWaypoint photoWaypoint1, PhotoWaypoint photoWaypoint2) {
+        long time1 = photoWaypoint1.waypoint.getLocation().getTime();
+        long time2 = photoWaypoint2.waypoint.getLocation().getTime();
+        return time1 < time2 ? -1 : (time1 == time2 ? 0 : 1);
+      }
+    });
+    nextPhotoWaypoint = 0;
+    numRecentLocations = 0;
+    nextRecentLocation = 0;
+
+    // The track point times are offset for multiple tracks
+    timeOffset = track.getTripStatistics().getStartTime() - startTime;
+  }
+
+  /**
+   * Updates the headings of the photo waypoints at a track point. The heading
+   * is from the track point {@link #HEADING_POINTS} points back, or the first
+   * track point, to the photo location.
+   * 
+   * @param location the track point
+   */
+  private void updatePhotoHeadings(Location location) {
+    if (trackPhotoWaypoints.isEmpty()) {
+      return;
+    }
+    if (recentLocations[nextRecentLocation] == null) {
+      recentLocations[nextRecentLocation] = new Location(location);
+    } else {
+      recentLocations[nextRecentLocation].set(location);
+    }
+    nextRecentLocation = (nextRecentLocation + 1) % HEADING_POINTS;
+    if (numRecentLocations < HEADING_POINTS) {
+      numRecentLocations++;
+    }
+
+    long time = location.getTime() + timeOffset;
+    while (nextPhotoWaypoint < trackPhotoWaypoints.size()) {
+      PhotoWaypoint photoWaypoint = trackPhotoWaypoints.get(nextPhotoWaypoint);
+      Location photoLocation = photoWaypoint.waypoint.getLocation();
+      if (photoLocation.getTime() > time) {
+        break;
+      }
+      if (photoLocation.getTime() == time) {
+        int oldest = (nextRecentLocation - numRecentLocations + HEADING_POINTS) % HEADING_POINTS;
+        photoWaypoint.heading = recentLocations[oldest].bearingTo(photoLocation);
+      }
+      nextPhotoWaypoint++;
     }
-    printWriter.println("</gx:SimpleArrayData>");
   }
 
   /**
@@ -335,18 +577,14 @@ public class KmlTrackWriter implements TrackWriter {
   private void writePlacemark(
       String name, String category, String description, String styleName, Location location) {
     if (location != null) {
-      printWriter.println("<Placemark>");
-      printWriter.println("<name>" + StringUtils.formatCData(name) + "</name>");
-      printWriter.println(
-          "<description>" + StringUtils.formatCData(description) + "</description>");
-      printWriter.println("<TimeStamp><when>"
-          + StringUtils.formatDateTimeIso8601(location.getTime()) + "</when></TimeStamp>");
-      printWriter.println("<styleUrl>#" + styleName + "</styleUrl>");
+      xmlWriter.println("<Placemark>");
+      xmlWriter.printlnCDataElement("name", name);
+      xmlWriter.printlnCDataElement("description", description);
+      writeTimeStamp(location);
+      xmlWriter.println("<styleUrl>#" + styleName + "</styleUrl>");
       writeCategory(category);
-      printWriter.println("<Point>");
-      printWriter.println("<coordinates>" + getCoordinates(location, ",") + "</coordinates>");
-      printWriter.println("</Point>");
-      printWriter.println("</Placemark>");
+      writePoint(location);
+      xmlWriter.println("</Placemark>");
     }
   }
   
@@ -364,78 +602,102 @@ public class KmlTrackWriter implements TrackWriter {
   private void writePhotoOverlay(String name, String category, String description, String styleName,
       Location location, String photoUrl, float heading) {
     if (location != null) {
-      printWriter.println("<PhotoOverlay>");
-      printWriter.println("<name>" + StringUtils.formatCData(name) + "</name>");
-      printWriter.println(
-          "<description>" + StringUtils.formatCData(description) + "</description>");
-      printWriter.print("<Camera>");
-      printWriter.print("<longitude>" + location.getLongitude() + "</longitude>");
-      printWriter.print("<latitude>" + location.getLatitude() + "</latitude>");
-      printWriter.print("<altitude>20</altitude>");
-      printWriter.print("<heading>" + heading + "</heading>");
-      printWriter.print("<tilt>90</tilt>");
-      printWriter.println("</Camera>");
-      printWriter.println("<TimeStamp><when>"
-          + StringUtils.formatDateTimeIso8601(location.getTime()) + "</when></TimeStamp>");
-      printWriter.println("<styleUrl>#" + styleName + "</styleUrl>");
+      xmlWriter.println("<PhotoOverlay>");
+      xmlWriter.printlnCDataElement("name", name);
+      xmlWriter.printlnCDataElement("description", description);
+      xmlWriter.print("<Camera>");
+      xmlWriter.print("<longitude>");
+      xmlWriter.printDecimal(location.getLongitude(), 1, COORDINATE_FRACTION_DIGITS);
+      xmlWriter.print("</longitude><latitude>");
+      xmlWriter.printDecimal(location.getLatitude(), 1, COORDINATE_FRACTION_DIGITS);
+      xmlWriter.print("</latitude>");
+      xmlWriter.print("<altitude>20</altitude>");
+      xmlWriter.print("<heading>" + heading + "</heading>");
+      xmlWriter.print("<tilt>90</tilt>");
+      xmlWriter.println("</Camera>");
+      writeTimeStamp(location);
+      xmlWriter.println("<styleUrl>#" + styleName + "</styleUrl>");
       writeCategory(category);
       if (playTrack) {
-        printWriter.println("<Icon><href>" + Uri.decode(photoUrl) + "</href></Icon>"); 
+        xmlWriter.println("<Icon><href>" + Uri.decode(photoUrl) + "</href></Icon>"); 
       } else {
         Uri uri = Uri.parse(photoUrl);
-        printWriter.println("<Icon><href>" + KmzTrackExporter.KMZ_IMAGES_DIR + File.separatorChar
+        xmlWriter.println("<Icon><href>" + KmzTrackExporter.KMZ_IMAGES_DIR + File.separatorChar
             + uri.getLastPathSegment() + "</href></Icon>");        
       }
       
-      printWriter.print("<ViewVolume>");
-      printWriter.print("<near>10</near>");
-      printWriter.print("<leftFov>-60</leftFov>");
-      printWriter.print("<rightFov>60</rightFov>");
-      printWriter.print("<bottomFov>-45</bottomFov>");
-      printWriter.print("<topFov>45</topFov>");
-      printWriter.println("</ViewVolume>");
-      printWriter.println("<Point>");
-      printWriter.println("<coordinates>" + getCoordinates(location, ",") + "</coordinates>");
-      printWriter.println("</Point>");
-      printWriter.println("</PhotoOverlay>");
+      xmlWriter.print("<ViewVolume>");
+      xmlWriter.print("<near>10</near>");
+      xmlWriter.print("<leftFov>-60</leftFov>");
+      xmlWriter.print("<rightFov>60</rightFov>");
+      xmlWriter.print("<bottomFov>-45</bottomFov>");
+      xmlWriter.print("<topFov>45</topFov>");
+      xmlWriter.println("</ViewVolume>");
+      writePoint(location);
+      xmlWriter.println("</PhotoOverlay>");
     }
   }
 
   /**
-   * Gets the heading to a location.
+   * Writes a photo overlay for a photo waypoint.
    * 
-   * @param trackId the track id containing the location
-   * @param location the location
+   * @param photoWaypoint the photo waypoint
    */
-  private float getHeading(long trackId, Location location) {
-    long trackPointId = myTracksProviderUtils.getTrackPointId(trackId, location);
-    if (trackPointId == -1L) {
-      return location.getBearing();
-    }
-    Cursor cursor = null;
-    Location viewLocation;
-    try {
-      cursor = myTracksProviderUtils.getTrackPointCursor(trackId, trackPointId, 10, true);
-      if (cursor == null || cursor.getCount() == 0) {
-        return location.getBearing();
-      }
-      cursor.moveToPosition(cursor.getCount() - 1);
-      viewLocation = myTracksProviderUtils.createTrackPoint(cursor);
-    } finally {
-      if (cursor != null) {
-        cursor.close();
-      }
-    }  
-    return viewLocation.bearingTo(location);
+  private void writePhotoOverlay(PhotoWaypoint photoWaypoint) {
+    Waypoint waypoint = photoWaypoint.waypoint;
+    writePhotoOverlay(waypoint.getName(), waypoint.getCategory(), waypoint.getDescription(),
+        getStyleName(waypoint), waypoint.getLocation(), waypoint.getPhotoUrl(),
+        photoWaypoint.heading);
   }
-  
-  private String getCoordinates(Location location, String separator) {
-    StringBuffer buffer = new StringBuffer();
-    buffer.append(location.getLongitude() + separator + location.getLatitude());
+
+  /**
+   * Gets the style name of a waypoint.
+   * 
+   * @param waypoint the waypoint
+   */
+  private String getStyleName(Waypoint waypoint) {
+    return waypoint.getType() == WaypointType.STATISTICS ? STATISTICS_STYLE : WAYPOINT_STYLE;
+  }
+
+  /**
+   * Writes the coordinates of a location, longitude, latitude, and altitude if
+   * available.
+   * 
+   * @param location the location
+   * @param separator the separator between the coordinates
+   */
+  private void writeCoordinates(Location location, char separator) {
+    xmlWriter.printDecimal(location.getLongitude(), 1, COORDINATE_FRACTION_DIGITS);
+    xmlWriter.print(separator);
+    xmlWriter.printDecimal(location.getLatitude(), 1, COORDINATE_FRACTION_DIGITS);
     if (location.hasAltitude()) {
-      buffer.append(separator + location.getAltitude());
+      xmlWriter.print(separator);
+      xmlWriter.printDecimal(location.getAltitude(), 1, ALTITUDE_FRACTION_DIGITS);
     }
-    return buffer.toString();    
+  }
+
+  /**
+   * Writes a point element at a location.
+   * 
+   * @param location the location
+   */
+  private void writePoint(Location location) {
+    xmlWriter.println("<Point>");
+    xmlWriter.print("<coordinates>");
+    writeCoordinates(location, ',');
+    xmlWriter.println("</coordinates>");
+    xmlWriter.println("</Point>");
+  }
+
+  /**
+   * Writes a time stamp element with the time of a location.
+   * 
+   * @param location the location
+   */
+  private void writeTimeStamp(Location location) {
+    xmlWriter.print("<TimeStamp><when>");
+    xmlWriter.printTime(location.getTime());
+    xmlWriter.println("</when></TimeStamp>");
   }
 
   /**
@@ -447,23 +709,24 @@ public class KmlTrackWriter implements TrackWriter {
     if (category == null || category.equals("")) {
       return;
     }
-    printWriter.println("<ExtendedData>");
-    printWriter.println(
-        "<Data name=\"type\"><value>" + StringUtils.formatCData(category) + "</value></Data>");
-    printWriter.println("</ExtendedData>");
+    xmlWriter.println("<ExtendedData>");
+    xmlWriter.print("<Data name=\"type\"><value>");
+    xmlWriter.printCData(category);
+    xmlWriter.println("</value></Data>");
+    xmlWriter.println("</ExtendedData>");
   }
 
   /**
    * Writes the track style.
    */
   private void writeTrackStyle() {
-    printWriter.println("<Style id=\"" + TRACK_STYLE + "\">");
-    printWriter.println("<LineStyle><color>7f0000ff</color><width>4</width></LineStyle>");
-    printWriter.println("<IconStyle>");
-    printWriter.println("<scale>1.3</scale>");
-    printWriter.println("<Icon><href>" + TRACK_ICON + "</href></Icon>");
-    printWriter.println("</IconStyle>");
-    printWriter.println("</Style>");
+    xmlWriter.println("<Style id=\"" + TRACK_STYLE + "\">");
+    xmlWriter.println("<LineStyle><color>7f0000ff</color><width>4</width></LineStyle>");
+    xmlWriter.println("<IconStyle>");
+    xmlWriter.println("<scale>1.3</scale>");
+    xmlWriter.println("<Icon><href>" + TRACK_ICON + "</href></Icon>");
+    xmlWriter.println("</IconStyle>");
+    xmlWriter.println("</Style>");
   }
 
   /**
@@ -475,12 +738,12 @@ public class KmlTrackWriter implements TrackWriter {
    * @param y the y position of the hotspot
    */
   private void writePlacemarkerStyle(String name, String url, int x, int y) {
-    printWriter.println("<Style id=\"" + name + "\"><IconStyle>");
-    printWriter.println("<scale>1.3</scale>");
-    printWriter.println("<Icon><href>" + url + "</href></Icon>");
-    printWriter.println(
+    xmlWriter.println("<Style id=\"" + name + "\"><IconStyle>");
+    xmlWriter.println("<scale>1.3</scale>");
+    xmlWriter.println("<Icon><href>" + url + "</href></Icon>");
+    xmlWriter.println(
         "<hotSpot x=\"" + x + "\" y=\"" + y + "\" xunits=\"pixels\" yunits=\"pixels\"/>");
-    printWriter.println("</IconStyle></Style>");
+    xmlWriter.println("</IconStyle></Style>");
   }
 
   /**
@@ -490,8 +753,8 @@ public class KmlTrackWriter implements TrackWriter {
    * @param displayName the sensor display name
    */
   private void writeSensorStyle(String name, String displayName) {
-    printWriter.println("<gx:SimpleArrayField name=\"" + name + "\" type=\"int\">");
-    printWriter.println("<displayName>" + StringUtils.formatCData(displayName) + "</displayName>");
-    printWriter.println("</gx:SimpleArrayField>");
+    xmlWriter.println("<gx:SimpleArrayField name=\"" + name + "\" type=\"int\">");
+    xmlWriter.printlnCDataElement("displayName", displayName);
+    xmlWriter.println("</gx:SimpleArrayField>");
   }
 }
@@ -51,7 +51,7 @@ public class KmzTrackExporter implements TrackExporter {
   private static final int BUFFER_SIZE = 4096;
 
   private final MyTracksProviderUtils myTracksProviderUtils;
-  private final FileTrackExporter fileTrackExporter;
+  private final TrackExporter kmlTrackExporter;
   private final Track[] tracks;
   private final long photoSize;
 
@@ -59,14 +59,14 @@ public class KmzTrackExporter implements TrackExporter {
    * Constructor.
    * 
    * @param myTracksProviderUtils the my tracks provider utils
-   * @param fileTrackExporter the file track exporter
+   * @param kmlTrackExporter the track exporter of the kml file
    * @param tracks the tracks to export
    * @param context the context
    */
   public KmzTrackExporter(MyTracksProviderUtils myTracksProviderUtils,
-      FileTrackExporter fileTrackExporter, Track[] tracks, Context context) {
+      TrackExporter kmlTrackExporter, Track[] tracks, Context context) {
     this.myTracksProviderUtils = myTracksProviderUtils;
-    this.fileTrackExporter = fileTrackExporter;
+    this.kmlTrackExporter = kmlTrackExporter;
     this.tracks = tracks;
     this.photoSize = PreferencesUtils.getInt(
         context, R.string.photo_size_key, PreferencesUtils.PHOTO_SIZE_DEFAULT);
@@ -82,7 +82,7 @@ public class KmzTrackExporter implements TrackExporter {
       ZipEntry zipEntry = new ZipEntry(KMZ_KML_FILE);
       zipOutputStream.putNextEntry(zipEntry);
 
-      boolean success = fileTrackExporter.writeTrack(zipOutputStream);
+      boolean success = kmlTrackExporter.writeTrack(zipOutputStream);
       zipOutputStream.closeEntry();
       if (!success) {
         Log.e(TAG, "Unable to write kml in kmz");
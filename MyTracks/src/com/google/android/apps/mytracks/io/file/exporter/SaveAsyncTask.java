@@ -35,9 +35,21 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Async Task to save tracks to the external storage.
+ * Async Task to save tracks to the external storage. When saving all the
+ * tracks, the tracks are saved in parallel by a pool of threads, each with its
+ * own track writer.
  * 
  * @author Jimmy Shih
  */
@@ -45,6 +57,12 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
 
   private static final String TAG = SaveAsyncTask.class.getSimpleName();
 
+  // The maximum number of tracks saved at the same time
+  private static final int MAX_SAVE_THREADS = 4;
+
+  // The interval to check for cancellation while waiting for the save threads
+  private static final long CANCEL_CHECK_INTERVAL = 200L;
+
   private SaveActivity saveActivity;
   private final long[] trackIds;
   private final TrackFileFormat trackFileFormat;
@@ -54,7 +72,6 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
   private final MyTracksProviderUtils myTracksProviderUtils;
 
   private WakeLock wakeLock;
-  private TrackExporter trackExporter;
 
   // true if the AsyncTask has completed
   private boolean completed;
@@ -137,8 +154,25 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
             return false;
           }
         }
-        if (saveTracks(tracks)) {
+        String fileName = FileUtils.buildUniqueFileName(
+            directory, tracks[0].getName(), getExtension());
+        File file = new File(directory, fileName);
+        TrackExporterListener trackExporterListener = new TrackExporterListener() {
+
+            @Override
+          public void onProgressUpdate(int number, int max) {
+            /*
+             * If only saving one track, update the progress dialog once every
+             * 500 points
+             */
+            if (trackIds.length == 1 && number % 500 == 0) {
+              publishProgress(number, max);
+            }
+          }
+        };
+        if (saveTracks(tracks, file, trackExporterListener)) {
           successCount = 1;
+          savedPath = file.getAbsolutePath();
           return true;
         } else {
           return false;
@@ -175,56 +209,50 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
   }
 
   /**
-   * Saves tracks to one file.
+   * Gets the extension of the saved files.
+   */
+  private String getExtension() {
+    return useKmz() ? KmzTrackExporter.KMZ_EXTENSION : trackFileFormat.getExtension();
+  }
+
+  /**
+   * Returns true to save KML tracks as KMZ files.
+   */
+  private boolean useKmz() {
+    return trackFileFormat == TrackFileFormat.KML && !playTrack;
+  }
+
+  /**
+   * Saves tracks to one file. Deletes the file if unable to save. Can be
+   * called from multiple threads, each call creates its own track writer.
    * 
    * @param tracks the tracks
+   * @param file the file
+   * @param trackExporterListener the track exporter listener, can be null
    */
-  private Boolean saveTracks(Track[] tracks) {
+  private boolean saveTracks(
+      Track[] tracks, File file, TrackExporterListener trackExporterListener) {
     if (tracks.length == 0) {
       return false;
     }
-    
-    Track track = tracks[0];
-    boolean useKmz = trackFileFormat == TrackFileFormat.KML && !playTrack;
-    String extension = useKmz ? KmzTrackExporter.KMZ_EXTENSION : trackFileFormat.getExtension();
+
     FileTrackExporter fileTrackExporter = new FileTrackExporter(myTracksProviderUtils, tracks,
         trackFileFormat.newTrackWriter(context, tracks.length > 1, playTrack),
-        new TrackExporterListener() {
-
-            @Override
-          public void onProgressUpdate(int number, int max) {
-            /*
-             * If only saving one track, update the progress dialog once every
-             * 500 points
-             */
-            if (trackIds.length == 1 && trackIds[0] != -1L && number % 500 == 0) {
-              publishProgress(number, max);
-            }
-          }
-        });
-
-    trackExporter = useKmz ? new KmzTrackExporter(
+        trackExporterListener);
+    TrackExporter trackExporter = useKmz() ? new KmzTrackExporter(
         myTracksProviderUtils, fileTrackExporter, tracks, context)
         : fileTrackExporter;
 
-    String fileName = FileUtils.buildUniqueFileName(directory, track.getName(), extension);
-    File file = new File(directory, fileName);
     FileOutputStream fileOutputStream = null;
+    boolean success = false;
     try {
       fileOutputStream = new FileOutputStream(file);
-      if (trackExporter.writeTrack(fileOutputStream)) {
-        savedPath = file.getAbsolutePath();
-        return true;
-      } else {
-        if (!file.delete()) {
-          Log.d(TAG, "Unable to delete file");
-        }
+      success = trackExporter.writeTrack(fileOutputStream);
+      if (!success) {
         Log.e(TAG, "Unable to export track");
-        return false;
       }
     } catch (FileNotFoundException e) {
       Log.e(TAG, "Unable to open file " + file.getName(), e);
-      return false;
     } finally {
       if (fileOutputStream != null) {
         try {
@@ -233,36 +261,160 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
           Log.e(TAG, "Unable to close file output stream", e);
         }
       }
+      if (!success && file.exists() && !file.delete()) {
+        Log.d(TAG, "Unable to delete file");
+      }
     }
+    return success;
   }
 
   /**
-   * Saves all the tracks.
+   * Saves all the tracks on a pool of save threads. The file names are
+   * reserved in track id order before saving, so that the tracks get the same
+   * file names as when saved one at a time. Publishes the progress as tracks
+   * complete. Stops early if cancelled, interrupting the save threads, which
+   * delete their partially saved files.
    */
   private Boolean saveAllTracks() {
-    Cursor cursor = null;
+    List<Track> tracks = getAllTracks();
+    if (tracks == null) {
+      return false;
+    }
+    totalCount = tracks.size();
+    if (totalCount == 0) {
+      return true;
+    }
+
+    int threads = Math.min(totalCount,
+        Math.min(MAX_SAVE_THREADS, Runtime.getRuntime().availableProcessors()));
+    String extension = getExtension();
+    final File[] files = new File[totalCount];
+    List<Future<Integer>> futures = new ArrayList<Future<Integer>>(totalCount);
+    ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, threads));
     try {
-      cursor = myTracksProviderUtils.getTrackCursor(null, null, TracksColumns._ID);
-      if (cursor == null) {
-        return false;
+      CompletionService<Integer> completionService = new ExecutorCompletionService<Integer>(
+          executorService);
+      for (int i = 0; i < totalCount; i++) {
+        final Track track = tracks.get(i);
+        final int index = i;
+        files[i] = reserveFile(track.getName(), extension);
+        futures.add(completionService.submit(new Callable<Integer>() {
+            @Override
+          public Integer call() {
+            if (files[index] == null || !saveTracks(new Track[] { track }, files[index], null)) {
+              return -1;
+            }
+            return index;
+          }
+        }));
       }
-      totalCount = cursor.getCount();
+
+      int savedIndex = -1;
       for (int i = 0; i < totalCount; i++) {
-        if (isCancelled()) {
-          return false;
+        Future<Integer> future = null;
+        while (future == null) {
+          if (isCancelled()) {
+            return false;
+          }
+          future = completionService.poll(CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
         }
-        cursor.moveToPosition(i);
-        Track track = myTracksProviderUtils.createTrack(cursor);
-        if (track != null && saveTracks(new Track[] { track })) {
+        int index;
+        try {
+          index = future.get();
+        } catch (ExecutionException e) {
+          Log.e(TAG, "Unable to save track", e);
+          index = -1;
+        }
+        if (index != -1) {
           successCount++;
+          if (index > savedIndex) {
+            savedIndex = index;
+            savedPath = files[index].getAbsolutePath();
+          }
         }
         publishProgress(i + 1, totalCount);
       }
       return true;
+    } catch (InterruptedException e) {
+      Log.d(TAG, "Save interrupted");
+      return false;
+    } finally {
+      executorService.shutdownNow();
+      awaitTermination(executorService);
+
+      // Delete the reserved files of the tracks not saved because cancelled
+      for (int i = 0; i < futures.size(); i++) {
+        if (!futures.get(i).isDone() && files[i] != null && !files[i].delete()) {
+          Log.d(TAG, "Unable to delete file");
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets all the tracks, ordered by id. Returns null if unable to query.
+   */
+  private List<Track> getAllTracks() {
+    Cursor cursor = null;
+    try {
+      cursor = myTracksProviderUtils.getTrackCursor(null, null, TracksColumns._ID);
+      if (cursor == null) {
+        return null;
+      }
+      List<Track> tracks = new ArrayList<Track>(cursor.getCount());
+      while (cursor.moveToNext()) {
+        Track track = myTracksProviderUtils.createTrack(cursor);
+        if (track != null) {
+          tracks.add(track);
+        }
+      }
+      return tracks;
     } finally {
       if (cursor != null) {
         cursor.close();
       }
     }
   }
+
+  /**
+   * Reserves a unique file by creating it empty. Returns null if unable to
+   * create the file.
+   * 
+   * @param name the track name
+   * @param extension the file extension
+   */
+  private File reserveFile(String name, String extension) {
+    File file = new File(directory, FileUtils.buildUniqueFileName(directory, name, extension));
+    try {
+      if (file.createNewFile()) {
+        return file;
+      }
+      Log.e(TAG, "File already exists " + file.getName());
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to create file " + file.getName(), e);
+    }
+    return null;
+  }
+
+  /**
+   * Waits for the save threads to finish cleaning up. Keeps waiting when
+   * interrupted so that the reserved files are deleted last.
+   * 
+   * @param executorService the executor service
+   */
+  private void awaitTermination(ExecutorService executorService) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        if (executorService.awaitTermination(CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+          break;
+        }
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
 }
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.exporter;
+
+import com.google.android.apps.mytracks.util.Iso8601Codec;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A streaming XML writer for the track writers. Collects the output in a
+ * reusable char buffer and encodes it as UTF-8 into a reusable byte buffer, so
+ * writing a track point does not allocate. Numbers are formatted directly into
+ * the buffer with a period as the decimal point, as GPX, KML, and TCX readers
+ * expect. Like {@link java.io.PrintWriter}, I/O errors are not thrown, see
+ * {@link #checkError()}.
+ */
+class StreamingXmlWriter {
+
+  private static final String TAG = StreamingXmlWriter.class.getSimpleName();
+
+  private static final int BUFFER_SIZE = 16384;
+
+  // The maximum number of fraction digits of a formatted decimal
+  private static final int MAX_FRACTION_DIGITS = 9;
+
+  // The powers of ten up to 10^MAX_FRACTION_DIGITS
+  private static final long[] POWERS_OF_TEN = {
+      1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L };
+
+  // The largest scaled decimal formatted directly, above it Double.toString is used
+  private static final double MAX_SCALED_DECIMAL = 1e15;
+
+  private static final String CDATA_START = "<![CDATA[";
+  private static final String CDATA_END = "]]>";
+  private static final String CDATA_END_ESCAPED = "]]]]><![CDATA[>";
+
+  private final OutputStream outputStream;
+  private final char[] chars = new char[BUFFER_SIZE];
+
+  // A char encodes to at most 3 bytes, a surrogate pair to 4
+  private final byte[] bytes = new byte[3 * BUFFER_SIZE];
+
+  private int numChars = 0;
+  private boolean error = false;
+
+  /**
+   * Constructor.
+   * 
+   * @param outputStream the output stream
+   */
+  public StreamingXmlWriter(OutputStream outputStream) {
+    this.outputStream = outputStream;
+  }
+
+  /**
+   * Writes a text as is.
+   * 
+   * @param text the text
+   */
+  public void print(String text) {
+    printRange(text, 0, text.length());
+  }
+
+  /**
+   * Writes a text as is, followed by a new line.
+   * 
+   * @param text the text
+   */
+  public void println(String text) {
+    print(text);
+    print('\n');
+  }
+
+  /**
+   * Writes a char.
+   * 
+   * @param c the char
+   */
+  public void print(char c) {
+    if (numChars == BUFFER_SIZE) {
+      flushBuffer();
+    }
+    chars[numChars++] = c;
+  }
+
+  /**
+   * Writes an integer in decimal.
+   * 
+   * @param value the value
+   */
+  public void print(long value) {
+    if (value == Long.MIN_VALUE) {
+      print(Long.toString(value));
+      return;
+    }
+    // A long has at most 19 digits and a sign
+    ensureCapacity(20);
+    if (value < 0) {
+      chars[numChars++] = '-';
+      value = -value;
+    }
+    int numDigits = 1;
+    for (long remaining = value / 10; remaining != 0; remaining /= 10) {
+      numDigits++;
+    }
+    for (int i = numChars + numDigits - 1; i >= numChars; i--) {
+      chars[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+    numChars += numDigits;
+  }
+
+  /**
+   * Writes a decimal rounded to a number of fraction digits, without trailing
+   * zeros in the fraction.
+   * 
+   * @param value the value
+   * @param maxFractionDigits the maximum number of fraction digits
+   */
+  public void printDecimal(double value, int maxFractionDigits) {
+    printDecimal(value, 0, maxFractionDigits);
+  }
+
+  /**
+   * Writes a decimal rounded to a number of fraction digits, without trailing
+   * zeros in the fraction beyond a minimum number of fraction digits.
+   * 
+   * @param value the value
+   * @param minFractionDigits the minimum number of fraction digits
+   * @param maxFractionDigits the maximum number of fraction digits, at most 9
+   */
+  public void printDecimal(double value, int minFractionDigits, int maxFractionDigits) {
+    if (maxFractionDigits > MAX_FRACTION_DIGITS) {
+      throw new IllegalArgumentException("Too many fraction digits " + maxFractionDigits);
+    }
+    double scaledValue = Math.abs(value) * POWERS_OF_TEN[maxFractionDigits];
+    if (Double.isNaN(value) || scaledValue >= MAX_SCALED_DECIMAL) {
+      print(Double.toString(value));
+      return;
+    }
+    long scaled = Math.round(scaledValue);
+    long integer = scaled / POWERS_OF_TEN[maxFractionDigits];
+    long fraction = scaled % POWERS_OF_TEN[maxFractionDigits];
+    int numFractionDigits = maxFractionDigits;
+    while (numFractionDigits > minFractionDigits && fraction % 10 == 0) {
+      fraction /= 10;
+      numFractionDigits--;
+    }
+
+    if (value < 0 && scaled != 0) {
+      print('-');
+    }
+    print(integer);
+    if (numFractionDigits > 0) {
+      ensureCapacity(numFractionDigits + 1);
+      chars[numChars++] = '.';
+      for (int i = numChars + numFractionDigits - 1; i >= numChars; i--) {
+        chars[i] = (char) ('0' + fraction % 10);
+        fraction /= 10;
+      }
+      numChars += numFractionDigits;
+    }
+  }
+
+  /**
+   * Writes a time formatted as an ISO 8601 date time in UTC.
+   * 
+   * @param time the time in milliseconds
+   */
+  public void printTime(long time) {
+    ensureCapacity(Iso8601Codec.LENGTH);
+    numChars = Iso8601Codec.format(time, chars, numChars);
+  }
+
+  /**
+   * Writes a text as a CDATA section, escaping the CDATA end markers in the
+   * text. This may result in multiple consecutive CDATA sections.
+   * 
+   * @param text the text
+   */
+  public void printCData(String text) {
+    print(CDATA_START);
+    int length = text.length();
+    int start = 0;
+    int end = text.indexOf(CDATA_END);
+    while (end != -1) {
+      printRange(text, start, end);
+      print(CDATA_END_ESCAPED);
+      start = end + CDATA_END.length();
+      end = text.indexOf(CDATA_END, start);
+    }
+    printRange(text, start, length);
+    print(CDATA_END);
+  }
+
+  /**
+   * Writes an element with a CDATA text, followed by a new line.
+   * 
+   * @param name the element name
+   * @param text the text
+   */
+  public void printlnCDataElement(String name, String text) {
+    print('<');
+    print(name);
+    print('>');
+    printCData(text);
+    print("</");
+    print(name);
+    println(">");
+  }
+
+  /**
+   * Writes the buffered output to the output stream and flushes the output
+   * stream.
+   */
+  public void flush() {
+    flushBuffer();
+    try {
+      outputStream.flush();
+    } catch (IOException e) {
+      setError(e);
+    }
+  }
+
+  /**
+   * Returns true if writing to the output stream failed.
+   */
+  public boolean checkError() {
+    return error;
+  }
+
+  /**
+   * Writes a range of a text as is.
+   * 
+   * @param text the text
+   * @param start the start index
+   * @param end the end index, exclusive
+   */
+  private void printRange(String text, int start, int end) {
+    while (start < end) {
+      if (numChars == BUFFER_SIZE) {
+        flushBuffer();
+      }
+      int stop = Math.min(end, start + BUFFER_SIZE - numChars);
+      text.getChars(start, stop, chars, numChars);
+      numChars += stop - start;
+      start = stop;
+    }
+  }
+
+  /**
+   * Makes room for a number of chars in the buffer.
+   * 
+   * @param count the number of chars, at most the buffer size
+   */
+  private void ensureCapacity(int count) {
+    if (numChars + count > BUFFER_SIZE) {
+      flushBuffer();
+    }
+  }
+
+  /**
+   * Encodes the buffered chars as UTF-8 and writes them to the output stream.
+   * A high surrogate ending the buffer is kept until its low surrogate is
+   * written.
+   */
+  private void flushBuffer() {
+    int numBytes = 0;
+    int i = 0;
+    while (i < numChars) {
+      char c = chars[i++];
+      if (c < 0x80) {
+        bytes[numBytes++] = (byte) c;
+      } else if (c < 0x800) {
+        bytes[numBytes++] = (byte) (0xc0 | (c >> 6));
+        bytes[numBytes++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c)) {
+        if (i == numChars) {
+          // Wait for the low surrogate
+          i--;
+          break;
+        }
+        char low = chars[i];
+        if (Character.isLowSurrogate(low)) {
+          i++;
+          int codePoint = Character.toCodePoint(c, low);
+          bytes[numBytes++] = (byte) (0xf0 | (codePoint >> 18));
+          bytes[numBytes++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+          bytes[numBytes++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+          bytes[numBytes++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else {
+          bytes[numBytes++] = '?';
+        }
+      } else if (Character.isLowSurrogate(c)) {
+        bytes[numBytes++] = '?';
+      } else {
+        bytes[numBytes++] = (byte) (0xe0 | (c >> 12));
+        bytes[numBytes++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        bytes[numBytes++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    int numRemaining = numChars - i;
+    if (numRemaining > 0) {
+      chars[0] = chars[i];
+    }
+    numChars = numRemaining;
+
+    if (numBytes > 0 && !error) {
+      try {
+        outputStream.write(bytes, 0, numBytes);
+      } catch (IOException e) {
+        setError(e);
+      }
+    }
+  }
+
+  /**
+   * Records a write error.
+   * 
+   * @param e the exception
+   */
+  private void setError(IOException e) {
+    if (!error) {
+      Log.e(TAG, "Unable to write", e);
+    }
+    error = true;
+  }
+}
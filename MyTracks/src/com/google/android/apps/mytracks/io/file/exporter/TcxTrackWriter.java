@@ -30,7 +30,6 @@ import android.content.Context;
 import android.location.Location;
 
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.util.Locale;
 
 /**
@@ -85,8 +84,11 @@ public class TcxTrackWriter implements TrackWriter {
       R.string.activity_type_trail_running,
       R.string.activity_type_walking };
 
+  private static final int COORDINATE_FRACTION_DIGITS = 6;
+  private static final int ALTITUDE_FRACTION_DIGITS = 1;
+
   private final Context context;
-  private PrintWriter printWriter;
+  private StreamingXmlWriter xmlWriter;
   private SportType sportType;
 
   public TcxTrackWriter(Context context) {
@@ -95,14 +97,14 @@ public class TcxTrackWriter implements TrackWriter {
 
   @Override
   public void prepare(OutputStream outputStream) {
-    this.printWriter = new PrintWriter(outputStream);
+    this.xmlWriter = new StreamingXmlWriter(outputStream);
   }
   
   @Override
   public void close() {
-    if (printWriter != null) {
-      printWriter.flush();
-      printWriter = null;
+    if (xmlWriter != null) {
+      xmlWriter.flush();
+      xmlWriter = null;
     }
   }
 
@@ -113,12 +115,12 @@ public class TcxTrackWriter implements TrackWriter {
 
   @Override
   public void writeHeader(Track[] tracks) {
-    if (printWriter != null) {
-      printWriter.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-      printWriter.println("<TrainingCenterDatabase"
+    if (xmlWriter != null) {
+      xmlWriter.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      xmlWriter.println("<TrainingCenterDatabase"
           + " xmlns=\"http://www.garmin.com/xmlschemas/TrainingCenterDatabase/v2\"");
-      printWriter.println("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"");
-      printWriter.println("xsi:schemaLocation=" 
+      xmlWriter.println("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"");
+      xmlWriter.println("xsi:schemaLocation=" 
           + "\"http://www.garmin.com/xmlschemas/TrainingCenterDatabase/v2"
           + " http://www.garmin.com/xmlschemas/TrainingCenterDatabasev2.xsd\">");
     }
@@ -126,19 +128,18 @@ public class TcxTrackWriter implements TrackWriter {
 
   @Override
   public void writeFooter() {
-    if (printWriter != null) {
-      printWriter.println("<Author xsi:type=\"Application_t\">");
-      printWriter.println("<Name>" 
-          + StringUtils.formatCData(context.getString(R.string.send_google_by_my_tracks, "", "")) 
-          + "</Name>");
+    if (xmlWriter != null) {
+      xmlWriter.println("<Author xsi:type=\"Application_t\">");
+      xmlWriter.printlnCDataElement(
+          "Name", context.getString(R.string.send_google_by_my_tracks, "", ""));
       // <Build>, <LangID>, and <PartNumber> are required by type=Application_t.
-      printWriter.println("<Build>");
+      xmlWriter.println("<Build>");
       writeVersion();
-      printWriter.println("</Build>");
-      printWriter.println("<LangID>" + Locale.getDefault().getLanguage() + "</LangID>");
-      printWriter.println("<PartNumber>000-00000-00</PartNumber>");
-      printWriter.println("</Author>");
-      printWriter.println("</TrainingCenterDatabase>");
+      xmlWriter.println("</Build>");
+      xmlWriter.println("<LangID>" + Locale.getDefault().getLanguage() + "</LangID>");
+      xmlWriter.println("<PartNumber>000-00000-00</PartNumber>");
+      xmlWriter.println("</Author>");
+      xmlWriter.println("</TrainingCenterDatabase>");
     }
   }
 
@@ -170,70 +171,77 @@ public class TcxTrackWriter implements TrackWriter {
   @Override
   public void writeBeginTrack(Track track, Location startLocation) {
     sportType = getSportType(track.getCategory());
-    if (printWriter != null) {
+    if (xmlWriter != null) {
       String startTime = StringUtils.formatDateTimeIso8601(
           track.getTripStatistics().getStartTime());
       long totalTimeInSeconds = (long) (track.getTripStatistics().getTotalTime()
           * UnitConversions.MS_TO_S);
 
-      printWriter.println("<Activities>");
-      printWriter.println("<Activity Sport=\"" + sportType.getName() + "\">");
-      printWriter.println("<Id>" + startTime + "</Id>");
-      printWriter.println("<Lap StartTime=\"" + startTime + "\">");
-      printWriter.println("<TotalTimeSeconds>" + totalTimeInSeconds + "</TotalTimeSeconds>");
-      printWriter.println("<DistanceMeters>" + track.getTripStatistics().getTotalDistance()
+      xmlWriter.println("<Activities>");
+      xmlWriter.println("<Activity Sport=\"" + sportType.getName() + "\">");
+      xmlWriter.println("<Id>" + startTime + "</Id>");
+      xmlWriter.println("<Lap StartTime=\"" + startTime + "\">");
+      xmlWriter.println("<TotalTimeSeconds>" + totalTimeInSeconds + "</TotalTimeSeconds>");
+      xmlWriter.println("<DistanceMeters>" + track.getTripStatistics().getTotalDistance()
           + "</DistanceMeters>");
       // <Calories> is required, just put in 0.
-      printWriter.println("<Calories>0</Calories>");
-      printWriter.println("<Intensity>Active</Intensity>");
-      printWriter.println("<TriggerMethod>Manual</TriggerMethod>");
+      xmlWriter.println("<Calories>0</Calories>");
+      xmlWriter.println("<Intensity>Active</Intensity>");
+      xmlWriter.println("<TriggerMethod>Manual</TriggerMethod>");
     }
   }
 
   @Override
   public void writeEndTrack(Track track, Location endLocation) {
-    if (printWriter != null) {
-      printWriter.println("</Lap>");
-      printWriter.println("<Notes>" + StringUtils.formatCData(track.getDescription()) + "</Notes>");
-      printWriter.println("<Creator xsi:type=\"Device_t\">");
-      printWriter.println("<Name>" 
-          + StringUtils.formatCData(context.getString(R.string.send_google_by_my_tracks, "", "")) 
-          + "</Name>");
+    if (xmlWriter != null) {
+      xmlWriter.println("</Lap>");
+      xmlWriter.printlnCDataElement("Notes", track.getDescription());
+      xmlWriter.println("<Creator xsi:type=\"Device_t\">");
+      xmlWriter.printlnCDataElement(
+          "Name", context.getString(R.string.send_google_by_my_tracks, "", ""));
       // <UnitId>, <ProductID>, and <Version> are required for type=Device_t.
-      printWriter.println("<UnitId>0</UnitId>");
-      printWriter.println("<ProductID>0</ProductID>");
+      xmlWriter.println("<UnitId>0</UnitId>");
+      xmlWriter.println("<ProductID>0</ProductID>");
       writeVersion();
-      printWriter.println("</Creator>");
-      printWriter.println("</Activity>");
-      printWriter.println("</Activities>");
+      xmlWriter.println("</Creator>");
+      xmlWriter.println("</Activity>");
+      xmlWriter.println("</Activities>");
     }
   }
 
   @Override
   public void writeOpenSegment() {
-    if (printWriter != null) {
-      printWriter.println("<Track>");
+    if (xmlWriter != null) {
+      xmlWriter.println("<Track>");
     }
   }
 
   @Override
   public void writeCloseSegment() {
-    if (printWriter != null) {
-      printWriter.println("</Track>");
+    if (xmlWriter != null) {
+      xmlWriter.println("</Track>");
     }
   }
 
   @Override
   public void writeLocation(Location location) {
-    if (printWriter != null) {
-      printWriter.println("<Trackpoint>");
-      printWriter.println("<Time>" + StringUtils.formatDateTimeIso8601(location.getTime()) + "</Time>");
-      printWriter.println("<Position>");
-      printWriter.println("<LatitudeDegrees>" + location.getLatitude() + "</LatitudeDegrees>");
-      printWriter.println("<LongitudeDegrees>" + location.getLongitude() + "</LongitudeDegrees>");
-      printWriter.println("</Position>");
+    if (xmlWriter != null) {
+      xmlWriter.println("<Trackpoint>");
+      xmlWriter.print("<Time>");
+      xmlWriter.printTime(location.getTime());
+      xmlWriter.println("</Time>");
+      xmlWriter.println("<Position>");
+      xmlWriter.print("<LatitudeDegrees>");
+      xmlWriter.printDecimal(location.getLatitude(), 1, COORDINATE_FRACTION_DIGITS);
+      xmlWriter.println("</LatitudeDegrees>");
+      xmlWriter.print("<LongitudeDegrees>");
+      xmlWriter.printDecimal(location.getLongitude(), 1, COORDINATE_FRACTION_DIGITS);
+      xmlWriter.println("</LongitudeDegrees>");
+      xmlWriter.println("</Position>");
       if (location.hasAltitude()) {
-        printWriter.println("<AltitudeMeters>" + location.getAltitude() + "</AltitudeMeters>");
+        xmlWriter.print("<AltitudeMeters>");
+        xmlWriter.printDecimal(location.getAltitude(), 1, ALTITUDE_FRACTION_DIGITS);
+        xmlWriter.println("</AltitudeMeters>");
       }
 
       if (location instanceof MyTracksLocation) {
@@ -250,9 +258,11 @@ public class TcxTrackWriter implements TrackWriter {
             && sensorDataSet.getPower().getState() == Sensor.SensorState.SENDING;
           
           if (heartRateAvailable) {
-            printWriter.println("<HeartRateBpm>");
-            printWriter.println("<Value>" + sensorDataSet.getHeartRate().getValue() + "</Value>");
-            printWriter.println("</HeartRateBpm>");
+            xmlWriter.println("<HeartRateBpm>");
+            xmlWriter.print("<Value>");
+            xmlWriter.print(sensorDataSet.getHeartRate().getValue());
+            xmlWriter.println("</Value>");
+            xmlWriter.println("</HeartRateBpm>");
           }
 
           // <Cadence> needs to be put before <Extensions>.
@@ -260,31 +270,35 @@ public class TcxTrackWriter implements TrackWriter {
           // type. For others, use <RunCadence> in <Extensions>.
           if (cadenceAvailable && sportType == SportType.BIKING) {
             // The spec requires the max value be 254.
-            printWriter.println(
-                "<Cadence>" + Math.min(254, sensorDataSet.getCadence().getValue()) + "</Cadence>");
+            xmlWriter.print("<Cadence>");
+            xmlWriter.print(Math.min(254, sensorDataSet.getCadence().getValue()));
+            xmlWriter.println("</Cadence>");
           }
 
           if ((cadenceAvailable && sportType != SportType.BIKING) || powerAvailable) {
-            printWriter.println("<Extensions>");
-            printWriter.println(
+            xmlWriter.println("<Extensions>");
+            xmlWriter.println(
                 "<TPX xmlns=\"http://www.garmin.com/xmlschemas/ActivityExtension/v2\">");
 
             // <RunCadence> needs to be put before <Watts>.
             if (cadenceAvailable && sportType != SportType.BIKING) {
               // The spec requires the max value to be 254.
-              printWriter.println("<RunCadence>"
-                  + Math.min(254, sensorDataSet.getCadence().getValue()) + "</RunCadence>");
+              xmlWriter.print("<RunCadence>");
+              xmlWriter.print(Math.min(254, sensorDataSet.getCadence().getValue()));
+              xmlWriter.println("</RunCadence>");
             }
 
             if (powerAvailable) {
-              printWriter.println("<Watts>" + sensorDataSet.getPower().getValue() + "</Watts>");
+              xmlWriter.print("<Watts>");
+              xmlWriter.print(sensorDataSet.getPower().getValue());
+              xmlWriter.println("</Watts>");
             }
-            printWriter.println("</TPX>");
-            printWriter.println("</Extensions>");
+            xmlWriter.println("</TPX>");
+            xmlWriter.println("</Extensions>");
           }
         }
       }
-      printWriter.println("</Trackpoint>");
+      xmlWriter.println("</Trackpoint>");
     }
   }
 
@@ -300,14 +314,14 @@ public class TcxTrackWriter implements TrackWriter {
     int versionMinor = versionComponents.length > 1 ? Integer.valueOf(versionComponents[1]) : 0;
     int buildMajor = versionComponents.length > 2 ? Integer.valueOf(versionComponents[2]) : 0;
 
-    printWriter.println("<Version>");
-    printWriter.println("<VersionMajor>" + versionMajor + "</VersionMajor>");
-    printWriter.println("<VersionMinor>" + versionMinor + "</VersionMinor>");
+    xmlWriter.println("<Version>");
+    xmlWriter.println("<VersionMajor>" + versionMajor + "</VersionMajor>");
+    xmlWriter.println("<VersionMinor>" + versionMinor + "</VersionMinor>");
     // According to TCX spec, these are optional. But http://connect.garmin.com
     // requires them.
-    printWriter.println("<BuildMajor>" + buildMajor + "</BuildMajor>");
-    printWriter.println("<BuildMinor>0</BuildMinor>");
-    printWriter.println("</Version>");
+    xmlWriter.println("<BuildMajor>" + buildMajor + "</BuildMajor>");
+    xmlWriter.println("<BuildMinor>0</BuildMinor>");
+    xmlWriter.println("</Version>");
   }
 
   /**
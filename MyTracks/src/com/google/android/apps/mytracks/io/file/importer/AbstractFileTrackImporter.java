@@ -115,6 +115,12 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
   // The current track data
   private TrackData trackData;
 
+  // The writer inserting the track points. Null to insert on the parsing thread
+  private TrackPointWriter trackPointWriter;
+
+  // True if the import is cancelled
+  private boolean cancelled;
+
   // The SAX locator to get the current line information
   private Locator locator;
 
@@ -152,6 +158,16 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
     waypoints = new ArrayList<Waypoint>();
   }
 
+  /**
+   * Sets the writer to insert the track points. The track points are inserted
+   * on the writer thread while parsing continues.
+   * 
+   * @param trackPointWriter the track point writer
+   */
+  void setTrackPointWriter(TrackPointWriter trackPointWriter) {
+    this.trackPointWriter = trackPointWriter;
+  }
+
   @Override
   public void setDocumentLocator(Locator locator) {
     this.locator = locator;
@@ -175,10 +191,9 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
   @Override
   public long importFile(InputStream inputStream) {
     try {
-      SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
       long start = System.currentTimeMillis();
 
-      saxParser.parse(inputStream, this);
+      parse(inputStream);
       Log.d(TAG, "Total import time: " + (System.currentTimeMillis() - start) + "ms");
       if (trackIds.size() != 1) {
         Log.d(TAG, trackIds.size() + " tracks imported");
@@ -201,6 +216,18 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
     }
   }
 
+  /**
+   * Parses the input stream with a SAX parser. Subclasses can override to
+   * use a different parser, reporting errors as {@link SAXException}.
+   * 
+   * @param inputStream the input stream
+   */
+  protected void parse(InputStream inputStream)
+      throws IOException, ParserConfigurationException, SAXException {
+    SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+    saxParser.parse(inputStream, this);
+  }
+
   /**
    * On file end.
    */
@@ -284,8 +311,8 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
             }
 
             // Get length and duration
-            double length = trackTripStatisticstrackUpdater.getTripStatistics().getTotalDistance();
-            long duration = trackTripStatisticstrackUpdater.getTripStatistics().getTotalTime();
+            double length = trackTripStatisticstrackUpdater.getTotalDistance();
+            long duration = trackTripStatisticstrackUpdater.getTotalTime();
 
             // Insert waypoint
             Waypoint newWaypoint = new Waypoint(waypoint.getName(), waypointDescription,
@@ -329,8 +356,20 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
   /**
    * On track end.
    */
-  protected void onTrackEnd() {
+  protected void onTrackEnd() throws SAXException {
     flushLocations(trackData);
+    if (trackPointWriter != null) {
+      trackPointWriter.flush();
+      checkCancelled();
+      long trackId = trackData.track.getId();
+      if (trackPointWriter.hasFailed(trackId)) {
+        throw new SAXException(createErrorMessage("Unable to insert track points"));
+      }
+      if (trackData.numberOfLocations > 0) {
+        trackData.track.setStartId(myTracksProviderUtils.getFirstTrackPointId(trackId));
+        trackData.track.setStopId(myTracksProviderUtils.getLastTrackPointId(trackId));
+      }
+    }
     if (name != null) {
       trackData.track.setName(name);
     }
@@ -408,8 +447,37 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
    * Gets a track point.
    */
   protected Location getTrackPoint() throws SAXException {
-    Location location = createLocation();
+    return getTrackPoint(createLocation());
+  }
+
+  /**
+   * Gets a track point from already parsed values.
+   * 
+   * @param latitudeValue the latitude value
+   * @param longitudeValue the longitude value
+   * @param altitudeValue the altitude value. {@link Double#NaN} if not
+   *          available
+   * @param timeValue the time value
+   */
+  protected Location getTrackPoint(
+      double latitudeValue, double longitudeValue, double altitudeValue, long timeValue)
+      throws SAXException {
+    return getTrackPoint(createLocation(latitudeValue, longitudeValue, altitudeValue, timeValue));
+  }
 
+  /**
+   * Gets the import time, the time of the track points without a time.
+   */
+  protected long getImportTime() {
+    return trackData.importTime;
+  }
+
+  /**
+   * Gets a track point.
+   * 
+   * @param location the location
+   */
+  private Location getTrackPoint(Location location) throws SAXException {
     // Calculate derived attributes from the previous point
     if (trackData.lastLocationInCurrentSegment != null
         && trackData.lastLocationInCurrentSegment.getTime() != 0) {
@@ -457,12 +525,23 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
   protected void insertTrackPoint(Location location) {
     insertLocation(location);
 
-    if (trackData.track.getStartId() == -1L) {
+    if (trackPointWriter == null && trackData.track.getStartId() == -1L) {
       // Flush the location to set the track start id and the track end id
       flushLocations(trackData);
     }
   }
 
+  /**
+   * Throws a {@link SAXException} if the import is cancelled, either by
+   * interrupting the parsing thread or while handing over track points.
+   */
+  protected void checkCancelled() throws SAXException {
+    if (cancelled || Thread.currentThread().isInterrupted()) {
+      cancelled = true;
+      throw new SAXException(createErrorMessage("Import cancelled"));
+    }
+  }
+
   /**
    * Creates an error message.
    * 
@@ -503,7 +582,7 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
       throw new SAXException(createErrorMessage(String.format(
           Locale.US, "Unable to parse latitude longitude: %s %s", latitude, longitude)), e);
     }
-    Double altitudeValue = null;
+    double altitudeValue = Double.NaN;
     if (altitude != null) {
       try {
         altitudeValue = Double.parseDouble(altitude);
@@ -533,15 +612,16 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
    * 
    * @param latitudeValue the latitude value
    * @param longitudeValue the longitude value
-   * @param altitudeValue the altitude value
+   * @param altitudeValue the altitude value. {@link Double#NaN} if not
+   *          available
    * @param timeValue the time value
    */
   private Location createLocation(
-      double latitudeValue, double longitudeValue, Double altitudeValue, long timeValue) {
+      double latitudeValue, double longitudeValue, double altitudeValue, long timeValue) {
     Location location = new Location(LocationManager.GPS_PROVIDER);
     location.setLatitude(latitudeValue);
     location.setLongitude(longitudeValue);
-    if (altitudeValue != null) {
+    if (!Double.isNaN(altitudeValue)) {
       location.setAltitude(altitudeValue);      
     } else {
       location.removeAltitude();
@@ -585,6 +665,21 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
     if (data.numBufferedLocations <= 0) {
       return;
     }
+    if (trackPointWriter != null) {
+      if (!cancelled) {
+        try {
+          trackPointWriter.write(
+              data.track.getId(), data.bufferedLocations, data.numBufferedLocations);
+        } catch (InterruptedException e) {
+          cancelled = true;
+          Thread.currentThread().interrupt();
+        }
+      }
+      // The writer owns the handed over locations
+      data.bufferedLocations = new Location[MAX_BUFFERED_LOCATIONS];
+      data.numBufferedLocations = 0;
+      return;
+    }
     myTracksProviderUtils.bulkInsertTrackPoint(
         data.bufferedLocations, data.numBufferedLocations, data.track.getId());
     data.numBufferedLocations = 0;
@@ -623,6 +718,10 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
    * Cleans up import.
    */
   private void cleanImport() {
+    if (trackPointWriter != null) {
+      // Wait for the queued track points before deleting their tracks
+      trackPointWriter.flush();
+    }
     for (long trackId : trackIds) {
       myTracksProviderUtils.deleteTrack(context, trackId);
     }
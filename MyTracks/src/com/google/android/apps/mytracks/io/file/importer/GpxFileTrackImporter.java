@@ -78,6 +78,7 @@ public class GpxFileTrackImporter extends AbstractFileTrackImporter {
 
   @Override
   public void endElement(String uri, String localName, String tag) throws SAXException {
+    checkCancelled();
     if (tag.equals(TAG_GPX)) {
       onFileEnd();
     } else if (tag.equals(TAG_WAYPOINT)) {
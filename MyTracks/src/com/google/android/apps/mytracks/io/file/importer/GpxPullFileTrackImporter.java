@@ -0,0 +1,362 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
+import com.google.android.apps.mytracks.util.Iso8601Codec;
+import com.google.common.annotations.VisibleForTesting;
+
+import android.content.Context;
+import android.location.Location;
+import android.util.Xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.CharBuffer;
+import java.util.Locale;
+
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Imports a GPX file with a streaming pull parser. Unlike
+ * {@link GpxFileTrackImporter}, the element content is collected in a reused
+ * buffer and the track point elevation and time are parsed from the buffer,
+ * without creating a {@link String} per value. {@link XmlPullParser} only
+ * returns attribute values as strings, so the latitude and the longitude of a
+ * track point still create a {@link String} each.
+ */
+public class GpxPullFileTrackImporter extends AbstractFileTrackImporter {
+
+  private static final String TAG_DESCRIPTION = "desc";
+  private static final String TAG_COMMENT = "cmt";
+  private static final String TAG_ELEVATION = "ele";
+  private static final String TAG_GPX = "gpx";
+  private static final String TAG_NAME = "name";
+  private static final String TAG_TIME = "time";
+  private static final String TAG_TRACK = "trk";
+  private static final String TAG_TRACK_POINT = "trkpt";
+  private static final String TAG_TRACK_SEGMENT = "trkseg";
+  private static final String TAG_TYPE = "type";
+  private static final String TAG_WAYPOINT = "wpt";
+
+  private static final String ATTRIBUTE_LAT = "lat";
+  private static final String ATTRIBUTE_LON = "lon";
+
+  private static final int INITIAL_BUFFER_SIZE = 64;
+
+  // Holds the start and the length of the parser text characters
+  private final int[] holder = new int[2];
+
+  // The current element content
+  private char[] buffer = new char[INITIAL_BUFFER_SIZE];
+  private int bufferLength;
+
+  // A char sequence view of the buffer
+  private CharBuffer bufferSequence = CharBuffer.wrap(buffer);
+
+  // The current track point values
+  private boolean inTrackPoint;
+  private double latitudeValue;
+  private double longitudeValue;
+  private double altitudeValue;
+  private long timeValue;
+  private boolean hasTime;
+
+  /**
+   * Constructor.
+   * 
+   * @param context the context
+   */
+  public GpxPullFileTrackImporter(Context context) {
+    this(context, MyTracksProviderUtils.Factory.get(context));
+  }
+
+  @VisibleForTesting
+  GpxPullFileTrackImporter(Context context, MyTracksProviderUtils myTracksProviderUtils) {
+    super(context, -1L, myTracksProviderUtils);
+  }
+
+  @Override
+  protected void parse(InputStream inputStream) throws IOException, SAXException {
+    final XmlPullParser parser = Xml.newPullParser();
+    setDocumentLocator(new Locator() {
+        @Override
+      public String getPublicId() {
+        return null;
+      }
+
+        @Override
+      public String getSystemId() {
+        return null;
+      }
+
+        @Override
+      public int getLineNumber() {
+        return parser.getLineNumber();
+      }
+
+        @Override
+      public int getColumnNumber() {
+        return parser.getColumnNumber();
+      }
+    });
+    try {
+      parser.setInput(inputStream, null);
+      int eventType = parser.getEventType();
+      while (eventType != XmlPullParser.END_DOCUMENT) {
+        switch (eventType) {
+          case XmlPullParser.START_TAG:
+            bufferLength = 0;
+            startElement(parser);
+            break;
+          case XmlPullParser.TEXT:
+            appendText(parser);
+            break;
+          case XmlPullParser.END_TAG:
+            endElement(parser.getName());
+            bufferLength = 0;
+            break;
+          default:
+            break;
+        }
+        eventType = parser.next();
+      }
+    } catch (XmlPullParserException e) {
+      throw new SAXException(createErrorMessage(e.getMessage()), e);
+    }
+  }
+
+  /**
+   * On element start.
+   * 
+   * @param parser the parser
+   */
+  private void startElement(XmlPullParser parser) throws SAXException {
+    String tag = parser.getName();
+    if (tag.equals(TAG_WAYPOINT)) {
+      onWaypointStart(parser);
+    } else if (tag.equals(TAG_TRACK)) {
+      onTrackStart();
+    } else if (tag.equals(TAG_TRACK_SEGMENT)) {
+      onTrackSegmentStart();
+    } else if (tag.equals(TAG_TRACK_POINT)) {
+      onTrackPointStart(parser);
+    }
+  }
+
+  /**
+   * On element end.
+   * 
+   * @param tag the tag
+   */
+  private void endElement(String tag) throws SAXException {
+    checkCancelled();
+    if (tag.equals(TAG_GPX)) {
+      onFileEnd();
+    } else if (tag.equals(TAG_WAYPOINT)) {
+      onWaypointEnd();
+    } else if (tag.equals(TAG_TRACK)) {
+      onTrackEnd();
+    } else if (tag.equals(TAG_TRACK_POINT)) {
+      onTrackPointEnd();
+    } else if (tag.equals(TAG_NAME)) {
+      if (bufferLength > 0) {
+        name = getContent();
+      }
+    } else if (tag.equals(TAG_DESCRIPTION)) {
+      if (bufferLength > 0) {
+        description = getContent();
+      }
+    } else if (tag.equals(TAG_TYPE)) {
+      if (bufferLength > 0) {
+        category = getContent();
+      }
+    } else if (tag.equals(TAG_TIME)) {
+      if (bufferLength > 0) {
+        onTimeEnd();
+      }
+    } else if (tag.equals(TAG_ELEVATION)) {
+      if (bufferLength > 0) {
+        onElevationEnd();
+      }
+    } else if (tag.equals(TAG_COMMENT)) {
+      if (bufferLength > 0) {
+        waypointType = getContent();
+      }
+    }
+  }
+
+  @Override
+  protected void onTrackStart() throws SAXException {
+    super.onTrackStart();
+    name = null;
+    description = null;
+    category = null;
+  }
+
+  /**
+   * On track point start.
+   * 
+   * @param parser the parser
+   */
+  private void onTrackPointStart(XmlPullParser parser) throws SAXException {
+    String latitudeAttribute = parser.getAttributeValue(null, ATTRIBUTE_LAT);
+    String longitudeAttribute = parser.getAttributeValue(null, ATTRIBUTE_LON);
+    try {
+      latitudeValue = parseAttribute(latitudeAttribute);
+      longitudeValue = parseAttribute(longitudeAttribute);
+    } catch (NumberFormatException e) {
+      throw new SAXException(createErrorMessage(String.format(Locale.US,
+          "Unable to parse latitude longitude: %s %s", latitudeAttribute, longitudeAttribute)),
+          e);
+    }
+    altitudeValue = Double.NaN;
+    hasTime = false;
+    inTrackPoint = true;
+  }
+
+  /**
+   * On track point end.
+   */
+  private void onTrackPointEnd() throws SAXException {
+    inTrackPoint = false;
+    Location location = getTrackPoint(
+        latitudeValue, longitudeValue, altitudeValue, hasTime ? timeValue : getImportTime());
+    insertTrackPoint(location);
+  }
+
+  /**
+   * On time end. Parses the track point time from the buffer.
+   */
+  private void onTimeEnd() throws SAXException {
+    if (!inTrackPoint) {
+      time = getContent();
+      return;
+    }
+    try {
+      timeValue = Iso8601Codec.parse(bufferSequence, 0, bufferLength);
+      hasTime = true;
+    } catch (IllegalArgumentException e) {
+      throw new SAXException(createErrorMessage(
+          String.format(Locale.US, "Unable to parse time: %s", getContent())), e);
+    }
+  }
+
+  /**
+   * On elevation end. Parses the track point altitude from the buffer.
+   */
+  private void onElevationEnd() throws SAXException {
+    if (!inTrackPoint) {
+      altitude = getContent();
+      return;
+    }
+    try {
+      altitudeValue = XmlValueParser.parseDouble(buffer, 0, bufferLength);
+    } catch (NumberFormatException e) {
+      throw new SAXException(createErrorMessage(
+          String.format(Locale.US, "Unable to parse altitude: %s", getContent())), e);
+    }
+  }
+
+  /**
+   * On waypoint start. Waypoints are few, they keep the string values of
+   * {@link AbstractFileTrackImporter}.
+   * 
+   * @param parser the parser
+   */
+  private void onWaypointStart(XmlPullParser parser) {
+    name = null;
+    description = null;
+    category = null;
+    photoUrl = null;
+    latitude = parser.getAttributeValue(null, ATTRIBUTE_LAT);
+    longitude = parser.getAttributeValue(null, ATTRIBUTE_LON);
+    altitude = null;
+    time = null;
+    waypointType = null;
+  }
+
+  /**
+   * On waypoint end.
+   */
+  private void onWaypointEnd() throws SAXException {
+    addWaypoint(WaypointType.STATISTICS.name().equals(waypointType) ? WaypointType.STATISTICS
+        : WaypointType.WAYPOINT);
+  }
+
+  /**
+   * Appends the parser text to the buffer.
+   * 
+   * @param parser the parser
+   */
+  private void appendText(XmlPullParser parser) {
+    char[] text = parser.getTextCharacters(holder);
+    if (text == null) {
+      return;
+    }
+    append(text, holder[0], holder[1]);
+  }
+
+  /**
+   * Appends characters to the buffer, growing it if needed.
+   * 
+   * @param characters the characters
+   * @param start the start index
+   * @param length the number of characters
+   */
+  private void append(char[] characters, int start, int length) {
+    if (bufferLength + length > buffer.length) {
+      char[] newBuffer = new char[Math.max(buffer.length * 2, bufferLength + length)];
+      System.arraycopy(buffer, 0, newBuffer, 0, bufferLength);
+      buffer = newBuffer;
+      bufferSequence = CharBuffer.wrap(buffer);
+    }
+    System.arraycopy(characters, start, buffer, bufferLength, length);
+    bufferLength += length;
+  }
+
+  /**
+   * Parses a decimal attribute, copying it to the buffer to share the parsing
+   * of the element content. Returns {@link Double#NaN} if the attribute is
+   * missing, which fails the location validation.
+   * 
+   * @param value the attribute value
+   */
+  private double parseAttribute(String value) {
+    if (value == null) {
+      return Double.NaN;
+    }
+    int length = value.length();
+    if (length > buffer.length) {
+      buffer = new char[Math.max(buffer.length * 2, length)];
+      bufferSequence = CharBuffer.wrap(buffer);
+    }
+    value.getChars(0, length, buffer, 0);
+    return XmlValueParser.parseDouble(buffer, 0, length);
+  }
+
+  /**
+   * Gets the trimmed element content.
+   */
+  private String getContent() {
+    return new String(buffer, 0, bufferLength).trim();
+  }
+}
@@ -36,10 +36,22 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
- * AsyncTask to import files from the external storage.
+ * AsyncTask to import files from the external storage. Files are parsed in
+ * parallel by a pool of parser threads while a single {@link TrackPointWriter}
+ * inserts their track points.
  * 
  * @author Jimmy Shih
  */
@@ -47,6 +59,12 @@ public class ImportAsyncTask extends AsyncTask<Void, Integer, Boolean> {
 
   private static final String TAG = ImportAsyncTask.class.getSimpleName();
 
+  // The maximum number of files parsed at the same time
+  private static final int MAX_PARSER_THREADS = 4;
+
+  // The interval to check for cancellation while waiting for the parsers
+  private static final long CANCEL_CHECK_INTERVAL = 200L;
+
   private ImportActivity importActivity;
   private final boolean importAll;
   private final TrackFileFormat trackFileFormat;
@@ -127,16 +145,8 @@ public class ImportAsyncTask extends AsyncTask<Void, Integer, Boolean> {
         return true;
       }
 
-      for (int i = 0; i < totalCount; i++) {
-        if (isCancelled()) {
-          // If cancelled, return true to show the number of files imported
-          return true;
-        }
-        if (importFile(files.get(i))) {
-          successCount++;
-        }
-        publishProgress(i + 1, totalCount);
-      }
+      // If cancelled, still return true to show the number of files imported
+      importFiles(files);
       return true;
     } finally {
       if (wakeLock != null && wakeLock.isHeld()) {
@@ -169,34 +179,125 @@ public class ImportAsyncTask extends AsyncTask<Void, Integer, Boolean> {
   }
   
   /**
-   * Imports a file.
+   * Imports files on a pool of parser threads. Publishes the progress as files
+   * complete. Keeps the track id of the last imported file in the input order,
+   * like a sequential import. Stops early if cancelled, interrupting the
+   * parsers, which delete their partially imported tracks.
+   * 
+   * @param files the files
+   */
+  private void importFiles(List<File> files) {
+    int threads = Math.min(files.size(),
+        Math.min(MAX_PARSER_THREADS, Runtime.getRuntime().availableProcessors()));
+    final TrackPointWriter trackPointWriter = new TrackPointWriter(
+        MyTracksProviderUtils.Factory.get(context));
+    trackPointWriter.start();
+    ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, threads));
+    try {
+      CompletionService<Long> completionService = new ExecutorCompletionService<Long>(
+          executorService);
+      Map<Future<Long>, Integer> fileIndexes = new HashMap<Future<Long>, Integer>();
+      for (int i = 0; i < files.size(); i++) {
+        final File file = files.get(i);
+        fileIndexes.put(completionService.submit(new Callable<Long>() {
+            @Override
+          public Long call() {
+            return importFile(file, trackPointWriter);
+          }
+        }), i);
+      }
+      int lastFileIndex = -1;
+      for (int i = 0; i < totalCount; i++) {
+        Future<Long> future = null;
+        while (future == null) {
+          if (isCancelled()) {
+            return;
+          }
+          future = completionService.poll(CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+        long importedTrackId;
+        try {
+          importedTrackId = future.get();
+        } catch (ExecutionException e) {
+          Log.e(TAG, "Unable to import file", e);
+          importedTrackId = -1L;
+        }
+        if (importedTrackId != -1L) {
+          successCount++;
+          int fileIndex = fileIndexes.get(future);
+          if (fileIndex > lastFileIndex) {
+            lastFileIndex = fileIndex;
+            trackId = importedTrackId;
+          }
+        }
+        publishProgress(i + 1, totalCount);
+      }
+    } catch (InterruptedException e) {
+      Log.d(TAG, "Import interrupted");
+    } finally {
+      executorService.shutdownNow();
+      awaitTermination(executorService);
+      trackPointWriter.close();
+    }
+  }
+
+  /**
+   * Waits for the parser threads to finish cleaning up. Keeps waiting when
+   * interrupted so that the track point writer is closed last.
+   * 
+   * @param executorService the executor service
+   */
+  private void awaitTermination(ExecutorService executorService) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        if (executorService.awaitTermination(CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+          break;
+        }
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Imports a file. Returns the imported track id or -1L.
    * 
    * @param file the file
+   * @param trackPointWriter the track point writer
    */
-  private boolean importFile(final File file) {
+  private long importFile(final File file, TrackPointWriter trackPointWriter) {
     FileInputStream fileInputStream = null;
     try {
       TrackImporter trackImporter;
       if (trackFileFormat == TrackFileFormat.KML) {
         String extension = FileUtils.getExtension(file.getName());
         if (TrackFileFormat.KML.getExtension().equals(extension)) {
-          trackImporter = new KmlFileTrackImporter(context, -1L);
+          KmlFileTrackImporter kmlFileTrackImporter = new KmlFileTrackImporter(context, -1L);
+          kmlFileTrackImporter.setTrackPointWriter(trackPointWriter);
+          trackImporter = kmlFileTrackImporter;
         } else {         
           MyTracksProviderUtils myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
           Uri uri = myTracksProviderUtils.insertTrack(new Track());
           long newId = Long.parseLong(uri.getLastPathSegment());
 
-          trackImporter = new KmzTrackImporter(context, newId);
+          KmzTrackImporter kmzTrackImporter = new KmzTrackImporter(context, newId);
+          kmzTrackImporter.setTrackPointWriter(trackPointWriter);
+          trackImporter = kmzTrackImporter;
         }
       } else {
-        trackImporter = new GpxFileTrackImporter(context);
+        GpxPullFileTrackImporter gpxPullFileTrackImporter = new GpxPullFileTrackImporter(context);
+        gpxPullFileTrackImporter.setTrackPointWriter(trackPointWriter);
+        trackImporter = gpxPullFileTrackImporter;
       }
       fileInputStream = new FileInputStream(file);
-      trackId = trackImporter.importFile(fileInputStream);
-      return trackId != -1L;
+      return trackImporter.importFile(fileInputStream);
     } catch (FileNotFoundException e) {
       Log.e(TAG, "Unable to import file", e);
-      return false;
+      return -1L;
     } finally {
       if (fileInputStream != null) {
         try {
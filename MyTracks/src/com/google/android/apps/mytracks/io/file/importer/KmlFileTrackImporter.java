@@ -112,6 +112,7 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
 
   @Override
   public void endElement(String uri, String localName, String tag) throws SAXException {
+    checkCancelled();
     if (tag.equals(TAG_KML)) {
       onFileEnd();
     } else if (tag.equals(TAG_PLACEMARK) || tag.equals(TAG_PHOTO_OVERLAY)) {
@@ -46,6 +46,9 @@ public class KmzTrackImporter implements TrackImporter {
   private final Context context;
   private final long importTrackId;
 
+  // The writer inserting the track points. Null to insert on the parsing thread
+  private TrackPointWriter trackPointWriter;
+
   /**
    * Constructor.
    * 
@@ -58,6 +61,15 @@ public class KmzTrackImporter implements TrackImporter {
     this.importTrackId = importTrackId;
   }
 
+  /**
+   * Sets the writer to insert the track points.
+   * 
+   * @param trackPointWriter the track point writer
+   */
+  void setTrackPointWriter(TrackPointWriter trackPointWriter) {
+    this.trackPointWriter = trackPointWriter;
+  }
+
   @Override
   public long importFile(InputStream inputStream) {
     ZipInputStream zipInputStream = null;
@@ -137,6 +149,7 @@ public class KmzTrackImporter implements TrackImporter {
     ByteArrayInputStream byteArrayInputStream = null;
     try {
       KmlFileTrackImporter kmlFileTrackImporter = new KmlFileTrackImporter(context, importTrackId);
+      kmlFileTrackImporter.setTrackPointWriter(trackPointWriter);
       byteArrayInputStream = new ByteArrayInputStream(getKml(zipInputStream));
       return kmlFileTrackImporter.importFile(byteArrayInputStream);
     } finally {
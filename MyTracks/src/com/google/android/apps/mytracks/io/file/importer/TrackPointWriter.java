@@ -0,0 +1,290 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+
+import android.location.Location;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inserts the track points of file track importers on a single thread.
+ * Importers parsing files in parallel hand over their buffered locations
+ * through a bounded queue, so parsing continues while the locations are
+ * inserted and the database writes stay serialized. Consecutive batches of the
+ * same track are inserted in one bulk insert, which is one transaction.
+ * <p>
+ * If the writer thread stops for any reason other than {@link #close()}, the
+ * writer aborts: queued and later locations are dropped, all tracks are
+ * reported as failed, and no caller is left waiting on the writer.
+ */
+class TrackPointWriter {
+
+  private static final String TAG = TrackPointWriter.class.getSimpleName();
+
+  // The maximum number of batches waiting to be inserted
+  private static final int QUEUE_CAPACITY = 16;
+
+  // The maximum number of locations in one bulk insert
+  private static final int MAX_INSERT_LOCATIONS = 4096;
+
+  // The time to wait on the queue or a flush before checking for an abort
+  private static final long ABORT_CHECK_INTERVAL = 100L; // ms
+
+  /**
+   * A batch of locations to insert, or a flush marker if the latch is not
+   * null.
+   */
+  private static class Batch {
+    final long trackId;
+    final Location[] locations;
+    final int length;
+    final CountDownLatch latch;
+
+    Batch(long trackId, Location[] locations, int length, CountDownLatch latch) {
+      this.trackId = trackId;
+      this.locations = locations;
+      this.length = length;
+      this.latch = latch;
+    }
+  }
+
+  // Marks the end of the queue
+  private static final Batch CLOSE = new Batch(-1L, null, 0, null);
+
+  private final MyTracksProviderUtils myTracksProviderUtils;
+  private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(QUEUE_CAPACITY);
+  private final Set<Long> failedTrackIds = Collections.synchronizedSet(new HashSet<Long>());
+  private final Thread thread;
+  private volatile boolean aborted;
+
+  // Only accessed by the writer thread
+  private final List<Batch> batches = new ArrayList<Batch>();
+  private final Location[] insertBuffer = new Location[MAX_INSERT_LOCATIONS];
+
+  /**
+   * Constructor.
+   * 
+   * @param myTracksProviderUtils the my tracks provider utils
+   */
+  TrackPointWriter(MyTracksProviderUtils myTracksProviderUtils) {
+    this.myTracksProviderUtils = myTracksProviderUtils;
+    thread = new Thread(new Runnable() {
+        @Override
+      public void run() {
+        boolean closed = false;
+        try {
+          writeBatches();
+          closed = true;
+        } catch (InterruptedException e) {
+          Log.d(TAG, "Writer interrupted");
+        } finally {
+          if (!closed) {
+            abort();
+          }
+        }
+      }
+    }, TAG);
+  }
+
+  /**
+   * Starts the writer thread.
+   */
+  void start() {
+    thread.start();
+  }
+
+  /**
+   * Queues locations to be inserted. The writer takes ownership of the
+   * locations array. Blocks while the queue is full. Drops the locations if
+   * the writer aborted.
+   * 
+   * @param trackId the track id
+   * @param locations the locations
+   * @param length the number of locations to insert
+   */
+  void write(long trackId, Location[] locations, int length) throws InterruptedException {
+    Batch batch = new Batch(trackId, locations, length, null);
+    while (!aborted && !queue.offer(batch, ABORT_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+      // Wait for room in the queue
+    }
+  }
+
+  /**
+   * Waits until all the locations queued so far are inserted, or until the
+   * writer aborted. Keeps waiting when interrupted, so that callers can clean
+   * up a cancelled import after the writer is done with it. The interrupt
+   * status is restored.
+   */
+  void flush() {
+    CountDownLatch latch = new CountDownLatch(1);
+    Batch batch = new Batch(-1L, null, 0, latch);
+    boolean interrupted = false;
+    boolean queued = false;
+    while (!queued && !aborted) {
+      try {
+        queued = queue.offer(batch, ABORT_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    while (queued && !aborted) {
+      try {
+        if (latch.await(ABORT_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+          break;
+        }
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Returns true if inserting the locations of a track failed or the writer
+   * aborted.
+   * 
+   * @param trackId the track id
+   */
+  boolean hasFailed(long trackId) {
+    return aborted || failedTrackIds.contains(trackId);
+  }
+
+  /**
+   * Inserts the queued locations and stops the writer thread. Waits for the
+   * writer thread to finish.
+   */
+  void close() {
+    boolean interrupted = false;
+    boolean queued = false;
+    while (!queued && !aborted) {
+      try {
+        queued = queue.offer(CLOSE, ABORT_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    while (true) {
+      try {
+        thread.join();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Aborts the writer after the writer thread stopped without being closed.
+   * Drains the queue, releasing the callers waiting for a flush. Callers
+   * queuing later see the abort flag.
+   */
+  private void abort() {
+    Log.e(TAG, "Writer stopped, dropping the queued track points");
+    aborted = true;
+    Batch batch;
+    while ((batch = queue.poll()) != null) {
+      if (batch.latch != null) {
+        batch.latch.countDown();
+      }
+    }
+  }
+
+  /**
+   * Takes batches from the queue and inserts them until closed.
+   */
+  private void writeBatches() throws InterruptedException {
+    Batch next = null;
+    while (true) {
+      Batch batch = next != null ? next : queue.take();
+      next = null;
+      if (batch == CLOSE) {
+        return;
+      }
+      if (batch.latch != null) {
+        batch.latch.countDown();
+        continue;
+      }
+
+      // Combine the following batches of the same track
+      batches.add(batch);
+      int length = batch.length;
+      while (true) {
+        next = queue.poll();
+        if (next == null || next.latch != null || next == CLOSE || next.trackId != batch.trackId
+            || length + next.length > MAX_INSERT_LOCATIONS) {
+          break;
+        }
+        batches.add(next);
+        length += next.length;
+        next = null;
+      }
+      insert(batch.trackId, length);
+      batches.clear();
+    }
+  }
+
+  /**
+   * Inserts the combined batches.
+   * 
+   * @param trackId the track id
+   * @param length the total number of locations
+   */
+  private void insert(long trackId, int length) {
+    if (hasFailed(trackId)) {
+      return;
+    }
+    Location[] locations;
+    if (batches.size() == 1) {
+      locations = batches.get(0).locations;
+    } else {
+      locations = insertBuffer;
+      int offset = 0;
+      for (Batch batch : batches) {
+        System.arraycopy(batch.locations, 0, locations, offset, batch.length);
+        offset += batch.length;
+      }
+    }
+    try {
+      myTracksProviderUtils.bulkInsertTrackPoint(locations, length, trackId);
+    } catch (RuntimeException e) {
+      Log.e(TAG, "Unable to insert track points for track " + trackId, e);
+      failedTrackIds.add(trackId);
+    }
+    if (locations == insertBuffer) {
+      // Don't keep the locations alive
+      for (int i = 0; i < length; i++) {
+        insertBuffer[i] = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+import com.google.android.apps.mytracks.util.Iso8601Codec;
+
+/**
+ * Parses XML decimals directly from a character buffer, without creating a
+ * {@link String}. The common forms are parsed by hand, the other forms fall
+ * back to {@link Double#parseDouble(String)}. Either way, the result is the
+ * same double as {@link Double#parseDouble(String)}. XML date times are parsed
+ * by {@link Iso8601Codec}.
+ */
+final class XmlValueParser {
+
+  // The maximum number of significant digits exactly representable in a double
+  private static final int MAX_EXACT_DIGITS = 15;
+
+  // The powers of ten exactly representable in a double
+  private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8,
+      1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  private XmlValueParser() {}
+
+  /**
+   * Parses a decimal. Leading and trailing white spaces are ignored.
+   * 
+   * @param buffer the buffer
+   * @param start the start index in the buffer
+   * @param end the end index in the buffer, exclusive
+   * @throws NumberFormatException if the value is not a number
+   */
+  static double parseDouble(char[] buffer, int start, int end) {
+    int first = skipWhiteSpaces(buffer, start, end);
+    int last = trimWhiteSpaces(buffer, first, end);
+    int index = first;
+    boolean negative = false;
+    if (index < last && (buffer[index] == '-' || buffer[index] == '+')) {
+      negative = buffer[index] == '-';
+      index++;
+    }
+
+    long mantissa = 0L;
+    int exponent = 0;
+    int significantDigits = 0;
+    boolean hasDigits = false;
+    boolean hasPoint = false;
+    for (; index < last; index++) {
+      char c = buffer[index];
+      if (c == '.' && !hasPoint) {
+        hasPoint = true;
+        continue;
+      }
+      if (c < '0' || c > '9') {
+        break;
+      }
+      hasDigits = true;
+      if (mantissa != 0L || c != '0') {
+        significantDigits++;
+      }
+      mantissa = mantissa * 10L + (c - '0');
+      if (hasPoint) {
+        exponent--;
+      }
+    }
+
+    if (index < last && (buffer[index] == 'e' || buffer[index] == 'E')) {
+      int value = parseExponent(buffer, index + 1, last);
+      if (value == Integer.MIN_VALUE) {
+        return parseDoubleString(buffer, first, last);
+      }
+      exponent += value;
+      index = last;
+    }
+
+    if (!hasDigits || index != last || significantDigits > MAX_EXACT_DIGITS) {
+      return parseDoubleString(buffer, first, last);
+    }
+    if (mantissa == 0L) {
+      return negative ? -0.0 : 0.0;
+    }
+    if (exponent < -POWERS_OF_TEN.length + 1 || exponent > POWERS_OF_TEN.length - 1) {
+      return parseDoubleString(buffer, first, last);
+    }
+
+    /*
+     * Both the mantissa and the power of ten are exact, thus a single
+     * multiplication or division is correctly rounded.
+     */
+    double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent]
+        : mantissa * POWERS_OF_TEN[exponent];
+    return negative ? -value : value;
+  }
+
+  /**
+   * Parses a fixed number of digits. Returns -1 if not all digits.
+   * 
+   * @param buffer the buffer
+   * @param start the start index
+   * @param count the number of digits
+   */
+  private static int parseDigits(char[] buffer, int start, int count) {
+    int value = 0;
+    for (int i = start; i < start + count; i++) {
+      char c = buffer[i];
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  /**
+   * Parses a decimal exponent of at most three digits. Returns
+   * {@link Integer#MIN_VALUE} if not valid.
+   * 
+   * @param buffer the buffer
+   * @param start the start index
+   * @param end the end index, exclusive
+   */
+  private static int parseExponent(char[] buffer, int start, int end) {
+    int index = start;
+    boolean negative = false;
+    if (index < end && (buffer[index] == '-' || buffer[index] == '+')) {
+      negative = buffer[index] == '-';
+      index++;
+    }
+    if (index == end || end - index > 3) {
+      return Integer.MIN_VALUE;
+    }
+    int value = parseDigits(buffer, index, end - index);
+    if (value == -1) {
+      return Integer.MIN_VALUE;
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Parses a decimal with {@link Double#parseDouble(String)}.
+   * 
+   * @param buffer the buffer
+   * @param first the first index
+   * @param last the last index, exclusive
+   */
+  private static double parseDoubleString(char[] buffer, int first, int last) {
+    return Double.parseDouble(new String(buffer, first, last - first));
+  }
+
+  /**
+   * Returns the index of the first non white space character.
+   * 
+   * @param buffer the buffer
+   * @param start the start index
+   * @param end the end index, exclusive
+   */
+  private static int skipWhiteSpaces(char[] buffer, int start, int end) {
+    int index = start;
+    while (index < end && buffer[index] <= ' ') {
+      index++;
+    }
+    return index;
+  }
+
+  /**
+   * Returns the index after the last non white space character.
+   * 
+   * @param buffer the buffer
+   * @param start the start index
+   * @param end the end index, exclusive
+   */
+  private static int trimWhiteSpaces(char[] buffer, int start, int end) {
+    int index = end;
+    while (index > start && buffer[index - 1] <= ' ') {
+      index--;
+    }
+    return index;
+  }
+}
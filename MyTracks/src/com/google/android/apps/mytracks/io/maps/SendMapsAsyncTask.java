@@ -278,7 +278,7 @@ public class SendMapsAsyncTask extends AbstractSendAsyncTask {
         tripStatisticsUpdater.addLocation(
             location, recordingDistanceInterval, false, ActivityType.INVALID, 0.0);
         if (readCount % elevationSamplingFrequency == 0) {
-          distances.add(tripStatisticsUpdater.getTripStatistics().getTotalDistance());
+          distances.add(tripStatisticsUpdater.getTotalDistance());
           elevations.add(tripStatisticsUpdater.getSmoothedElevation());
         }
 
@@ -302,7 +302,7 @@ public class SendMapsAsyncTask extends AbstractSendAsyncTask {
 
       // Create an end marker
       if (lastValidLocation != null) {
-        distances.add(tripStatisticsUpdater.getTripStatistics().getTotalDistance());
+        distances.add(tripStatisticsUpdater.getTotalDistance());
         elevations.add(tripStatisticsUpdater.getSmoothedElevation());
         DescriptionGenerator descriptionGenerator = new DescriptionGeneratorImpl(context);
         track.setDescription(
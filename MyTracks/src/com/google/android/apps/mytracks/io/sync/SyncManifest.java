@@ -0,0 +1,473 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.sync;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.TracksColumns;
+import com.google.android.apps.mytracks.content.WaypointsColumns;
+import com.google.android.apps.mytracks.io.file.exporter.TrackExporter;
+import com.google.android.apps.mytracks.util.FileUtils;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A manifest of a track uploaded to a drive file. Holds the change markers of
+ * the track when uploaded, a hash of the track row, the track point ids, the
+ * waypoint rows, the identity of the photos, and the export settings. Also
+ * holds the SHA-1 hashes of the chunks of the uploaded KML, computed while
+ * uploading.
+ * <p>
+ * The change markers are read from the database without exporting the track,
+ * so that checking whether a track changed since the last upload is cheap. A
+ * saved manifest is only valid for the same drive file id and modified time.
+ */
+class SyncManifest {
+
+  private static final String TAG = SyncManifest.class.getSimpleName();
+
+  // Size of a chunk of the payload
+  static final int CHUNK_SIZE = 65536;
+
+  private static final String HASH_ALGORITHM = "SHA-1";
+  private static final int HASH_LENGTH = 20;
+
+  // The track columns changed by sync, not part of the payload
+  private static final Set<String> SYNC_COLUMNS = new HashSet<String>(Arrays.asList(
+      TracksColumns._ID, TracksColumns.MAPID, TracksColumns.TABLEID, TracksColumns.DRIVEID,
+      TracksColumns.MODIFIEDTIME, TracksColumns.SHAREDWITHME, TracksColumns.SHAREDOWNER));
+
+  private final byte[] changeMarkers;
+  private final long length;
+  private final byte[] hashes;
+
+  /**
+   * Constructor.
+   * 
+   * @param changeMarkers the change markers
+   * @param length the length of the payload
+   * @param hashes the hashes of the chunks
+   */
+  SyncManifest(byte[] changeMarkers, long length, byte[] hashes) {
+    this.changeMarkers = changeMarkers;
+    this.length = length;
+    this.hashes = hashes;
+  }
+
+  /**
+   * Returns true if the manifest has the change markers.
+   * 
+   * @param markers the change markers
+   */
+  boolean hasChangeMarkers(byte[] markers) {
+    return Arrays.equals(changeMarkers, markers);
+  }
+
+  /**
+   * Gets the length of the payload.
+   */
+  long getLength() {
+    return length;
+  }
+
+  /**
+   * Gets the number of chunks.
+   */
+  int getNumberOfChunks() {
+    return hashes.length / HASH_LENGTH;
+  }
+
+  /**
+   * Gets the number of chunks different from another manifest, including the
+   * chunks only in one of the manifests.
+   * 
+   * @param other the other manifest
+   */
+  int getNumberOfChangedChunks(SyncManifest other) {
+    int common = Math.min(getNumberOfChunks(), other.getNumberOfChunks());
+    int changed = Math.abs(getNumberOfChunks() - other.getNumberOfChunks());
+    for (int i = 0; i < common; i++) {
+      int offset = i * HASH_LENGTH;
+      for (int j = offset; j < offset + HASH_LENGTH; j++) {
+        if (hashes[j] != other.hashes[j]) {
+          changed++;
+          break;
+        }
+      }
+    }
+    return changed;
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (!(object instanceof SyncManifest)) {
+      return false;
+    }
+    SyncManifest other = (SyncManifest) object;
+    return Arrays.equals(changeMarkers, other.changeMarkers) && length == other.length
+        && Arrays.equals(hashes, other.hashes);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(hashes);
+  }
+
+  /**
+   * Gets the change markers of a track. Returns null if the track does not
+   * exist.
+   * 
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param trackId the track id
+   * @param exportSettings the export settings, e.g., the photo size
+   */
+  static byte[] getChangeMarkers(
+      MyTracksProviderUtils myTracksProviderUtils, long trackId, String exportSettings) {
+    MessageDigest messageDigest = newMessageDigest();
+    update(messageDigest, exportSettings);
+    Cursor cursor = null;
+    try {
+      cursor = myTracksProviderUtils.getTrackCursor(
+          TracksColumns._ID + "=?", new String[] { Long.toString(trackId) }, null);
+      if (cursor == null || !cursor.moveToFirst()) {
+        return null;
+      }
+      updateRow(messageDigest, cursor, SYNC_COLUMNS);
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    update(messageDigest, Long.toString(myTracksProviderUtils.getFirstTrackPointId(trackId)));
+    update(messageDigest, Long.toString(myTracksProviderUtils.getLastTrackPointId(trackId)));
+
+    cursor = null;
+    try {
+      cursor = myTracksProviderUtils.getWaypointCursor(trackId, -1L, -1);
+      if (cursor != null && cursor.moveToFirst()) {
+        int photoUrlIndex = cursor.getColumnIndexOrThrow(WaypointsColumns.PHOTOURL);
+        do {
+          updateRow(messageDigest, cursor, null);
+          String photoUrl = cursor.getString(photoUrlIndex);
+          if (photoUrl != null && !photoUrl.equals("")) {
+            // The photo bytes are not read, a changed photo has a new size or time
+            File file = new File(Uri.parse(photoUrl).getPath());
+            update(messageDigest, file.length() + " " + file.lastModified());
+          }
+        } while (cursor.moveToNext());
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return messageDigest.digest();
+  }
+
+  /**
+   * Saves the manifest of a track for a drive file.
+   * 
+   * @param context the context
+   * @param trackId the track id
+   * @param driveId the drive file id
+   * @param driveModifiedTime the drive file modified time
+   */
+  void save(Context context, long trackId, String driveId, long driveModifiedTime) {
+    File file = FileUtils.getSyncManifestFile(context, trackId);
+    File directory = file.getParentFile();
+    if (!FileUtils.ensureDirectoryExists(directory)) {
+      Log.e(TAG, "Unable to create " + directory.getAbsolutePath());
+      return;
+    }
+    DataOutputStream dataOutputStream = null;
+    boolean success = false;
+    try {
+      dataOutputStream = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(file)));
+      dataOutputStream.writeUTF(driveId);
+      dataOutputStream.writeLong(driveModifiedTime);
+      dataOutputStream.write(changeMarkers);
+      dataOutputStream.writeLong(length);
+      dataOutputStream.writeInt(hashes.length);
+      dataOutputStream.write(hashes);
+      dataOutputStream.close();
+      dataOutputStream = null;
+      success = true;
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to save manifest for track " + trackId, e);
+    } finally {
+      if (dataOutputStream != null) {
+        try {
+          dataOutputStream.close();
+        } catch (IOException e) {
+          Log.e(TAG, "Unable to close manifest for track " + trackId, e);
+        }
+      }
+      if (!success) {
+        delete(context, trackId);
+      }
+    }
+  }
+
+  /**
+   * Loads the manifest of a track for a drive file. Returns null if there is
+   * no manifest for the drive file id and modified time.
+   * 
+   * @param context the context
+   * @param trackId the track id
+   * @param driveId the drive file id
+   * @param driveModifiedTime the drive file modified time
+   */
+  static SyncManifest load(
+      Context context, long trackId, String driveId, long driveModifiedTime) {
+    DataInputStream dataInputStream = null;
+    try {
+      dataInputStream = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(FileUtils.getSyncManifestFile(context, trackId))));
+      if (!dataInputStream.readUTF().equals(driveId)
+          || dataInputStream.readLong() != driveModifiedTime) {
+        return null;
+      }
+      byte[] changeMarkers = new byte[HASH_LENGTH];
+      dataInputStream.readFully(changeMarkers);
+      long length = dataInputStream.readLong();
+      int hashesLength = dataInputStream.readInt();
+      if (hashesLength < 0 || hashesLength % HASH_LENGTH != 0
+          || hashesLength / HASH_LENGTH > length / CHUNK_SIZE + 1) {
+        Log.e(TAG, "Invalid manifest for track " + trackId);
+        return null;
+      }
+      byte[] hashes = new byte[hashesLength];
+      dataInputStream.readFully(hashes);
+      return new SyncManifest(changeMarkers, length, hashes);
+    } catch (FileNotFoundException e) {
+      return null;
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to load manifest for track " + trackId, e);
+      return null;
+    } finally {
+      if (dataInputStream != null) {
+        try {
+          dataInputStream.close();
+        } catch (IOException e) {
+          Log.e(TAG, "Unable to close manifest for track " + trackId, e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Deletes the manifest of a track.
+   * 
+   * @param context the context
+   * @param trackId the track id
+   */
+  static void delete(Context context, long trackId) {
+    File file = FileUtils.getSyncManifestFile(context, trackId);
+    if (file.exists() && !file.delete()) {
+      Log.d(TAG, "Unable to delete manifest for track " + trackId);
+    }
+  }
+
+  /**
+   * Deletes the manifests of all the tracks.
+   * 
+   * @param context the context
+   */
+  static void deleteAll(Context context) {
+    File[] files = new File(context.getFilesDir(), FileUtils.SYNC_MANIFESTS_DIR).listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (!file.delete()) {
+        Log.d(TAG, "Unable to delete manifest " + file.getName());
+      }
+    }
+  }
+
+  /**
+   * Creates a message digest.
+   */
+  private static MessageDigest newMessageDigest() {
+    try {
+      return MessageDigest.getInstance(HASH_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(HASH_ALGORITHM + " not available", e);
+    }
+  }
+
+  /**
+   * Updates a message digest with a value. Null is distinct from any string.
+   * 
+   * @param messageDigest the message digest
+   * @param value the value
+   */
+  private static void update(MessageDigest messageDigest, String value) {
+    if (value == null) {
+      messageDigest.update((byte) 1);
+    } else {
+      try {
+        messageDigest.update(value.getBytes("UTF-8"));
+      } catch (UnsupportedEncodingException e) {
+        throw new IllegalStateException("UTF-8 not available", e);
+      }
+    }
+    messageDigest.update((byte) 0);
+  }
+
+  /**
+   * Updates a message digest with the columns of the current row of a cursor.
+   * 
+   * @param messageDigest the message digest
+   * @param cursor the cursor
+   * @param excludedColumns the columns to exclude. Null to include all
+   */
+  private static void updateRow(
+      MessageDigest messageDigest, Cursor cursor, Set<String> excludedColumns) {
+    for (int i = 0; i < cursor.getColumnCount(); i++) {
+      String name = cursor.getColumnName(i);
+      if (excludedColumns == null || !excludedColumns.contains(name)) {
+        update(messageDigest, name);
+        update(messageDigest, cursor.isNull(i) ? null : cursor.getString(i));
+      }
+    }
+  }
+
+  /**
+   * Builds a manifest from the payload written by a track exporter. The
+   * payload is hashed as it is written, so that the manifest of an upload is
+   * built without another export.
+   */
+  static class Builder {
+
+    private final byte[] changeMarkers;
+    private final MessageDigest messageDigest = newMessageDigest();
+    private final ByteArrayOutputStream hashes = new ByteArrayOutputStream();
+    private long length;
+    private int chunkLength;
+    private boolean success;
+
+    /**
+     * Constructor.
+     * 
+     * @param changeMarkers the change markers of the track read before the
+     *          export. Null if unknown
+     */
+    Builder(byte[] changeMarkers) {
+      this.changeMarkers = changeMarkers;
+    }
+
+    /**
+     * Wraps a track exporter to hash its payload.
+     * 
+     * @param trackExporter the track exporter
+     */
+    TrackExporter wrap(final TrackExporter trackExporter) {
+      return new TrackExporter() {
+          @Override
+        public boolean writeTrack(OutputStream outputStream) {
+          success = trackExporter.writeTrack(new HashingOutputStream(outputStream));
+          return success;
+        }
+      };
+    }
+
+    /**
+     * Builds the manifest. Returns null if the change markers are unknown or
+     * the track exporter failed or did not run.
+     */
+    SyncManifest build() {
+      if (changeMarkers == null || !success) {
+        return null;
+      }
+      if (chunkLength > 0 || length == 0) {
+        hashes.write(messageDigest.digest(), 0, HASH_LENGTH);
+        chunkLength = 0;
+      }
+      return new SyncManifest(changeMarkers, length, hashes.toByteArray());
+    }
+
+    /**
+     * Hashes a part of the payload.
+     * 
+     * @param buffer the buffer
+     * @param offset the offset in the buffer
+     * @param count the number of bytes
+     */
+    private void update(byte[] buffer, int offset, int count) {
+      length += count;
+      while (count > 0) {
+        int size = Math.min(count, CHUNK_SIZE - chunkLength);
+        messageDigest.update(buffer, offset, size);
+        chunkLength += size;
+        offset += size;
+        count -= size;
+        if (chunkLength == CHUNK_SIZE) {
+          hashes.write(messageDigest.digest(), 0, HASH_LENGTH);
+          chunkLength = 0;
+        }
+      }
+    }
+
+    /**
+     * An output stream hashing the bytes written.
+     */
+    private class HashingOutputStream extends FilterOutputStream {
+
+      private final byte[] oneByteBuffer = new byte[1];
+
+      HashingOutputStream(OutputStream outputStream) {
+        super(outputStream);
+      }
+
+      @Override
+      public void write(int oneByte) throws IOException {
+        out.write(oneByte);
+        oneByteBuffer[0] = (byte) oneByte;
+        update(oneByteBuffer, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] buffer, int offset, int count) throws IOException {
+        out.write(buffer, offset, count);
+        update(buffer, offset, count);
+      }
+    }
+  }
+}
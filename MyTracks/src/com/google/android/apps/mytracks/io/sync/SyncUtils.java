@@ -26,14 +26,18 @@ import com.google.android.apps.mytracks.io.file.exporter.KmzTrackExporter;
 import com.google.android.apps.mytracks.io.file.exporter.TrackExporter;
 import com.google.android.apps.mytracks.util.FileUtils;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
+import com.google.android.apps.mytracks.util.SystemUtils;
 import com.google.android.maps.mytracks.R;
 import com.google.api.client.extensions.android.http.AndroidHttp;
 import com.google.api.client.googleapis.extensions.android.gms.auth.GoogleAccountCredential;
 import com.google.api.client.googleapis.extensions.android.gms.auth.UserRecoverableAuthIOException;
+import com.google.api.client.http.AbstractInputStreamContent;
 import com.google.api.client.http.FileContent;
 import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.Drive.Files.Insert;
 import com.google.api.services.drive.Drive.Files.List;
+import com.google.api.services.drive.Drive.Files.Update;
 import com.google.api.services.drive.model.File;
 import com.google.api.services.drive.model.FileList;
 import com.google.api.services.drive.model.ParentReference;
@@ -86,6 +90,19 @@ public class SyncUtils {
   public static final String SHARED_WITH_ME_FILES_QUERY = "sharedWithMe and " + KML_KMZ_MINE_TYPES
       + " and trashed = false";
 
+  /*
+   * The maximum length of a streamed track. A streamed track is a direct,
+   * multipart upload, accepted by Drive up to 5 MB including the metadata.
+   */
+  private static final long MAX_STREAMED_LENGTH = 5 * 1024 * 1024 - 64 * 1024;
+
+  /*
+   * The maximum number of track points of a streamed track. Larger tracks are
+   * likely to exceed MAX_STREAMED_LENGTH, so they are uploaded from a temporary
+   * file without streaming first.
+   */
+  private static final int MAX_STREAMED_TRACK_POINTS = 30000;
+
   // Folder mime type
   private static final String FOLDER_MIME_TYPE = "application/vnd.google-apps.folder";
 
@@ -230,6 +247,8 @@ public class SyncUtils {
     // Clear the drive_deleted_list_key last
     PreferencesUtils.setString(
         context, R.string.drive_deleted_list_key, PreferencesUtils.DRIVE_DELETED_LIST_DEFAULT);
+
+    SyncManifest.deleteAll(context);
   }
 
   /**
@@ -329,7 +348,9 @@ public class SyncUtils {
   }
 
   /**
-   * Inserts a drive file using info from a track.
+   * Inserts a drive file using info from a track. If can retry and the track
+   * can be streamed, streams the track to the drive file. Otherwise, or if
+   * unable to stream, uploads a temporary file.
    * 
    * @param drive the drive
    * @param folderId the folder id
@@ -343,34 +364,55 @@ public class SyncUtils {
   public static File insertDriveFile(Drive drive, String folderId, Context context,
       MyTracksProviderUtils myTracksProviderUtils, Track track, boolean canRetry, boolean updateTrack)
       throws IOException {
-    java.io.File file = null;
-    try {
-      file = getTempFile(context, myTracksProviderUtils, track, true);
-
-      if (file == null) {
-        Log.e(TAG, "Unable to add Drive file. File is null for track " + track.getName());
-        return null;
+    Log.d(TAG, "Add Drive file for track " + track.getName());
+    File uploadedFile = null;
+    byte[] changeMarkers = SyncManifest.getChangeMarkers(
+        myTracksProviderUtils, track.getId(), getExportSettings(context));
+    SyncManifest.Builder builder = new SyncManifest.Builder(changeMarkers);
+    boolean streamed = false;
+    if (canRetry && canStream(myTracksProviderUtils, track)) {
+      streamed = true;
+      try {
+        uploadedFile = insertDriveFile(drive, folderId, track.getName(),
+            getTrackContent(context, myTracksProviderUtils, track, builder));
+      } catch (UserRecoverableAuthIOException e) {
+        throw e;
+      } catch (IOException e) {
+        Log.d(TAG, "Unable to stream Drive file, retrying with a temp file", e);
       }
-
-      Log.d(TAG, "Add Drive file for track " + track.getName());
-      File uploadedFile = insertDriveFile(drive, folderId, track.getName(), file, canRetry);
-      if (uploadedFile == null) {
-        Log.e(TAG, "Unable to add Drive file. Uploaded file is null for track " + track.getName());
-        return null;
-      }
-      if (updateTrack) {
-        SyncUtils.updateTrack(myTracksProviderUtils, track, uploadedFile);
-      }
-      return uploadedFile;
-    } finally {
-      if (file != null) {
-        file.delete();
+    }
+    if (uploadedFile == null) {
+      builder = new SyncManifest.Builder(changeMarkers);
+      java.io.File file = null;
+      try {
+        file = getTempFile(context, myTracksProviderUtils, track, true, builder);
+        if (file == null) {
+          Log.e(TAG, "Unable to add Drive file. File is null for track " + track.getName());
+          return null;
+        }
+        // Only retry if not already tried streaming
+        uploadedFile = insertDriveFile(
+            drive, folderId, track.getName(), file, canRetry && !streamed);
+      } finally {
+        if (file != null) {
+          file.delete();
+        }
       }
     }
+
+    if (uploadedFile == null) {
+      Log.e(TAG, "Unable to add Drive file. Uploaded file is null for track " + track.getName());
+      return null;
+    }
+    saveManifest(context, track, builder.build(), uploadedFile);
+    if (updateTrack) {
+      SyncUtils.updateTrack(myTracksProviderUtils, track, uploadedFile);
+    }
+    return uploadedFile;
   }
 
   /**
-   * Inserts a drive file using info from a track file.
+   * Inserts a drive file using a track file.
    * 
    * @param drive the drive
    * @param folderId the folder id
@@ -382,20 +424,7 @@ public class SyncUtils {
       Drive drive, String folderId, String trackName, java.io.File file, boolean canRetry)
       throws IOException {
     try {
-      // file's parent
-      ParentReference parentReference = new ParentReference();
-      parentReference.setId(folderId);
-      ArrayList<ParentReference> parents = new ArrayList<ParentReference>();
-      parents.add(parentReference);
-
-      // file's metadata
-      File newMetaData = new File();
-      newMetaData.setTitle(trackName + "." + KmzTrackExporter.KMZ_EXTENSION);
-      newMetaData.setMimeType(KMZ_MIME_TYPE);
-      newMetaData.setParents(parents);
-
-      FileContent fileContent = new FileContent(KMZ_MIME_TYPE, file);
-      return drive.files().insert(newMetaData, fileContent).execute();
+      return insertDriveFile(drive, folderId, trackName, new FileContent(KMZ_MIME_TYPE, file));
     } catch (UserRecoverableAuthIOException e) {
       throw e;
     } catch (IOException e) {
@@ -406,8 +435,46 @@ public class SyncUtils {
     }
   }
 
+  /**
+   * Inserts a drive file using info from a track content.
+   * 
+   * @param drive the drive
+   * @param folderId the folder id
+   * @param trackName the track name
+   * @param content the track content
+   */
+  private static File insertDriveFile(
+      Drive drive, String folderId, String trackName, AbstractInputStreamContent content)
+      throws IOException {
+    // file's parent
+    ParentReference parentReference = new ParentReference();
+    parentReference.setId(folderId);
+    ArrayList<ParentReference> parents = new ArrayList<ParentReference>();
+    parents.add(parentReference);
+
+    // file's metadata
+    File newMetaData = new File();
+    newMetaData.setTitle(trackName + "." + KmzTrackExporter.KMZ_EXTENSION);
+    newMetaData.setMimeType(KMZ_MIME_TYPE);
+    newMetaData.setParents(parents);
+
+    Insert insert = drive.files().insert(newMetaData, content);
+    if (content.getLength() < 0) {
+      /*
+       * A resumable upload needs the content length. A direct upload is a
+       * multipart body, left unterminated if the content fails.
+       */
+      insert.getMediaHttpUploader().setDirectUploadEnabled(true);
+    }
+    return insert.execute();
+  }
+
   /**
    * Updates a drive file using info from a track. Returns true if successful.
+   * Skips the upload if the track content is unchanged since the last upload
+   * to the drive file. Otherwise, if can retry and the track can be streamed,
+   * streams the track to the drive file. If not, or if unable to stream,
+   * uploads a temporary file.
    * 
    * @param drive the drive
    * @param driveFile the drive file
@@ -420,34 +487,127 @@ public class SyncUtils {
       MyTracksProviderUtils myTracksProviderUtils, Track track, boolean canRetry)
       throws IOException {
     Log.d(TAG, "Update drive file for track " + track.getName());
-    java.io.File file = null;
-
-    try {
-      file = SyncUtils.getTempFile(context, myTracksProviderUtils, track, true);
-      if (file == null) {
-        Log.e(TAG, "Unable to update drive file. File is null for track " + track.getName());
-        return false;
+    String title = track.getName() + "." + KmzTrackExporter.KMZ_EXTENSION;
+
+    /*
+     * Drive cannot update a part of a file. Compare the change markers of the
+     * track with the manifest of the last upload to skip uploading an
+     * unchanged track. The markers are read from the database, without
+     * exporting the track.
+     */
+    byte[] changeMarkers = SyncManifest.getChangeMarkers(
+        myTracksProviderUtils, track.getId(), getExportSettings(context));
+    SyncManifest manifest = SyncManifest.load(
+        context, track.getId(), driveFile.getId(), driveFile.getModifiedDate().getValue());
+    if (manifest != null && changeMarkers != null && manifest.hasChangeMarkers(changeMarkers)) {
+      Log.d(TAG, "Track content unchanged for track " + track.getName());
+      File updatedFile = driveFile;
+      if (!title.equals(driveFile.getTitle())) {
+        updatedFile = updateDriveFile(drive, driveFile, title, null, canRetry);
+        if (updatedFile == null) {
+          Log.e(TAG,
+              "Unable to update drive file. Updated file is null for track " + track.getName());
+          return false;
+        }
+        saveManifest(context, track, manifest, updatedFile);
       }
+      updateModifiedTime(myTracksProviderUtils, track, updatedFile);
+      return true;
+    }
 
-      String title = track.getName() + "." + KmzTrackExporter.KMZ_EXTENSION;
-      File updatedFile = updateDriveFile(drive, driveFile, title, file, canRetry);
-
-      if (updatedFile == null) {
-        Log.e(
-            TAG, "Unable to update drive file. Updated file is null for track " + track.getName());
-        return false;
+    File updatedFile = null;
+    SyncManifest.Builder builder = new SyncManifest.Builder(changeMarkers);
+    boolean streamed = false;
+    if (canRetry && canStream(myTracksProviderUtils, track)) {
+      streamed = true;
+      try {
+        updatedFile = updateDriveFile(drive, driveFile, title,
+            getTrackContent(context, myTracksProviderUtils, track, builder));
+      } catch (UserRecoverableAuthIOException e) {
+        throw e;
+      } catch (IOException e) {
+        Log.d(TAG, "Unable to stream drive file, retrying with a temp file", e);
       }
-      long modifiedTime = updatedFile.getModifiedDate().getValue();
-      if (track.getModifiedTime() != modifiedTime) {
-        track.setModifiedTime(modifiedTime);
-        myTracksProviderUtils.updateTrack(track);
-      }
-      return true;
-    } finally {
-      if (file != null) {
-        file.delete();
+    }
+    if (updatedFile == null) {
+      builder = new SyncManifest.Builder(changeMarkers);
+      java.io.File file = null;
+      try {
+        file = getTempFile(context, myTracksProviderUtils, track, true, builder);
+        if (file == null) {
+          Log.e(TAG, "Unable to update drive file. File is null for track " + track.getName());
+          return false;
+        }
+        // Only retry if not already tried streaming
+        updatedFile = updateDriveFile(drive, driveFile, title, file, canRetry && !streamed);
+      } finally {
+        if (file != null) {
+          file.delete();
+        }
       }
     }
+
+    if (updatedFile == null) {
+      Log.e(TAG, "Unable to update drive file. Updated file is null for track " + track.getName());
+      return false;
+    }
+    SyncManifest newManifest = builder.build();
+    if (manifest != null && newManifest != null) {
+      Log.d(TAG, "Track content changed in " + manifest.getNumberOfChangedChunks(newManifest)
+          + " of " + newManifest.getNumberOfChunks() + " chunks for track " + track.getName());
+    }
+    saveManifest(context, track, newManifest, updatedFile);
+    updateModifiedTime(myTracksProviderUtils, track, updatedFile);
+    return true;
+  }
+
+  /**
+   * Updates the modified time of a track with the modified time of a drive
+   * file.
+   * 
+   * @param myTracksProviderUtils the myTracksProviderUtils
+   * @param track the track
+   * @param driveFile the drive file
+   */
+  private static void updateModifiedTime(
+      MyTracksProviderUtils myTracksProviderUtils, Track track, File driveFile) {
+    long modifiedTime = driveFile.getModifiedDate().getValue();
+    if (track.getModifiedTime() != modifiedTime) {
+      track.setModifiedTime(modifiedTime);
+      myTracksProviderUtils.updateTrack(track);
+    }
+  }
+
+  /**
+   * Saves the manifest of a track uploaded to a drive file. Deletes the saved
+   * manifest if the manifest is null, e.g., when the track was missing.
+   * 
+   * @param context the context
+   * @param track the track
+   * @param manifest the manifest
+   * @param driveFile the drive file
+   */
+  private static void saveManifest(
+      Context context, Track track, SyncManifest manifest, File driveFile) {
+    if (manifest == null) {
+      SyncManifest.delete(context, track.getId());
+      return;
+    }
+    manifest.save(
+        context, track.getId(), driveFile.getId(), driveFile.getModifiedDate().getValue());
+  }
+
+  /**
+   * Gets the export settings affecting the track content but not stored with
+   * the track, the photo size, the locale of the descriptions, and the app
+   * version.
+   * 
+   * @param context the context
+   */
+  private static String getExportSettings(Context context) {
+    return "photo_size=" + PreferencesUtils.getInt(
+        context, R.string.photo_size_key, PreferencesUtils.PHOTO_SIZE_DEFAULT) + ";locale="
+        + Locale.getDefault() + ";version=" + SystemUtils.getMyTracksVersion(context);
   }
 
   /**
@@ -463,15 +623,8 @@ public class SyncUtils {
       Drive drive, File driveFile, String driveTitle, java.io.File file, boolean canRetry)
       throws IOException {
     try {
-      driveFile.setTitle(driveTitle);
-      driveFile.setMimeType(KMZ_MIME_TYPE);
-
-      if (file != null) {
-        FileContent fileContent = new FileContent(KMZ_MIME_TYPE, file);
-        return drive.files().update(driveFile.getId(), driveFile, fileContent).execute();
-      } else {
-        return drive.files().update(driveFile.getId(), driveFile).execute();
-      }
+      return updateDriveFile(drive, driveFile, driveTitle,
+          file != null ? new FileContent(KMZ_MIME_TYPE, file) : null);
     } catch (UserRecoverableAuthIOException e) {
       throw e;
     } catch (IOException e) {
@@ -482,6 +635,93 @@ public class SyncUtils {
     }
   }
 
+  /**
+   * Updates a drive file using a track content.
+   * 
+   * @param drive the drive
+   * @param driveFile the drive file
+   * @param driveTitle the drive title
+   * @param content the track content. If null, just update the driveFile meta
+   *          data
+   */
+  private static File updateDriveFile(
+      Drive drive, File driveFile, String driveTitle, AbstractInputStreamContent content)
+      throws IOException {
+    driveFile.setTitle(driveTitle);
+    driveFile.setMimeType(KMZ_MIME_TYPE);
+
+    if (content == null) {
+      return drive.files().update(driveFile.getId(), driveFile).execute();
+    }
+    Update update = drive.files().update(driveFile.getId(), driveFile, content);
+    if (content.getLength() < 0) {
+      // A resumable upload needs the content length, upload directly
+      update.getMediaHttpUploader().setDirectUploadEnabled(true);
+    }
+    return update.execute();
+  }
+
+  /**
+   * Gets a content streaming a track as KMZ, without a temporary file. Can only
+   * be uploaded once.
+   * 
+   * @param context the context
+   * @param myTracksProviderUtils the myTracksProviderUtils
+   * @param track the track
+   * @param builder the sync manifest builder of the KML
+   */
+  private static AbstractInputStreamContent getTrackContent(Context context,
+      MyTracksProviderUtils myTracksProviderUtils, Track track, SyncManifest.Builder builder) {
+    TrackExporter kmlTrackExporter = builder.wrap(
+        newKmlTrackExporter(context, myTracksProviderUtils, track));
+    return new TrackExporterContent(KMZ_MIME_TYPE, new KmzTrackExporter(
+        myTracksProviderUtils, kmlTrackExporter, new Track[] { track }, context),
+        MAX_STREAMED_LENGTH);
+  }
+
+  /**
+   * Returns true if a track can be streamed in a direct upload. A track with
+   * photos or many track points is likely too large.
+   * 
+   * @param myTracksProviderUtils the myTracksProviderUtils
+   * @param track the track
+   */
+  private static boolean canStream(MyTracksProviderUtils myTracksProviderUtils, Track track) {
+    if (track.getNumberOfPoints() > MAX_STREAMED_TRACK_POINTS) {
+      return false;
+    }
+    Cursor cursor = null;
+    try {
+      cursor = myTracksProviderUtils.getWaypointCursor(track.getId(), -1L, -1);
+      if (cursor != null && cursor.moveToFirst()) {
+        do {
+          String photoUrl = myTracksProviderUtils.createWaypoint(cursor).getPhotoUrl();
+          if (photoUrl != null && !photoUrl.equals("")) {
+            return false;
+          }
+        } while (cursor.moveToNext());
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Creates a KML track exporter for a track.
+   * 
+   * @param context the context
+   * @param myTracksProviderUtils the myTracksProviderUtils
+   * @param track the track
+   */
+  private static TrackExporter newKmlTrackExporter(
+      Context context, MyTracksProviderUtils myTracksProviderUtils, Track track) {
+    return new FileTrackExporter(myTracksProviderUtils, new Track[] { track },
+        TrackFileFormat.KML.newTrackWriter(context, false, false), null);
+  }
+
   /**
    * Gets a temporary file for a track.
    * 
@@ -493,6 +733,21 @@ public class SyncUtils {
   public static java.io.File getTempFile(
       Context context, MyTracksProviderUtils myTracksProviderUtils, Track track, boolean useKmz)
       throws FileNotFoundException {
+    return getTempFile(context, myTracksProviderUtils, track, useKmz, null);
+  }
+
+  /**
+   * Gets a temporary file for a track, hashing the KML for a sync manifest.
+   * 
+   * @param context the context
+   * @param myTracksProviderUtils the myMyTracksProviderUtils
+   * @param track the track
+   * @param useKmz true to output kmz
+   * @param builder the sync manifest builder of the KML. Null to not hash
+   */
+  private static java.io.File getTempFile(Context context,
+      MyTracksProviderUtils myTracksProviderUtils, Track track, boolean useKmz,
+      SyncManifest.Builder builder) throws FileNotFoundException {
     java.io.File directory = new java.io.File(context.getCacheDir(), FileUtils.TEMP_FILES_DIR);
 
     if (!FileUtils.ensureDirectoryExists(directory)) {
@@ -508,11 +763,13 @@ public class SyncUtils {
     String extension = useKmz ? KmzTrackExporter.KMZ_EXTENSION : TrackFileFormat.KML.getExtension();
     java.io.File file = new java.io.File(
         directory, FileUtils.buildUniqueFileName(directory, track.getName(), extension));
-    FileTrackExporter fileTrackExporter = new FileTrackExporter(myTracksProviderUtils, tracks,
-        TrackFileFormat.KML.newTrackWriter(context, false, false), null);
+    TrackExporter kmlTrackExporter = newKmlTrackExporter(context, myTracksProviderUtils, track);
+    if (builder != null) {
+      kmlTrackExporter = builder.wrap(kmlTrackExporter);
+    }
     TrackExporter trackExporter = useKmz ? new KmzTrackExporter(
-        myTracksProviderUtils, fileTrackExporter, tracks, context)
-        : fileTrackExporter;
+        myTracksProviderUtils, kmlTrackExporter, tracks, context)
+        : kmlTrackExporter;
 
     FileOutputStream fileOutputStream = null;
     try {
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.sync;
+
+import com.google.android.apps.mytracks.io.file.exporter.TrackExporter;
+import com.google.api.client.http.AbstractInputStreamContent;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+/**
+ * Upload content streaming the output of a {@link TrackExporter}. The track is
+ * exported on a separate thread into a pipe read by the upload, so that the
+ * export and the upload overlap without a temporary file. The content can only
+ * be read once, retries need a new content. An optional maximum length fails
+ * the upload as soon as the export is larger, e.g., larger than a direct
+ * upload accepts. The length is unknown until the content has been read to the
+ * end.
+ */
+public class TrackExporterContent extends AbstractInputStreamContent {
+
+  private static final String TAG = TrackExporterContent.class.getSimpleName();
+
+  // Buffer size of the export output, written to the pipe in large chunks
+  private static final int BUFFER_SIZE = 16384;
+
+  private final TrackExporter trackExporter;
+  private final long maxLength;
+  private Thread exportThread;
+  private volatile boolean success;
+  private volatile long length = -1L;
+
+  /**
+   * Constructor.
+   * 
+   * @param type the content type
+   * @param trackExporter the track exporter
+   */
+  public TrackExporterContent(String type, TrackExporter trackExporter) {
+    this(type, trackExporter, -1L);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param type the content type
+   * @param trackExporter the track exporter
+   * @param maxLength the maximum length of the content. -1L for no maximum
+   */
+  public TrackExporterContent(String type, TrackExporter trackExporter, long maxLength) {
+    super(type);
+    this.trackExporter = trackExporter;
+    this.maxLength = maxLength;
+  }
+
+  /**
+   * Returns -1L until the content has been read to the end, then the number of
+   * bytes read. The media uploader reads the length after a direct upload.
+   */
+  @Override
+  public long getLength() {
+    return length;
+  }
+
+  @Override
+  public boolean retrySupported() {
+    return false;
+  }
+
+  @Override
+  public synchronized InputStream getInputStream() throws IOException {
+    if (exportThread != null) {
+      throw new IOException("Content already read");
+    }
+    PipedInputStream pipedInputStream = new PipedInputStream();
+    final OutputStream outputStream = new BufferedOutputStream(
+        new PipedOutputStream(pipedInputStream), BUFFER_SIZE);
+    exportThread = new Thread(TAG) {
+        @Override
+      public void run() {
+        try {
+          success = trackExporter.writeTrack(outputStream);
+        } finally {
+          // Ends the input stream even if the track exporter failed
+          try {
+            outputStream.close();
+          } catch (IOException e) {
+            Log.d(TAG, "Unable to close the pipe", e);
+          }
+        }
+      }
+    };
+    exportThread.start();
+    return new ExportInputStream(pipedInputStream, exportThread);
+  }
+
+  /**
+   * The input stream of the exported track. Reports an export failure as an
+   * {@link IOException} at the end of the stream, so that the upload fails.
+   * The HTTP request may still end the body of a chunked upload, a multipart
+   * upload keeps the partial track from being accepted. Reading more than the
+   * maximum length also throws an {@link IOException}. Closing the stream
+   * before the end stops the export.
+   */
+  private class ExportInputStream extends FilterInputStream {
+
+    private final Thread thread;
+    private long bytesRead;
+
+    ExportInputStream(InputStream inputStream, Thread thread) {
+      super(inputStream);
+      this.thread = thread;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int value = super.read();
+      if (value == -1) {
+        checkSuccess();
+      } else {
+        checkLength(1);
+      }
+      return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+      int result = super.read(buffer, offset, count);
+      if (result == -1) {
+        checkSuccess();
+      } else {
+        checkLength(result);
+      }
+      return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (thread.isAlive()) {
+        thread.interrupt();
+      }
+      super.close();
+    }
+
+    /**
+     * Adds to the length read and throws an exception if longer than the
+     * maximum length.
+     * 
+     * @param count the number of bytes read
+     */
+    private void checkLength(int count) throws IOException {
+      bytesRead += count;
+      if (maxLength >= 0 && bytesRead > maxLength) {
+        throw new IOException("Track export larger than " + maxLength + " bytes");
+      }
+    }
+
+    /**
+     * Waits for the export thread to finish and throws an exception if the
+     * export failed. Otherwise, sets the content length.
+     */
+    private void checkSuccess() throws IOException {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted waiting for the track export");
+      }
+      if (!success) {
+        throw new IOException("Unable to export track");
+      }
+      length = bytesRead;
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.maps;
+
+/**
+ * Simplifies a track path for the visible region of the map. Points are given
+ * in world coordinates, the Mercator projection scaled to [0, 1] in both
+ * directions. Segments outside the visible region are clipped and the rest is
+ * simplified with the Douglas-Peucker algorithm to a tolerance derived from
+ * the zoom level.
+ * <p>
+ * Not thread-safe. An instance reuses its work arrays between calls.
+ */
+public class PathSimplifier {
+
+  /**
+   * Output value marking a split between two pieces of the path.
+   */
+  public static final int SPLIT = -1;
+
+  // The size of the world in pixels at zoom level 0
+  private static final double WORLD_SIZE_PIXELS = 256.0;
+
+  // The simplification tolerance in pixels
+  private static final double TOLERANCE_PIXELS = 1.0;
+
+  private static final double MAX_LATITUDE = 85.0511287798;
+
+  private int[] stack = new int[64];
+  private boolean[] keep = new boolean[0];
+
+  /**
+   * Gets the world x coordinate of a longitude.
+   * 
+   * @param longitude the longitude
+   */
+  public static double getX(double longitude) {
+    return (longitude + 180.0) / 360.0;
+  }
+
+  /**
+   * Gets the world y coordinate of a latitude. The y axis points south.
+   * 
+   * @param latitude the latitude
+   */
+  public static double getY(double latitude) {
+    double sin = Math.sin(Math.toRadians(
+        Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude))));
+    return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+  }
+
+  /**
+   * Gets the simplification tolerance, in world coordinates, for a zoom level.
+   * 
+   * @param zoom the zoom level
+   */
+  public static double getTolerance(float zoom) {
+    return TOLERANCE_PIXELS / (WORLD_SIZE_PIXELS * Math.pow(2.0, zoom));
+  }
+
+  /**
+   * Simplifies a path. Writes the indices of the points to draw to output,
+   * separating the pieces of the path with {@link #SPLIT}. The last valid point
+   * is always drawn so that new points can be appended to the path.
+   * 
+   * @param xs the world x coordinates
+   * @param ys the world y coordinates
+   * @param valid false for the points splitting the path into segments
+   * @param size the number of points
+   * @param left the left of the region to draw
+   * @param top the top of the region to draw
+   * @param right the right of the region to draw
+   * @param bottom the bottom of the region to draw
+   * @param tolerance the tolerance
+   * @param output the output, must hold at least 2 * size values
+   * @return the number of values written to output
+   */
+  public int simplify(double[] xs, double[] ys, boolean[] valid, int size, double left,
+      double top, double right, double bottom, double tolerance, int[] output) {
+    if (keep.length < size) {
+      keep = new boolean[Math.max(size, keep.length * 2)];
+    }
+    int last = size - 1;
+    while (last >= 0 && !valid[last]) {
+      last--;
+    }
+
+    int count = 0;
+    int start = -1;
+    for (int i = 0; i <= size; i++) {
+      boolean needed = i < size && valid[i] && (i == last
+          || (xs[i] >= left && xs[i] <= right && ys[i] >= top && ys[i] <= bottom)
+          || (i > 0 && valid[i - 1] && intersects(xs, ys, i - 1, i, left, top, right, bottom))
+          || (i < last && valid[i + 1]
+              && intersects(xs, ys, i, i + 1, left, top, right, bottom)));
+      if (needed) {
+        if (start == -1) {
+          start = i;
+        }
+        continue;
+      }
+      if (start != -1) {
+        if (count != 0) {
+          output[count++] = SPLIT;
+        }
+        count = simplifyRun(xs, ys, start, i - 1, tolerance * tolerance, output, count);
+        start = -1;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Simplifies a run of points and writes the kept indices to output.
+   * 
+   * @param xs the world x coordinates
+   * @param ys the world y coordinates
+   * @param first the first index of the run
+   * @param last the last index of the run
+   * @param toleranceSquared the square of the tolerance
+   * @param output the output
+   * @param count the number of values already in output
+   * @return the new number of values in output
+   */
+  private int simplifyRun(double[] xs, double[] ys, int first, int last, double toleranceSquared,
+      int[] output, int count) {
+    for (int i = first; i <= last; i++) {
+      keep[i] = false;
+    }
+    keep[first] = true;
+    keep[last] = true;
+
+    int top = 0;
+    top = push(top, first, last);
+    while (top > 0) {
+      int end = stack[--top];
+      int begin = stack[--top];
+      double maxDistance = -1.0;
+      int maxIndex = -1;
+      for (int i = begin + 1; i < end; i++) {
+        double distance = getDistanceSquared(xs, ys, i, begin, end);
+        if (distance > maxDistance) {
+          maxDistance = distance;
+          maxIndex = i;
+        }
+      }
+      if (maxIndex != -1 && maxDistance > toleranceSquared) {
+        keep[maxIndex] = true;
+        top = push(top, begin, maxIndex);
+        top = push(top, maxIndex, end);
+      }
+    }
+
+    for (int i = first; i <= last; i++) {
+      if (keep[i]) {
+        output[count++] = i;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Pushes a range onto the stack, growing the stack if necessary.
+   * 
+   * @param top the top of the stack
+   * @param begin the begin index
+   * @param end the end index
+   * @return the new top of the stack
+   */
+  private int push(int top, int begin, int end) {
+    if (top + 2 > stack.length) {
+      int[] newStack = new int[stack.length * 2];
+      System.arraycopy(stack, 0, newStack, 0, top);
+      stack = newStack;
+    }
+    stack[top++] = begin;
+    stack[top++] = end;
+    return top;
+  }
+
+  /**
+   * Returns true if the bounding box of a segment intersects a region.
+   */
+  private static boolean intersects(double[] xs, double[] ys, int i, int j, double left,
+      double top, double right, double bottom) {
+    return Math.max(xs[i], xs[j]) >= left && Math.min(xs[i], xs[j]) <= right
+        && Math.max(ys[i], ys[j]) >= top && Math.min(ys[i], ys[j]) <= bottom;
+  }
+
+  /**
+   * Gets the square of the distance from a point to a segment.
+   * 
+   * @param xs the world x coordinates
+   * @param ys the world y coordinates
+   * @param i the index of the point
+   * @param begin the index of the segment begin
+   * @param end the index of the segment end
+   */
+  private static double getDistanceSquared(double[] xs, double[] ys, int i, int begin, int end) {
+    double dx = xs[end] - xs[begin];
+    double dy = ys[end] - ys[begin];
+    double px = xs[i] - xs[begin];
+    double py = ys[i] - ys[begin];
+    double lengthSquared = dx * dx + dy * dy;
+    if (lengthSquared > 0) {
+      double t = Math.max(0.0, Math.min(1.0, (px * dx + py * dy) / lengthSquared));
+      px -= t * dx;
+      py -= t * dy;
+    }
+    return px * px + py * py;
+  }
+}
@@ -20,8 +20,10 @@ import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.Polyline;
 import com.google.android.gms.maps.model.PolylineOptions;
+import com.google.common.annotations.VisibleForTesting;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Various utility functions for track path painting.
@@ -30,6 +32,14 @@ import java.util.ArrayList;
  */
 public class TrackPathUtils {
 
+  /*
+   * The maximum number of points in a polyline. Appending to a polyline copies
+   * all its points, thus long paths are drawn as a chain of polylines, each
+   * starting at the last point of the previous one.
+   */
+  @VisibleForTesting
+  static final int MAX_POLYLINE_POINTS = 500;
+
   private TrackPathUtils() {}
 
   /**
@@ -46,17 +56,72 @@ public class TrackPathUtils {
     if (points.size() == 0) {
       return;
     }
-    if (append && paths.size() != 0) {
-      Polyline lastPolyline = paths.get(paths.size() - 1);
-      ArrayList<LatLng> pathPoints = new ArrayList<LatLng>();
-      pathPoints.addAll(lastPolyline.getPoints());
-      pathPoints.addAll(points);
-      lastPolyline.setPoints(pathPoints);
-    } else {
-      PolylineOptions polylineOptions = new PolylineOptions().addAll(points).width(5).color(color);
-      Polyline polyline = googleMap.addPolyline(polylineOptions);
-      paths.add(polyline);
+    Polyline lastPolyline = append && paths.size() != 0 ? paths.get(paths.size() - 1) : null;
+    List<LatLng> lastPoints = lastPolyline != null ? lastPolyline.getPoints() : null;
+    List<List<LatLng>> polylines = splitPath(lastPoints, points);
+    int start = 0;
+    if (lastPolyline != null) {
+      if (polylines.get(0) != lastPoints) {
+        lastPolyline.setPoints(polylines.get(0));
+      }
+      start = 1;
+    }
+    for (int i = start; i < polylines.size(); i++) {
+      PolylineOptions polylineOptions = new PolylineOptions()
+          .addAll(polylines.get(i)).width(5).color(color);
+      paths.add(googleMap.addPolyline(polylineOptions));
     }
     points.clear();
   }
-}
\ No newline at end of file
+
+  /**
+   * Splits path points into polylines of at most {@link #MAX_POLYLINE_POINTS}
+   * points, each starting at the last point of the previous one. When
+   * appending, the first polyline returned is the last path extended with the
+   * first points, or the last path itself if it is full.
+   * 
+   * @param lastPoints the points of the last path. Null to not append
+   * @param points the path points, not empty
+   */
+  @VisibleForTesting
+  static List<List<LatLng>> splitPath(List<LatLng> lastPoints, List<LatLng> points) {
+    List<List<LatLng>> polylines = new ArrayList<List<LatLng>>();
+    List<LatLng> pathPoints = points;
+    int start = 0;
+    if (lastPoints != null) {
+      int count = Math.min(points.size(), MAX_POLYLINE_POINTS - lastPoints.size());
+      if (count > 0) {
+        ArrayList<LatLng> extendedPoints = new ArrayList<LatLng>(lastPoints.size() + count);
+        extendedPoints.addAll(lastPoints);
+        extendedPoints.addAll(points.subList(0, count));
+        polylines.add(extendedPoints);
+        start = count;
+      } else {
+        polylines.add(lastPoints);
+      }
+      if (start == points.size()) {
+        return polylines;
+      }
+
+      // Continue from the last point of the full polyline
+      if (start == 0 && lastPoints.size() != 0) {
+        pathPoints = new ArrayList<LatLng>(points.size() + 1);
+        pathPoints.add(lastPoints.get(lastPoints.size() - 1));
+        pathPoints.addAll(points);
+      } else if (start > 0) {
+        start--;
+      }
+    }
+
+    // Add polylines of at most MAX_POLYLINE_POINTS, sharing the joint points
+    while (true) {
+      int end = Math.min(pathPoints.size(), start + MAX_POLYLINE_POINTS);
+      polylines.add(pathPoints.subList(start, end));
+      if (end == pathPoints.size()) {
+        break;
+      }
+      start = end - 1;
+    }
+    return polylines;
+  }
+}
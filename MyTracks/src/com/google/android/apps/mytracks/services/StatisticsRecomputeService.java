@@ -0,0 +1,207 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.services;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.util.CalorieUtils;
+import com.google.android.apps.mytracks.util.PreferencesUtils;
+import com.google.android.maps.mytracks.R;
+import com.google.common.annotations.VisibleForTesting;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A service to recompute the trip statistics of tracks in the background. The
+ * tracks are spread over a bounded pool of background threads. Each
+ * recomputation resumes from the last trip statistics checkpoint of the track,
+ * see {@link CalorieUtils#updateTrackCalorie(Context, Track)}. A track is
+ * recomputed by one thread at a time, a request for a track being recomputed
+ * runs again once done. The recording track is skipped,
+ * {@link TrackRecordingService} updates it instead.
+ */
+public class StatisticsRecomputeService extends Service {
+
+  private static final String TAG = StatisticsRecomputeService.class.getSimpleName();
+
+  @VisibleForTesting
+  static final String EXTRA_TRACK_IDS = "track_ids";
+
+  // The maximum number of tracks recomputed at the same time
+  private static final int MAX_THREADS = 4;
+
+  private ExecutorService executorService;
+
+  // The tracks waiting for a thread
+  private final Set<Long> queuedTrackIds = new HashSet<Long>();
+
+  // The tracks being recomputed
+  private final Set<Long> runningTrackIds = new HashSet<Long>();
+
+  // The tracks requested again while being recomputed
+  private final Set<Long> requeuedTrackIds = new HashSet<Long>();
+
+  // The number of submitted tracks not yet done
+  private int pendingCount;
+
+  // The start id of the most recent start request
+  private int lastStartId;
+
+  /**
+   * Recomputes the trip statistics of tracks in the background.
+   * 
+   * @param context the context
+   * @param trackIds the track ids
+   */
+  public static void recompute(Context context, long... trackIds) {
+    Intent intent = new Intent(context, StatisticsRecomputeService.class);
+    intent.putExtra(EXTRA_TRACK_IDS, trackIds);
+    context.startService(intent);
+  }
+
+  /**
+   * Gets the number of threads to use.
+   */
+  @VisibleForTesting
+  static int getThreadCount() {
+    return Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+  }
+
+  @Override
+  public void onCreate() {
+    super.onCreate();
+    executorService = Executors.newFixedThreadPool(getThreadCount(), new ThreadFactory() {
+        @Override
+      public Thread newThread(final Runnable runnable) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+          public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+          }
+        }, TAG);
+        return thread;
+      }
+    });
+  }
+
+  @Override
+  public int onStartCommand(Intent intent, int flags, int startId) {
+    long[] trackIds = intent != null ? intent.getLongArrayExtra(EXTRA_TRACK_IDS) : null;
+    synchronized (this) {
+      lastStartId = startId;
+      if (trackIds != null) {
+        for (long trackId : trackIds) {
+          submit(trackId);
+        }
+      }
+      stopIfDone();
+    }
+    return START_NOT_STICKY;
+  }
+
+  @Override
+  public IBinder onBind(Intent intent) {
+    return null;
+  }
+
+  @Override
+  public void onDestroy() {
+    executorService.shutdownNow();
+    super.onDestroy();
+  }
+
+  /**
+   * Submits a track unless it is already waiting for a thread. If the track is
+   * being recomputed, submits it again once done. Must be called while holding
+   * the service lock.
+   * 
+   * @param trackId the track id
+   */
+  private void submit(final long trackId) {
+    if (runningTrackIds.contains(trackId)) {
+      requeuedTrackIds.add(trackId);
+      return;
+    }
+    if (!queuedTrackIds.add(trackId)) {
+      return;
+    }
+    pendingCount++;
+    executorService.execute(new Runnable() {
+        @Override
+      public void run() {
+        synchronized (StatisticsRecomputeService.this) {
+          queuedTrackIds.remove(trackId);
+          runningTrackIds.add(trackId);
+        }
+        try {
+          recomputeTrack(trackId);
+        } catch (RuntimeException e) {
+          Log.e(TAG, "Unable to recompute track " + trackId, e);
+        } finally {
+          synchronized (StatisticsRecomputeService.this) {
+            runningTrackIds.remove(trackId);
+            if (requeuedTrackIds.remove(trackId) && !executorService.isShutdown()) {
+              submit(trackId);
+            }
+            pendingCount--;
+            stopIfDone();
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Recomputes the trip statistics of a track.
+   * 
+   * @param trackId the track id
+   */
+  private void recomputeTrack(long trackId) {
+    if (trackId == PreferencesUtils.getLong(this, R.string.recording_track_id_key)) {
+      Log.d(TAG, "Skip recomputing the recording track " + trackId);
+      return;
+    }
+    Track track = MyTracksProviderUtils.Factory.get(this).getTrack(trackId);
+    if (track == null) {
+      Log.d(TAG, "Skip recomputing the missing track " + trackId);
+      return;
+    }
+    CalorieUtils.updateTrackCalorie(this, track);
+  }
+
+  /**
+   * Stops the service if all the submitted tracks are done. Must be called
+   * while holding the service lock.
+   */
+  private void stopIfDone() {
+    if (pendingCount == 0) {
+      stopSelf(lastStartId);
+    }
+  }
+}
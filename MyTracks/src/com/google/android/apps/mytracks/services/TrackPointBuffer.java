@@ -0,0 +1,432 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.services;
+
+import com.google.android.apps.mytracks.content.MyTracksLocation;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
+import com.google.android.apps.mytracks.util.LocationUtils;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import android.location.Location;
+import android.location.LocationManager;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A write-behind buffer of track points for the recording track. Track points
+ * are held in memory and written to the database with one
+ * {@link MyTracksProviderUtils#bulkInsertTrackPoint(Location[], int, long)}
+ * call when flushed.
+ * <p>
+ * Every buffered track point is also appended to a journal file. If the
+ * process is killed before a flush, {@link #restore()} reads the journal back
+ * so the track points can be flushed on the next start. The journal is not
+ * synced to disk on every write, it survives the process being killed but not
+ * a power loss.
+ * <p>
+ * The journal starts with the track id and the last track point id of the
+ * track in the database when the first track point was buffered. A flush that
+ * completed before the journal was deleted leaves a different last track point
+ * id in the database, so the restored track points are not inserted twice.
+ * <p>
+ * A failed flush keeps the track points. The capacity is meant to be well
+ * above the number of track points flushed at once, so that track points are
+ * kept while the flush is retried. Adding to a full buffer drops the oldest
+ * track point, so the recording is never stopped by a database that stays
+ * busy. The dropped track points are logged and counted. A drop appends a
+ * record to the journal rather than rewriting it.
+ */
+public class TrackPointBuffer {
+
+  private static final String TAG = TrackPointBuffer.class.getSimpleName();
+
+  private static final int HAS_ALTITUDE = 1;
+  private static final int HAS_ACCURACY = 1 << 1;
+  private static final int HAS_SPEED = 1 << 2;
+  private static final int HAS_BEARING = 1 << 3;
+  private static final int HAS_SENSOR = 1 << 4;
+
+  // A journal record dropping the oldest track point
+  private static final int DROP_OLDEST = 1 << 5;
+
+  // The journal buffer size, holds a track point with sensor data
+  private static final int JOURNAL_BUFFER_SIZE = 1024;
+
+  // The delays before retrying a failed flush, doubled on each failure
+  private static final long MIN_FLUSH_RETRY_DELAY = 1000L;
+  private static final long MAX_FLUSH_RETRY_DELAY = 60000L;
+
+  private final File journalFile;
+  private final Location[] locations;
+
+  private int size;
+  private long trackId;
+  private long lastTrackPointId;
+  private int numberOfValidPoints;
+  private int numberOfFailedFlushes;
+  private int numberOfDroppedPoints;
+  private DataOutputStream journal;
+
+  /**
+   * Constructor.
+   *
+   * @param journalFile the journal file
+   * @param capacity the maximum number of buffered track points
+   */
+  public TrackPointBuffer(File journalFile, int capacity) {
+    this.journalFile = journalFile;
+    this.locations = new Location[capacity];
+    reset();
+  }
+
+  /**
+   * Adds a track point. Returns the number of buffered track points. If the
+   * buffer is full, drops the oldest track point.
+   *
+   * @param newTrackId the track id
+   * @param newLastTrackPointId the last track point id of the track in the
+   *          database
+   * @param location the location
+   */
+  public synchronized int add(long newTrackId, long newLastTrackPointId, Location location) {
+    if (size == locations.length) {
+      dropOldest();
+    }
+    if (size == 0) {
+      trackId = newTrackId;
+      lastTrackPointId = newLastTrackPointId;
+    } else if (trackId != newTrackId) {
+      throw new IllegalStateException("Buffer contains track points of track " + trackId);
+    }
+    locations[size] = location;
+    size++;
+    if (LocationUtils.isValidLocation(location)) {
+      numberOfValidPoints++;
+    }
+    writeJournal(location);
+    return size;
+  }
+
+  /**
+   * Returns true if the buffer is full.
+   */
+  public synchronized boolean isFull() {
+    return size == locations.length;
+  }
+
+  /**
+   * Gets the number of buffered track points.
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Gets the track id of the buffered track points. -1L if empty.
+   */
+  public synchronized long getTrackId() {
+    return trackId;
+  }
+
+  /**
+   * Gets the last track point id of the track in the database when the first
+   * track point was buffered.
+   */
+  public synchronized long getLastTrackPointId() {
+    return lastTrackPointId;
+  }
+
+  /**
+   * Gets the number of buffered valid track points, excluding the pause and
+   * resume markers.
+   */
+  public synchronized int getNumberOfValidPoints() {
+    return numberOfValidPoints;
+  }
+
+  /**
+   * Gets the number of track points dropped because the buffer was full.
+   */
+  public synchronized int getNumberOfDroppedPoints() {
+    return numberOfDroppedPoints;
+  }
+
+  /**
+   * Gets the delay before retrying a failed flush. Doubles on each consecutive
+   * failure, from {@link #MIN_FLUSH_RETRY_DELAY} to
+   * {@link #MAX_FLUSH_RETRY_DELAY}.
+   */
+  public synchronized long getFlushRetryDelay() {
+    int shift = Math.min(Math.max(0, numberOfFailedFlushes - 1), 16);
+    return Math.min(MIN_FLUSH_RETRY_DELAY << shift, MAX_FLUSH_RETRY_DELAY);
+  }
+
+  /**
+   * Inserts the buffered track points into the database and clears the buffer.
+   * Returns the number of inserted track points. If the insert fails, the
+   * buffer and the journal are kept and the exception is rethrown.
+   * <p>
+   * Callers reading the track id or the number of valid points of the flushed
+   * track points synchronize on the buffer around the reads and the flush.
+   *
+   * @param myTracksProviderUtils the my tracks provider utils
+   */
+  public synchronized int flush(MyTracksProviderUtils myTracksProviderUtils) {
+    if (size == 0) {
+      return 0;
+    }
+    int count;
+    try {
+      count = myTracksProviderUtils.bulkInsertTrackPoint(locations, size, trackId);
+    } catch (RuntimeException e) {
+      numberOfFailedFlushes++;
+      throw e;
+    }
+    numberOfFailedFlushes = 0;
+    clear();
+    return count;
+  }
+
+  /**
+   * Clears the buffer and deletes the journal.
+   */
+  public synchronized void clear() {
+    closeJournal();
+    if (journalFile.exists() && !journalFile.delete()) {
+      Log.w(TAG, "Unable to delete the journal.");
+    }
+    reset();
+  }
+
+  /**
+   * Restores the buffer from the journal. Returns true if any track point is
+   * restored. A partially written last record is ignored.
+   */
+  public synchronized boolean restore() {
+    if (size != 0 || !journalFile.exists()) {
+      return false;
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+      long journalTrackId = in.readLong();
+      long journalLastTrackPointId = in.readLong();
+      while (true) {
+        int flags = in.readByte();
+        if (flags == DROP_OLDEST) {
+          if (size != 0) {
+            removeOldest();
+          }
+          continue;
+        }
+        Location location = readLocation(in, flags);
+        if (size == locations.length) {
+          removeOldest();
+        }
+        if (size == 0) {
+          trackId = journalTrackId;
+          lastTrackPointId = journalLastTrackPointId;
+        }
+        locations[size] = location;
+        size++;
+        if (LocationUtils.isValidLocation(location)) {
+          numberOfValidPoints++;
+        }
+      }
+    } catch (EOFException e) {
+      // End of the journal
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to read the journal.", e);
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          Log.e(TAG, "Unable to close the journal.", e);
+        }
+      }
+    }
+    Log.i(TAG, "Restored " + size + " track points from the journal.");
+    return size != 0;
+  }
+
+  /**
+   * Drops the oldest track point and appends a drop record to the journal.
+   */
+  private void dropOldest() {
+    numberOfDroppedPoints++;
+    Log.w(TAG, "Buffer is full, dropping the track point at " + locations[0].getTime() + ", "
+        + numberOfDroppedPoints + " dropped track points");
+    removeOldest();
+    try {
+      DataOutputStream out = openJournal(true);
+      out.writeByte(DROP_OLDEST);
+      out.flush();
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to write the journal.", e);
+      closeJournal();
+    }
+  }
+
+  /**
+   * Removes the oldest track point.
+   */
+  private void removeOldest() {
+    if (LocationUtils.isValidLocation(locations[0])) {
+      numberOfValidPoints--;
+    }
+    System.arraycopy(locations, 1, locations, 0, size - 1);
+    size--;
+    locations[size] = null;
+  }
+
+  /**
+   * Resets the in-memory state.
+   */
+  private void reset() {
+    for (int i = 0; i < size; i++) {
+      locations[i] = null;
+    }
+    size = 0;
+    trackId = -1L;
+    lastTrackPointId = -1L;
+    numberOfValidPoints = 0;
+  }
+
+  /**
+   * Appends a location to the journal. Failing to write the journal only loses
+   * the crash protection, so errors are logged and ignored.
+   *
+   * @param location the location
+   */
+  private void writeJournal(Location location) {
+    try {
+      // Restored track points are already in the journal
+      DataOutputStream out = openJournal(size > 1);
+      SensorDataSet sensorDataSet = null;
+      if (location instanceof MyTracksLocation) {
+        sensorDataSet = ((MyTracksLocation) location).getSensorDataSet();
+      }
+      int flags = (location.hasAltitude() ? HAS_ALTITUDE : 0)
+          | (location.hasAccuracy() ? HAS_ACCURACY : 0) | (location.hasSpeed() ? HAS_SPEED : 0)
+          | (location.hasBearing() ? HAS_BEARING : 0) | (sensorDataSet != null ? HAS_SENSOR : 0);
+      out.writeByte(flags);
+      out.writeDouble(location.getLatitude());
+      out.writeDouble(location.getLongitude());
+      out.writeLong(location.getTime());
+      if (location.hasAltitude()) {
+        out.writeDouble(location.getAltitude());
+      }
+      if (location.hasAccuracy()) {
+        out.writeFloat(location.getAccuracy());
+      }
+      if (location.hasSpeed()) {
+        out.writeFloat(location.getSpeed());
+      }
+      if (location.hasBearing()) {
+        out.writeFloat(location.getBearing());
+      }
+      if (sensorDataSet != null) {
+        byte[] bytes = sensorDataSet.toByteArray();
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+      out.flush();
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to write the journal.", e);
+      closeJournal();
+    }
+  }
+
+  /**
+   * Opens the journal output stream if not open. A new journal starts with the
+   * track id and the last track point id.
+   *
+   * @param append true to append to the existing journal
+   */
+  private DataOutputStream openJournal(boolean append) throws IOException {
+    if (journal == null) {
+      journal = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(journalFile, append), JOURNAL_BUFFER_SIZE));
+      if (!append) {
+        journal.writeLong(trackId);
+        journal.writeLong(lastTrackPointId);
+      }
+    }
+    return journal;
+  }
+
+  /**
+   * Reads a location from the journal, after its flags.
+   *
+   * @param in the input stream
+   * @param flags the flags of the location
+   */
+  private Location readLocation(DataInputStream in, int flags) throws IOException {
+    Location location = new Location(LocationManager.GPS_PROVIDER);
+    location.setLatitude(in.readDouble());
+    location.setLongitude(in.readDouble());
+    location.setTime(in.readLong());
+    if ((flags & HAS_ALTITUDE) != 0) {
+      location.setAltitude(in.readDouble());
+    }
+    if ((flags & HAS_ACCURACY) != 0) {
+      location.setAccuracy(in.readFloat());
+    }
+    if ((flags & HAS_SPEED) != 0) {
+      location.setSpeed(in.readFloat());
+    }
+    if ((flags & HAS_BEARING) != 0) {
+      location.setBearing(in.readFloat());
+    }
+    if ((flags & HAS_SENSOR) != 0) {
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      try {
+        return new MyTracksLocation(location, SensorDataSet.parseFrom(bytes));
+      } catch (InvalidProtocolBufferException e) {
+        Log.w(TAG, "Failed to parse sensor data.", e);
+      }
+    }
+    return location;
+  }
+
+  /**
+   * Closes the journal output stream.
+   */
+  private void closeJournal() {
+    if (journal == null) {
+      return;
+    }
+    try {
+      journal.close();
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to close the journal.", e);
+    }
+    journal = null;
+  }
+}
@@ -27,6 +27,7 @@ import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIt
 import com.google.android.apps.mytracks.content.Sensor;
 import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TrackPointPyramid;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
 import com.google.android.apps.mytracks.content.WaypointCreationRequest;
@@ -75,6 +76,7 @@ import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
 import android.util.Log;
 
+import java.io.File;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -113,6 +115,21 @@ public class TrackRecordingService extends Service {
   @VisibleForTesting
   static final int MAX_AUTO_RESUME_TRACK_RETRY_ATTEMPTS = 3;
 
+  // The maximum number of track points to buffer before writing them out
+  @VisibleForTesting
+  static final int MAX_BUFFERED_TRACK_POINTS = 30;
+
+  // The maximum number of track points kept while a flush is retried, about an
+  // hour of track points at one per second
+  @VisibleForTesting
+  static final int MAX_UNFLUSHED_TRACK_POINTS = 3600;
+
+  // The maximum time to buffer a track point before writing it out
+  @VisibleForTesting
+  static final long MAX_BUFFERED_TRACK_POINT_AGE = 15 * ONE_SECOND;
+
+  private static final String TRACK_POINT_JOURNAL_FILE = "trackpoints.journal";
+
   // The following variables are set in onCreate:
   private ExecutorService executorService;
   private Context context;
@@ -133,6 +150,7 @@ public class TrackRecordingService extends Service {
   private int autoResumeTrackTimeout;
   private long currentRecordingInterval;
   private double weight;
+  private TrackPointBuffer trackPointBuffer;
   
   // The following variables are set when recording:
   private TripStatisticsUpdater trackTripStatisticsUpdater;
@@ -143,6 +161,12 @@ public class TrackRecordingService extends Service {
   private boolean currentSegmentHasLocation;
   private boolean isIdle; // true if idle
 
+  // The recording track. Reloaded from the database on every flush.
+  private Track recordingTrack;
+
+  // The last valid track point in the current segment
+  private Location lastValidTrackPoint;
+
   private ServiceBinder binder = new ServiceBinder(this);
 
   /*
@@ -273,6 +297,22 @@ public class TrackRecordingService extends Service {
         public void onConnectionFailed(ConnectionResult connectionResult) {}
       };
 
+  private final Runnable flushTrackPointsRunnable = new Runnable() {
+      @Override
+    public void run() {
+      if (executorService == null || executorService.isShutdown()
+          || executorService.isTerminated()) {
+        return;
+      }
+      executorService.submit(new Runnable() {
+          @Override
+        public void run() {
+          flushTrackPoints();
+        }
+      });
+    }
+  };
+
   private final Runnable registerLocationRunnable = new Runnable() {
       @Override
     public void run() {
@@ -316,7 +356,11 @@ public class TrackRecordingService extends Service {
     sharedPreferenceChangeListener.onSharedPreferenceChanged(sharedPreferences, null);
     
     handler.post(registerLocationRunnable);
-    
+
+    trackPointBuffer = new TrackPointBuffer(
+        new File(getFilesDir(), TRACK_POINT_JOURNAL_FILE), MAX_UNFLUSHED_TRACK_POINTS);
+    restoreTrackPoints();
+
     /*
      * Try to restart the previous recording track in case the service has been
      * restarted by the system, which can sometimes happen.
@@ -375,6 +419,9 @@ public class TrackRecordingService extends Service {
 
     handler.removeCallbacks(registerLocationRunnable);
     unregisterLocationListener();
+
+    // Write out the buffered track points before releasing myTracksProviderUtils
+    flushTrackPoints();
     
     // unregister sharedPreferences before shutting down splitExecutor and voiceExecutor
     sharedPreferences.unregisterOnSharedPreferenceChangeListener(sharedPreferenceChangeListener);
@@ -450,6 +497,9 @@ public class TrackRecordingService extends Service {
       return -1L;
     }
 
+    // Waypoints are looked up against the track points, write them out first
+    flushTrackPoints();
+
     WaypointType waypointType = waypointCreationRequest.getType();
     boolean isStatistics = waypointType == WaypointType.STATISTICS;
 
@@ -495,7 +545,7 @@ public class TrackRecordingService extends Service {
     // Get length and duration
     double length;
     long duration;
-    Location location = getLastValidTrackPointInCurrentSegment(recordingTrackId);
+    Location location = getLastValidTrackPointInCurrentSegment();
     if (location != null && trackTripStatisticsUpdater != null) {
       TripStatistics stats = trackTripStatisticsUpdater.getTripStatistics();
       length = stats.getTotalDistance();
@@ -701,7 +751,7 @@ public class TrackRecordingService extends Service {
     PreferencesUtils.setBoolean(this, R.string.recording_track_paused_key, false);
 
     // Update database
-    Track track = myTracksProviderUtils.getTrack(recordingTrackId);
+    Track track = getRecordingTrack();
     if (track != null) {
       Location resume = new Location(LocationManager.GPS_PROVIDER);
       resume.setLongitude(0);
@@ -725,6 +775,7 @@ public class TrackRecordingService extends Service {
     sensorManager = SensorManagerFactory.getSystemSensorManager(this);
     lastLocation = null;
     currentSegmentHasLocation = false;
+    lastValidTrackPoint = null;
     isIdle = false;
 
     startGps();
@@ -767,10 +818,12 @@ public class TrackRecordingService extends Service {
 
       // If not paused, add the last location
       if (!paused) {
-        insertLocation(track, lastLocation, getLastValidTrackPointInCurrentSegment(trackId));
-        
-        // Update the recording track time        
-        updateRecordingTrack(track, myTracksProviderUtils.getLastTrackPointId(trackId), false);
+        insertLocation(track, lastLocation, getLastValidTrackPointInCurrentSegment());
+        flushTrackPoints();
+
+        // Update the recording track time
+        track = myTracksProviderUtils.getTrack(trackId);
+        updateRecordingTrack(track, myTracksProviderUtils.getLastTrackPointId(trackId), 0);
       }
       
       String trackName = TrackNameUtils.getTrackName(this, trackId,
@@ -808,10 +861,43 @@ public class TrackRecordingService extends Service {
           }
         }
       }
+      /*
+       * Other apps read the track points through the content provider, which
+       * only returns the uncompacted rows.
+       */
+      if (PreferencesUtils.getBoolean(this, R.string.compact_track_points_key,
+          PreferencesUtils.COMPACT_TRACK_POINTS_DEFAULT) && !PreferencesUtils.getBoolean(
+          this, R.string.allow_access_key, PreferencesUtils.ALLOW_ACCESS_DEFAULT)) {
+        compactTrackPoints(trackId);
+      }
     }
     endRecording(true, trackId);
   }
 
+  /**
+   * Compacts the track points of a finished track in the background.
+   * 
+   * @param trackId the track id
+   */
+  private void compactTrackPoints(final long trackId) {
+    if (executorService == null || executorService.isShutdown()
+        || executorService.isTerminated()) {
+      return;
+    }
+    // The service may be destroyed before the task runs
+    final MyTracksProviderUtils providerUtils = myTracksProviderUtils;
+    executorService.submit(new Runnable() {
+        @Override
+      public void run() {
+        try {
+          providerUtils.compactTrackPoints(trackId);
+        } catch (SQLiteException e) {
+          Log.e(TAG, "Unable to compact track points.", e);
+        }
+      }
+    });
+  }
+
   /**
    * Pauses the current track.
    */
@@ -826,9 +912,9 @@ public class TrackRecordingService extends Service {
     PreferencesUtils.setBoolean(this, R.string.recording_track_paused_key, true);
 
     // Update database
-    Track track = myTracksProviderUtils.getTrack(recordingTrackId);
+    Track track = getRecordingTrack();
     if (track != null) {
-      insertLocation(track, lastLocation, getLastValidTrackPointInCurrentSegment(track.getId()));
+      insertLocation(track, lastLocation, getLastValidTrackPointInCurrentSegment());
 
       Location pause = new Location(LocationManager.GPS_PROVIDER);
       pause.setLongitude(0);
@@ -836,6 +922,7 @@ public class TrackRecordingService extends Service {
       pause.setTime(System.currentTimeMillis());
       insertLocation(track, pause, null);
     }
+    flushTrackPoints();
 
     endRecording(false, recordingTrackId);
   }
@@ -858,6 +945,8 @@ public class TrackRecordingService extends Service {
       sensorManager = null;
     }
     lastLocation = null;
+    lastValidTrackPoint = null;
+    recordingTrack = null;
 
     sendTrackBroadcast(trackStopped ? R.string.track_stopped_broadcast_action
         : R.string.track_paused_broadcast_action, trackId);
@@ -881,14 +970,24 @@ public class TrackRecordingService extends Service {
   /**
    * Gets the last valid track point in the current segment. Returns null if not
    * available.
-   * 
-   * @param trackId the track id
    */
-  private Location getLastValidTrackPointInCurrentSegment(long trackId) {
+  private Location getLastValidTrackPointInCurrentSegment() {
     if (!currentSegmentHasLocation) {
       return null;
     }
-    return myTracksProviderUtils.getLastValidTrackPoint(trackId);
+    return lastValidTrackPoint;
+  }
+
+  /**
+   * Gets the recording track. Returns null if not available. The track is
+   * cached and only read from the database when the cached track is not the
+   * recording track.
+   */
+  private Track getRecordingTrack() {
+    if (recordingTrack == null || recordingTrack.getId() != recordingTrackId) {
+      recordingTrack = myTracksProviderUtils.getTrack(recordingTrackId);
+    }
+    return recordingTrack;
   }
 
   /**
@@ -916,7 +1015,7 @@ public class TrackRecordingService extends Service {
         return;
       }
 
-      Track track = myTracksProviderUtils.getTrack(recordingTrackId);
+      Track track = getRecordingTrack();
       if (track == null) {
         Log.w(TAG, "Ignore onLocationChangedAsync. No track.");
         return;
@@ -937,7 +1036,7 @@ public class TrackRecordingService extends Service {
         location.setTime(System.currentTimeMillis());
       }
 
-      Location lastValidTrackPoint = getLastValidTrackPointInCurrentSegment(track.getId());
+      Location lastValidTrackPoint = getLastValidTrackPointInCurrentSegment();
       long idleTime = 0L;
       if (lastValidTrackPoint != null && location.getTime() > lastValidTrackPoint.getTime()) {
         idleTime = location.getTime() - lastValidTrackPoint.getTime();
@@ -1009,7 +1108,12 @@ public class TrackRecordingService extends Service {
   }
 
   /**
-   * Inserts a location.
+   * Inserts a location. The location is buffered and written to the database
+   * when {@link #MAX_BUFFERED_TRACK_POINTS} locations are buffered,
+   * {@link #MAX_BUFFERED_TRACK_POINT_AGE} after the first buffered location, or
+   * when the recording is paused or stopped. A failed write is retried with a
+   * backoff, the buffer keeps up to {@link #MAX_UNFLUSHED_TRACK_POINTS}
+   * locations meanwhile.
    * 
    * @param track the track
    * @param location the location
@@ -1026,50 +1130,146 @@ public class TrackRecordingService extends Service {
       return;
     }
 
+    if (trackPointBuffer.size() != 0 && trackPointBuffer.getTrackId() != track.getId()) {
+      // The track changed
+      flushTrackPoints();
+    }
+    if (trackPointBuffer.size() != 0 && trackPointBuffer.getTrackId() != track.getId()) {
+      Log.e(TAG, "Unable to flush, dropping " + trackPointBuffer.size()
+          + " track points of track " + trackPointBuffer.getTrackId());
+      trackPointBuffer.clear();
+    }
+    // Drops the oldest track point if the buffer is still full
+    int size = trackPointBuffer.add(track.getId(), track.getStopId(), location);
+    if (LocationUtils.isValidLocation(location)) {
+      this.lastValidTrackPoint = location;
+    }
+    ActivityType activityType = CalorieUtils.getActivityType(context, track.getCategory());
+    trackTripStatisticsUpdater.addLocation(
+        location, recordingDistanceInterval, true, activityType, weight);
+    markerTripStatisticsUpdater.addLocation(
+        location, recordingDistanceInterval, true, activityType, weight);
+    if (size == MAX_BUFFERED_TRACK_POINTS) {
+      // Later locations wait for the retry if this flush fails
+      flushTrackPoints();
+    } else if (size == 1) {
+      handler.postDelayed(flushTrackPointsRunnable, MAX_BUFFERED_TRACK_POINT_AGE);
+    }
+    voiceExecutor.update();
+    splitExecutor.update();
+  }
+
+  /**
+   * Writes the buffered track points to the database with one bulk insert,
+   * then updates the track. If the insert fails, retries later.
+   */
+  private void flushTrackPoints() {
+    handler.removeCallbacks(flushTrackPointsRunnable);
+    long trackId;
+    int numberOfValidPoints;
     try {
-      Uri uri = myTracksProviderUtils.insertTrackPoint(location, track.getId());
-      long trackPointId = Long.parseLong(uri.getLastPathSegment());
-      ActivityType activityType = CalorieUtils.getActivityType(context, track.getCategory());
-      trackTripStatisticsUpdater.addLocation(
-          location, recordingDistanceInterval, true, activityType, weight);
-      markerTripStatisticsUpdater.addLocation(
-          location, recordingDistanceInterval, true, activityType, weight);
-      updateRecordingTrack(track, trackPointId, LocationUtils.isValidLocation(location));
+      synchronized (trackPointBuffer) {
+        trackId = trackPointBuffer.getTrackId();
+        numberOfValidPoints = trackPointBuffer.getNumberOfValidPoints();
+        if (trackPointBuffer.flush(myTracksProviderUtils) == 0) {
+          return;
+        }
+      }
     } catch (SQLiteException e) {
       /*
        * Insert failed, most likely because of SqlLite error code 5
-       * (SQLite_BUSY). This is expected to happen extremely rarely (if our
-       * listener gets invoked twice at about the same time).
+       * (SQLite_BUSY). The track points are kept in the buffer and the flush
+       * is retried with a backoff.
        */
-      Log.w(TAG, "SQLiteException", e);
+      long delay = trackPointBuffer.getFlushRetryDelay();
+      Log.w(TAG, "SQLiteException, retrying the flush in " + delay + " ms", e);
+      handler.postDelayed(flushTrackPointsRunnable, delay);
+      return;
     }
-    voiceExecutor.update();
-    splitExecutor.update();
-    sendTrackBroadcast(R.string.track_update_broadcast_action, track.getId());
+
+    // Reload the track to pick up changes, e.g., a new name, made since the
+    // last flush
+    Track track = myTracksProviderUtils.getTrack(trackId);
+    if (track == null) {
+      return;
+    }
+    if (track.getStartId() < 0) {
+      track.setStartId(myTracksProviderUtils.getFirstTrackPointId(trackId));
+    }
+    updateRecordingTrack(
+        track, myTracksProviderUtils.getLastTrackPointId(trackId), numberOfValidPoints);
+    if (trackId == recordingTrackId) {
+      recordingTrack = track;
+    }
+    updateTrackPointLevels(trackId);
+    sendTrackBroadcast(R.string.track_update_broadcast_action, trackId);
   }
 
   /**
-   * Updates the recording track time. Also updates the startId and the stopId.
-   * Increase the number of points if it is a new and valid track point.
+   * Extends the track point pyramid of a track with the flushed track points
+   * in the background.
+   * 
+   * @param trackId the track id
+   */
+  private void updateTrackPointLevels(final long trackId) {
+    if (executorService == null || executorService.isShutdown()
+        || executorService.isTerminated()) {
+      return;
+    }
+    // The service may be destroyed before the task runs
+    final MyTracksProviderUtils providerUtils = myTracksProviderUtils;
+    executorService.submit(new Runnable() {
+        @Override
+      public void run() {
+        try {
+          TrackPointPyramid.update(providerUtils, trackId);
+        } catch (SQLiteException e) {
+          Log.e(TAG, "Unable to update the track point levels.", e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Restores the track points buffered before the service was killed and
+   * writes them to the database.
+   */
+  private void restoreTrackPoints() {
+    if (!trackPointBuffer.restore()) {
+      return;
+    }
+    long trackId = trackPointBuffer.getTrackId();
+    if (trackPointBuffer.getLastTrackPointId()
+        != myTracksProviderUtils.getLastTrackPointId(trackId)) {
+      // Already written out before the service was killed
+      Log.i(TAG, "Discarding journal, track points already saved.");
+      trackPointBuffer.clear();
+      return;
+    }
+    flushTrackPoints();
+  }
+
+  /**
+   * Updates the recording track time. Also updates the stopId and the number
+   * of points.
    * 
    * @param track the track
    * @param lastTrackPointId the last track point id
-   * @param increaseNumberOfPoints true to increase the number of points
+   * @param numberOfNewPoints the number of new valid track points
    */
-  private void updateRecordingTrack(
-      Track track, long lastTrackPointId, boolean increaseNumberOfPoints) {
+  private void updateRecordingTrack(Track track, long lastTrackPointId, int numberOfNewPoints) {
     if (lastTrackPointId >= 0) {
       if (track.getStartId() < 0) {
         track.setStartId(lastTrackPointId);
       }
       track.setStopId(lastTrackPointId);
     }
-    if (increaseNumberOfPoints) {
-      track.setNumberOfPoints(track.getNumberOfPoints() + 1);
-    }
+    track.setNumberOfPoints(track.getNumberOfPoints() + numberOfNewPoints);
 
-    trackTripStatisticsUpdater.updateTime(System.currentTimeMillis());
-    track.setTripStatistics(trackTripStatisticsUpdater.getTripStatistics());
+    if (trackTripStatisticsUpdater != null) {
+      trackTripStatisticsUpdater.updateTime(System.currentTimeMillis());
+      track.setTripStatistics(trackTripStatisticsUpdater.getTripStatistics());
+    }
     myTracksProviderUtils.updateTrack(track);
   }
 
@@ -1295,7 +1495,7 @@ public class TrackRecordingService extends Service {
       if (!trackRecordingService.isPaused()) {
         updater.updateTime(System.currentTimeMillis());
       }
-      return updater.getTripStatistics().getTotalTime();
+      return updater.getTotalTime();
     }
 
     @Override
@@ -1398,6 +1598,9 @@ public class TrackRecordingService extends Service {
           return;
         }
         
+        // The calorie is computed from the track points in the database
+        flushTrackPoints();
+
         Track track = myTracksProviderUtils.getTrack(recordingTrackId);
         if (track == null) {
           Log.w(TAG, "Ignore updateCalorie. No track.");
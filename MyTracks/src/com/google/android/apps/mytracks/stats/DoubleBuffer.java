@@ -16,10 +16,15 @@
 
 package com.google.android.apps.mytracks.stats;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * This class maintains a buffer of doubles. This buffer is a convenient class
  * for storing a series of doubles and calculating information about them. This
- * is a FIFO buffer.
+ * is a FIFO buffer. The sum and the sum of squares are kept up to date as
+ * values are added, so the average and the variance take constant time.
  * 
  * @author Sandor Dornbush
  */
@@ -34,6 +39,13 @@ public class DoubleBuffer {
   // True if the buffer is full
   private boolean isFull;
 
+  /*
+   * The running sums of the entries and of their squares. Recomputed each time
+   * the buffer wraps around to keep the rounding errors from accumulating.
+   */
+  private double sum;
+  private double sumSquares;
+
   /**
    * Creates a buffer with a certain size.
    * 
@@ -53,6 +65,8 @@ public class DoubleBuffer {
   public void reset() {
     index = 0;
     isFull = false;
+    sum = 0.0;
+    sumSquares = 0.0;
   }
 
   /**
@@ -66,15 +80,20 @@ public class DoubleBuffer {
    * Gets the average of the buffer.
    */
   public double getAverage() {
-    int numberOfEntries = isFull ? buffer.length : index;
+    int numberOfEntries = getNumberOfEntries();
+    return numberOfEntries == 0 ? 0 : sum / numberOfEntries;
+  }
+
+  /**
+   * Gets the variance of the buffer.
+   */
+  public double getVariance() {
+    int numberOfEntries = getNumberOfEntries();
     if (numberOfEntries == 0) {
       return 0;
     }
-    double sum = 0;
-    for (int i = 0; i < numberOfEntries; i++) {
-      sum += buffer[i];
-    }
-    return sum / numberOfEntries;
+    double average = sum / numberOfEntries;
+    return sumSquares / numberOfEntries - average * average;
   }
 
   /**
@@ -84,21 +103,7 @@ public class DoubleBuffer {
    *         the variance
    */
   public double[] getAverageAndVariance() {
-    int numberOfEntries = isFull ? buffer.length : index;
-    if (numberOfEntries == 0) {
-      return new double[] { 0, 0 };
-    }
-
-    double sum = 0;
-    double sumSquares = 0;
-    for (int i = 0; i < numberOfEntries; i++) {
-      sum += buffer[i];
-      sumSquares += Math.pow(buffer[i], 2);
-    }
-
-    double average = sum / numberOfEntries;
-    double variance = sumSquares / numberOfEntries - Math.pow(average, 2);
-    return new double[] { average, variance };
+    return new double[] { getAverage(), getVariance() };
   }
 
   /**
@@ -111,11 +116,79 @@ public class DoubleBuffer {
     if (index == buffer.length) {
       index = 0;
     }
+    if (isFull) {
+      sum -= buffer[index];
+      sumSquares -= buffer[index] * buffer[index];
+    }
     buffer[index] = value;
+    sum += value;
+    sumSquares += value * value;
     index++;
     if (index == buffer.length) {
       isFull = true;
+      updateSums();
+    }
+  }
+
+  /**
+   * Gets the number of entries.
+   */
+  private int getNumberOfEntries() {
+    return isFull ? buffer.length : index;
+  }
+
+  /**
+   * Recomputes the sums from the entries.
+   */
+  private void updateSums() {
+    int numberOfEntries = getNumberOfEntries();
+    sum = 0.0;
+    sumSquares = 0.0;
+    for (int i = 0; i < numberOfEntries; i++) {
+      sum += buffer[i];
+      sumSquares += buffer[i] * buffer[i];
+    }
+  }
+
+  /**
+   * Writes the buffer to a data output.
+   * 
+   * @param out the data output
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeInt(buffer.length);
+    out.writeInt(index);
+    out.writeBoolean(isFull);
+    for (int i = 0; i < buffer.length; i++) {
+      out.writeDouble(buffer[i]);
+    }
+    out.writeDouble(sum);
+    out.writeDouble(sumSquares);
+  }
+
+  /**
+   * Reads the buffer written by {@link #writeTo(DataOutput)}. The size of the
+   * written buffer must match the size of this buffer.
+   * 
+   * @param in the data input
+   */
+  public void readFrom(DataInput in) throws IOException {
+    int size = in.readInt();
+    if (size != buffer.length) {
+      throw new IOException("Buffer size mismatch. Expected " + buffer.length + ", got " + size);
+    }
+    int newIndex = in.readInt();
+    if (newIndex < 0 || newIndex > size) {
+      throw new IOException("Invalid buffer index " + newIndex);
+    }
+    index = newIndex;
+    isFull = in.readBoolean();
+    for (int i = 0; i < size; i++) {
+      buffer[i] = in.readDouble();
     }
+    // Read the sums rather than recompute them to continue with the same values
+    sum = in.readDouble();
+    sumSquares = in.readDouble();
   }
 
   @Override
@@ -25,8 +25,13 @@ import com.google.android.apps.mytracks.util.LocationUtils;
 import com.google.common.annotations.VisibleForTesting;
 
 import android.location.Location;
+import android.location.LocationManager;
 import android.util.Log;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Updater for {@link TripStatistics}. For updating track trip statistics as new
  * locations are added. Note that some of the locations represent pause/resume
@@ -70,6 +75,11 @@ public class TripStatisticsUpdater {
    */
   private static final double MAX_ACCELERATION = 0.02;
 
+  // Values of the flag preceding a serialized last moving location
+  private static final int NO_LOCATION = 0;
+  private static final int SAME_LOCATION = 1;
+  private static final int OTHER_LOCATION = 2;
+
   // The track's trip statistics
   private final TripStatistics tripStatistics;
 
@@ -104,6 +114,72 @@ public class TripStatisticsUpdater {
     currentSegment = init(startTime);
   }
 
+  private TripStatisticsUpdater(TripStatistics tripStatistics, TripStatistics currentSegment) {
+    this.tripStatistics = tripStatistics;
+    this.currentSegment = currentSegment;
+  }
+
+  /**
+   * Writes the state of the updater to a data output, so that adding locations
+   * can later resume from this point. See {@link #readFrom(DataInput)}.
+   * 
+   * @param out the data output
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    tripStatistics.writeTo(out);
+    currentSegment.writeTo(out);
+    out.writeBoolean(lastLocation != null);
+    if (lastLocation != null) {
+      writeLocation(out, lastLocation);
+    }
+    if (lastMovingLocation == null) {
+      out.writeByte(NO_LOCATION);
+    } else if (lastMovingLocation == lastLocation) {
+      out.writeByte(SAME_LOCATION);
+    } else {
+      out.writeByte(OTHER_LOCATION);
+      writeLocation(out, lastMovingLocation);
+    }
+    elevationBuffer.writeTo(out);
+    runBuffer.writeTo(out);
+    gradeBuffer.writeTo(out);
+    speedBuffer.writeTo(out);
+  }
+
+  /**
+   * Reads an updater written by {@link #writeTo(DataOutput)}. Adding the
+   * remaining locations to the returned updater gives the same trip statistics
+   * as adding all the locations to a new updater.
+   * 
+   * @param in the data input
+   */
+  public static TripStatisticsUpdater readFrom(DataInput in) throws IOException {
+    TripStatistics tripStatistics = TripStatistics.readFrom(in);
+    TripStatistics currentSegment = TripStatistics.readFrom(in);
+    TripStatisticsUpdater updater = new TripStatisticsUpdater(tripStatistics, currentSegment);
+    if (in.readBoolean()) {
+      updater.lastLocation = readLocation(in);
+    }
+    int flag = in.readByte();
+    switch (flag) {
+      case NO_LOCATION:
+        break;
+      case SAME_LOCATION:
+        updater.lastMovingLocation = updater.lastLocation;
+        break;
+      case OTHER_LOCATION:
+        updater.lastMovingLocation = readLocation(in);
+        break;
+      default:
+        throw new IOException("Invalid last moving location flag " + flag);
+    }
+    updater.elevationBuffer.readFrom(in);
+    updater.runBuffer.readFrom(in);
+    updater.gradeBuffer.readFrom(in);
+    updater.speedBuffer.readFrom(in);
+    return updater;
+  }
+
   public void updateTime(long time) {
     currentSegment.setStopTime(time);
     currentSegment.setTotalTime(time - currentSegment.getStartTime());
@@ -118,6 +194,46 @@ public class TripStatisticsUpdater {
     stats.merge(currentSegment);
     return stats;
   }
+
+  /**
+   * Gets the track's total distance in meters. Same as
+   * {@link #getTripStatistics()}.getTotalDistance() without the copy.
+   */
+  public double getTotalDistance() {
+    return tripStatistics.getTotalDistance() + currentSegment.getTotalDistance();
+  }
+
+  /**
+   * Gets the track's total time in milliseconds. Same as
+   * {@link #getTripStatistics()}.getTotalTime() without the copy.
+   */
+  public long getTotalTime() {
+    return tripStatistics.getTotalTime() + currentSegment.getTotalTime();
+  }
+
+  /**
+   * Gets the track's moving time in milliseconds. Same as
+   * {@link #getTripStatistics()}.getMovingTime() without the copy.
+   */
+  public long getMovingTime() {
+    return tripStatistics.getMovingTime() + currentSegment.getMovingTime();
+  }
+
+  /**
+   * Gets the track's total elevation gain in meters. Same as
+   * {@link #getTripStatistics()}.getTotalElevationGain() without the copy.
+   */
+  public double getTotalElevationGain() {
+    return tripStatistics.getTotalElevationGain() + currentSegment.getTotalElevationGain();
+  }
+
+  /**
+   * Gets the track's calorie. Same as
+   * {@link #getTripStatistics()}.getCalorie() without the copy.
+   */
+  public double getCalorie() {
+    return tripStatistics.getCalorie() + currentSegment.getCalorie();
+  }
   
   /**
    * Adds a location. TODO: This assume location has a valid time.
@@ -281,6 +397,38 @@ public class TripStatisticsUpdater {
     currentSegment.updateGradeExtremities(gradeBuffer.getAverage());    
   }
 
+  /**
+   * Writes the fields of a location used by the updater.
+   * 
+   * @param out the data output
+   * @param location the location
+   */
+  private static void writeLocation(DataOutput out, Location location) throws IOException {
+    out.writeDouble(location.getLatitude());
+    out.writeDouble(location.getLongitude());
+    out.writeLong(location.getTime());
+    out.writeBoolean(location.hasSpeed());
+    out.writeFloat(location.getSpeed());
+  }
+
+  /**
+   * Reads a location written by {@link #writeLocation(DataOutput, Location)}.
+   * 
+   * @param in the data input
+   */
+  private static Location readLocation(DataInput in) throws IOException {
+    Location location = new Location(LocationManager.GPS_PROVIDER);
+    location.setLatitude(in.readDouble());
+    location.setLongitude(in.readDouble());
+    location.setTime(in.readLong());
+    boolean hasSpeed = in.readBoolean();
+    float speed = in.readFloat();
+    if (hasSpeed) {
+      location.setSpeed(speed);
+    }
+    return location;
+  }
+
   private TripStatistics init(long time) {
     TripStatistics stats = new TripStatistics();
     stats.setStartTime(time);
@@ -16,16 +16,28 @@
 package com.google.android.apps.mytracks.util;
 
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
-import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TrackPointCursor;
+import com.google.android.apps.mytracks.content.TripStatisticsCheckpoint;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
 import com.google.android.apps.mytracks.stats.TripStatisticsUpdater;
 import com.google.android.maps.mytracks.R;
+import com.google.common.annotations.VisibleForTesting;
 
 import android.content.Context;
 import android.database.Cursor;
 import android.location.Location;
+import android.location.LocationManager;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Utilities to calculate calories.
@@ -41,6 +53,8 @@ public class CalorieUtils {
     CYCLING, RUNNING, WALKING, INVALID
   }
 
+  private static final String TAG = CalorieUtils.class.getSimpleName();
+
   private CalorieUtils() {}
 
   /**
@@ -64,6 +78,18 @@ public class CalorieUtils {
    */
   private static final double K2 = 0.185;
 
+  /**
+   * The number of track points between two trip statistics checkpoints.
+   */
+  @VisibleForTesting
+  static final int CHECKPOINT_INTERVAL = 1000;
+
+  /**
+   * The version of the checkpoint data. Change when changing the format or
+   * the calorie computation.
+   */
+  private static final String CHECKPOINT_VERSION = "calorie2";
+
   /**
    * Gets the activity type.
    * 
@@ -85,7 +111,10 @@ public class CalorieUtils {
   }
 
   /**
-   * Updates calories for a track and its waypoints.
+   * Updates calories for a track and its waypoints. Resumes from the last trip
+   * statistics checkpoint computed with the same activity type, weight, and
+   * recording distance interval, and stores a checkpoint every
+   * {@link #CHECKPOINT_INTERVAL} track points.
    * 
    * @param context the context
    * @param track the track
@@ -101,63 +130,221 @@ public class CalorieUtils {
       return new double[] { 0.0, 0.0 };
     }
 
-    TripStatisticsUpdater trackTripStatisticsUpdater = new TripStatisticsUpdater(
-        track.getTripStatistics().getStartTime());
-    TripStatisticsUpdater markerTripStatisticsUpdater = new TripStatisticsUpdater(
-        track.getTripStatistics().getStartTime());
     int recordingDistanceInterval = PreferencesUtils.getInt(context,
         R.string.recording_distance_interval_key,
         PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT);
     double weight = PreferencesUtils.getFloat(
         context, R.string.weight_key, PreferencesUtils.getDefaultWeight(context));
-    LocationIterator locationIterator = null;
-    Cursor cursor = null;
+    String signature = getCheckpointSignature(activityType, weight, recordingDistanceInterval);
 
+    CalorieCheckpoint checkpoint = readCheckpoint(myTracksProviderUtils
+        .getLastTripStatisticsCheckpoint(track.getId(), signature, -1L));
+    Cursor cursor = null;
     try {
-      Waypoint waypoint = null;
-
-      locationIterator = myTracksProviderUtils.getTrackPointLocationIterator(
-          track.getId(), -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
       cursor = myTracksProviderUtils.getWaypointCursor(track.getId(), -1L, -1);
+      if (checkpoint != null && !restoreWaypointCalories(
+          myTracksProviderUtils, cursor, checkpoint)) {
+        // A statistics waypoint covered by the checkpoint is gone, start over
+        if (cursor != null) {
+          cursor.close();
+        }
+        cursor = myTracksProviderUtils.getWaypointCursor(track.getId(), -1L, -1);
+        checkpoint = null;
+      }
+      if (checkpoint == null) {
+        checkpoint = new CalorieCheckpoint(track.getTripStatistics().getStartTime());
 
-      if (cursor != null && cursor.moveToFirst()) {
         /*
-         * Yes, this will skip the first waypoint and that is intentional as the
-         * first waypoint holds the stats for the track.
+         * Yes, this will skip the first waypoint and that is intentional as
+         * the first waypoint holds the stats for the track.
          */
-        waypoint = getNextStatisticsWaypoint(myTracksProviderUtils, cursor);
+        if (cursor != null && cursor.moveToFirst()) {
+          checkpoint.waypoint = getNextStatisticsWaypoint(myTracksProviderUtils, cursor);
+        }
       }
+      replayTrackPoints(myTracksProviderUtils, track.getId(), signature, cursor, checkpoint,
+          activityType, weight, recordingDistanceInterval);
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    double trackCalorie = checkpoint.trackTripStatisticsUpdater.getCalorie();
+    updateCalorie(myTracksProviderUtils, track, trackCalorie);
+    return new double[] { trackCalorie,
+        checkpoint.markerTripStatisticsUpdater.getCalorie() };
+  }
 
-      while (locationIterator.hasNext()) {
-        Location location = locationIterator.next();
-        trackTripStatisticsUpdater.addLocation(
+  /**
+   * Adds the track points after a checkpoint to its trip statistics updaters,
+   * updating the statistics waypoints along the way.
+   * 
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param trackId the track id
+   * @param signature the checkpoint signature
+   * @param cursor the waypoint cursor, positioned before the next statistics
+   *          waypoint
+   * @param checkpoint the checkpoint
+   * @param activityType the activity type
+   * @param weight the weight
+   * @param recordingDistanceInterval the recording distance interval
+   */
+  private static void replayTrackPoints(MyTracksProviderUtils myTracksProviderUtils,
+      long trackId, String signature, Cursor cursor, CalorieCheckpoint checkpoint,
+      ActivityType activityType, double weight, int recordingDistanceInterval) {
+    long startTrackPointId = checkpoint.trackPointId == -1L ? -1L : checkpoint.trackPointId + 1;
+    int count = 0;
+    TrackPointCursor trackPointCursor = null;
+    try {
+      trackPointCursor = myTracksProviderUtils.openTrackPointCursor(
+          trackId, startTrackPointId, false);
+      while (trackPointCursor.moveToNext()) {
+        /*
+         * The trip statistics updaters keep references to the last locations,
+         * so a location is needed per track point. A plain location skips
+         * parsing the sensor data, which the calorie does not use.
+         */
+        Location location = new Location(LocationManager.GPS_PROVIDER);
+        trackPointCursor.fill(location);
+        checkpoint.trackTripStatisticsUpdater.addLocation(
             location, recordingDistanceInterval, true, activityType, weight);
-        markerTripStatisticsUpdater.addLocation(
+        checkpoint.markerTripStatisticsUpdater.addLocation(
             location, recordingDistanceInterval, true, activityType, weight);
 
+        Waypoint waypoint = checkpoint.waypoint;
         if (waypoint != null && waypoint.getLocation().getTime() == location.getTime()
             && waypoint.getLocation().getLatitude() == location.getLatitude()
             && waypoint.getLocation().getLongitude() == location.getLongitude()) {
-          waypoint.getTripStatistics()
-              .setCalorie(markerTripStatisticsUpdater.getTripStatistics().getCalorie());
+          double calorie = checkpoint.markerTripStatisticsUpdater.getCalorie();
+          waypoint.getTripStatistics().setCalorie(calorie);
           myTracksProviderUtils.updateWaypoint(waypoint);
-          markerTripStatisticsUpdater = new TripStatisticsUpdater(location.getTime());
-          waypoint = getNextStatisticsWaypoint(myTracksProviderUtils, cursor);
+          checkpoint.waypointIds.add(waypoint.getId());
+          checkpoint.waypointCalories.add(calorie);
+          checkpoint.markerTripStatisticsUpdater = new TripStatisticsUpdater(location.getTime());
+          checkpoint.waypoint = getNextStatisticsWaypoint(myTracksProviderUtils, cursor);
+        }
+
+        checkpoint.trackPointId = trackPointCursor.getId();
+        count++;
+        if (count % CHECKPOINT_INTERVAL == 0) {
+          writeCheckpoint(myTracksProviderUtils, trackId, signature, checkpoint);
         }
       }
     } finally {
-      if (locationIterator != null) {
-        locationIterator.close();
+      if (trackPointCursor != null) {
+        trackPointCursor.close();
       }
-      if (cursor != null) {
-        cursor.close();
+    }
+  }
+
+  /**
+   * Gets the signature of the checkpoints. The calorie of a track point depends
+   * on the activity type and the weight, and the recording distance interval
+   * decides which track points are moving, so a checkpoint is only valid for
+   * the same values.
+   * 
+   * @param activityType the activity type
+   * @param weight the weight
+   * @param recordingDistanceInterval the recording distance interval
+   */
+  @VisibleForTesting
+  static String getCheckpointSignature(
+      ActivityType activityType, double weight, int recordingDistanceInterval) {
+    return CHECKPOINT_VERSION + ":" + activityType.name() + ":" + weight + ":"
+        + recordingDistanceInterval;
+  }
+
+  /**
+   * Reads a checkpoint. Returns null if the checkpoint is null or can't be
+   * read.
+   * 
+   * @param tripStatisticsCheckpoint the trip statistics checkpoint
+   */
+  private static CalorieCheckpoint readCheckpoint(
+      TripStatisticsCheckpoint tripStatisticsCheckpoint) {
+    if (tripStatisticsCheckpoint == null) {
+      return null;
+    }
+    DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(tripStatisticsCheckpoint.getData()));
+    try {
+      CalorieCheckpoint checkpoint = new CalorieCheckpoint(
+          TripStatisticsUpdater.readFrom(in), TripStatisticsUpdater.readFrom(in));
+      checkpoint.trackPointId = tripStatisticsCheckpoint.getTrackPointId();
+      int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        checkpoint.waypointIds.add(in.readLong());
+        checkpoint.waypointCalories.add(in.readDouble());
       }
+      return checkpoint;
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to read the checkpoint", e);
+      return null;
     }
-    double trackCalorie = trackTripStatisticsUpdater.getTripStatistics().getCalorie();
-    track.getTripStatistics().setCalorie(trackCalorie);
-    myTracksProviderUtils.updateTrack(track);
-    return new double[] {
-        trackCalorie, markerTripStatisticsUpdater.getTripStatistics().getCalorie() };
+  }
+
+  /**
+   * Writes a checkpoint.
+   * 
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param trackId the track id
+   * @param signature the signature
+   * @param checkpoint the checkpoint
+   */
+  private static void writeCheckpoint(MyTracksProviderUtils myTracksProviderUtils,
+      long trackId, String signature, CalorieCheckpoint checkpoint) {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(byteArrayOutputStream);
+    try {
+      checkpoint.trackTripStatisticsUpdater.writeTo(out);
+      checkpoint.markerTripStatisticsUpdater.writeTo(out);
+      int size = checkpoint.waypointIds.size();
+      out.writeInt(size);
+      for (int i = 0; i < size; i++) {
+        out.writeLong(checkpoint.waypointIds.get(i));
+        out.writeDouble(checkpoint.waypointCalories.get(i));
+      }
+      out.flush();
+    } catch (IOException e) {
+      // Can't happen with a byte array output stream
+      Log.e(TAG, "Unable to write the checkpoint", e);
+      return;
+    }
+    myTracksProviderUtils.insertTripStatisticsCheckpoint(new TripStatisticsCheckpoint(
+        trackId, checkpoint.trackPointId, signature, byteArrayOutputStream.toByteArray()));
+  }
+
+  /**
+   * Restores the calories of the statistics waypoints covered by a checkpoint
+   * and positions the cursor before the next statistics waypoint. Returns false
+   * if the statistics waypoints don't match the checkpoint.
+   * 
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param cursor the waypoint cursor
+   * @param checkpoint the checkpoint
+   */
+  private static boolean restoreWaypointCalories(
+      MyTracksProviderUtils myTracksProviderUtils, Cursor cursor, CalorieCheckpoint checkpoint) {
+    Waypoint waypoint = null;
+
+    // Skip the first waypoint, it holds the stats for the track
+    if (cursor != null && cursor.moveToFirst()) {
+      waypoint = getNextStatisticsWaypoint(myTracksProviderUtils, cursor);
+    }
+    int size = checkpoint.waypointIds.size();
+    for (int i = 0; i < size; i++) {
+      if (waypoint == null || waypoint.getId() != checkpoint.waypointIds.get(i)) {
+        return false;
+      }
+      double calorie = checkpoint.waypointCalories.get(i);
+      if (waypoint.getTripStatistics().getCalorie() != calorie) {
+        waypoint.getTripStatistics().setCalorie(calorie);
+        myTracksProviderUtils.updateWaypoint(waypoint);
+      }
+      waypoint = getNextStatisticsWaypoint(myTracksProviderUtils, cursor);
+    }
+    checkpoint.waypoint = waypoint;
+    return true;
   }
 
   /**
@@ -216,6 +403,27 @@ public class CalorieUtils {
     }
   }
 
+  /**
+   * Updates the calorie of a track. Reads the track again before writing it,
+   * so that changes made while computing the calorie, e.g., a new name, are
+   * kept.
+   * 
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param track the track
+   * @param calorie the calorie
+   */
+  private static void updateCalorie(
+      MyTracksProviderUtils myTracksProviderUtils, Track track, double calorie) {
+    track.getTripStatistics().setCalorie(calorie);
+    Track currentTrack = myTracksProviderUtils.getTrack(track.getId());
+    if (currentTrack == null) {
+      // Deleted while computing the calorie
+      return;
+    }
+    currentTrack.getTripStatistics().setCalorie(calorie);
+    myTracksProviderUtils.updateTrack(currentTrack);
+  }
+
   /**
    * Clears calorie in the track and its waypoints.
    * 
@@ -223,8 +431,7 @@ public class CalorieUtils {
    * @param track the track
    */
   private static void clearCalorie(MyTracksProviderUtils myTracksProviderUtils, Track track) {
-    track.getTripStatistics().setCalorie(0);
-    myTracksProviderUtils.updateTrack(track);
+    updateCalorie(myTracksProviderUtils, track, 0);
     Cursor cursor = null;
     try {
       cursor = myTracksProviderUtils.getWaypointCursor(track.getId(), -1L, -1);
@@ -305,4 +512,32 @@ public class CalorieUtils {
      */
     return 0.1 * speed + 1.8 * speed * grade + RESTING_VO2;
   }
-}
\ No newline at end of file
+
+  /**
+   * The state of updating the calories of a track.
+   */
+  private static class CalorieCheckpoint {
+    private final TripStatisticsUpdater trackTripStatisticsUpdater;
+    private TripStatisticsUpdater markerTripStatisticsUpdater;
+
+    // The id of the last track point added. -1L if none
+    private long trackPointId = -1L;
+
+    // The ids and the calories of the updated statistics waypoints
+    private final List<Long> waypointIds = new ArrayList<Long>();
+    private final List<Double> waypointCalories = new ArrayList<Double>();
+
+    // The next statistics waypoint. Not part of the saved state
+    private Waypoint waypoint;
+
+    public CalorieCheckpoint(long startTime) {
+      this(new TripStatisticsUpdater(startTime), new TripStatisticsUpdater(startTime));
+    }
+
+    public CalorieCheckpoint(TripStatisticsUpdater trackTripStatisticsUpdater,
+        TripStatisticsUpdater markerTripStatisticsUpdater) {
+      this.trackTripStatisticsUpdater = trackTripStatisticsUpdater;
+      this.markerTripStatisticsUpdater = markerTripStatisticsUpdater;
+    }
+  }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.util;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Formats and parses ISO 8601 date times in UTC. Thread-safe. Formatting into
+ * a caller supplied {@link StringBuilder} or char array and parsing from a
+ * {@link CharSequence} range do not allocate.
+ * <p>
+ * The common XML date time form, yyyy-MM-ddTHH:mm:ss with optional fractional
+ * seconds and time zone, is parsed by hand. The other forms accepted by the
+ * lenient {@link SimpleDateFormat} fall back to it. Dates use the Gregorian
+ * calendar, formatting supports the years 0000 to 9999.
+ */
+public final class Iso8601Codec {
+
+  /**
+   * The length of a formatted date time, yyyy-MM-ddTHH:mm:ss.SSSZ.
+   */
+  public static final int LENGTH = 24;
+
+  private static final long DAY_TO_MS = 24L * 60L * 60L * 1000L;
+
+  // The days from 0000-03-01 to 1970-01-01
+  private static final long EPOCH_DAYS = 719468L;
+
+  // The days in 400 years
+  private static final int DAYS_PER_ERA = 146097;
+
+  // The years parsed by hand. Before 1600, SimpleDateFormat is Julian.
+  private static final int MIN_YEAR = 1600;
+
+  // The fractional seconds digits parsed by hand
+  private static final int MAX_FRACTION_DIGITS = 7;
+
+  private static final float[] POWERS_OF_TEN = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f };
+
+  // Returned when the date time cannot be parsed by hand
+  private static final long NO_TIME = Long.MIN_VALUE;
+
+  // The lenient parser, guarded by itself
+  private static final SimpleDateFormat LENIENT_BASE = new SimpleDateFormat(
+      "yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+  private static final Pattern LENIENT_EXTRAS = Pattern.compile(
+      "^(\\.\\d+)?(?:Z|([+-])(\\d{2}):(\\d{2}))?$");
+  static {
+    LENIENT_BASE.setTimeZone(TimeZone.getTimeZone("UTC"));
+  }
+
+  private Iso8601Codec() {}
+
+  /**
+   * Formats the time as yyyy-MM-ddTHH:mm:ss.SSSZ.
+   * 
+   * @param time the time in milliseconds
+   */
+  public static String format(long time) {
+    char[] buffer = new char[LENGTH];
+    format(time, buffer, 0);
+    return new String(buffer);
+  }
+
+  /**
+   * Appends the time formatted as yyyy-MM-ddTHH:mm:ss.SSSZ.
+   * 
+   * @param time the time in milliseconds
+   * @param builder the builder
+   */
+  public static void format(long time, StringBuilder builder) {
+    long days = floorDiv(time, DAY_TO_MS);
+    int millisOfDay = (int) (time - days * DAY_TO_MS);
+    int date = getDate(days);
+    appendDigits(builder, date / 10000, 4);
+    builder.append('-');
+    appendDigits(builder, date / 100 % 100, 2);
+    builder.append('-');
+    appendDigits(builder, date % 100, 2);
+    builder.append('T');
+    appendDigits(builder, millisOfDay / 3600000, 2);
+    builder.append(':');
+    appendDigits(builder, millisOfDay / 60000 % 60, 2);
+    builder.append(':');
+    appendDigits(builder, millisOfDay / 1000 % 60, 2);
+    builder.append('.');
+    appendDigits(builder, millisOfDay % 1000, 3);
+    builder.append('Z');
+  }
+
+  /**
+   * Writes the time formatted as yyyy-MM-ddTHH:mm:ss.SSSZ. Returns the index
+   * after the last written char.
+   * 
+   * @param time the time in milliseconds
+   * @param buffer the buffer, with at least {@link #LENGTH} chars from offset
+   * @param offset the offset in the buffer
+   */
+  public static int format(long time, char[] buffer, int offset) {
+    long days = floorDiv(time, DAY_TO_MS);
+    int millisOfDay = (int) (time - days * DAY_TO_MS);
+    int date = getDate(days);
+    int index = offset;
+    index = writeDigits(buffer, index, date / 10000, 4);
+    buffer[index++] = '-';
+    index = writeDigits(buffer, index, date / 100 % 100, 2);
+    buffer[index++] = '-';
+    index = writeDigits(buffer, index, date % 100, 2);
+    buffer[index++] = 'T';
+    index = writeDigits(buffer, index, millisOfDay / 3600000, 2);
+    buffer[index++] = ':';
+    index = writeDigits(buffer, index, millisOfDay / 60000 % 60, 2);
+    buffer[index++] = ':';
+    index = writeDigits(buffer, index, millisOfDay / 1000 % 60, 2);
+    buffer[index++] = '.';
+    index = writeDigits(buffer, index, millisOfDay % 1000, 3);
+    buffer[index++] = 'Z';
+    return index;
+  }
+
+  /**
+   * Parses an XML date time as defined at
+   * http://www.w3.org/TR/xmlschema-2/#dateTime. Returns the time in
+   * milliseconds. Leading and trailing white spaces are ignored. Without a
+   * time zone, the time is in UTC.
+   * 
+   * @param text the text
+   * @param start the start index in the text
+   * @param end the end index in the text, exclusive
+   * @throws IllegalArgumentException if the text is not a date time
+   */
+  public static long parse(CharSequence text, int start, int end) {
+    int first = start;
+    while (first < end && text.charAt(first) <= ' ') {
+      first++;
+    }
+    int last = end;
+    while (last > first && text.charAt(last - 1) <= ' ') {
+      last--;
+    }
+    long time = parseByHand(text, first, last);
+    if (time == NO_TIME) {
+      return parseLenient(text.subSequence(first, last).toString());
+    }
+    return time;
+  }
+
+  /**
+   * Parses an XML date time of the form yyyy-MM-ddTHH:mm:ss, followed by
+   * optional fractional seconds and an optional time zone. Returns
+   * {@link #NO_TIME} if not of the form or out of range.
+   * 
+   * @param text the text
+   * @param first the first index
+   * @param last the last index, exclusive
+   */
+  private static long parseByHand(CharSequence text, int first, int last) {
+    if (last - first < 19 || text.charAt(first + 4) != '-' || text.charAt(first + 7) != '-'
+        || text.charAt(first + 10) != 'T' || text.charAt(first + 13) != ':'
+        || text.charAt(first + 16) != ':') {
+      return NO_TIME;
+    }
+    int year = parseDigits(text, first, 4);
+    int month = parseDigits(text, first + 5, 2);
+    int day = parseDigits(text, first + 8, 2);
+    int hour = parseDigits(text, first + 11, 2);
+    int minute = parseDigits(text, first + 14, 2);
+    int second = parseDigits(text, first + 17, 2);
+    if (year < MIN_YEAR || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0
+        || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+      return NO_TIME;
+    }
+    int index = first + 19;
+
+    /*
+     * Fractional seconds. Rounded like the float based SimpleDateFormat
+     * parsing, a float division of exact values rounds like
+     * Float.parseFloat.
+     */
+    long millis = 0L;
+    if (index < last && text.charAt(index) == '.') {
+      index++;
+      int fractionStart = index;
+      int fraction = 0;
+      while (index < last && text.charAt(index) >= '0' && text.charAt(index) <= '9') {
+        fraction = fraction * 10 + (text.charAt(index) - '0');
+        index++;
+        if (index - fractionStart > MAX_FRACTION_DIGITS) {
+          return NO_TIME;
+        }
+      }
+      int digits = index - fractionStart;
+      if (digits == 0) {
+        return NO_TIME;
+      }
+      float fractionalSeconds = fraction / POWERS_OF_TEN[digits];
+      millis = Math.round(fractionalSeconds * UnitConversions.S_TO_MS);
+    }
+
+    // Time zone, UTC if not specified
+    long offset = 0L;
+    if (index < last) {
+      char c = text.charAt(index);
+      if (c == 'Z' && index + 1 == last) {
+        // UTC
+      } else if ((c == '+' || c == '-') && last - index == 6 && text.charAt(index + 3) == ':') {
+        int offsetHours = parseDigits(text, index + 1, 2);
+        int offsetMinutes = parseDigits(text, index + 4, 2);
+        if (offsetHours < 0 || offsetHours > 14 || offsetMinutes < 0 || offsetMinutes > 59) {
+          return NO_TIME;
+        }
+        offset = (offsetHours * 60L + offsetMinutes) * 60000L;
+        if (c == '+') {
+          offset = -offset;
+        }
+      } else {
+        return NO_TIME;
+      }
+    }
+    return getDays(year, month, day) * DAY_TO_MS + ((hour * 60L + minute) * 60L + second) * 1000L
+        + millis + offset;
+  }
+
+  /**
+   * Parses with the lenient {@link SimpleDateFormat}.
+   * 
+   * @param xmlDateTime the XML date time string
+   */
+  private static long parseLenient(String xmlDateTime) {
+    // Parse the date time base
+    ParsePosition position = new ParsePosition(0);
+    Date date;
+    synchronized (LENIENT_BASE) {
+      date = LENIENT_BASE.parse(xmlDateTime, position);
+    }
+    if (date == null) {
+      throw new IllegalArgumentException("Invalid XML dateTime value: " + xmlDateTime
+          + " (at position " + position.getErrorIndex() + ")");
+    }
+
+    // Parse the date time extras
+    Matcher matcher = LENIENT_EXTRAS.matcher(xmlDateTime.substring(position.getIndex()));
+    if (!matcher.matches()) {
+      // This will match even an empty string as all groups are optional. Thus a
+      // non-match means invalid content.
+      throw new IllegalArgumentException("Invalid XML dateTime value: " + xmlDateTime);
+    }
+
+    long time = date.getTime();
+
+    // Account for fractional seconds
+    String fractional = matcher.group(1);
+    if (fractional != null) {
+      // Regex ensures fractional part is in (0,1)
+      float fractionalSeconds = Float.parseFloat(fractional);
+      long fractionalMillis = Math.round(fractionalSeconds * UnitConversions.S_TO_MS);
+      time += fractionalMillis;
+    }
+
+    // Account for timezones
+    String sign = matcher.group(2);
+    String offsetHoursStr = matcher.group(3);
+    String offsetMinsStr = matcher.group(4);
+    if (sign != null && offsetHoursStr != null && offsetMinsStr != null) {
+      // Regex ensures sign is + or -
+      boolean plusSign = sign.equals("+");
+      int offsetHours = Integer.parseInt(offsetHoursStr);
+      int offsetMins = Integer.parseInt(offsetMinsStr);
+
+      // Regex ensures values are >= 0
+      if (offsetHours > 14 || offsetMins > 59) {
+        throw new IllegalArgumentException("Bad timezone: " + xmlDateTime);
+      }
+
+      long totalOffsetMillis = (offsetMins + offsetHours * 60L) * 60000L;
+
+      // Convert to UTC
+      if (plusSign) {
+        time -= totalOffsetMillis;
+      } else {
+        time += totalOffsetMillis;
+      }
+    }
+    return time;
+  }
+
+  /**
+   * Gets the number of days since 1970-01-01. Days past the end of the month
+   * roll over to the next month.
+   * 
+   * @param year the year, not negative
+   * @param month the month, 1 to 12
+   * @param day the day of the month
+   */
+  private static long getDays(int year, int month, int day) {
+    // Count the years from March so that the leap day is the last day
+    int y = month <= 2 ? year - 1 : year;
+    int era = y / 400;
+    int yearOfEra = y - era * 400;
+    int dayOfYear = (153 * ((month + 9) % 12) + 2) / 5 + day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * (long) DAYS_PER_ERA + dayOfEra - EPOCH_DAYS;
+  }
+
+  /**
+   * Gets the date of a number of days since 1970-01-01 as yyyyMMdd.
+   * 
+   * @param days the number of days
+   */
+  private static int getDate(long days) {
+    long shifted = days + EPOCH_DAYS;
+    long era = floorDiv(shifted, DAYS_PER_ERA);
+    int dayOfEra = (int) (shifted - era * DAYS_PER_ERA);
+    int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    int shiftedMonth = (5 * dayOfYear + 2) / 153;
+    int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+    int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+    return (int) year * 10000 + month * 100 + day;
+  }
+
+  /**
+   * Divides rounding toward negative infinity.
+   * 
+   * @param value the value
+   * @param divisor the divisor, positive
+   */
+  private static long floorDiv(long value, long divisor) {
+    long quotient = value / divisor;
+    return value % divisor < 0 ? quotient - 1 : quotient;
+  }
+
+  /**
+   * Parses a fixed number of digits. Returns -1 if not all digits.
+   * 
+   * @param text the text
+   * @param start the start index
+   * @param count the number of digits
+   */
+  private static int parseDigits(CharSequence text, int start, int count) {
+    int value = 0;
+    for (int i = start; i < start + count; i++) {
+      char c = text.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  /**
+   * Appends a value zero padded to a number of digits.
+   * 
+   * @param builder the builder
+   * @param value the value, not negative
+   * @param count the number of digits
+   */
+  private static void appendDigits(StringBuilder builder, int value, int count) {
+    int divisor = 1;
+    for (int i = 1; i < count; i++) {
+      divisor *= 10;
+    }
+    for (; divisor > 0; divisor /= 10) {
+      builder.append((char) ('0' + value / divisor % 10));
+    }
+  }
+
+  /**
+   * Writes a value zero padded to a number of digits. Returns the index after
+   * the last written char.
+   * 
+   * @param buffer the buffer
+   * @param index the index to write at
+   * @param value the value, not negative
+   * @param count the number of digits
+   */
+  private static int writeDigits(char[] buffer, int index, int value, int count) {
+    for (int i = index + count - 1; i >= index; i--) {
+      buffer[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+    return index + count;
+  }
+}
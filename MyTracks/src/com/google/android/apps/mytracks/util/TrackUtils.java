@@ -19,6 +19,7 @@ package com.google.android.apps.mytracks.util;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
 import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.content.TracksColumns;
+import com.google.android.apps.mytracks.services.StatisticsRecomputeService;
 import com.google.android.apps.mytracks.services.TrackRecordingServiceConnection;
 import com.google.android.maps.mytracks.R;
 
@@ -60,7 +61,7 @@ public class TrackUtils {
         // Update calorie through track recording service
         TrackRecordingServiceConnectionUtils.updateCalorie(trackRecordingServiceConnection);
       } else {
-        CalorieUtils.updateTrackCalorie(context, track);
+        StatisticsRecomputeService.recompute(context, track.getId());
       }
     }
 
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.content.Sensor.SensorData;
+import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import android.location.Location;
+import android.location.LocationManager;
+import android.util.Log;
+
+/**
+ * A {@link TrackPointCursor} implementing the derived accessors on top of the
+ * primitive ones. Subclasses only need to move to the next track point and
+ * return its raw values.
+ */
+abstract class AbstractTrackPointCursor implements TrackPointCursor {
+
+  private static final String TAG = AbstractTrackPointCursor.class.getSimpleName();
+
+  private static final int MAX_LATITUDE_E6 = 90000000;
+  private static final int MAX_LONGITUDE_E6 = 180000000;
+
+  // The parsed sensor data of the current track point
+  private SensorDataSet sensorDataSet;
+  private boolean sensorDataSetParsed;
+
+  @Override
+  public final boolean moveToNext() {
+    sensorDataSet = null;
+    sensorDataSetParsed = false;
+    return advance();
+  }
+
+  /**
+   * Advances to the next track point. Returns false if there are no more track
+   * points.
+   */
+  protected abstract boolean advance();
+
+  /**
+   * Gets the serialized sensor data. Returns null if not available.
+   */
+  protected abstract byte[] getSensorData();
+
+  /**
+   * Gets the serialized sensor data of the current track point of a cursor,
+   * without parsing it if the cursor keeps it serialized. Returns null if not
+   * available.
+   *
+   * @param trackPointCursor the track point cursor
+   */
+  static byte[] getSensorData(TrackPointCursor trackPointCursor) {
+    if (trackPointCursor instanceof AbstractTrackPointCursor) {
+      return ((AbstractTrackPointCursor) trackPointCursor).getSensorData();
+    }
+    SensorDataSet dataSet = trackPointCursor.hasSensorDataSet()
+        ? trackPointCursor.getSensorDataSet() : null;
+    return dataSet != null ? dataSet.toByteArray() : null;
+  }
+
+  @Override
+  public boolean isValid() {
+    return Math.abs(getLatitudeE6()) <= MAX_LATITUDE_E6
+        && Math.abs(getLongitudeE6()) <= MAX_LONGITUDE_E6;
+  }
+
+  @Override
+  public SensorDataSet getSensorDataSet() {
+    if (!sensorDataSetParsed) {
+      sensorDataSetParsed = true;
+      byte[] data = getSensorData();
+      if (data != null) {
+        try {
+          sensorDataSet = SensorDataSet.parseFrom(data);
+        } catch (InvalidProtocolBufferException e) {
+          Log.w(TAG, "Failed to parse sensor data.", e);
+        }
+      }
+    }
+    return sensorDataSet;
+  }
+
+  @Override
+  public int getHeartRate() {
+    SensorDataSet dataSet = hasSensorDataSet() ? getSensorDataSet() : null;
+    return dataSet != null && dataSet.hasHeartRate() ? getValue(dataSet.getHeartRate()) : -1;
+  }
+
+  @Override
+  public int getCadence() {
+    SensorDataSet dataSet = hasSensorDataSet() ? getSensorDataSet() : null;
+    return dataSet != null && dataSet.hasCadence() ? getValue(dataSet.getCadence()) : -1;
+  }
+
+  @Override
+  public int getPower() {
+    SensorDataSet dataSet = hasSensorDataSet() ? getSensorDataSet() : null;
+    return dataSet != null && dataSet.hasPower() ? getValue(dataSet.getPower()) : -1;
+  }
+
+  @Override
+  public void fill(Location location) {
+    location.reset();
+    location.setLatitude(getLatitudeE6() / 1E6);
+    location.setLongitude(getLongitudeE6() / 1E6);
+    location.setTime(getTimeMillis());
+    if (hasAltitude()) {
+      location.setAltitude(getAltitude());
+    }
+    if (hasAccuracy()) {
+      location.setAccuracy(getAccuracy());
+    }
+    if (hasSpeed()) {
+      location.setSpeed(getSpeed());
+    }
+    if (hasBearing()) {
+      location.setBearing(getBearing());
+    }
+    if (location instanceof MyTracksLocation && hasSensorDataSet()) {
+      ((MyTracksLocation) location).setSensorDataSet(getSensorDataSet());
+    }
+  }
+
+  @Override
+  public Location getLocation() {
+    Location location = new MyTracksLocation(LocationManager.GPS_PROVIDER);
+    fill(location);
+    return location;
+  }
+
+  /**
+   * Gets the value of a sensor data. Returns -1 if not sending.
+   *
+   * @param sensorData the sensor data
+   */
+  private int getValue(SensorData sensorData) {
+    return sensorData.getState() == Sensor.SensorState.SENDING && sensorData.hasValue()
+        ? sensorData.getValue() : -1;
+  }
+}
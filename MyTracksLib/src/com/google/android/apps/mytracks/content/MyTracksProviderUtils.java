@@ -26,6 +26,7 @@ import android.net.Uri;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Utilities to access data from the My Tracks content provider.
@@ -276,7 +277,10 @@ public interface MyTracksProviderUtils {
   
   /**
    * Creates a location cursor. The caller owns the returned cursor and is
-   * responsible for closing it.
+   * responsible for closing it. For a track with compacted track points, see
+   * {@link #compactTrackPoints(long)}, the returned track points are decoded
+   * into memory, so prefer {@link #openTrackPointCursor(long, long, boolean)}
+   * for reading a whole track.
    * 
    * @param trackId the track id
    * @param startTrackPointId the starting track point id. -1L to ignore
@@ -307,6 +311,22 @@ public interface MyTracksProviderUtils {
   public LocationIterator getTrackPointLocationIterator(
       long trackId, long startTrackPointId, boolean descending, LocationFactory locationFactory);
 
+  /**
+   * Opens a {@link TrackPointCursor} over a given track's points, including
+   * the compacted track points. Prefer it over
+   * {@link #getTrackPointLocationIterator(long, long, boolean, LocationFactory)}
+   * when only some fields of each track point are needed, as it does not
+   * create a location or parse the sensor data per track point. When done,
+   * {@link TrackPointCursor#close()} must be called.
+   *
+   * @param trackId the track id
+   * @param startTrackPointId the starting track point id. -1L to ignore
+   * @param descending true to sort the result in descending order (latest
+   *          location first)
+   */
+  public TrackPointCursor openTrackPointCursor(
+      long trackId, long startTrackPointId, boolean descending);
+
   /**
    * Inserts a track point.
    * 
@@ -316,6 +336,95 @@ public interface MyTracksProviderUtils {
    */
   public Uri insertTrackPoint(Location location, long trackId);
 
+  /**
+   * Compacts the track points of a track into the track point chunks table.
+   * The track points keep their ids and are still returned by the methods of
+   * this class, but no longer by the track points content provider URIs.
+   * Should only be called on tracks that are no longer recording.
+   * 
+   * @param trackId the track id
+   * @return the number of compacted track points
+   */
+  public int compactTrackPoints(long trackId);
+
+  /**
+   * Inserts a trip statistics checkpoint.
+   * 
+   * @param checkpoint the checkpoint
+   */
+  public void insertTripStatisticsCheckpoint(TripStatisticsCheckpoint checkpoint);
+
+  /**
+   * Gets the trip statistics checkpoint of a track with the largest track point
+   * id for a signature. Returns null if not found.
+   * 
+   * @param trackId the track id
+   * @param signature the signature
+   * @param maxTrackPointId the maximum track point id. -1L to ignore
+   */
+  public TripStatisticsCheckpoint getLastTripStatisticsCheckpoint(
+      long trackId, String signature, long maxTrackPointId);
+
+  /**
+   * Deletes the trip statistics checkpoints of a track at or after a track
+   * point id. Must be called when the track points of a track are changed.
+   * 
+   * @param trackId the track id
+   * @param minTrackPointId the minimum track point id. -1L to delete all the
+   *          checkpoints of the track
+   */
+  public void deleteTripStatisticsCheckpoints(long trackId, long minTrackPointId);
+
+  /**
+   * Inserts track point level blocks in a single transaction. A block replaces
+   * the block of the same track and level with the same start id.
+   *
+   * @param blocks the blocks
+   */
+  public void insertTrackPointLevelBlocks(List<TrackPointLevelBlock> blocks);
+
+  /**
+   * Gets the track point level blocks of a level of a track ending after a
+   * track point id, in track point id order.
+   *
+   * @param trackId the track id
+   * @param level the level
+   * @param minStopId the minimum last track point id of a block. -1L to get all
+   *          the blocks of the level
+   */
+  public List<TrackPointLevelBlock> getTrackPointLevelBlocks(
+      long trackId, int level, long minStopId);
+
+  /**
+   * Gets the last track point level block of a level of a track. Returns null
+   * if not found.
+   *
+   * @param trackId the track id
+   * @param level the level
+   */
+  public TrackPointLevelBlock getLastTrackPointLevelBlock(long trackId, int level);
+
+  /**
+   * Deletes the track point levels of a track.
+   *
+   * @param trackId the track id
+   */
+  public void deleteTrackPointLevels(long trackId);
+
+  /**
+   * Gets the ids of the tracks passing near a location, using the
+   * {@link TrackCellsColumns} spatial index instead of reading the track
+   * points. The result can include tracks passing up to a few cells farther
+   * than the radius, so check the track points for the real distance. Tracks
+   * recorded before the index existed are only included once the provider
+   * has indexed them in the background.
+   *
+   * @param latitude the latitude
+   * @param longitude the longitude
+   * @param radius the radius in meters
+   */
+  public Set<Long> getTrackIdsNear(double latitude, double longitude, double radius);
+
   /**
    * A lightweight wrapper around the original {@link Cursor} with a method to
    * clean up.
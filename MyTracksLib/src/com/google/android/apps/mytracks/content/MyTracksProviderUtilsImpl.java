@@ -26,14 +26,23 @@ import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.location.Location;
 import android.net.Uri;
 import android.util.Log;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * {@link MyTracksProviderUtils} implementation.
@@ -46,8 +55,37 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
 
   private static final int MAX_LATITUDE = 90000000;
 
+  // The number of track point chunks to read per query
+  private static final int CHUNK_CURSOR_BATCH_SIZE = 16;
+
+  // Bounds of the adaptive track points batch size
+  private static final int MAX_CURSOR_BATCH_SIZE = 16000;
+  private static final int MIN_ROW_WIDTH = 160;
+
+  // Default memory budget of a track points batch. Fits in a cursor window
+  private static final int DEFAULT_MAX_BATCH_BYTES = 1024 * 1024;
+
+  // The maximum number of track points batches prefetched at the same time
+  private static final int MAX_PREFETCH_THREADS = 4;
+
+  /*
+   * Queries the next track points batch while the current one is being read.
+   * Daemon threads, so that an idle pool does not keep a process alive.
+   */
+  private static final ExecutorService PREFETCH_EXECUTOR = Executors.newFixedThreadPool(
+      MAX_PREFETCH_THREADS, new ThreadFactory() {
+          @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, TAG + "Prefetch");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
   private final ContentResolver contentResolver;
   private int defaultCursorBatchSize = 2000;
+  private int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+  private int chunkSize = 256;
 
   public MyTracksProviderUtilsImpl(ContentResolver contentResolver) {
     this.contentResolver = contentResolver;
@@ -180,17 +218,33 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
   @Override
   public void deleteAllTracks(Context context) {
     contentResolver.delete(TrackPointsColumns.CONTENT_URI, null, null);
+    contentResolver.delete(TrackPointChunksColumns.CONTENT_URI, null, null);
+    contentResolver.delete(TripStatisticsCheckpointsColumns.CONTENT_URI, null, null);
+    contentResolver.delete(TrackPointLevelsColumns.CONTENT_URI, null, null);
+    contentResolver.delete(TrackCellsColumns.CONTENT_URI, null, null);
     contentResolver.delete(WaypointsColumns.CONTENT_URI, null, null);
     // Delete tracks last since it triggers a database vaccum call
     contentResolver.delete(TracksColumns.CONTENT_URI, null, null);
 
     File dir = FileUtils.getPhotoDir();
     deleteDirectoryRecurse(context, dir);
+
+    File[] syncManifests = new File(context.getFilesDir(), FileUtils.SYNC_MANIFESTS_DIR)
+        .listFiles();
+    if (syncManifests != null) {
+      for (File syncManifest : syncManifests) {
+        syncManifest.delete();
+      }
+    }
   }
 
   @Override
   public void deleteTrack(Context context, long trackId) {
     deleteTrackPointsAndWaypoints(context, trackId);
+    File syncManifest = FileUtils.getSyncManifestFile(context, trackId);
+    if (syncManifest.exists() && !syncManifest.delete()) {
+      Log.w(TAG, "Unable to delete the sync manifest of track " + trackId);
+    }
 
     // Delete track last since it triggers a database vaccum call
     contentResolver.delete(TracksColumns.CONTENT_URI, TracksColumns._ID + "=?",
@@ -212,6 +266,12 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
           Long.toString(track.getStartId()), Long.toString(track.getStopId()) };
       contentResolver.delete(TrackPointsColumns.CONTENT_URI, where, selectionArgs);
     }
+    contentResolver.delete(TrackPointChunksColumns.CONTENT_URI,
+        TrackPointChunksColumns.TRACKID + "=?", new String[] { Long.toString(trackId) });
+    deleteTripStatisticsCheckpoints(trackId, -1L);
+    deleteTrackPointLevels(trackId);
+    contentResolver.delete(TrackCellsColumns.CONTENT_URI, TrackCellsColumns.TRACKID + "=?",
+        new String[] { Long.toString(trackId) });
     contentResolver.delete(WaypointsColumns.CONTENT_URI, WaypointsColumns.TRACKID + "=?",
         new String[] { Long.toString(trackId) });    
     deleteDirectoryRecurse(context, FileUtils.getPhotoDir(trackId));  
@@ -814,23 +874,14 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     if (trackId < 0) {
       return -1L;
     }
-    Cursor cursor = null;
-    try {
-      String selection = TrackPointsColumns._ID + "=(select min(" + TrackPointsColumns._ID
-          + ") from " + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.TRACKID
-          + "=?)";
-      String[] selectionArgs = new String[] { Long.toString(trackId) };
-      cursor = getTrackPointCursor(new String[] { TrackPointsColumns._ID }, selection,
-          selectionArgs, TrackPointsColumns._ID);
-      if (cursor != null && cursor.moveToFirst()) {
-        return cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID));
-      }
-    } finally {
-      if (cursor != null) {
-        cursor.close();
-      }
+    // Compacted track points come before the track points table rows
+    long chunkTrackPointId = findChunkTrackPointId(trackId, false);
+    if (chunkTrackPointId != -1L) {
+      return chunkTrackPointId;
     }
-    return -1L;
+    String selection = TrackPointsColumns.TRACKID + "=?";
+    String[] selectionArgs = new String[] { Long.toString(trackId) };
+    return findTrackPointIdBy(selection, selectionArgs, false);
   }
 
   @Override
@@ -838,23 +889,13 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     if (trackId < 0) {
       return -1L;
     }
-    Cursor cursor = null;
-    try {
-      String selection = TrackPointsColumns._ID + "=(select max(" + TrackPointsColumns._ID
-          + ") from " + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.TRACKID
-          + "=?)";
-      String[] selectionArgs = new String[] { Long.toString(trackId) };
-      cursor = getTrackPointCursor(new String[] { TrackPointsColumns._ID }, selection,
-          selectionArgs, TrackPointsColumns._ID);
-      if (cursor != null && cursor.moveToFirst()) {
-        return cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID));
-      }
-    } finally {
-      if (cursor != null) {
-        cursor.close();
-      }
+    String selection = TrackPointsColumns.TRACKID + "=?";
+    String[] selectionArgs = new String[] { Long.toString(trackId) };
+    long trackPointId = findTrackPointIdBy(selection, selectionArgs, true);
+    if (trackPointId != -1L) {
+      return trackPointId;
     }
-    return -1L;
+    return findChunkTrackPointId(trackId, true);
   }
   
   @Override
@@ -862,24 +903,14 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     if (trackId < 0) {
       return -1L;
     }
-    Cursor cursor = null;
-    try {
-      String selection = TrackPointsColumns._ID + "=(select max(" + TrackPointsColumns._ID
-          + ") from " + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.TRACKID
-          + "=? AND " + TrackPointsColumns.TIME + "=?)";
-      String[] selectionArgs = new String[] {
-          Long.toString(trackId), Long.toString(location.getTime()) };
-      cursor = getTrackPointCursor(new String[] { TrackPointsColumns._ID }, selection,
-          selectionArgs, TrackPointsColumns._ID);
-      if (cursor != null && cursor.moveToFirst()) {
-        return cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID));
-      }
-    } finally {
-      if (cursor != null) {
-        cursor.close();
-      }
+    String selection = TrackPointsColumns.TRACKID + "=? AND " + TrackPointsColumns.TIME + "=?";
+    String[] selectionArgs = new String[] {
+        Long.toString(trackId), Long.toString(location.getTime()) };
+    long trackPointId = findTrackPointIdBy(selection, selectionArgs, true);
+    if (trackPointId != -1L) {
+      return trackPointId;
     }
-    return -1L;
+    return findChunkTrackPointIdByTime(trackId, location.getTime());
   }
 
   @Override
@@ -887,11 +918,14 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     if (trackId < 0) {
       return null;
     }
-    String selection = TrackPointsColumns._ID + "=(select min(" + TrackPointsColumns._ID + ") from "
-        + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.TRACKID + "=? AND "
-        + TrackPointsColumns.LATITUDE + "<=" + MAX_LATITUDE + ")";
+    Location location = findValidChunkTrackPoint(trackId, false);
+    if (location != null) {
+      return location;
+    }
+    String selection = TrackPointsColumns.TRACKID + "=? AND " + TrackPointsColumns.LATITUDE + "<="
+        + MAX_LATITUDE;
     String[] selectionArgs = new String[] { Long.toString(trackId) };
-    return findTrackPointBy(selection, selectionArgs);
+    return findTrackPointBy(selection, selectionArgs, false);
   }
 
   @Override
@@ -899,38 +933,117 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     if (trackId < 0) {
       return null;
     }
-    String selection = TrackPointsColumns._ID + "=(select max(" + TrackPointsColumns._ID + ") from "
-        + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.TRACKID + "=? AND "
-        + TrackPointsColumns.LATITUDE + "<=" + MAX_LATITUDE + ")";
+    String selection = TrackPointsColumns.TRACKID + "=? AND " + TrackPointsColumns.LATITUDE + "<="
+        + MAX_LATITUDE;
     String[] selectionArgs = new String[] { Long.toString(trackId) };
-    return findTrackPointBy(selection, selectionArgs);
+    Location location = findTrackPointBy(selection, selectionArgs, true);
+    if (location != null) {
+      return location;
+    }
+    return findValidChunkTrackPoint(trackId, true);
   }
 
   @Override
   public Location getLastValidTrackPoint() {
-    String selection = TrackPointsColumns._ID + "=(select max(" + TrackPointsColumns._ID + ") from "
-        + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.LATITUDE + "<="
-        + MAX_LATITUDE + ")";
-    return findTrackPointBy(selection, null);
+    String selection = TrackPointsColumns.LATITUDE + "<=" + MAX_LATITUDE;
+    long trackPointId = findTrackPointIdBy(selection, null, true);
+
+    // A compacted track may have more recent track points than the rows
+    long trackId = -1L;
+    Cursor cursor = null;
+    try {
+      cursor = contentResolver.query(TrackPointChunksColumns.CONTENT_URI,
+          new String[] { TrackPointChunksColumns.TRACKID }, TrackPointChunksColumns.STOPID + ">?",
+          new String[] { Long.toString(trackPointId) },
+          TrackPointChunksColumns.STOPID + " DESC LIMIT 1");
+      if (cursor != null && cursor.moveToFirst()) {
+        trackId = cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointChunksColumns.TRACKID));
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    if (trackId != -1L) {
+      TrackPointCursor trackPointCursor = null;
+      try {
+        trackPointCursor = new ChunkTrackPointCursor(trackId, -1L, true);
+        while (trackPointCursor.moveToNext() && trackPointCursor.getId() > trackPointId) {
+          if (trackPointCursor.getLatitudeE6() <= MAX_LATITUDE) {
+            Location location = new MyTracksLocation("");
+            trackPointCursor.fill(location);
+            return location;
+          }
+        }
+      } finally {
+        if (trackPointCursor != null) {
+          trackPointCursor.close();
+        }
+      }
+    }
+    return findTrackPointBy(selection, null, true);
   }
   
   @Override
   public Cursor getTrackPointCursor(
       long trackId, long startTrackPointId, int maxLocations, boolean descending) {
+    if (findChunkTrackPointId(trackId, true) == -1L) {
+      return getTrackPointCursor(trackId, startTrackPointId, -1L, maxLocations, descending);
+    }
+
+    // Decode the compacted track points into rows of the track points table
+    MatrixCursor cursor = new MatrixCursor(TrackPointsColumns.COLUMNS);
+    TrackPointCursor trackPointCursor = null;
+    try {
+      trackPointCursor = openTrackPointCursor(trackId, startTrackPointId, descending);
+      while ((maxLocations < 0 || cursor.getCount() < maxLocations)
+          && trackPointCursor.moveToNext()) {
+        cursor.addRow(new Object[] { trackPointCursor.getId(),
+            trackId,
+            trackPointCursor.getLongitudeE6(),
+            trackPointCursor.getLatitudeE6(),
+            trackPointCursor.getTimeMillis(),
+            trackPointCursor.hasAltitude() ? trackPointCursor.getAltitude() : null,
+            trackPointCursor.hasAccuracy() ? trackPointCursor.getAccuracy() : null,
+            trackPointCursor.hasSpeed() ? trackPointCursor.getSpeed() : null,
+            trackPointCursor.hasBearing() ? trackPointCursor.getBearing() : null,
+            AbstractTrackPointCursor.getSensorData(trackPointCursor) });
+      }
+    } finally {
+      if (trackPointCursor != null) {
+        trackPointCursor.close();
+      }
+    }
+    return cursor;
+  }
+
+  /**
+   * Creates a location cursor.
+   * 
+   * @param trackId the track id
+   * @param startTrackPointId the starting track point id. -1L to ignore
+   * @param minTrackPointId only include track points with larger ids. -1L to
+   *          ignore
+   * @param maxLocations maximum number of locations to return. -1 for no limit
+   * @param descending true to sort the result in descending order
+   */
+  private Cursor getTrackPointCursor(long trackId, long startTrackPointId, long minTrackPointId,
+      int maxLocations, boolean descending) {
     if (trackId < 0) {
       return null;
     }
 
-    String selection;
-    String[] selectionArgs;
+    String selection = TrackPointsColumns.TRACKID + "=?";
+    List<String> selectionArgs = new ArrayList<String>();
+    selectionArgs.add(Long.toString(trackId));
     if (startTrackPointId >= 0) {
       String comparison = descending ? "<=" : ">=";
-      selection = TrackPointsColumns.TRACKID + "=? AND " + TrackPointsColumns._ID + comparison
-          + "?";
-      selectionArgs = new String[] { Long.toString(trackId), Long.toString(startTrackPointId) };
-    } else {
-      selection = TrackPointsColumns.TRACKID + "=?";
-      selectionArgs = new String[] { Long.toString(trackId) };
+      selection += " AND " + TrackPointsColumns._ID + comparison + "?";
+      selectionArgs.add(Long.toString(startTrackPointId));
+    }
+    if (minTrackPointId >= 0) {
+      selection += " AND " + TrackPointsColumns._ID + ">?";
+      selectionArgs.add(Long.toString(minTrackPointId));
     }
 
     String sortOrder = TrackPointsColumns._ID;
@@ -940,101 +1053,287 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     if (maxLocations >= 0) {
       sortOrder += " LIMIT " + maxLocations;
     }
-    return getTrackPointCursor(null, selection, selectionArgs, sortOrder);
+    return getTrackPointCursor(null, selection,
+        selectionArgs.toArray(new String[selectionArgs.size()]), sortOrder);
   }
 
   @Override
-  public LocationIterator getTrackPointLocationIterator(final long trackId,
-      final long startTrackPointId, final boolean descending,
-      final LocationFactory locationFactory) {
+  public LocationIterator getTrackPointLocationIterator(long trackId, long startTrackPointId,
+      boolean descending, LocationFactory locationFactory) {
     if (locationFactory == null) {
       throw new IllegalArgumentException("locationFactory is null");
     }
-    return new LocationIterator() {
-      private long lastTrackPointId = -1L;
-      private Cursor cursor = getCursor(startTrackPointId);
-      private final CachedTrackPointsIndexes
-          indexes = cursor != null ? new CachedTrackPointsIndexes(cursor)
-              : null;
-
-      /**
-       * Gets the track point cursor.
-       * 
-       * @param trackPointId the starting track point id
-       */
-      private Cursor getCursor(long trackPointId) {
-        return getTrackPointCursor(trackId, trackPointId, defaultCursorBatchSize, descending);
-      }
+    return new TrackPointCursorLocationIterator(
+        openTrackPointCursor(trackId, startTrackPointId, descending), locationFactory);
+  }
+
+  @Override
+  public TrackPointCursor openTrackPointCursor(
+      long trackId, long startTrackPointId, boolean descending) {
+    long lastChunkTrackPointId = findChunkTrackPointId(trackId, true);
+    if (lastChunkTrackPointId == -1L) {
+      return new RowTrackPointCursor(trackId, startTrackPointId, -1L, descending);
+    }
+
+    // Compacted track points come before the track points table rows
+    TrackPointCursor chunkCursor = new ChunkTrackPointCursor(
+        trackId, startTrackPointId, descending);
+    TrackPointCursor rowCursor = new RowTrackPointCursor(
+        trackId, startTrackPointId, lastChunkTrackPointId, descending);
+    return descending ? new SequenceTrackPointCursor(rowCursor, chunkCursor)
+        : new SequenceTrackPointCursor(chunkCursor, rowCursor);
+  }
+
+  @Override
+  public Uri insertTrackPoint(Location location, long trackId) {
+    return contentResolver.insert(
+        TrackPointsColumns.CONTENT_URI, createContentValues(location, trackId));
+  }
 
-      /**
-       * Advances the cursor to the next batch. Returns true if successful.
+  @Override
+  public int compactTrackPoints(long trackId) {
+    if (trackId < 0) {
+      return 0;
+    }
+    String[] trackIdArgs = new String[] { Long.toString(trackId) };
+    long lastChunkTrackPointId = findChunkTrackPointId(trackId, true);
+    if (lastChunkTrackPointId != -1L) {
+      // Remove rows left behind by an interrupted compaction
+      contentResolver.delete(TrackPointsColumns.CONTENT_URI, TrackPointsColumns.TRACKID
+          + "=? AND " + TrackPointsColumns._ID + "<=" + lastChunkTrackPointId, trackIdArgs);
+    }
+
+    long[] trackPointIds = new long[chunkSize];
+    Location[] locations = new Location[chunkSize];
+    int count = 0;
+    while (true) {
+      /*
+       * Read a whole chunk before changing the table. A cursor over rows being
+       * deleted can skip rows when it refills its window.
        */
-      private boolean advanceCursorToNextBatch() {
-        long trackPointId = lastTrackPointId == -1L ? -1L
-            : lastTrackPointId + (descending ? -1 : 1);
-        Log.d(TAG, "Advancing track point id: " + trackPointId);
-        cursor.close();
-        cursor = getCursor(trackPointId);
-        return cursor != null;
+      int length = 0;
+      Cursor cursor = null;
+      try {
+        cursor = getTrackPointCursor(trackId, -1L, lastChunkTrackPointId, chunkSize, false);
+        if (cursor != null) {
+          CachedTrackPointsIndexes indexes = new CachedTrackPointsIndexes(cursor);
+          while (cursor.moveToNext()) {
+            trackPointIds[length] = cursor.getLong(indexes.idIndex);
+            locations[length] = new MyTracksLocation("");
+            fillTrackPoint(cursor, indexes, locations[length]);
+            length++;
+          }
+        }
+      } finally {
+        if (cursor != null) {
+          cursor.close();
+        }
+      }
+      if (length == 0) {
+        break;
       }
 
-        @Override
-      public long getLocationId() {
-        return lastTrackPointId;
+      // Insert the chunk before deleting the rows so a crash loses no data
+      long startId = trackPointIds[0];
+      long stopId = trackPointIds[length - 1];
+      long minTime = locations[0].getTime();
+      long maxTime = minTime;
+      for (int i = 1; i < length; i++) {
+        minTime = Math.min(minTime, locations[i].getTime());
+        maxTime = Math.max(maxTime, locations[i].getTime());
       }
+      ContentValues values = new ContentValues();
+      values.put(TrackPointChunksColumns.TRACKID, trackId);
+      values.put(TrackPointChunksColumns.STARTID, startId);
+      values.put(TrackPointChunksColumns.STOPID, stopId);
+      values.put(TrackPointChunksColumns.NUMPOINTS, length);
+      values.put(TrackPointChunksColumns.MINTIME, minTime);
+      values.put(TrackPointChunksColumns.MAXTIME, maxTime);
+      values.put(
+          TrackPointChunksColumns.DATA, TrackPointChunk.encode(trackPointIds, locations, length));
+      contentResolver.insert(TrackPointChunksColumns.CONTENT_URI, values);
+      contentResolver.delete(TrackPointsColumns.CONTENT_URI, TrackPointsColumns.TRACKID + "=? AND "
+          + TrackPointsColumns._ID + ">=" + startId + " AND " + TrackPointsColumns._ID + "<="
+          + stopId, trackIdArgs);
+
+      lastChunkTrackPointId = stopId;
+      count += length;
+      if (length < chunkSize) {
+        break;
+      }
+    }
+    if (count > 0) {
+      // Compaction quantizes some values, invalidating the checkpoints
+      deleteTripStatisticsCheckpoints(trackId, -1L);
+    }
+    Log.d(TAG, "Compacted " + count + " track points of track " + trackId);
+    return count;
+  }
 
-        @Override
-      public boolean hasNext() {
-        if (cursor == null) {
-          return false;
-        }
-        if (cursor.isAfterLast()) {
-          return false;
-        }
-        if (cursor.isLast()) {
-          if (cursor.getCount() != defaultCursorBatchSize) {
-            return false;
-          }
-          return advanceCursorToNextBatch() && !cursor.isAfterLast();
-        }
-        return true;
+  @Override
+  public void insertTripStatisticsCheckpoint(TripStatisticsCheckpoint checkpoint) {
+    ContentValues values = new ContentValues();
+    values.put(TripStatisticsCheckpointsColumns.TRACKID, checkpoint.getTrackId());
+    values.put(TripStatisticsCheckpointsColumns.TRACKPOINTID, checkpoint.getTrackPointId());
+    values.put(TripStatisticsCheckpointsColumns.SIGNATURE, checkpoint.getSignature());
+    values.put(TripStatisticsCheckpointsColumns.DATA, checkpoint.getData());
+    contentResolver.insert(TripStatisticsCheckpointsColumns.CONTENT_URI, values);
+  }
+
+  @Override
+  public TripStatisticsCheckpoint getLastTripStatisticsCheckpoint(
+      long trackId, String signature, long maxTrackPointId) {
+    String selection = TripStatisticsCheckpointsColumns.TRACKID + "=? AND "
+        + TripStatisticsCheckpointsColumns.SIGNATURE + "=?";
+    String[] selectionArgs;
+    if (maxTrackPointId >= 0) {
+      selection += " AND " + TripStatisticsCheckpointsColumns.TRACKPOINTID + "<=?";
+      selectionArgs = new String[] {
+          Long.toString(trackId), signature, Long.toString(maxTrackPointId) };
+    } else {
+      selectionArgs = new String[] { Long.toString(trackId), signature };
+    }
+    String[] projection = new String[] {
+        TripStatisticsCheckpointsColumns.TRACKPOINTID, TripStatisticsCheckpointsColumns.DATA };
+    Cursor cursor = null;
+    try {
+      cursor = contentResolver.query(TripStatisticsCheckpointsColumns.CONTENT_URI, projection,
+          selection, selectionArgs,
+          TripStatisticsCheckpointsColumns.TRACKPOINTID + " DESC LIMIT 1");
+      if (cursor != null && cursor.moveToFirst()) {
+        return new TripStatisticsCheckpoint(
+            trackId, cursor.getLong(0), signature, cursor.getBlob(1));
       }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return null;
+  }
 
-        @Override
-      public Location next() {
-        if (cursor == null) {
-          throw new NoSuchElementException();
-        }
-        if (!cursor.moveToNext()) {
-          if (!advanceCursorToNextBatch() || !cursor.moveToNext()) {
-            throw new NoSuchElementException();
-          }
-        }
-        lastTrackPointId = cursor.getLong(indexes.idIndex);
-        Location location = locationFactory.createLocation();
-        fillTrackPoint(cursor, indexes, location);
-        return location;
+  @Override
+  public void deleteTripStatisticsCheckpoints(long trackId, long minTrackPointId) {
+    String where = TripStatisticsCheckpointsColumns.TRACKID + "=?";
+    String[] whereArgs;
+    if (minTrackPointId >= 0) {
+      where += " AND " + TripStatisticsCheckpointsColumns.TRACKPOINTID + ">=?";
+      whereArgs = new String[] { Long.toString(trackId), Long.toString(minTrackPointId) };
+    } else {
+      whereArgs = new String[] { Long.toString(trackId) };
+    }
+    contentResolver.delete(TripStatisticsCheckpointsColumns.CONTENT_URI, where, whereArgs);
+  }
+
+  @Override
+  public void insertTrackPointLevelBlocks(List<TrackPointLevelBlock> blocks) {
+    if (blocks.isEmpty()) {
+      return;
+    }
+    ContentValues[] valuesArray = new ContentValues[blocks.size()];
+    for (int i = 0; i < valuesArray.length; i++) {
+      TrackPointLevelBlock block = blocks.get(i);
+      ContentValues values = new ContentValues();
+      values.put(TrackPointLevelsColumns.TRACKID, block.getTrackId());
+      values.put(TrackPointLevelsColumns.LEVEL, block.getLevel());
+      values.put(TrackPointLevelsColumns.STARTID, block.getStartId());
+      values.put(TrackPointLevelsColumns.STOPID, block.getStopId());
+      values.put(TrackPointLevelsColumns.COVEREDID, block.getCoveredId());
+      values.put(TrackPointLevelsColumns.NUMPOINTS, block.getNumPoints());
+      values.put(TrackPointLevelsColumns.DATA, block.getData());
+      valuesArray[i] = values;
+    }
+    contentResolver.bulkInsert(TrackPointLevelsColumns.CONTENT_URI, valuesArray);
+  }
+
+  @Override
+  public List<TrackPointLevelBlock> getTrackPointLevelBlocks(
+      long trackId, int level, long minStopId) {
+    String selection = TrackPointLevelsColumns.TRACKID + "=? AND " + TrackPointLevelsColumns.LEVEL
+        + "=? AND " + TrackPointLevelsColumns.STOPID + ">=?";
+    String[] selectionArgs = new String[] {
+        Long.toString(trackId), Integer.toString(level), Long.toString(minStopId) };
+    return getTrackPointLevelBlocks(
+        trackId, level, selection, selectionArgs, TrackPointLevelsColumns.STARTID);
+  }
+
+  @Override
+  public TrackPointLevelBlock getLastTrackPointLevelBlock(long trackId, int level) {
+    String selection = TrackPointLevelsColumns.TRACKID + "=? AND " + TrackPointLevelsColumns.LEVEL
+        + "=?";
+    String[] selectionArgs = new String[] { Long.toString(trackId), Integer.toString(level) };
+    List<TrackPointLevelBlock> blocks = getTrackPointLevelBlocks(trackId, level, selection,
+        selectionArgs, TrackPointLevelsColumns.STARTID + " DESC LIMIT 1");
+    return blocks.isEmpty() ? null : blocks.get(0);
+  }
+
+  @Override
+  public void deleteTrackPointLevels(long trackId) {
+    contentResolver.delete(TrackPointLevelsColumns.CONTENT_URI,
+        TrackPointLevelsColumns.TRACKID + "=?", new String[] { Long.toString(trackId) });
+  }
+
+  @Override
+  public Set<Long> getTrackIdsNear(double latitude, double longitude, double radius) {
+    long[] ranges = TrackCells.getCellRanges(latitude, longitude, radius);
+    StringBuilder selection = new StringBuilder();
+    for (int i = 0; i < ranges.length; i += 2) {
+      if (i > 0) {
+        selection.append(" OR ");
       }
+      selection.append("(" + TrackCellsColumns.CELL + " BETWEEN " + ranges[i] + " AND "
+          + ranges[i + 1] + ")");
+    }
 
-        @Override
-      public void close() {
-        if (cursor != null) {
-          cursor.close();
-          cursor = null;
+    Set<Long> trackIds = new HashSet<Long>();
+    Cursor cursor = null;
+    try {
+      cursor = contentResolver.query(TrackCellsColumns.CONTENT_URI,
+          new String[] { TrackCellsColumns.TRACKID }, selection.toString(), null, null);
+      if (cursor != null) {
+        while (cursor.moveToNext()) {
+          trackIds.add(cursor.getLong(0));
         }
       }
-
-        @Override
-      public void remove() {
-        throw new UnsupportedOperationException();
+    } finally {
+      if (cursor != null) {
+        cursor.close();
       }
-    };
+    }
+    return trackIds;
   }
 
-  @Override
-  public Uri insertTrackPoint(Location location, long trackId) {
-    return contentResolver.insert(
-        TrackPointsColumns.CONTENT_URI, createContentValues(location, trackId));
+  /**
+   * Gets the track point level blocks of a level of a track.
+   *
+   * @param trackId the track id
+   * @param level the level
+   * @param selection the selection
+   * @param selectionArgs the selection arguments
+   * @param sortOrder the sort order
+   */
+  private List<TrackPointLevelBlock> getTrackPointLevelBlocks(long trackId, int level,
+      String selection, String[] selectionArgs, String sortOrder) {
+    ArrayList<TrackPointLevelBlock> blocks = new ArrayList<TrackPointLevelBlock>();
+    String[] projection = new String[] { TrackPointLevelsColumns.STARTID,
+        TrackPointLevelsColumns.STOPID, TrackPointLevelsColumns.COVEREDID,
+        TrackPointLevelsColumns.NUMPOINTS, TrackPointLevelsColumns.DATA };
+    Cursor cursor = null;
+    try {
+      cursor = contentResolver.query(TrackPointLevelsColumns.CONTENT_URI, projection, selection,
+          selectionArgs, sortOrder);
+      if (cursor != null && cursor.moveToFirst()) {
+        do {
+          blocks.add(new TrackPointLevelBlock(trackId, level, cursor.getLong(0),
+              cursor.getLong(1), cursor.getLong(2), cursor.getInt(3), cursor.getBlob(4)));
+        } while (cursor.moveToNext());
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return blocks;
   }
 
   /**
@@ -1119,10 +1418,19 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     }
   }
 
-  private Location findTrackPointBy(String selection, String[] selectionArgs) {
+  /**
+   * Finds the first or the last track point matching a selection. Walks the
+   * {@link TrackPointsColumns#TRACKID_ID_INDEX} in id order and stops at the
+   * first match instead of computing a min/max subquery.
+   * 
+   * @param selection the selection
+   * @param selectionArgs the selection arguments
+   * @param last true to find the last track point, false to find the first
+   */
+  private Location findTrackPointBy(String selection, String[] selectionArgs, boolean last) {
     Cursor cursor = null;
     try {
-      cursor = getTrackPointCursor(null, selection, selectionArgs, TrackPointsColumns._ID);
+      cursor = getTrackPointCursor(null, selection, selectionArgs, getFirstRowSortOrder(last));
       if (cursor != null && cursor.moveToNext()) {
         return createTrackPoint(cursor);
       }
@@ -1134,6 +1442,135 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     return null;
   }
 
+  /**
+   * Finds the id of the first or the last track point matching a selection.
+   * Returns -1L if not found.
+   * 
+   * @param selection the selection
+   * @param selectionArgs the selection arguments
+   * @param last true to find the last track point id, false to find the first
+   */
+  private long findTrackPointIdBy(String selection, String[] selectionArgs, boolean last) {
+    Cursor cursor = null;
+    try {
+      cursor = getTrackPointCursor(new String[] { TrackPointsColumns._ID }, selection,
+          selectionArgs, getFirstRowSortOrder(last));
+      if (cursor != null && cursor.moveToFirst()) {
+        return cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID));
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return -1L;
+  }
+
+  /**
+   * Gets the sort order to only return the first or the last track point.
+   * 
+   * @param last true for the last track point, false for the first
+   */
+  private String getFirstRowSortOrder(boolean last) {
+    return TrackPointsColumns._ID + (last ? " DESC" : "") + " LIMIT 1";
+  }
+
+  /**
+   * Finds the first or the last compacted track point id of a track. Returns
+   * -1L if the track has no compacted track points.
+   * 
+   * @param trackId the track id
+   * @param last true to find the last track point id, false to find the first
+   */
+  private long findChunkTrackPointId(long trackId, boolean last) {
+    if (trackId < 0) {
+      return -1L;
+    }
+    String column = last ? TrackPointChunksColumns.STOPID : TrackPointChunksColumns.STARTID;
+    Cursor cursor = null;
+    try {
+      cursor = contentResolver.query(TrackPointChunksColumns.CONTENT_URI, new String[] { column },
+          TrackPointChunksColumns.TRACKID + "=?", new String[] { Long.toString(trackId) },
+          TrackPointChunksColumns.STARTID + (last ? " DESC" : "") + " LIMIT 1");
+      if (cursor != null && cursor.moveToFirst()) {
+        return cursor.getLong(cursor.getColumnIndexOrThrow(column));
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return -1L;
+  }
+
+  /**
+   * Finds the id of the last compacted track point of a track with a given
+   * time. Only decodes the chunks whose time range contains the time and the
+   * chunks compacted before the time ranges were stored. Returns -1L if not
+   * found.
+   * 
+   * @param trackId the track id
+   * @param time the time
+   */
+  private long findChunkTrackPointIdByTime(long trackId, long time) {
+    String timeArg = Long.toString(time);
+    TrackPointChunk chunk = new TrackPointChunk();
+    Cursor cursor = null;
+    try {
+      cursor = contentResolver.query(TrackPointChunksColumns.CONTENT_URI,
+          new String[] { TrackPointChunksColumns.DATA }, TrackPointChunksColumns.TRACKID
+              + "=? AND (" + TrackPointChunksColumns.MINTIME + " IS NULL OR ("
+              + TrackPointChunksColumns.MINTIME + "<=? AND " + TrackPointChunksColumns.MAXTIME
+              + ">=?))", new String[] { Long.toString(trackId), timeArg, timeArg },
+          TrackPointChunksColumns.STARTID + " DESC");
+      if (cursor == null) {
+        return -1L;
+      }
+      int dataIndex = cursor.getColumnIndexOrThrow(TrackPointChunksColumns.DATA);
+      while (cursor.moveToNext()) {
+        chunk.decode(cursor.getBlob(dataIndex));
+        for (int i = chunk.size() - 1; i >= 0; i--) {
+          if (chunk.getTime(i) == time) {
+            return chunk.getId(i);
+          }
+        }
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return -1L;
+  }
+
+  /**
+   * Finds the first or the last valid compacted track point of a track.
+   * Returns null if not found.
+   * 
+   * @param trackId the track id
+   * @param last true to find the last valid track point, false to find the
+   *          first
+   */
+  private Location findValidChunkTrackPoint(long trackId, boolean last) {
+    TrackPointCursor trackPointCursor = null;
+    try {
+      trackPointCursor = new ChunkTrackPointCursor(trackId, -1L, last);
+      while (trackPointCursor.moveToNext()) {
+        if (trackPointCursor.getLatitudeE6() <= MAX_LATITUDE) {
+          Location location = new MyTracksLocation("");
+          trackPointCursor.fill(location);
+          return location;
+        }
+      }
+    } finally {
+      if (trackPointCursor != null) {
+        trackPointCursor.close();
+      }
+    }
+    return null;
+  }
+
+
   /**
    * Gets a track point cursor.
    * 
@@ -1175,6 +1612,703 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     }
   }
 
+  /**
+   * A {@link TrackPointCursor} over the track points table rows of a track.
+   * Reads the rows in batches. While the caller reads a batch, the next batch
+   * is queried on {@link #PREFETCH_EXECUTOR}. The batch size starts at
+   * {@link #defaultCursorBatchSize}, doubles each time querying a batch takes
+   * longer than the caller reading the previous one, and is capped so that a
+   * batch of the observed row width fits in {@link #maxBatchBytes}. Only the
+   * query time counts, not the time a prefetch waits for a thread.
+   */
+  private class RowTrackPointCursor extends AbstractTrackPointCursor {
+
+    private final long trackId;
+    private final long minTrackPointId;
+    private final boolean descending;
+
+    private TrackPointBatch batch;
+    private Future<TrackPointBatch> nextBatch;
+    private int batchSize = defaultCursorBatchSize;
+    private int rowWidth = MIN_ROW_WIDTH;
+
+    // The time the caller started reading the current batch
+    private long batchStartNanos;
+
+    private Cursor cursor;
+    private CachedTrackPointsIndexes indexes;
+    private long lastTrackPointId = -1L;
+
+    /**
+     * Constructor.
+     * 
+     * @param trackId the track id
+     * @param startTrackPointId the starting track point id. -1L to ignore
+     * @param minTrackPointId only include track points with larger ids. -1L to
+     *          ignore
+     * @param descending true to sort the result in descending order
+     */
+    public RowTrackPointCursor(
+        long trackId, long startTrackPointId, long minTrackPointId, boolean descending) {
+      this.trackId = trackId;
+      this.minTrackPointId = minTrackPointId;
+      this.descending = descending;
+      setBatch(queryBatch(startTrackPointId, batchSize));
+    }
+
+    @Override
+    protected boolean advance() {
+      if (cursor == null) {
+        return false;
+      }
+      if (!cursor.moveToNext()) {
+        if (!batch.isFull()) {
+          return false;
+        }
+        TrackPointBatch next = takeNextBatch();
+        batch.close();
+        setBatch(next);
+        if (cursor == null || !cursor.moveToNext()) {
+          return false;
+        }
+      }
+      lastTrackPointId = cursor.getLong(indexes.idIndex);
+      return true;
+    }
+
+    @Override
+    public long getId() {
+      return lastTrackPointId;
+    }
+
+    @Override
+    public int getLatitudeE6() {
+      return cursor.getInt(indexes.latitudeIndex);
+    }
+
+    @Override
+    public int getLongitudeE6() {
+      return cursor.getInt(indexes.longitudeIndex);
+    }
+
+    @Override
+    public long getTimeMillis() {
+      return cursor.getLong(indexes.timeIndex);
+    }
+
+    @Override
+    public boolean hasAltitude() {
+      return !cursor.isNull(indexes.altitudeIndex);
+    }
+
+    @Override
+    public double getAltitude() {
+      return cursor.getFloat(indexes.altitudeIndex);
+    }
+
+    @Override
+    public boolean hasAccuracy() {
+      return !cursor.isNull(indexes.accuracyIndex);
+    }
+
+    @Override
+    public float getAccuracy() {
+      return cursor.getFloat(indexes.accuracyIndex);
+    }
+
+    @Override
+    public boolean hasSpeed() {
+      return !cursor.isNull(indexes.speedIndex);
+    }
+
+    @Override
+    public float getSpeed() {
+      return cursor.getFloat(indexes.speedIndex);
+    }
+
+    @Override
+    public boolean hasBearing() {
+      return !cursor.isNull(indexes.bearingIndex);
+    }
+
+    @Override
+    public float getBearing() {
+      return cursor.getFloat(indexes.bearingIndex);
+    }
+
+    @Override
+    public boolean hasSensorDataSet() {
+      return !cursor.isNull(indexes.sensorIndex);
+    }
+
+    @Override
+    protected byte[] getSensorData() {
+      return hasSensorDataSet() ? cursor.getBlob(indexes.sensorIndex) : null;
+    }
+
+    @Override
+    public void close() {
+      if (nextBatch != null) {
+        discard(nextBatch);
+        nextBatch = null;
+      }
+      if (batch != null) {
+        batch.close();
+        batch = null;
+      }
+      cursor = null;
+    }
+
+    /**
+     * Sets the current batch and starts prefetching the next one.
+     * 
+     * @param newBatch the new batch
+     */
+    private void setBatch(TrackPointBatch newBatch) {
+      batch = newBatch;
+      cursor = batch.cursor;
+      batchStartNanos = System.nanoTime();
+      if (cursor == null) {
+        return;
+      }
+      if (indexes == null) {
+        indexes = new CachedTrackPointsIndexes(cursor);
+      }
+      if (batch.isFull()) {
+        final long startTrackPointId = batch.lastTrackPointId + (descending ? -1 : 1);
+        final int size = batchSize;
+        nextBatch = PREFETCH_EXECUTOR.submit(new Callable<TrackPointBatch>() {
+            @Override
+          public TrackPointBatch call() {
+            return queryBatch(startTrackPointId, size);
+          }
+        });
+      }
+    }
+
+    /**
+     * Takes the prefetched batch, waiting for it if needed, and adapts the
+     * batch size for the batch after it.
+     */
+    private TrackPointBatch takeNextBatch() {
+      Future<TrackPointBatch> future = nextBatch;
+      nextBatch = null;
+      long readNanos = System.nanoTime() - batchStartNanos;
+      TrackPointBatch next;
+      try {
+        next = future.get();
+      } catch (InterruptedException e) {
+        // Let the caller handle the interrupt, read the batch on this thread
+        Thread.currentThread().interrupt();
+        discard(future);
+        return queryBatch(batch.lastTrackPointId + (descending ? -1 : 1), batchSize);
+      } catch (ExecutionException e) {
+        throw new RuntimeException("Unable to read track points", e.getCause());
+      }
+      if (next.rowWidth > 0) {
+        rowWidth = Math.max(MIN_ROW_WIDTH, (rowWidth + next.rowWidth) / 2);
+      }
+      if (next.queryNanos > readNanos) {
+        // Reading is faster than querying, larger batches spread the query cost
+        batchSize = Math.min(batchSize * 2, MAX_CURSOR_BATCH_SIZE);
+      }
+      batchSize = Math.max(1, Math.min(batchSize, maxBatchBytes / rowWidth));
+      Log.d(TAG, "Next track points batch size: " + batchSize);
+      return next;
+    }
+
+    /**
+     * Discards a prefetched batch.
+     * 
+     * @param future the future of the prefetched batch
+     */
+    private void discard(final Future<TrackPointBatch> future) {
+      if (future.cancel(false)) {
+        return;
+      }
+      // The prefetch is running, close the batch once it is done
+      PREFETCH_EXECUTOR.execute(new Runnable() {
+          @Override
+        public void run() {
+          try {
+            future.get().close();
+          } catch (Exception e) {
+            Log.w(TAG, "Unable to close prefetched track points.", e);
+          }
+        }
+      });
+    }
+
+    /**
+     * Queries a batch of rows. Can be called from any thread.
+     * 
+     * @param startTrackPointId the starting track point id
+     * @param size the batch size
+     */
+    private TrackPointBatch queryBatch(long startTrackPointId, int size) {
+      long startNanos = System.nanoTime();
+      Cursor batchCursor = getTrackPointCursor(
+          trackId, startTrackPointId, minTrackPointId, size, descending);
+      return new TrackPointBatch(batchCursor, size, startNanos);
+    }
+  }
+
+  /**
+   * A batch of track points table rows. Filled when created, so that a batch
+   * created on {@link #PREFETCH_EXECUTOR} is ready to read.
+   */
+  private static class TrackPointBatch {
+
+    public final Cursor cursor;
+    public final int size;
+    public final long lastTrackPointId;
+
+    // The sampled row width in bytes. 0 if unknown
+    public final int rowWidth;
+
+    // The time to query and fill the batch
+    public final long queryNanos;
+
+    /**
+     * Constructor.
+     * 
+     * @param cursor the cursor of the batch
+     * @param size the requested batch size
+     * @param startNanos the time the query started
+     */
+    public TrackPointBatch(Cursor cursor, int size, long startNanos) {
+      this.cursor = cursor;
+      this.size = size;
+      long lastId = -1L;
+      int width = 0;
+      if (cursor != null && cursor.moveToLast()) {
+        int idIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns._ID);
+        int sensorIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.SENSOR);
+        lastId = cursor.getLong(idIndex);
+        width = MIN_ROW_WIDTH
+            + (cursor.isNull(sensorIndex) ? 0 : cursor.getBlob(sensorIndex).length);
+        cursor.moveToPosition(-1);
+      }
+      this.lastTrackPointId = lastId;
+      this.rowWidth = width;
+      this.queryNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Returns true if the batch has as many rows as requested, in which case
+     * there may be more rows after it.
+     */
+    public boolean isFull() {
+      return cursor != null && cursor.getCount() == size && lastTrackPointId != -1L;
+    }
+
+    public void close() {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+
+  /**
+   * A {@link TrackPointCursor} over the compacted track points of a track.
+   * Reads {@link #CHUNK_CURSOR_BATCH_SIZE} chunks per query and decodes a
+   * chunk only when the cursor reaches it.
+   */
+  private class ChunkTrackPointCursor extends AbstractTrackPointCursor {
+
+    private final long trackId;
+    private final long startTrackPointId;
+    private final boolean descending;
+    private final TrackPointChunk chunk = new TrackPointChunk();
+
+    private Cursor cursor;
+    private int dataIndex;
+    private int startIdIndex;
+    private long lastChunkStartId = -1L;
+    private boolean done;
+
+    // Index of the current and the next track point in the decoded chunk
+    private int index = -1;
+    private int nextIndex;
+
+    public ChunkTrackPointCursor(long trackId, long startTrackPointId, boolean descending) {
+      this.trackId = trackId;
+      this.startTrackPointId = startTrackPointId;
+      this.descending = descending;
+    }
+
+    @Override
+    protected boolean advance() {
+      while (nextIndex < 0 || nextIndex >= chunk.size()) {
+        if (!nextChunk()) {
+          return false;
+        }
+      }
+      index = nextIndex;
+      nextIndex += descending ? -1 : 1;
+      return true;
+    }
+
+    @Override
+    public long getId() {
+      return index == -1 ? -1L : chunk.getId(index);
+    }
+
+    @Override
+    public int getLatitudeE6() {
+      return chunk.getLatitudeE6(index);
+    }
+
+    @Override
+    public int getLongitudeE6() {
+      return chunk.getLongitudeE6(index);
+    }
+
+    @Override
+    public long getTimeMillis() {
+      return chunk.getTime(index);
+    }
+
+    @Override
+    public boolean hasAltitude() {
+      return chunk.hasAltitude(index);
+    }
+
+    @Override
+    public double getAltitude() {
+      return chunk.getAltitude(index);
+    }
+
+    @Override
+    public boolean hasAccuracy() {
+      return chunk.hasAccuracy(index);
+    }
+
+    @Override
+    public float getAccuracy() {
+      return chunk.getAccuracy(index);
+    }
+
+    @Override
+    public boolean hasSpeed() {
+      return chunk.hasSpeed(index);
+    }
+
+    @Override
+    public float getSpeed() {
+      return chunk.getSpeed(index);
+    }
+
+    @Override
+    public boolean hasBearing() {
+      return chunk.hasBearing(index);
+    }
+
+    @Override
+    public float getBearing() {
+      return chunk.getBearing(index);
+    }
+
+    @Override
+    public boolean hasSensorDataSet() {
+      return chunk.getSensorData(index) != null;
+    }
+
+    @Override
+    protected byte[] getSensorData() {
+      return chunk.getSensorData(index);
+    }
+
+    @Override
+    public void close() {
+      if (cursor != null) {
+        cursor.close();
+        cursor = null;
+      }
+      done = true;
+    }
+
+    /**
+     * Decodes the next chunk. Returns false if there are no more chunks.
+     */
+    private boolean nextChunk() {
+      if (done) {
+        return false;
+      }
+      if (cursor == null || !cursor.moveToNext()) {
+        if (cursor != null && cursor.getCount() < CHUNK_CURSOR_BATCH_SIZE) {
+          close();
+          return false;
+        }
+        queryChunks();
+        if (cursor == null || !cursor.moveToNext()) {
+          close();
+          return false;
+        }
+      }
+      lastChunkStartId = cursor.getLong(startIdIndex);
+      chunk.decode(cursor.getBlob(dataIndex));
+
+      // Skip the track points before the starting track point id
+      nextIndex = descending ? chunk.size() - 1 : 0;
+      if (startTrackPointId >= 0) {
+        while (nextIndex >= 0 && nextIndex < chunk.size() && (descending
+            ? chunk.getId(nextIndex) > startTrackPointId
+            : chunk.getId(nextIndex) < startTrackPointId)) {
+          nextIndex += descending ? -1 : 1;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Queries the next batch of chunks.
+     */
+    private void queryChunks() {
+      if (cursor != null) {
+        cursor.close();
+      }
+      String selection = TrackPointChunksColumns.TRACKID + "=?";
+      List<String> selectionArgs = new ArrayList<String>();
+      selectionArgs.add(Long.toString(trackId));
+      if (lastChunkStartId != -1L) {
+        selection += " AND " + TrackPointChunksColumns.STARTID + (descending ? "<?" : ">?");
+        selectionArgs.add(Long.toString(lastChunkStartId));
+      }
+      if (startTrackPointId >= 0) {
+        selection += descending ? " AND " + TrackPointChunksColumns.STARTID + "<=?"
+            : " AND " + TrackPointChunksColumns.STOPID + ">=?";
+        selectionArgs.add(Long.toString(startTrackPointId));
+      }
+      String sortOrder = TrackPointChunksColumns.STARTID + (descending ? " DESC" : "") + " LIMIT "
+          + CHUNK_CURSOR_BATCH_SIZE;
+      cursor = contentResolver.query(TrackPointChunksColumns.CONTENT_URI, new String[] {
+          TrackPointChunksColumns.STARTID, TrackPointChunksColumns.DATA }, selection,
+          selectionArgs.toArray(new String[selectionArgs.size()]), sortOrder);
+      if (cursor != null) {
+        startIdIndex = cursor.getColumnIndexOrThrow(TrackPointChunksColumns.STARTID);
+        dataIndex = cursor.getColumnIndexOrThrow(TrackPointChunksColumns.DATA);
+      }
+    }
+  }
+
+  /**
+   * A {@link TrackPointCursor} returning the track points of one cursor, then
+   * the track points of another.
+   */
+  private static class SequenceTrackPointCursor extends AbstractTrackPointCursor {
+
+    private final TrackPointCursor first;
+    private final TrackPointCursor second;
+    private TrackPointCursor current;
+
+    public SequenceTrackPointCursor(TrackPointCursor first, TrackPointCursor second) {
+      this.first = first;
+      this.second = second;
+      this.current = first;
+    }
+
+    @Override
+    protected boolean advance() {
+      if (current == first) {
+        if (first.moveToNext()) {
+          return true;
+        }
+        current = second;
+      }
+      return second.moveToNext();
+    }
+
+    @Override
+    protected byte[] getSensorData() {
+      return getSensorData(current);
+    }
+
+    @Override
+    public long getId() {
+      return current.getId();
+    }
+
+    @Override
+    public int getLatitudeE6() {
+      return current.getLatitudeE6();
+    }
+
+    @Override
+    public int getLongitudeE6() {
+      return current.getLongitudeE6();
+    }
+
+    @Override
+    public long getTimeMillis() {
+      return current.getTimeMillis();
+    }
+
+    @Override
+    public boolean isValid() {
+      return current.isValid();
+    }
+
+    @Override
+    public boolean hasAltitude() {
+      return current.hasAltitude();
+    }
+
+    @Override
+    public double getAltitude() {
+      return current.getAltitude();
+    }
+
+    @Override
+    public boolean hasAccuracy() {
+      return current.hasAccuracy();
+    }
+
+    @Override
+    public float getAccuracy() {
+      return current.getAccuracy();
+    }
+
+    @Override
+    public boolean hasSpeed() {
+      return current.hasSpeed();
+    }
+
+    @Override
+    public float getSpeed() {
+      return current.getSpeed();
+    }
+
+    @Override
+    public boolean hasBearing() {
+      return current.hasBearing();
+    }
+
+    @Override
+    public float getBearing() {
+      return current.getBearing();
+    }
+
+    @Override
+    public boolean hasSensorDataSet() {
+      return current.hasSensorDataSet();
+    }
+
+    @Override
+    public SensorDataSet getSensorDataSet() {
+      return current.getSensorDataSet();
+    }
+
+    @Override
+    public int getHeartRate() {
+      return current.getHeartRate();
+    }
+
+    @Override
+    public int getCadence() {
+      return current.getCadence();
+    }
+
+    @Override
+    public int getPower() {
+      return current.getPower();
+    }
+
+    @Override
+    public void fill(Location location) {
+      current.fill(location);
+    }
+
+    @Override
+    public Location getLocation() {
+      return current.getLocation();
+    }
+
+    @Override
+    public void close() {
+      first.close();
+      second.close();
+    }
+  }
+
+  /**
+   * A {@link LocationIterator} creating a location for each track point of a
+   * {@link TrackPointCursor}.
+   */
+  private static class TrackPointCursorLocationIterator implements LocationIterator {
+
+    private final TrackPointCursor trackPointCursor;
+    private final LocationFactory locationFactory;
+
+    // True if the cursor has been moved to the track point returned by next()
+    private boolean hasPeeked;
+    private boolean hasNextTrackPoint;
+    private long lastTrackPointId = -1L;
+
+    public TrackPointCursorLocationIterator(
+        TrackPointCursor trackPointCursor, LocationFactory locationFactory) {
+      this.trackPointCursor = trackPointCursor;
+      this.locationFactory = locationFactory;
+    }
+
+    @Override
+    public long getLocationId() {
+      return lastTrackPointId;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (!hasPeeked) {
+        hasNextTrackPoint = trackPointCursor.moveToNext();
+        hasPeeked = true;
+      }
+      return hasNextTrackPoint;
+    }
+
+    @Override
+    public Location next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      hasPeeked = false;
+      lastTrackPointId = trackPointCursor.getId();
+      Location location = locationFactory.createLocation();
+      trackPointCursor.fill(location);
+      return location;
+    }
+
+    @Override
+    public void close() {
+      trackPointCursor.close();
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Sets the chunk size for {@link #compactTrackPoints(long)}. For testing
+   * purpose.
+   * 
+   * @param chunkSize the chunk size
+   */
+  void setChunkSize(int chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Sets the memory budget of a track points batch. A track point cursor holds
+   * at most two batches, the one being read and the prefetched one, so this
+   * bounds its memory use on tracks with large sensor data.
+   * 
+   * @param maxBatchBytes the maximum number of bytes per batch
+   */
+  public void setMaxBatchBytes(int maxBatchBytes) {
+    this.maxBatchBytes = maxBatchBytes;
+  }
+
   /**
    * Sets the default cursor batch size. For testing purpose.
    * 
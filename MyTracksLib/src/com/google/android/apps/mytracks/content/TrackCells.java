@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+/**
+ * The cells of the {@link TrackCellsColumns} spatial index. The latitude and
+ * the longitude are each quantized to {@link #CELL_BITS} bits and the cell code
+ * interleaves their bits, so the cells sharing a code prefix form a coarser
+ * cell and a coarser cell is a range of codes. A cell is about 300m high and
+ * at most 600m wide.
+ * <p>
+ * Unlike an R*Tree virtual table, the index needs no SQLite extension and is
+ * queried with plain ranges over an ordinary index.
+ */
+public class TrackCells {
+
+  /**
+   * Number of bits of the latitude and of the longitude in a cell code.
+   */
+  public static final int CELL_BITS = 16;
+
+  // Maximum number of ranges covering a query
+  static final int MAX_RANGES = 9;
+
+  private static final long CELLS_PER_AXIS = 1L << CELL_BITS;
+  private static final double METERS_PER_DEGREE = 111320.0;
+
+  // Below this cosine of the latitude, a query spans all the longitudes
+  private static final double MIN_COS = 0.01;
+
+  private TrackCells() {}
+
+  /**
+   * Returns true if a track point is a valid location, i.e., not a segment
+   * split.
+   * 
+   * @param latitudeE6 the latitude in micro degrees
+   * @param longitudeE6 the longitude in micro degrees
+   */
+  public static boolean isValid(int latitudeE6, int longitudeE6) {
+    return Math.abs(latitudeE6) <= 90000000 && Math.abs(longitudeE6) <= 180000000;
+  }
+
+  /**
+   * Gets the cell code of a valid location.
+   * 
+   * @param latitudeE6 the latitude in micro degrees
+   * @param longitudeE6 the longitude in micro degrees
+   */
+  public static long getCell(int latitudeE6, int longitudeE6) {
+    return interleave(getX(longitudeE6), getY(latitudeE6));
+  }
+
+  /**
+   * Gets the cell code ranges covering a circle. The ranges are returned as
+   * pairs of first and last cell codes. They cover at most
+   * {@link #MAX_RANGES} coarse cells on each side of the antimeridian, so they
+   * can cover more than the circle.
+   * 
+   * @param latitude the latitude of the center
+   * @param longitude the longitude of the center
+   * @param radius the radius in meters
+   */
+  public static long[] getCellRanges(double latitude, double longitude, double radius) {
+    double deltaLatitude = radius / METERS_PER_DEGREE;
+    double cos = Math.cos(Math.toRadians(latitude));
+    double deltaLongitude = cos > MIN_COS ? deltaLatitude / cos : 180.0;
+    int minY = getY(toE6(Math.max(-90.0, latitude - deltaLatitude)));
+    int maxY = getY(toE6(Math.min(90.0, latitude + deltaLatitude)));
+    int minX = getX(-180000000);
+    int maxX = getX(180000000);
+    if (deltaLongitude >= 180.0) {
+      return getCellRanges(minX, maxX, minY, maxY);
+    }
+
+    // Split a circle crossing the antimeridian in a western and an eastern part
+    double west = longitude - deltaLongitude;
+    double east = longitude + deltaLongitude;
+    if (west < -180.0) {
+      return concat(getCellRanges(getX(toE6(west + 360.0)), maxX, minY, maxY),
+          getCellRanges(minX, getX(toE6(east)), minY, maxY));
+    }
+    if (east > 180.0) {
+      return concat(getCellRanges(getX(toE6(west)), maxX, minY, maxY),
+          getCellRanges(minX, getX(toE6(east - 360.0)), minY, maxY));
+    }
+    return getCellRanges(getX(toE6(west)), getX(toE6(east)), minY, maxY);
+  }
+
+  /**
+   * Gets the cell code ranges covering a rectangle of cells, coarsened to at
+   * most {@link #MAX_RANGES} cells.
+   * 
+   * @param minX the min quantized longitude
+   * @param maxX the max quantized longitude
+   * @param minY the min quantized latitude
+   * @param maxY the max quantized latitude
+   */
+  private static long[] getCellRanges(int minX, int maxX, int minY, int maxY) {
+    // Coarsen the cells until few of them cover the rectangle
+    int shift = 0;
+    while ((long) ((maxX >> shift) - (minX >> shift) + 1)
+        * ((maxY >> shift) - (minY >> shift) + 1) > MAX_RANGES) {
+      shift++;
+    }
+    minX >>= shift;
+    maxX >>= shift;
+    minY >>= shift;
+    maxY >>= shift;
+
+    long[] ranges = new long[2 * (maxX - minX + 1) * (maxY - minY + 1)];
+    int index = 0;
+    for (int y = minY; y <= maxY; y++) {
+      for (int x = minX; x <= maxX; x++) {
+        long prefix = interleave(x, y);
+        ranges[index++] = prefix << (2 * shift);
+        ranges[index++] = ((prefix + 1) << (2 * shift)) - 1;
+      }
+    }
+    return ranges;
+  }
+
+  private static long[] concat(long[] first, long[] second) {
+    long[] result = new long[first.length + second.length];
+    System.arraycopy(first, 0, result, 0, first.length);
+    System.arraycopy(second, 0, result, first.length, second.length);
+    return result;
+  }
+
+  /**
+   * Gets the quantized longitude.
+   * 
+   * @param longitudeE6 the longitude in micro degrees
+   */
+  private static int getX(int longitudeE6) {
+    return (int) ((longitudeE6 + 180000000L) * CELLS_PER_AXIS / 360000001L);
+  }
+
+  /**
+   * Gets the quantized latitude.
+   * 
+   * @param latitudeE6 the latitude in micro degrees
+   */
+  private static int getY(int latitudeE6) {
+    return (int) ((latitudeE6 + 90000000L) * CELLS_PER_AXIS / 180000001L);
+  }
+
+  private static int toE6(double degrees) {
+    return (int) (degrees * 1E6);
+  }
+
+  /**
+   * Interleaves the bits of the quantized longitude and latitude.
+   */
+  private static long interleave(int x, int y) {
+    return spread(x) | (spread(y) << 1);
+  }
+
+  /**
+   * Spreads the low 16 bits of a value to the even bits.
+   */
+  private static long spread(int value) {
+    long bits = value & 0xFFFFL;
+    bits = (bits | (bits << 8)) & 0x00FF00FFL;
+    bits = (bits | (bits << 4)) & 0x0F0F0F0FL;
+    bits = (bits | (bits << 2)) & 0x33333333L;
+    bits = (bits | (bits << 1)) & 0x55555555L;
+    return bits;
+  }
+}
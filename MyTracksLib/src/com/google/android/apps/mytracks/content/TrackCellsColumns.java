@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import static com.google.android.apps.mytracks.content.ContentTypeIds.LONG_TYPE_ID;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Constants for the track cells table, a spatial index of the tracks. Each row
+ * records that a track passes through a cell, see {@link TrackCells}. The rows
+ * are maintained by the provider when inserting track points. A track created
+ * before the table has all its cells once it has an {@link #INDEXED_CELL} row.
+ */
+public interface TrackCellsColumns extends BaseColumns {
+
+  public static final String TABLE_NAME = "trackcells";
+  public static final Uri CONTENT_URI = Uri.parse(
+      "content://com.google.android.maps.mytracks/trackcells");
+  public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.trackcell";
+
+  // Columns
+  public static final String TRACKID = "trackid"; // track id
+  public static final String CELL = "cell"; // cell code
+
+  // The cell of the row marking a track as having all its cells
+  public static final long INDEXED_CELL = -1L;
+
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " ("
+      + _ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+      + TRACKID + " INTEGER, "
+      + CELL + " INTEGER"
+      + ");";
+
+  /*
+   * Index for looking up the tracks of cell ranges. Unique so that a track
+   * passing through a cell again adds no row.
+   */
+  public static final String CELL_TRACKID_INDEX = "trackcells_cell_trackid_index";
+  public static final String CREATE_CELL_TRACKID_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS "
+      + CELL_TRACKID_INDEX + " ON " + TABLE_NAME + "(" + CELL + ", " + TRACKID + ");";
+
+  /*
+   * Index for deleting the cells of a track.
+   */
+  public static final String TRACKID_INDEX = "trackcells_trackid_index";
+  public static final String CREATE_TRACKID_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + TRACKID_INDEX + " ON " + TABLE_NAME + "(" + TRACKID + ");";
+
+  public static final String[] COLUMNS = {
+      _ID,
+      TRACKID,
+      CELL
+   };
+
+   public static final byte[] COLUMN_TYPES = {
+       LONG_TYPE_ID, // id
+       LONG_TYPE_ID, // track id
+       LONG_TYPE_ID // cell
+   };
+}
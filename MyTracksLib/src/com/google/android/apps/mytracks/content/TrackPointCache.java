@@ -0,0 +1,531 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
+
+import android.location.Location;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A process-wide cache of decoded track points. For each track, caches the
+ * track points read from one starting track point id up to the last track
+ * point read. Track points are appended as they are read from the database, so
+ * a track being recorded stays cached. The sensor data is kept serialized and
+ * only parsed when read. Entries are evicted in least recently used order when
+ * the estimated size of the cached track points exceeds the limit.
+ * <p>
+ * Track point ids only increase, so inserting track points does not
+ * invalidate the cache. Deleting or updating track points must call
+ * {@link #invalidateAll()}.
+ */
+public class TrackPointCache {
+
+  // About 85000 track points without sensor data
+  private static final int MAX_CACHED_BYTES = 4 * 1024 * 1024;
+  private static final int INITIAL_CAPACITY = 256;
+
+  // Size of the columns of one cached track point, excluding its sensor data
+  static final int POINT_BYTES = 49;
+
+  // Size of the array holding the sensor data of one track point, excluding
+  // the sensor data
+  static final int SENSOR_DATA_OVERHEAD_BYTES = 16;
+
+  private static final int HAS_ALTITUDE = 1;
+  private static final int HAS_ACCURACY = 1 << 1;
+  private static final int HAS_SPEED = 1 << 2;
+  private static final int HAS_BEARING = 1 << 3;
+
+  private static TrackPointCache instance = new TrackPointCache(MAX_CACHED_BYTES);
+
+  private final int maxCachedBytes;
+
+  // Entries in least recently used order. Guarded by this.
+  private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<Long, Entry>(
+      16, 0.75f, true);
+  private int numCachedPoints;
+  private int numCachedBytes;
+  private int hitCount;
+  private int missCount;
+
+  /**
+   * Gets the process-wide instance.
+   */
+  public static TrackPointCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Constructor. Package-private for testing.
+   * 
+   * @param maxCachedBytes the maximum estimated size of the cached track
+   *          points
+   */
+  TrackPointCache(int maxCachedBytes) {
+    this.maxCachedBytes = maxCachedBytes;
+  }
+
+  /**
+   * Opens a {@link TrackPointCursor} for the track points of a track in
+   * ascending order. The cached track points are returned first, then the
+   * remaining track points are read from the database and added to the cache.
+   * The caller must close the cursor.
+   * 
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param trackId the track id
+   * @param startTrackPointId the starting track point id. -1L to ignore
+   */
+  public TrackPointCursor openTrackPointCursor(
+      MyTracksProviderUtils myTracksProviderUtils, long trackId, long startTrackPointId) {
+    long startId = Math.max(0L, startTrackPointId);
+    synchronized (this) {
+      Entry entry = entries.get(trackId);
+      if (entry != null && startId >= entry.startId && startId <= entry.endId + 1) {
+        int index = entry.getIndex(startId);
+        if (index < entry.size) {
+          hitCount++;
+        }
+        return new CachedTrackPointCursor(myTracksProviderUtils, entry, index);
+      }
+      missCount++;
+      if (entry == null || startId < entry.startId) {
+        // Cache the track points from startId on
+        if (entry != null) {
+          remove(entry);
+        }
+        entry = new Entry(trackId, startId);
+        entries.put(trackId, entry);
+        return new CachedTrackPointCursor(myTracksProviderUtils, entry, 0);
+      }
+    }
+    // A later part of a track already cached from an earlier id, not cached
+    return myTracksProviderUtils.openTrackPointCursor(trackId, startId, false);
+  }
+
+  /**
+   * Invalidates all the cached track points.
+   */
+  public synchronized void invalidateAll() {
+    for (Entry entry : entries.values()) {
+      entry.removed = true;
+    }
+    entries.clear();
+    numCachedPoints = 0;
+    numCachedBytes = 0;
+  }
+
+  /**
+   * Gets the number of cursors starting with cached track points.
+   */
+  public synchronized int getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Gets the number of cursors whose starting track point was not cached.
+   * Cursors only reading track points added after the cached ones are neither
+   * hits nor misses.
+   */
+  public synchronized int getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * Gets the number of cached track points.
+   */
+  public synchronized int getNumCachedPoints() {
+    return numCachedPoints;
+  }
+
+  /**
+   * Gets the estimated size of the cached track points in bytes.
+   */
+  public synchronized int getNumCachedBytes() {
+    return numCachedBytes;
+  }
+
+  /**
+   * Appends the current track point of a cursor to an entry. Returns false if
+   * the entry was removed or if another cursor appended to the entry since
+   * the track point with id previousId.
+   * 
+   * @param entry the entry
+   * @param previousId the id of the track point preceding the current one
+   * @param trackPointCursor the cursor
+   */
+  private synchronized boolean append(
+      Entry entry, long previousId, TrackPointCursor trackPointCursor) {
+    if (entry.removed || entry.endId != previousId) {
+      return false;
+    }
+    numCachedBytes += entry.add(trackPointCursor);
+    numCachedPoints++;
+    if (numCachedBytes > maxCachedBytes) {
+      Iterator<Entry> iterator = entries.values().iterator();
+      while (numCachedBytes > maxCachedBytes && iterator.hasNext()) {
+        Entry eldest = iterator.next();
+        if (eldest != entry) {
+          iterator.remove();
+          eldest.removed = true;
+          numCachedPoints -= eldest.size;
+          numCachedBytes -= eldest.bytes;
+        }
+      }
+      if (numCachedBytes > maxCachedBytes) {
+        // The track alone is too long to cache
+        remove(entry);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Removes an entry. Must be called while holding the lock.
+   * 
+   * @param entry the entry
+   */
+  private void remove(Entry entry) {
+    entries.remove(entry.trackId);
+    entry.removed = true;
+    numCachedPoints -= entry.size;
+    numCachedBytes -= entry.bytes;
+  }
+
+  /**
+   * The cached track points of a track, stored column by column. The track
+   * points with ids from startId to endId are cached.
+   */
+  private static class Entry {
+    private final long trackId;
+    private final long startId;
+    private long endId;
+    private boolean removed;
+
+    private int size;
+    private int bytes;
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private long[] times = new long[INITIAL_CAPACITY];
+    private int[] latitudes = new int[INITIAL_CAPACITY];
+    private int[] longitudes = new int[INITIAL_CAPACITY];
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+    private double[] altitudes = new double[INITIAL_CAPACITY];
+    private float[] accuracies = new float[INITIAL_CAPACITY];
+    private float[] speeds = new float[INITIAL_CAPACITY];
+    private float[] bearings = new float[INITIAL_CAPACITY];
+    private byte[][] sensorData = new byte[INITIAL_CAPACITY][];
+
+    public Entry(long trackId, long startId) {
+      this.trackId = trackId;
+      this.startId = startId;
+      this.endId = startId - 1;
+    }
+
+    /**
+     * Gets the index of the first cached track point with an id greater than
+     * or equal to a track point id.
+     * 
+     * @param trackPointId the track point id
+     */
+    public int getIndex(long trackPointId) {
+      int low = 0;
+      int high = size;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (ids[middle] < trackPointId) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+
+    /**
+     * Adds the current track point of a cursor and returns its estimated size.
+     * The arrays are replaced, never modified below size, so cursors can read
+     * a snapshot without the lock.
+     * 
+     * @param trackPointCursor the cursor
+     */
+    public int add(TrackPointCursor trackPointCursor) {
+      if (size == ids.length) {
+        grow();
+      }
+      int flag = 0;
+      if (trackPointCursor.hasAltitude()) {
+        flag |= HAS_ALTITUDE;
+        altitudes[size] = trackPointCursor.getAltitude();
+      }
+      if (trackPointCursor.hasAccuracy()) {
+        flag |= HAS_ACCURACY;
+        accuracies[size] = trackPointCursor.getAccuracy();
+      }
+      if (trackPointCursor.hasSpeed()) {
+        flag |= HAS_SPEED;
+        speeds[size] = trackPointCursor.getSpeed();
+      }
+      if (trackPointCursor.hasBearing()) {
+        flag |= HAS_BEARING;
+        bearings[size] = trackPointCursor.getBearing();
+      }
+      flags[size] = (byte) flag;
+      ids[size] = trackPointCursor.getId();
+      times[size] = trackPointCursor.getTimeMillis();
+      latitudes[size] = trackPointCursor.getLatitudeE6();
+      longitudes[size] = trackPointCursor.getLongitudeE6();
+      byte[] data = trackPointCursor.hasSensorDataSet()
+          ? AbstractTrackPointCursor.getSensorData(trackPointCursor) : null;
+      sensorData[size] = data;
+      endId = ids[size];
+      size++;
+      int pointBytes = POINT_BYTES
+          + (data != null ? SENSOR_DATA_OVERHEAD_BYTES + data.length : 0);
+      bytes += pointBytes;
+      return pointBytes;
+    }
+
+    /**
+     * Doubles the capacity.
+     */
+    private void grow() {
+      int capacity = size * 2;
+      long[] newIds = new long[capacity];
+      System.arraycopy(ids, 0, newIds, 0, size);
+      ids = newIds;
+      long[] newTimes = new long[capacity];
+      System.arraycopy(times, 0, newTimes, 0, size);
+      times = newTimes;
+      int[] newLatitudes = new int[capacity];
+      System.arraycopy(latitudes, 0, newLatitudes, 0, size);
+      latitudes = newLatitudes;
+      int[] newLongitudes = new int[capacity];
+      System.arraycopy(longitudes, 0, newLongitudes, 0, size);
+      longitudes = newLongitudes;
+      byte[] newFlags = new byte[capacity];
+      System.arraycopy(flags, 0, newFlags, 0, size);
+      flags = newFlags;
+      double[] newAltitudes = new double[capacity];
+      System.arraycopy(altitudes, 0, newAltitudes, 0, size);
+      altitudes = newAltitudes;
+      float[] newAccuracies = new float[capacity];
+      System.arraycopy(accuracies, 0, newAccuracies, 0, size);
+      accuracies = newAccuracies;
+      float[] newSpeeds = new float[capacity];
+      System.arraycopy(speeds, 0, newSpeeds, 0, size);
+      speeds = newSpeeds;
+      float[] newBearings = new float[capacity];
+      System.arraycopy(bearings, 0, newBearings, 0, size);
+      bearings = newBearings;
+      byte[][] newSensorData = new byte[capacity][];
+      System.arraycopy(sensorData, 0, newSensorData, 0, size);
+      sensorData = newSensorData;
+    }
+  }
+
+  /**
+   * A {@link TrackPointCursor} returning a snapshot of the cached track points
+   * of an entry, then the following track points from the database.
+   */
+  private class CachedTrackPointCursor extends AbstractTrackPointCursor {
+
+    private final MyTracksProviderUtils myTracksProviderUtils;
+    private final Entry entry;
+
+    // Snapshot of the entry, read while holding the lock
+    private final int size;
+    private final long endId;
+    private final long[] ids;
+    private final long[] times;
+    private final int[] latitudes;
+    private final int[] longitudes;
+    private final byte[] flags;
+    private final double[] altitudes;
+    private final float[] accuracies;
+    private final float[] speeds;
+    private final float[] bearings;
+    private final byte[][] sensorData;
+
+    private int index;
+    private TrackPointCursor cursor;
+    private boolean recording = true;
+    private long lastRecordedId;
+
+    // Must be called while holding the lock
+    public CachedTrackPointCursor(
+        MyTracksProviderUtils myTracksProviderUtils, Entry entry, int startIndex) {
+      this.myTracksProviderUtils = myTracksProviderUtils;
+      this.entry = entry;
+      size = entry.size;
+      endId = entry.endId;
+      ids = entry.ids;
+      times = entry.times;
+      latitudes = entry.latitudes;
+      longitudes = entry.longitudes;
+      flags = entry.flags;
+      altitudes = entry.altitudes;
+      accuracies = entry.accuracies;
+      speeds = entry.speeds;
+      bearings = entry.bearings;
+      sensorData = entry.sensorData;
+      index = startIndex - 1;
+      lastRecordedId = endId;
+    }
+
+    @Override
+    protected boolean advance() {
+      if (cursor == null) {
+        if (index + 1 < size) {
+          index++;
+          return true;
+        }
+        index = size;
+        cursor = myTracksProviderUtils.openTrackPointCursor(entry.trackId, endId + 1, false);
+      }
+      if (!cursor.moveToNext()) {
+        return false;
+      }
+      if (recording) {
+        recording = append(entry, lastRecordedId, cursor);
+        lastRecordedId = cursor.getId();
+      }
+      return true;
+    }
+
+    @Override
+    public long getId() {
+      if (cursor != null) {
+        return cursor.getId();
+      }
+      return index == -1 ? -1L : ids[index];
+    }
+
+    @Override
+    public int getLatitudeE6() {
+      return cursor != null ? cursor.getLatitudeE6() : latitudes[index];
+    }
+
+    @Override
+    public int getLongitudeE6() {
+      return cursor != null ? cursor.getLongitudeE6() : longitudes[index];
+    }
+
+    @Override
+    public long getTimeMillis() {
+      return cursor != null ? cursor.getTimeMillis() : times[index];
+    }
+
+    @Override
+    public boolean isValid() {
+      return cursor != null ? cursor.isValid() : super.isValid();
+    }
+
+    @Override
+    public boolean hasAltitude() {
+      return cursor != null ? cursor.hasAltitude() : (flags[index] & HAS_ALTITUDE) != 0;
+    }
+
+    @Override
+    public double getAltitude() {
+      return cursor != null ? cursor.getAltitude() : altitudes[index];
+    }
+
+    @Override
+    public boolean hasAccuracy() {
+      return cursor != null ? cursor.hasAccuracy() : (flags[index] & HAS_ACCURACY) != 0;
+    }
+
+    @Override
+    public float getAccuracy() {
+      return cursor != null ? cursor.getAccuracy() : accuracies[index];
+    }
+
+    @Override
+    public boolean hasSpeed() {
+      return cursor != null ? cursor.hasSpeed() : (flags[index] & HAS_SPEED) != 0;
+    }
+
+    @Override
+    public float getSpeed() {
+      return cursor != null ? cursor.getSpeed() : speeds[index];
+    }
+
+    @Override
+    public boolean hasBearing() {
+      return cursor != null ? cursor.hasBearing() : (flags[index] & HAS_BEARING) != 0;
+    }
+
+    @Override
+    public float getBearing() {
+      return cursor != null ? cursor.getBearing() : bearings[index];
+    }
+
+    @Override
+    public boolean hasSensorDataSet() {
+      return cursor != null ? cursor.hasSensorDataSet() : sensorData[index] != null;
+    }
+
+    @Override
+    public SensorDataSet getSensorDataSet() {
+      return cursor != null ? cursor.getSensorDataSet() : super.getSensorDataSet();
+    }
+
+    @Override
+    protected byte[] getSensorData() {
+      return cursor != null ? AbstractTrackPointCursor.getSensorData(cursor) : sensorData[index];
+    }
+
+    @Override
+    public int getHeartRate() {
+      return cursor != null ? cursor.getHeartRate() : super.getHeartRate();
+    }
+
+    @Override
+    public int getCadence() {
+      return cursor != null ? cursor.getCadence() : super.getCadence();
+    }
+
+    @Override
+    public int getPower() {
+      return cursor != null ? cursor.getPower() : super.getPower();
+    }
+
+    @Override
+    public void fill(Location location) {
+      if (cursor != null) {
+        cursor.fill(location);
+      } else {
+        super.fill(location);
+      }
+    }
+
+    @Override
+    public Location getLocation() {
+      return cursor != null ? cursor.getLocation() : super.getLocation();
+    }
+
+    @Override
+    public void close() {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,522 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import android.location.Location;
+import android.util.Log;
+
+/**
+ * A block of consecutive track points encoded column by column. Ids are stored
+ * as varint deltas, times as zig-zag varint delta-of-deltas, latitudes and
+ * longitudes as zig-zag varint deltas of the 1E6 integer values stored in the
+ * track points table. Altitude, accuracy and bearing are quantized to 0.1 and
+ * speed to 0.01. Sensor data is stored as is. Latitudes and longitudes are
+ * rounded, not truncated, so track points read from the track points table are
+ * encoded without loss.
+ * <p>
+ * An instance decodes one chunk at a time into reusable primitive arrays.
+ */
+public class TrackPointChunk {
+
+  private static final String TAG = TrackPointChunk.class.getSimpleName();
+
+  private static final int VERSION = 1;
+
+  private static final int HAS_ALTITUDE = 1;
+  private static final int HAS_ACCURACY = 1 << 1;
+  private static final int HAS_SPEED = 1 << 2;
+  private static final int HAS_BEARING = 1 << 3;
+  private static final int HAS_SENSOR = 1 << 4;
+
+  private static final double ALTITUDE_SCALE = 10.0;
+  private static final double ACCURACY_SCALE = 10.0;
+  private static final double SPEED_SCALE = 100.0;
+  private static final double BEARING_SCALE = 10.0;
+
+  private int size;
+  private long[] ids = new long[0];
+  private long[] times = new long[0];
+  private int[] latitudes = new int[0];
+  private int[] longitudes = new int[0];
+  private byte[] flags = new byte[0];
+  private double[] altitudes = new double[0];
+  private float[] accuracies = new float[0];
+  private float[] speeds = new float[0];
+  private float[] bearings = new float[0];
+  private byte[][] sensors = new byte[0][];
+
+  /**
+   * Encodes track points.
+   *
+   * @param trackPointIds the track point ids, in ascending order
+   * @param locations the locations
+   * @param length the number of track points to encode
+   */
+  public static byte[] encode(long[] trackPointIds, Location[] locations, int length) {
+    ByteWriter writer = new ByteWriter(length * 16);
+    writer.writeVarint(VERSION);
+    writer.writeVarint(length);
+
+    long previous = 0L;
+    for (int i = 0; i < length; i++) {
+      writer.writeVarint(trackPointIds[i] - previous);
+      previous = trackPointIds[i];
+    }
+
+    previous = 0L;
+    long previousDelta = 0L;
+    for (int i = 0; i < length; i++) {
+      long time = locations[i].getTime();
+      long delta = time - previous;
+      writer.writeSignedVarint(delta - previousDelta);
+      previous = time;
+      previousDelta = delta;
+    }
+
+    previous = 0L;
+    for (int i = 0; i < length; i++) {
+      int latitude = (int) Math.round(locations[i].getLatitude() * 1E6);
+      writer.writeSignedVarint(latitude - previous);
+      previous = latitude;
+    }
+
+    previous = 0L;
+    for (int i = 0; i < length; i++) {
+      int longitude = (int) Math.round(locations[i].getLongitude() * 1E6);
+      writer.writeSignedVarint(longitude - previous);
+      previous = longitude;
+    }
+
+    for (int i = 0; i < length; i++) {
+      writer.writeByte(getFlags(locations[i]));
+    }
+
+    previous = 0L;
+    for (int i = 0; i < length; i++) {
+      if (locations[i].hasAltitude()) {
+        long altitude = Math.round(locations[i].getAltitude() * ALTITUDE_SCALE);
+        writer.writeSignedVarint(altitude - previous);
+        previous = altitude;
+      }
+    }
+    for (int i = 0; i < length; i++) {
+      if (locations[i].hasAccuracy()) {
+        writer.writeSignedVarint(Math.round(locations[i].getAccuracy() * ACCURACY_SCALE));
+      }
+    }
+    for (int i = 0; i < length; i++) {
+      if (locations[i].hasSpeed()) {
+        writer.writeSignedVarint(Math.round(locations[i].getSpeed() * SPEED_SCALE));
+      }
+    }
+    for (int i = 0; i < length; i++) {
+      if (locations[i].hasBearing()) {
+        writer.writeSignedVarint(Math.round(locations[i].getBearing() * BEARING_SCALE));
+      }
+    }
+    for (int i = 0; i < length; i++) {
+      SensorDataSet sensorDataSet = getSensorDataSet(locations[i]);
+      if (sensorDataSet != null) {
+        byte[] bytes = sensorDataSet.toByteArray();
+        writer.writeVarint(bytes.length);
+        writer.writeBytes(bytes);
+      }
+    }
+    return writer.toByteArray();
+  }
+
+  /**
+   * Decodes a chunk, replacing the previously decoded chunk.
+   *
+   * @param data the encoded chunk
+   */
+  public void decode(byte[] data) {
+    ByteReader reader = new ByteReader(data);
+    int version = (int) reader.readVarint();
+    if (version != VERSION) {
+      throw new IllegalArgumentException("Unknown chunk version " + version);
+    }
+    size = (int) reader.readVarint();
+    ensureCapacity(size);
+
+    long previous = 0L;
+    for (int i = 0; i < size; i++) {
+      previous += reader.readVarint();
+      ids[i] = previous;
+    }
+
+    previous = 0L;
+    long previousDelta = 0L;
+    for (int i = 0; i < size; i++) {
+      previousDelta += reader.readSignedVarint();
+      previous += previousDelta;
+      times[i] = previous;
+    }
+
+    previous = 0L;
+    for (int i = 0; i < size; i++) {
+      previous += reader.readSignedVarint();
+      latitudes[i] = (int) previous;
+    }
+
+    previous = 0L;
+    for (int i = 0; i < size; i++) {
+      previous += reader.readSignedVarint();
+      longitudes[i] = (int) previous;
+    }
+
+    for (int i = 0; i < size; i++) {
+      flags[i] = (byte) reader.readByte();
+    }
+
+    previous = 0L;
+    for (int i = 0; i < size; i++) {
+      if ((flags[i] & HAS_ALTITUDE) != 0) {
+        previous += reader.readSignedVarint();
+        altitudes[i] = previous / ALTITUDE_SCALE;
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      if ((flags[i] & HAS_ACCURACY) != 0) {
+        accuracies[i] = (float) (reader.readSignedVarint() / ACCURACY_SCALE);
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      if ((flags[i] & HAS_SPEED) != 0) {
+        speeds[i] = (float) (reader.readSignedVarint() / SPEED_SCALE);
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      if ((flags[i] & HAS_BEARING) != 0) {
+        bearings[i] = (float) (reader.readSignedVarint() / BEARING_SCALE);
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      sensors[i] = (flags[i] & HAS_SENSOR) != 0 ? reader.readBytes((int) reader.readVarint())
+          : null;
+    }
+  }
+
+  /**
+   * Gets the number of decoded track points.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the id of a decoded track point.
+   *
+   * @param index the index
+   */
+  public long getId(int index) {
+    return ids[index];
+  }
+
+  /**
+   * Gets the time of a decoded track point.
+   *
+   * @param index the index
+   */
+  public long getTime(int index) {
+    return times[index];
+  }
+
+  /**
+   * Gets the latitude in 1E6 degrees of a decoded track point.
+   *
+   * @param index the index
+   */
+  public int getLatitudeE6(int index) {
+    return latitudes[index];
+  }
+
+  /**
+   * Gets the longitude in 1E6 degrees of a decoded track point.
+   *
+   * @param index the index
+   */
+  public int getLongitudeE6(int index) {
+    return longitudes[index];
+  }
+
+  /**
+   * Returns true if a decoded track point has an altitude.
+   *
+   * @param index the index
+   */
+  public boolean hasAltitude(int index) {
+    return (flags[index] & HAS_ALTITUDE) != 0;
+  }
+
+  /**
+   * Gets the altitude of a decoded track point.
+   *
+   * @param index the index
+   */
+  public double getAltitude(int index) {
+    return altitudes[index];
+  }
+
+  /**
+   * Returns true if a decoded track point has an accuracy.
+   *
+   * @param index the index
+   */
+  public boolean hasAccuracy(int index) {
+    return (flags[index] & HAS_ACCURACY) != 0;
+  }
+
+  /**
+   * Gets the accuracy of a decoded track point.
+   *
+   * @param index the index
+   */
+  public float getAccuracy(int index) {
+    return accuracies[index];
+  }
+
+  /**
+   * Returns true if a decoded track point has a speed.
+   *
+   * @param index the index
+   */
+  public boolean hasSpeed(int index) {
+    return (flags[index] & HAS_SPEED) != 0;
+  }
+
+  /**
+   * Gets the speed of a decoded track point.
+   *
+   * @param index the index
+   */
+  public float getSpeed(int index) {
+    return speeds[index];
+  }
+
+  /**
+   * Returns true if a decoded track point has a bearing.
+   *
+   * @param index the index
+   */
+  public boolean hasBearing(int index) {
+    return (flags[index] & HAS_BEARING) != 0;
+  }
+
+  /**
+   * Gets the bearing of a decoded track point.
+   *
+   * @param index the index
+   */
+  public float getBearing(int index) {
+    return bearings[index];
+  }
+
+  /**
+   * Gets the serialized sensor data of a decoded track point. Returns null if
+   * not available.
+   *
+   * @param index the index
+   */
+  public byte[] getSensorData(int index) {
+    return sensors[index];
+  }
+
+  /**
+   * Fills a location with a decoded track point.
+   *
+   * @param index the index
+   * @param location the location
+   */
+  public void fill(int index, Location location) {
+    location.reset();
+    location.setLatitude(latitudes[index] / 1E6);
+    location.setLongitude(longitudes[index] / 1E6);
+    location.setTime(times[index]);
+    if ((flags[index] & HAS_ALTITUDE) != 0) {
+      location.setAltitude(altitudes[index]);
+    }
+    if ((flags[index] & HAS_ACCURACY) != 0) {
+      location.setAccuracy(accuracies[index]);
+    }
+    if ((flags[index] & HAS_SPEED) != 0) {
+      location.setSpeed(speeds[index]);
+    }
+    if ((flags[index] & HAS_BEARING) != 0) {
+      location.setBearing(bearings[index]);
+    }
+    if (location instanceof MyTracksLocation && sensors[index] != null) {
+      try {
+        ((MyTracksLocation) location).setSensorDataSet(SensorDataSet.parseFrom(sensors[index]));
+      } catch (InvalidProtocolBufferException e) {
+        Log.w(TAG, "Failed to parse sensor data.", e);
+      }
+    }
+  }
+
+  /**
+   * Ensures the arrays can hold a number of track points.
+   *
+   * @param capacity the capacity
+   */
+  private void ensureCapacity(int capacity) {
+    if (ids.length >= capacity) {
+      return;
+    }
+    ids = new long[capacity];
+    times = new long[capacity];
+    latitudes = new int[capacity];
+    longitudes = new int[capacity];
+    flags = new byte[capacity];
+    altitudes = new double[capacity];
+    accuracies = new float[capacity];
+    speeds = new float[capacity];
+    bearings = new float[capacity];
+    sensors = new byte[capacity][];
+  }
+
+  /**
+   * Gets the flags of a location.
+   *
+   * @param location the location
+   */
+  private static int getFlags(Location location) {
+    int value = 0;
+    if (location.hasAltitude()) {
+      value |= HAS_ALTITUDE;
+    }
+    if (location.hasAccuracy()) {
+      value |= HAS_ACCURACY;
+    }
+    if (location.hasSpeed()) {
+      value |= HAS_SPEED;
+    }
+    if (location.hasBearing()) {
+      value |= HAS_BEARING;
+    }
+    if (getSensorDataSet(location) != null) {
+      value |= HAS_SENSOR;
+    }
+    return value;
+  }
+
+  /**
+   * Gets the sensor data set of a location. Returns null if not available.
+   *
+   * @param location the location
+   */
+  private static SensorDataSet getSensorDataSet(Location location) {
+    if (location instanceof MyTracksLocation) {
+      return ((MyTracksLocation) location).getSensorDataSet();
+    }
+    return null;
+  }
+
+  /**
+   * A growable byte array writer.
+   */
+  private static class ByteWriter {
+    private byte[] buffer;
+    private int length;
+
+    public ByteWriter(int capacity) {
+      buffer = new byte[Math.max(capacity, 16)];
+    }
+
+    public void writeByte(int value) {
+      if (length == buffer.length) {
+        byte[] newBuffer = new byte[buffer.length * 2];
+        System.arraycopy(buffer, 0, newBuffer, 0, length);
+        buffer = newBuffer;
+      }
+      buffer[length++] = (byte) value;
+    }
+
+    public void writeBytes(byte[] bytes) {
+      for (byte value : bytes) {
+        writeByte(value);
+      }
+    }
+
+    public void writeVarint(long value) {
+      while ((value & ~0x7FL) != 0) {
+        writeByte((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      writeByte((int) value);
+    }
+
+    public void writeSignedVarint(long value) {
+      writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    public byte[] toByteArray() {
+      byte[] bytes = new byte[length];
+      System.arraycopy(buffer, 0, bytes, 0, length);
+      return bytes;
+    }
+  }
+
+  /**
+   * A byte array reader.
+   */
+  private static class ByteReader {
+    private final byte[] buffer;
+    private int position;
+
+    public ByteReader(byte[] buffer) {
+      this.buffer = buffer;
+    }
+
+    public int readByte() {
+      if (position == buffer.length) {
+        throw new IllegalArgumentException("Truncated chunk");
+      }
+      return buffer[position++] & 0xFF;
+    }
+
+    public byte[] readBytes(int count) {
+      if (count < 0 || position + count > buffer.length) {
+        throw new IllegalArgumentException("Truncated chunk");
+      }
+      byte[] bytes = new byte[count];
+      System.arraycopy(buffer, position, bytes, 0, count);
+      position += count;
+      return bytes;
+    }
+
+    public long readVarint() {
+      long value = 0L;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("Malformed varint");
+    }
+
+    public long readSignedVarint() {
+      long value = readVarint();
+      return (value >>> 1) ^ -(value & 1);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import static com.google.android.apps.mytracks.content.ContentTypeIds.BLOB_TYPE_ID;
+import static com.google.android.apps.mytracks.content.ContentTypeIds.INT_TYPE_ID;
+import static com.google.android.apps.mytracks.content.ContentTypeIds.LONG_TYPE_ID;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Constants for the track point chunks table. Each row holds a block of
+ * consecutive track points of a compacted track, encoded by
+ * {@link TrackPointChunk}.
+ */
+public interface TrackPointChunksColumns extends BaseColumns {
+
+  public static final String TABLE_NAME = "trackpoint_chunks";
+  public static final Uri CONTENT_URI = Uri.parse(
+      "content://com.google.android.maps.mytracks/trackpoint_chunks");
+  public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.trackpointchunk";
+  public static final String DEFAULT_SORT_ORDER = "startid";
+
+  // Columns
+  public static final String TRACKID = "trackid"; // track id
+  public static final String STARTID = "startid"; // first track point id
+  public static final String STOPID = "stopid"; // last track point id
+  public static final String NUMPOINTS = "numpoints"; // number of track points
+  public static final String MINTIME = "mintime"; // smallest track point time
+  public static final String MAXTIME = "maxtime"; // largest track point time
+  public static final String DATA = "data"; // encoded track points
+
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " ("
+      + _ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+      + TRACKID + " INTEGER, "
+      + STARTID + " INTEGER, "
+      + STOPID + " INTEGER, "
+      + NUMPOINTS + " INTEGER, "
+      + DATA + " BLOB, "
+      + MINTIME + " INTEGER, "
+      + MAXTIME + " INTEGER"
+      + ");";
+
+  // Index for looking up the chunks of a track in track point id order
+  public static final String TRACKID_STARTID_INDEX = "trackpoint_chunks_trackid_startid_index";
+  public static final String CREATE_TRACKID_STARTID_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + TRACKID_STARTID_INDEX + " ON " + TABLE_NAME + "(" + TRACKID + ", " + STARTID + ");";
+
+  // Index for looking up the chunks of a track by time. The times are null for
+  // chunks compacted before database version 28
+  public static final String TRACKID_MINTIME_INDEX = "trackpoint_chunks_trackid_mintime_index";
+  public static final String CREATE_TRACKID_MINTIME_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + TRACKID_MINTIME_INDEX + " ON " + TABLE_NAME + "(" + TRACKID + ", " + MINTIME + ", "
+      + MAXTIME + ");";
+
+  public static final String[] COLUMNS = {
+      _ID,
+      TRACKID,
+      STARTID,
+      STOPID,
+      NUMPOINTS,
+      DATA,
+      MINTIME,
+      MAXTIME
+   };
+
+   public static final byte[] COLUMN_TYPES = {
+       LONG_TYPE_ID, // id
+       LONG_TYPE_ID, // track id
+       LONG_TYPE_ID, // start id
+       LONG_TYPE_ID, // stop id
+       INT_TYPE_ID, // number of points
+       BLOB_TYPE_ID, // data
+       LONG_TYPE_ID, // min time
+       LONG_TYPE_ID // max time
+   };
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
+
+import android.location.Location;
+
+/**
+ * A read-only, forward-only view over the track points of a track. Unlike
+ * {@link MyTracksProviderUtils.LocationIterator}, it does not create a
+ * {@link Location} per track point. The accessors return the values of the
+ * current track point, read from the underlying cursor window or decoded
+ * chunk. The sensor data is only parsed when asked for. When done,
+ * {@link #close()} must be called.
+ */
+public interface TrackPointCursor {
+
+  /**
+   * Moves to the next track point. Returns false if there are no more track
+   * points.
+   */
+  public boolean moveToNext();
+
+  /**
+   * Gets the track point id.
+   */
+  public long getId();
+
+  /**
+   * Gets the latitude in 1E6 degrees.
+   */
+  public int getLatitudeE6();
+
+  /**
+   * Gets the longitude in 1E6 degrees.
+   */
+  public int getLongitudeE6();
+
+  /**
+   * Gets the time in milliseconds.
+   */
+  public long getTimeMillis();
+
+  /**
+   * Returns true if the track point is a valid location, false if it is a
+   * segment split such as a pause or a resume marker.
+   */
+  public boolean isValid();
+
+  /**
+   * Returns true if the track point has an altitude.
+   */
+  public boolean hasAltitude();
+
+  /**
+   * Gets the altitude in meters.
+   */
+  public double getAltitude();
+
+  /**
+   * Returns true if the track point has an accuracy.
+   */
+  public boolean hasAccuracy();
+
+  /**
+   * Gets the accuracy in meters.
+   */
+  public float getAccuracy();
+
+  /**
+   * Returns true if the track point has a speed.
+   */
+  public boolean hasSpeed();
+
+  /**
+   * Gets the speed in meters per second.
+   */
+  public float getSpeed();
+
+  /**
+   * Returns true if the track point has a bearing.
+   */
+  public boolean hasBearing();
+
+  /**
+   * Gets the bearing in degrees.
+   */
+  public float getBearing();
+
+  /**
+   * Returns true if the track point has sensor data.
+   */
+  public boolean hasSensorDataSet();
+
+  /**
+   * Gets the sensor data. Parsed on the first call for each track point.
+   * Returns null if not available.
+   */
+  public SensorDataSet getSensorDataSet();
+
+  /**
+   * Gets the heart rate. Returns -1 if not available.
+   */
+  public int getHeartRate();
+
+  /**
+   * Gets the cadence. Returns -1 if not available.
+   */
+  public int getCadence();
+
+  /**
+   * Gets the power. Returns -1 if not available.
+   */
+  public int getPower();
+
+  /**
+   * Fills a location with the track point. The sensor data is only parsed if
+   * the location is a {@link MyTracksLocation}.
+   *
+   * @param location the location
+   */
+  public void fill(Location location);
+
+  /**
+   * Creates a new {@link MyTracksLocation} with the track point.
+   */
+  public Location getLocation();
+
+  /**
+   * Closes the cursor.
+   */
+  public void close();
+}
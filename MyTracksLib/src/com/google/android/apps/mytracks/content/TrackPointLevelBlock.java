@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+/**
+ * A block of consecutive track points of one level of detail of a track. The
+ * track points are encoded by {@link TrackPointChunk}. The covered id is the
+ * id of the last track point of the next finer level, or of the track when the
+ * level is 1, that was taken into account when the block was written.
+ */
+public class TrackPointLevelBlock {
+
+  private final long trackId;
+  private final int level;
+  private final long startId;
+  private final long stopId;
+  private final long coveredId;
+  private final int numPoints;
+  private final byte[] data;
+
+  /**
+   * Creates a block.
+   * 
+   * @param trackId the track id
+   * @param level the level
+   * @param startId the first track point id
+   * @param stopId the last track point id
+   * @param coveredId the covered id
+   * @param numPoints the number of track points
+   * @param data the encoded track points
+   */
+  public TrackPointLevelBlock(long trackId, int level, long startId, long stopId,
+      long coveredId, int numPoints, byte[] data) {
+    this.trackId = trackId;
+    this.level = level;
+    this.startId = startId;
+    this.stopId = stopId;
+    this.coveredId = coveredId;
+    this.numPoints = numPoints;
+    this.data = data;
+  }
+
+  /**
+   * Gets the track id.
+   */
+  public long getTrackId() {
+    return trackId;
+  }
+
+  /**
+   * Gets the level.
+   */
+  public int getLevel() {
+    return level;
+  }
+
+  /**
+   * Gets the first track point id.
+   */
+  public long getStartId() {
+    return startId;
+  }
+
+  /**
+   * Gets the last track point id.
+   */
+  public long getStopId() {
+    return stopId;
+  }
+
+  /**
+   * Gets the covered id.
+   */
+  public long getCoveredId() {
+    return coveredId;
+  }
+
+  /**
+   * Gets the number of track points.
+   */
+  public int getNumPoints() {
+    return numPoints;
+  }
+
+  /**
+   * Gets the encoded track points.
+   */
+  public byte[] getData() {
+    return data;
+  }
+}
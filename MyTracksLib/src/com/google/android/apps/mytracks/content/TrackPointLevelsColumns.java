@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import static com.google.android.apps.mytracks.content.ContentTypeIds.BLOB_TYPE_ID;
+import static com.google.android.apps.mytracks.content.ContentTypeIds.INT_TYPE_ID;
+import static com.google.android.apps.mytracks.content.ContentTypeIds.LONG_TYPE_ID;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Constants for the track point levels table. Each row holds a block of
+ * consecutive track points of one level of detail of a track, encoded by
+ * {@link TrackPointChunk}. See {@link TrackPointPyramid}.
+ */
+public interface TrackPointLevelsColumns extends BaseColumns {
+
+  public static final String TABLE_NAME = "trackpoint_levels";
+  public static final Uri CONTENT_URI = Uri.parse(
+      "content://com.google.android.maps.mytracks/trackpoint_levels");
+  public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.trackpointlevel";
+  public static final String DEFAULT_SORT_ORDER = "level,startid";
+
+  // Columns
+  public static final String TRACKID = "trackid"; // track id
+  public static final String LEVEL = "level"; // level of detail, 1 is the finest
+  public static final String STARTID = "startid"; // first track point id
+  public static final String STOPID = "stopid"; // last track point id
+  public static final String COVEREDID = "coveredid"; // last finer level track point id used
+  public static final String NUMPOINTS = "numpoints"; // number of track points
+  public static final String DATA = "data"; // encoded track points
+
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " ("
+      + _ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+      + TRACKID + " INTEGER, "
+      + LEVEL + " INTEGER, "
+      + STARTID + " INTEGER, "
+      + STOPID + " INTEGER, "
+      + COVEREDID + " INTEGER, "
+      + NUMPOINTS + " INTEGER, "
+      + DATA + " BLOB"
+      + ");";
+
+  /*
+   * Index for looking up the blocks of a level in track point id order. Unique
+   * so that inserting a block replaces the previous version of the block.
+   */
+  public static final String TRACKID_LEVEL_STARTID_INDEX =
+      "trackpoint_levels_trackid_level_startid_index";
+  public static final String CREATE_TRACKID_LEVEL_STARTID_INDEX =
+      "CREATE UNIQUE INDEX IF NOT EXISTS " + TRACKID_LEVEL_STARTID_INDEX + " ON " + TABLE_NAME
+      + "(" + TRACKID + ", " + LEVEL + ", " + STARTID + ");";
+
+  public static final String[] COLUMNS = {
+      _ID,
+      TRACKID,
+      LEVEL,
+      STARTID,
+      STOPID,
+      COVEREDID,
+      NUMPOINTS,
+      DATA
+   };
+
+   public static final byte[] COLUMN_TYPES = {
+       LONG_TYPE_ID, // id
+       LONG_TYPE_ID, // track id
+       INT_TYPE_ID, // level
+       LONG_TYPE_ID, // start id
+       LONG_TYPE_ID, // stop id
+       LONG_TYPE_ID, // covered id
+       INT_TYPE_ID, // number of points
+       BLOB_TYPE_ID // data
+   };
+}
@@ -0,0 +1,582 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.database.sqlite.SQLiteException;
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A level-of-detail pyramid of the track points of a track, to display long
+ * tracks without reading all their track points. Each level is built from the
+ * next finer one, level 0 being the track itself. A bucket of
+ * {@link #LEVEL_FACTOR} consecutive track points is reduced to the track point
+ * farthest from the line joining the last kept track point and the end of the
+ * bucket. The first track point and the segment splits are kept at every
+ * level, and a bucket never spans a segment split.
+ * <p>
+ * The levels are stored in blocks in the {@link TrackPointLevelsColumns} table
+ * and extended incrementally by {@link #update(MyTracksProviderUtils, long)},
+ * or in the background by
+ * {@link #updateInBackground(MyTracksProviderUtils, long)}.
+ * The track points not yet reduced into a level are read from the finer
+ * levels, so reading a level costs about the size of the level. The levels do
+ * not carry sensor data.
+ */
+public class TrackPointPyramid {
+
+  private static final String TAG = TrackPointPyramid.class.getSimpleName();
+
+  /**
+   * Number of track points of a level reduced to one track point in the next
+   * level.
+   */
+  public static final int LEVEL_FACTOR = 4;
+
+  /**
+   * The coarsest level.
+   */
+  public static final int MAX_LEVEL = 8;
+
+  // Maximum number of track points in a block
+  static final int BLOCK_SIZE = 256;
+
+  // Number of track points read between two writes when updating the levels
+  private static final int FLUSH_INTERVAL = 16384;
+
+  // Maximum number of track points not yet reduced for the levels to be read
+  private static final int MAX_UNREDUCED_POINTS = FLUSH_INTERVAL;
+
+  // Serializes the updates and the reads of the levels
+  private static final Object LOCK = new Object();
+
+  private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, TAG);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  // The tracks with a pending background update. Guarded by itself.
+  private static final Set<Long> PENDING_TRACK_IDS = new HashSet<Long>();
+
+  private TrackPointPyramid() {}
+
+  /**
+   * Gets the level to read to get at most a target number of track points.
+   * Returns 0 if reading the track itself is cheap enough, i.e., reads at most
+   * {@link #LEVEL_FACTOR} times the target number of track points.
+   * 
+   * @param numPoints the number of track points of the track
+   * @param targetNumPoints the target number of track points
+   */
+  public static int getLevel(long numPoints, int targetNumPoints) {
+    if (numPoints <= (long) targetNumPoints * LEVEL_FACTOR) {
+      return 0;
+    }
+    int level = 1;
+    long levelNumPoints = numPoints / LEVEL_FACTOR;
+    while (level < MAX_LEVEL && levelNumPoints > targetNumPoints) {
+      level++;
+      levelNumPoints /= LEVEL_FACTOR;
+    }
+    return level;
+  }
+
+  /**
+   * Extends the levels of a track with the track points added since the last
+   * update. Builds the levels on the first call.
+   * 
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param trackId the track id
+   */
+  public static void update(MyTracksProviderUtils myTracksProviderUtils, long trackId) {
+    synchronized (LOCK) {
+      new Builder(myTracksProviderUtils, trackId).build();
+    }
+  }
+
+  /**
+   * Extends the levels of a track in a background thread. Does nothing if an
+   * update of the track is already pending.
+   * 
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param trackId the track id
+   */
+  public static void updateInBackground(
+      final MyTracksProviderUtils myTracksProviderUtils, final long trackId) {
+    synchronized (PENDING_TRACK_IDS) {
+      if (!PENDING_TRACK_IDS.add(trackId)) {
+        return;
+      }
+    }
+    EXECUTOR.execute(new Runnable() {
+      @Override
+      public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        synchronized (PENDING_TRACK_IDS) {
+          PENDING_TRACK_IDS.remove(trackId);
+        }
+        try {
+          update(myTracksProviderUtils, trackId);
+        } catch (SQLiteException e) {
+          Log.e(TAG, "Unable to update the track point levels.", e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns true if the levels of a track are built up to about its last track
+   * point, so that reading a level costs about the size of the level.
+   * 
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param trackId the track id
+   * @param lastTrackPointId the last track point id of the track
+   */
+  public static boolean isBuilt(
+      MyTracksProviderUtils myTracksProviderUtils, long trackId, long lastTrackPointId) {
+    TrackPointLevelBlock block = myTracksProviderUtils.getLastTrackPointLevelBlock(trackId, 1);
+    return block != null && lastTrackPointId - block.getCoveredId() <= MAX_UNREDUCED_POINTS;
+  }
+
+  /**
+   * Opens a {@link TrackPointCursor} over a level of a track. Returns the track
+   * points of the level, followed by the track points of the finer levels and
+   * of the track not yet reduced into the level. The levels should be updated
+   * beforehand. When done, {@link TrackPointCursor#close()} must be called.
+   * 
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param trackId the track id
+   * @param level the level
+   */
+  public static TrackPointCursor openTrackPointCursor(
+      MyTracksProviderUtils myTracksProviderUtils, long trackId, int level) {
+    List<TrackPointLevelBlock> blocks = new ArrayList<TrackPointLevelBlock>();
+    long coveredId = -1L;
+    synchronized (LOCK) {
+      for (int i = level; i >= 1; i--) {
+        /*
+         * Continue with the finer level from the block holding the end of the
+         * last reduced bucket. The track points already returned are skipped.
+         */
+        List<TrackPointLevelBlock> levelBlocks = myTracksProviderUtils.getTrackPointLevelBlocks(
+            trackId, i, coveredId);
+        blocks.addAll(levelBlocks);
+        coveredId = levelBlocks.isEmpty() ? -1L
+            : levelBlocks.get(levelBlocks.size() - 1).getCoveredId();
+      }
+    }
+    return new LevelTrackPointCursor(
+        blocks, myTracksProviderUtils.openTrackPointCursor(trackId, coveredId, false));
+  }
+
+  /**
+   * Returns true if a location is valid, false if it is a segment split.
+   * 
+   * @param location the location
+   */
+  private static boolean isValid(Location location) {
+    return Math.abs(location.getLatitude()) <= 90 && Math.abs(location.getLongitude()) <= 180;
+  }
+
+  /**
+   * Builds the levels of a track from their stored state.
+   */
+  private static class Builder {
+
+    private final MyTracksProviderUtils myTracksProviderUtils;
+    private final long trackId;
+    private final Level[] levels = new Level[MAX_LEVEL + 1];
+    private final List<TrackPointLevelBlock> blocks = new ArrayList<TrackPointLevelBlock>();
+    private final TrackPointChunk trackPointChunk = new TrackPointChunk();
+
+    public Builder(MyTracksProviderUtils myTracksProviderUtils, long trackId) {
+      this.myTracksProviderUtils = myTracksProviderUtils;
+      this.trackId = trackId;
+      for (int i = MAX_LEVEL; i >= 1; i--) {
+        levels[i] = new Level(i, i < MAX_LEVEL ? levels[i + 1] : null);
+      }
+    }
+
+    /**
+     * Loads the levels, reduces the track points added since the last update
+     * and stores the changed blocks.
+     */
+    public void build() {
+      for (int i = 1; i <= MAX_LEVEL; i++) {
+        load(levels[i]);
+      }
+
+      // Hand each level the track points of the finer level it has not used yet
+      Location location = new Location(LocationManager.GPS_PROVIDER);
+      for (int i = 2; i <= MAX_LEVEL; i++) {
+        Level finer = levels[i - 1];
+        Level level = levels[i];
+        if (finer.blockSize > 0 && finer.blockIds[0] > level.coveredId + 1) {
+          for (TrackPointLevelBlock block : myTracksProviderUtils.getTrackPointLevelBlocks(
+              trackId, finer.level, level.coveredId + 1)) {
+            if (block.getStartId() >= finer.blockIds[0]) {
+              break;
+            }
+            trackPointChunk.decode(block.getData());
+            for (int j = 0; j < trackPointChunk.size(); j++) {
+              trackPointChunk.fill(j, location);
+              level.add(trackPointChunk.getId(j), location);
+            }
+          }
+        }
+        for (int j = 0; j < finer.blockSize; j++) {
+          level.add(finer.blockIds[j], finer.block[j]);
+        }
+      }
+
+      TrackPointCursor trackPointCursor = null;
+      try {
+        trackPointCursor = myTracksProviderUtils.openTrackPointCursor(
+            trackId, levels[1].coveredId + 1, false);
+        int count = 0;
+        while (trackPointCursor.moveToNext()) {
+          trackPointCursor.fill(location);
+          levels[1].add(trackPointCursor.getId(), location);
+          count++;
+          if (count % FLUSH_INTERVAL == 0) {
+            flush();
+          }
+        }
+      } finally {
+        if (trackPointCursor != null) {
+          trackPointCursor.close();
+        }
+      }
+      flush();
+    }
+
+    /**
+     * Loads the last block of a level.
+     * 
+     * @param level the level
+     */
+    private void load(Level level) {
+      TrackPointLevelBlock block = myTracksProviderUtils.getLastTrackPointLevelBlock(
+          trackId, level.level);
+      if (block == null) {
+        return;
+      }
+      trackPointChunk.decode(block.getData());
+      level.blockSize = trackPointChunk.size();
+      for (int i = 0; i < level.blockSize; i++) {
+        level.blockIds[i] = trackPointChunk.getId(i);
+        trackPointChunk.fill(i, level.block[i]);
+      }
+      level.coveredId = block.getCoveredId();
+      if (level.blockSize > 0) {
+        Location last = level.block[level.blockSize - 1];
+        level.hasAnchor = isValid(last);
+        if (level.hasAnchor) {
+          level.anchor.set(last);
+        }
+      }
+    }
+
+    /**
+     * Stores the finished blocks and the changed last blocks of all the levels
+     * in a single transaction.
+     */
+    private void flush() {
+      for (int i = 1; i <= MAX_LEVEL; i++) {
+        if (levels[i].dirty) {
+          blocks.add(levels[i].getBlock());
+          levels[i].dirty = false;
+        }
+      }
+      myTracksProviderUtils.insertTrackPointLevelBlocks(blocks);
+      blocks.clear();
+    }
+
+    /**
+     * A level being built. Holds its last block and the pending bucket.
+     */
+    private class Level {
+
+      private final int level;
+      private final Level next;
+
+      // The last block
+      private final long[] blockIds = new long[BLOCK_SIZE];
+      private final Location[] block = new Location[BLOCK_SIZE];
+      private int blockSize;
+      private boolean dirty;
+
+      // The id of the last track point of the finer level taken into account
+      private long coveredId = -1L;
+
+      // The last kept track point, if not a segment split
+      private final Location anchor = new Location(LocationManager.GPS_PROVIDER);
+      private boolean hasAnchor;
+
+      // The pending bucket
+      private final long[] bucketIds = new long[LEVEL_FACTOR];
+      private final Location[] bucket = new Location[LEVEL_FACTOR];
+      private int bucketSize;
+
+      public Level(int level, Level next) {
+        this.level = level;
+        this.next = next;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+          block[i] = new Location(LocationManager.GPS_PROVIDER);
+        }
+        for (int i = 0; i < LEVEL_FACTOR; i++) {
+          bucket[i] = new Location(LocationManager.GPS_PROVIDER);
+        }
+      }
+
+      /**
+       * Adds a track point of the finer level. Ignores the track points
+       * already taken into account.
+       * 
+       * @param id the track point id
+       * @param location the track point, only read during the call
+       */
+      public void add(long id, Location location) {
+        if (id <= coveredId || (bucketSize > 0 && id <= bucketIds[bucketSize - 1])) {
+          return;
+        }
+        if (!isValid(location)) {
+          closeBucket();
+          keep(id, location);
+          coveredId = id;
+          hasAnchor = false;
+          return;
+        }
+        if (!hasAnchor) {
+          // Keep the first track point of a segment
+          keep(id, location);
+          coveredId = id;
+          anchor.set(location);
+          hasAnchor = true;
+          return;
+        }
+        bucketIds[bucketSize] = id;
+        bucket[bucketSize].set(location);
+        bucketSize++;
+        if (bucketSize == LEVEL_FACTOR) {
+          closeBucket();
+        }
+      }
+
+      /**
+       * Reduces the pending bucket to the track point farthest from the line
+       * joining the anchor and the end of the bucket.
+       */
+      private void closeBucket() {
+        if (bucketSize == 0) {
+          return;
+        }
+        int last = bucketSize - 1;
+        double scale = Math.cos(Math.toRadians(anchor.getLatitude()));
+        double anchorX = anchor.getLongitude() * scale;
+        double anchorY = anchor.getLatitude();
+        double dx = bucket[last].getLongitude() * scale - anchorX;
+        double dy = bucket[last].getLatitude() - anchorY;
+        boolean isLine = dx != 0.0 || dy != 0.0;
+        int selected = last;
+        double maxDistance = 0.0;
+        for (int i = 0; i < last; i++) {
+          double x = bucket[i].getLongitude() * scale - anchorX;
+          double y = bucket[i].getLatitude() - anchorY;
+
+          // Distance to the line times its length, or squared distance to the anchor
+          double distance = isLine ? Math.abs(dx * y - dy * x) : x * x + y * y;
+          if (distance > maxDistance) {
+            maxDistance = distance;
+            selected = i;
+          }
+        }
+        keep(bucketIds[selected], bucket[selected]);
+        anchor.set(bucket[selected]);
+        coveredId = bucketIds[last];
+        bucketSize = 0;
+      }
+
+      /**
+       * Keeps a track point in this level and adds it to the next level.
+       * 
+       * @param id the track point id
+       * @param location the track point
+       */
+      private void keep(long id, Location location) {
+        if (blockSize == BLOCK_SIZE) {
+          blocks.add(getBlock());
+          blockSize = 0;
+        }
+        blockIds[blockSize] = id;
+        block[blockSize].set(location);
+        blockSize++;
+        dirty = true;
+        if (next != null) {
+          next.add(id, block[blockSize - 1]);
+        }
+      }
+
+      /**
+       * Gets the last block.
+       */
+      public TrackPointLevelBlock getBlock() {
+        return new TrackPointLevelBlock(trackId, level, blockIds[0], blockIds[blockSize - 1],
+            coveredId, blockSize, TrackPointChunk.encode(blockIds, block, blockSize));
+      }
+    }
+  }
+
+  /**
+   * A {@link TrackPointCursor} over level blocks followed by the track. Skips
+   * the track points already returned.
+   */
+  private static class LevelTrackPointCursor extends AbstractTrackPointCursor {
+
+    private final List<TrackPointLevelBlock> blocks;
+    private final TrackPointCursor trackPointCursor;
+    private final TrackPointChunk trackPointChunk = new TrackPointChunk();
+    private int blockIndex = -1;
+    private int index = -1;
+    private boolean readingTrack;
+    private long lastId = -1L;
+
+    public LevelTrackPointCursor(
+        List<TrackPointLevelBlock> blocks, TrackPointCursor trackPointCursor) {
+      this.blocks = blocks;
+      this.trackPointCursor = trackPointCursor;
+    }
+
+    @Override
+    protected boolean advance() {
+      while (true) {
+        if (!readingTrack) {
+          index++;
+          while (!readingTrack && index >= trackPointChunk.size()) {
+            blockIndex++;
+            if (blockIndex < blocks.size()) {
+              trackPointChunk.decode(blocks.get(blockIndex).getData());
+              index = 0;
+            } else {
+              readingTrack = true;
+            }
+          }
+        }
+        if (readingTrack && !trackPointCursor.moveToNext()) {
+          return false;
+        }
+        long id = getId();
+        if (id > lastId) {
+          lastId = id;
+          return true;
+        }
+      }
+    }
+
+    @Override
+    protected byte[] getSensorData() {
+      return null;
+    }
+
+    @Override
+    public long getId() {
+      return readingTrack ? trackPointCursor.getId() : trackPointChunk.getId(index);
+    }
+
+    @Override
+    public int getLatitudeE6() {
+      return readingTrack ? trackPointCursor.getLatitudeE6()
+          : trackPointChunk.getLatitudeE6(index);
+    }
+
+    @Override
+    public int getLongitudeE6() {
+      return readingTrack ? trackPointCursor.getLongitudeE6()
+          : trackPointChunk.getLongitudeE6(index);
+    }
+
+    @Override
+    public long getTimeMillis() {
+      return readingTrack ? trackPointCursor.getTimeMillis() : trackPointChunk.getTime(index);
+    }
+
+    @Override
+    public boolean hasAltitude() {
+      return readingTrack ? trackPointCursor.hasAltitude() : trackPointChunk.hasAltitude(index);
+    }
+
+    @Override
+    public double getAltitude() {
+      return readingTrack ? trackPointCursor.getAltitude() : trackPointChunk.getAltitude(index);
+    }
+
+    @Override
+    public boolean hasAccuracy() {
+      return readingTrack ? trackPointCursor.hasAccuracy() : trackPointChunk.hasAccuracy(index);
+    }
+
+    @Override
+    public float getAccuracy() {
+      return readingTrack ? trackPointCursor.getAccuracy() : trackPointChunk.getAccuracy(index);
+    }
+
+    @Override
+    public boolean hasSpeed() {
+      return readingTrack ? trackPointCursor.hasSpeed() : trackPointChunk.hasSpeed(index);
+    }
+
+    @Override
+    public float getSpeed() {
+      return readingTrack ? trackPointCursor.getSpeed() : trackPointChunk.getSpeed(index);
+    }
+
+    @Override
+    public boolean hasBearing() {
+      return readingTrack ? trackPointCursor.hasBearing() : trackPointChunk.hasBearing(index);
+    }
+
+    @Override
+    public float getBearing() {
+      return readingTrack ? trackPointCursor.getBearing() : trackPointChunk.getBearing(index);
+    }
+
+    @Override
+    public boolean hasSensorDataSet() {
+      return false;
+    }
+
+    @Override
+    public void close() {
+      trackPointCursor.close();
+    }
+  }
+}
@@ -25,7 +25,11 @@ import android.net.Uri;
 import android.provider.BaseColumns;
 
 /**
- * Constants for the track points table.
+ * Constants for the track points table. The track points of a track compacted
+ * by {@link MyTracksProviderUtils#compactTrackPoints(long)} move to the
+ * {@link TrackPointChunksColumns} table, so the track points URIs no longer
+ * return them. Tracks are not compacted while other apps can access the
+ * content provider.
  *
  * @author Leif Hendrik Wilden
  */
@@ -62,6 +66,16 @@ public interface TrackPointsColumns extends BaseColumns {
       + SENSOR + " BLOB" 
       + ");";
 
+  // Index for looking up the first/last track point id of a track
+  public static final String TRACKID_ID_INDEX = "trackpoints_trackid_id_index";
+  public static final String CREATE_TRACKID_ID_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + TRACKID_ID_INDEX + " ON " + TABLE_NAME + "(" + TRACKID + ", " + _ID + ");";
+
+  // Index for looking up a track point id by time
+  public static final String TRACKID_TIME_INDEX = "trackpoints_trackid_time_index";
+  public static final String CREATE_TRACKID_TIME_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + TRACKID_TIME_INDEX + " ON " + TABLE_NAME + "(" + TRACKID + ", " + TIME + ");";
+
   public static final String[] COLUMNS = {
       _ID,
       TRACKID,
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+/**
+ * A trip statistics checkpoint. Holds the serialized state of the trip
+ * statistics computation of a track right after adding a track point. The
+ * signature identifies the parameters of the computation, a checkpoint can
+ * only be resumed with the same parameters.
+ */
+public class TripStatisticsCheckpoint {
+
+  private final long trackId;
+  private final long trackPointId;
+  private final String signature;
+  private final byte[] data;
+
+  /**
+   * Creates a checkpoint.
+   * 
+   * @param trackId the track id
+   * @param trackPointId the id of the last track point added
+   * @param signature the signature
+   * @param data the serialized state
+   */
+  public TripStatisticsCheckpoint(
+      long trackId, long trackPointId, String signature, byte[] data) {
+    this.trackId = trackId;
+    this.trackPointId = trackPointId;
+    this.signature = signature;
+    this.data = data;
+  }
+
+  /**
+   * Gets the track id.
+   */
+  public long getTrackId() {
+    return trackId;
+  }
+
+  /**
+   * Gets the id of the last track point added.
+   */
+  public long getTrackPointId() {
+    return trackPointId;
+  }
+
+  /**
+   * Gets the signature.
+   */
+  public String getSignature() {
+    return signature;
+  }
+
+  /**
+   * Gets the serialized state.
+   */
+  public byte[] getData() {
+    return data;
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import static com.google.android.apps.mytracks.content.ContentTypeIds.BLOB_TYPE_ID;
+import static com.google.android.apps.mytracks.content.ContentTypeIds.LONG_TYPE_ID;
+import static com.google.android.apps.mytracks.content.ContentTypeIds.STRING_TYPE_ID;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Constants for the trip statistics checkpoints table. Each row holds the
+ * serialized state of the trip statistics updaters of a track after a track
+ * point, so that recomputing the trip statistics can resume from there.
+ */
+public interface TripStatisticsCheckpointsColumns extends BaseColumns {
+
+  public static final String TABLE_NAME = "tripstatistics_checkpoints";
+  public static final Uri CONTENT_URI = Uri.parse(
+      "content://com.google.android.maps.mytracks/tripstatistics_checkpoints");
+  public static final String CONTENT_TYPE =
+      "vnd.android.cursor.dir/vnd.google.tripstatisticscheckpoint";
+  public static final String DEFAULT_SORT_ORDER = "trackpointid";
+
+  // Columns
+  public static final String TRACKID = "trackid"; // track id
+  public static final String TRACKPOINTID = "trackpointid"; // last added track point id
+  public static final String SIGNATURE = "signature"; // parameters of the computation
+  public static final String DATA = "data"; // serialized updater state
+
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " ("
+      + _ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+      + TRACKID + " INTEGER, "
+      + TRACKPOINTID + " INTEGER, "
+      + SIGNATURE + " STRING, "
+      + DATA + " BLOB"
+      + ");";
+
+  // Index for looking up the checkpoints of a track in track point id order
+  public static final String TRACKID_TRACKPOINTID_INDEX =
+      "tripstatistics_checkpoints_trackid_trackpointid_index";
+  public static final String CREATE_TRACKID_TRACKPOINTID_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + TRACKID_TRACKPOINTID_INDEX + " ON " + TABLE_NAME + "(" + TRACKID + ", " + TRACKPOINTID
+      + ");";
+
+  public static final String[] COLUMNS = {
+      _ID,
+      TRACKID,
+      TRACKPOINTID,
+      SIGNATURE,
+      DATA
+   };
+
+   public static final byte[] COLUMN_TYPES = {
+       LONG_TYPE_ID, // id
+       LONG_TYPE_ID, // track id
+       LONG_TYPE_ID, // track point id
+       STRING_TYPE_ID, // signature
+       BLOB_TYPE_ID // data
+   };
+}
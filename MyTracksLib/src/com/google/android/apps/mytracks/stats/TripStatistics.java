@@ -19,6 +19,10 @@ package com.google.android.apps.mytracks.stats;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Statistical data about a trip. The data in this class should be filled out by
  * TripStatisticsBuilder.
@@ -571,6 +575,53 @@ public class TripStatistics implements Parcelable {
     dest.writeDouble(calorie);
   }
 
+  /**
+   * Writes the trip statistics to a data output. The fields are written in the
+   * same order as {@link #writeToParcel(Parcel, int)}.
+   * 
+   * @param out the data output
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeLong(startTime);
+    out.writeLong(stopTime);
+    out.writeDouble(totalDistance);
+    out.writeLong(totalTime);
+    out.writeLong(movingTime);
+    out.writeDouble(latitudeExtremities.getMin());
+    out.writeDouble(latitudeExtremities.getMax());
+    out.writeDouble(longitudeExtremities.getMin());
+    out.writeDouble(longitudeExtremities.getMax());
+    out.writeDouble(maxSpeed);
+    out.writeDouble(elevationExtremities.getMin());
+    out.writeDouble(elevationExtremities.getMax());
+    out.writeDouble(totalElevationGain);
+    out.writeDouble(gradeExtremities.getMin());
+    out.writeDouble(gradeExtremities.getMax());
+    out.writeDouble(calorie);
+  }
+
+  /**
+   * Reads trip statistics written by {@link #writeTo(DataOutput)}.
+   * 
+   * @param in the data input
+   */
+  public static TripStatistics readFrom(DataInput in) throws IOException {
+    TripStatistics data = new TripStatistics();
+    data.startTime = in.readLong();
+    data.stopTime = in.readLong();
+    data.totalDistance = in.readDouble();
+    data.totalTime = in.readLong();
+    data.movingTime = in.readLong();
+    data.latitudeExtremities.set(in.readDouble(), in.readDouble());
+    data.longitudeExtremities.set(in.readDouble(), in.readDouble());
+    data.maxSpeed = in.readDouble();
+    data.elevationExtremities.set(in.readDouble(), in.readDouble());
+    data.totalElevationGain = in.readDouble();
+    data.gradeExtremities.set(in.readDouble(), in.readDouble());
+    data.calorie = in.readDouble();
+    return data;
+  }
+
   /**
    * Adds calorie value.
    * 
@@ -57,6 +57,11 @@ public class FileUtils {
    */
   public static final String TEMP_FILES_DIR = "temp_files";
 
+  /**
+   * The sync manifests directory under the My Tracks files directory.
+   */
+  public static final String SYNC_MANIFESTS_DIR = "sync_manifests";
+
   /**
    * The pictures directory under the My Tracks external storage directory.
    */
@@ -109,6 +114,16 @@ public class FileUtils {
     return new File(getPath(PICTURES_DIR, "MyTracks" + Long.toString(trackId)));
   }
 
+  /**
+   * Gets the sync manifest file of a track.
+   * 
+   * @param context the context
+   * @param trackId the track id
+   */
+  public static File getSyncManifestFile(Context context, long trackId) {
+    return new File(new File(context.getFilesDir(), SYNC_MANIFESTS_DIR), Long.toString(trackId));
+  }
+
   /**
    * Gets the display name for a path on the external storage.
    * 
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link ChartPathVertices}.
+ */
+public class ChartPathVerticesTest extends TestCase {
+
+  private ChartPathVertices vertices;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    vertices = new ChartPathVertices();
+  }
+
+  /**
+   * Tests that every data point is kept without a column width.
+   */
+  public void testAdd_noColumnWidth() {
+    vertices.reset(0.0);
+    for (int i = 0; i < 100; i++) {
+      vertices.add(i, i, i % 7);
+    }
+    assertEquals(100, vertices.getSize());
+    for (int i = 0; i < 100; i++) {
+      assertEquals((float) i, vertices.getX(i));
+      assertEquals((float) (i % 7), vertices.getY(i));
+    }
+  }
+
+  /**
+   * Tests that a column keeps its first, min, max, and last data points in
+   * order.
+   */
+  public void testAdd_column() {
+    vertices.reset(10.0);
+    vertices.add(0, 0.0, 5.0);
+    vertices.add(1, 1.0, 9.0);
+    vertices.add(2, 2.0, 1.0);
+    vertices.add(3, 3.0, 6.0);
+    vertices.add(4, 4.0, 4.0);
+    assertVertices(new float[] { 0, 1, 2, 4 }, new float[] { 5, 9, 1, 4 });
+
+    // A new column completes the current one
+    vertices.add(5, 10.0, 3.0);
+    assertVertices(new float[] { 0, 1, 2, 4, 10 }, new float[] { 5, 9, 1, 4, 3 });
+  }
+
+  /**
+   * Tests that duplicate data points of a column are kept once.
+   */
+  public void testAdd_columnDuplicates() {
+    vertices.reset(10.0);
+    vertices.add(0, 0.0, 1.0);
+    assertVertices(new float[] { 0 }, new float[] { 1 });
+    vertices.add(1, 1.0, 2.0);
+    assertVertices(new float[] { 0, 1 }, new float[] { 1, 2 });
+  }
+
+  /**
+   * Tests that the number of vertices is bounded by the number of columns.
+   */
+  public void testAdd_bounded() {
+    vertices.reset(1.0);
+    int size = 100000;
+    for (int i = 0; i < size; i++) {
+      vertices.add(i, i * 100.0 / size, Math.sin(i));
+    }
+    assertTrue(vertices.getSize() <= 4 * 100);
+    assertEquals(0f, vertices.getX(0));
+    assertEquals((float) ((size - 1) * 100.0 / size), vertices.getX(vertices.getSize() - 1));
+  }
+
+  /**
+   * Tests that reset clears the vertices.
+   */
+  public void testReset() {
+    vertices.reset(1.0);
+    vertices.add(0, 0.0, 1.0);
+    vertices.add(1, 2.0, 1.0);
+    vertices.reset(2.0);
+    assertEquals(0, vertices.getSize());
+    assertEquals(2.0, vertices.getColumnWidth());
+  }
+
+  /**
+   * Asserts the vertices.
+   * 
+   * @param xs the expected x values
+   * @param ys the expected y values
+   */
+  private void assertVertices(float[] xs, float[] ys) {
+    assertEquals(xs.length, vertices.getSize());
+    for (int i = 0; i < xs.length; i++) {
+      assertEquals(xs[i], vertices.getX(i));
+      assertEquals(ys[i], vertices.getY(i));
+    }
+  }
+}
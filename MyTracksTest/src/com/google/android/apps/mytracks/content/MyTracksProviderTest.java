@@ -18,8 +18,12 @@ package com.google.android.apps.mytracks.content;
 
 import com.google.android.apps.mytracks.content.MyTracksProvider.DatabaseHelper;
 
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.provider.BaseColumns;
 import android.test.AndroidTestCase;
 
 /**
@@ -49,6 +53,19 @@ public class MyTracksProviderTest extends AndroidTestCase {
     assertTrue(hasTable(TracksColumns.TABLE_NAME));
     assertTrue(hasTable(TrackPointsColumns.TABLE_NAME));
     assertTrue(hasTable(WaypointsColumns.TABLE_NAME));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_ID_INDEX));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_TIME_INDEX));
+    assertTrue(hasIndex(WaypointsColumns.TRACKID_TYPE_ID_INDEX));
+    assertTrue(hasTable(TrackPointChunksColumns.TABLE_NAME));
+    assertTrue(hasIndex(TrackPointChunksColumns.TRACKID_STARTID_INDEX));
+    assertTrue(hasIndex(TrackPointChunksColumns.TRACKID_MINTIME_INDEX));
+    assertTrue(hasTable(TripStatisticsCheckpointsColumns.TABLE_NAME));
+    assertTrue(hasIndex(TripStatisticsCheckpointsColumns.TRACKID_TRACKPOINTID_INDEX));
+    assertTrue(hasTable(TrackPointLevelsColumns.TABLE_NAME));
+    assertTrue(hasIndex(TrackPointLevelsColumns.TRACKID_LEVEL_STARTID_INDEX));
+    assertTrue(hasTable(TrackCellsColumns.TABLE_NAME));
+    assertTrue(hasIndex(TrackCellsColumns.CELL_TRACKID_INDEX));
+    assertTrue(hasIndex(TrackCellsColumns.TRACKID_INDEX));
   }
 
   /**
@@ -59,6 +76,10 @@ public class MyTracksProviderTest extends AndroidTestCase {
     dropTable(TracksColumns.TABLE_NAME);
     dropTable(TrackPointsColumns.TABLE_NAME);
     dropTable(WaypointsColumns.TABLE_NAME);
+    dropTable(TrackPointChunksColumns.TABLE_NAME);
+    dropTable(TripStatisticsCheckpointsColumns.TABLE_NAME);
+    dropTable(TrackPointLevelsColumns.TABLE_NAME);
+    dropTable(TrackCellsColumns.TABLE_NAME);
 
     int oldVersion = 16;
     DatabaseHelper databaseHelper = new DatabaseHelper(getContext());
@@ -67,6 +88,10 @@ public class MyTracksProviderTest extends AndroidTestCase {
     assertTrue(hasTable(TracksColumns.TABLE_NAME));
     assertTrue(hasTable(TrackPointsColumns.TABLE_NAME));
     assertTrue(hasTable(WaypointsColumns.TABLE_NAME));
+    assertTrue(hasTable(TrackPointChunksColumns.TABLE_NAME));
+    assertTrue(hasTable(TripStatisticsCheckpointsColumns.TABLE_NAME));
+    assertTrue(hasTable(TrackPointLevelsColumns.TABLE_NAME));
+    assertTrue(hasTable(TrackCellsColumns.TABLE_NAME));
   }
 
   /**
@@ -175,6 +200,127 @@ public class MyTracksProviderTest extends AndroidTestCase {
     assertFalse(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.SHAREDOWNER));
     assertFalse(hasColumn(WaypointsColumns.TABLE_NAME, WaypointsColumns.PHOTOURL));
     assertFalse(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.CALORIE));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_ID_INDEX));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_TIME_INDEX));
+    assertTrue(hasIndex(WaypointsColumns.TRACKID_TYPE_ID_INDEX));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 23.
+   */
+  public void testDatabaseHelper_onUpgrade_Version23() {
+    setupUpgrade(23);
+
+    assertFalse(hasIndex(TrackPointsColumns.TRACKID_ID_INDEX));
+    assertFalse(hasIndex(TrackPointsColumns.TRACKID_TIME_INDEX));
+    assertFalse(hasIndex(WaypointsColumns.TRACKID_TYPE_ID_INDEX));
+    assertTrue(hasTable(TrackPointChunksColumns.TABLE_NAME));
+    assertTrue(hasIndex(TrackPointChunksColumns.TRACKID_STARTID_INDEX));
+    assertTrue(hasColumn(TrackPointChunksColumns.TABLE_NAME, TrackPointChunksColumns.MINTIME));
+    assertTrue(hasIndex(TrackPointChunksColumns.TRACKID_MINTIME_INDEX));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 24.
+   */
+  public void testDatabaseHelper_onUpgrade_Version24() {
+    setupUpgrade(24);
+
+    assertFalse(hasIndex(TrackPointChunksColumns.TRACKID_STARTID_INDEX));
+    assertTrue(hasTable(TripStatisticsCheckpointsColumns.TABLE_NAME));
+    assertTrue(hasIndex(TripStatisticsCheckpointsColumns.TRACKID_TRACKPOINTID_INDEX));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 25.
+   */
+  public void testDatabaseHelper_onUpgrade_Version25() {
+    setupUpgrade(25);
+
+    assertFalse(hasTable(TripStatisticsCheckpointsColumns.TABLE_NAME));
+    assertTrue(hasTable(TrackPointLevelsColumns.TABLE_NAME));
+    assertTrue(hasIndex(TrackPointLevelsColumns.TRACKID_LEVEL_STARTID_INDEX));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 26.
+   */
+  public void testDatabaseHelper_onUpgrade_Version26() {
+    setupUpgrade(26);
+
+    assertFalse(hasTable(TrackPointLevelsColumns.TABLE_NAME));
+    assertTrue(hasTable(TrackCellsColumns.TABLE_NAME));
+    assertTrue(hasIndex(TrackCellsColumns.CELL_TRACKID_INDEX));
+    assertTrue(hasIndex(TrackCellsColumns.TRACKID_INDEX));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 27.
+   */
+  public void testDatabaseHelper_onUpgrade_Version27() {
+    setupUpgrade(27);
+
+    assertFalse(hasIndex(TrackCellsColumns.CELL_TRACKID_INDEX));
+    assertTrue(hasColumn(TrackPointChunksColumns.TABLE_NAME, TrackPointChunksColumns.MINTIME));
+    assertTrue(hasColumn(TrackPointChunksColumns.TABLE_NAME, TrackPointChunksColumns.MAXTIME));
+    assertTrue(hasIndex(TrackPointChunksColumns.TRACKID_MINTIME_INDEX));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} marks the tracks whose track cells were written by version 27.
+   */
+  public void testDatabaseHelper_onUpgrade_Version28() {
+    dropTable(TrackCellsColumns.TABLE_NAME);
+    db.execSQL(TrackCellsColumns.CREATE_TABLE);
+    db.execSQL(TrackCellsColumns.CREATE_CELL_TRACKID_INDEX);
+    insertTrack(1L);
+
+    DatabaseHelper databaseHelper = new DatabaseHelper(getContext());
+    databaseHelper.onUpgrade(db, 28, MyTracksProvider.DATABASE_VERSION);
+
+    assertEquals(1, getTrackCellsCount(TrackCellsColumns.INDEXED_CELL));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider#indexTrackCells(SQLiteDatabase)} writes the
+   * track cells of the tracks created before the track cells table.
+   */
+  public void testIndexTrackCells() {
+    dropTable(TrackCellsColumns.TABLE_NAME);
+    dropTable(TrackPointChunksColumns.TABLE_NAME);
+    createTrackPointChunksTable();
+    insertTrack(1L);
+    insertTrack(2L);
+    // Two points in the same cell, one far away, and a segment split
+    insertTrackPoint(1L, 37000000, -122000000);
+    insertTrackPoint(1L, 37000100, -122000100);
+    insertTrackPoint(1L, 38000000, -122000000);
+    insertTrackPoint(1L, 100000000, 0);
+    insertTrackPoint(2L, 37000000, -122000000);
+
+    // The upgrade does not read the track points
+    DatabaseHelper databaseHelper = new DatabaseHelper(getContext());
+    databaseHelper.onUpgrade(db, 26, MyTracksProvider.DATABASE_VERSION);
+    assertEquals(0, DatabaseUtils.queryNumEntries(db, TrackCellsColumns.TABLE_NAME));
+
+    // Two cells and an indexed row per track
+    MyTracksProvider.indexTrackCells(db);
+    long cell = TrackCells.getCell(37000000, -122000000);
+    assertEquals(2, getTrackCellsCount(cell));
+    assertEquals(2, getTrackCellsCount(TrackCellsColumns.INDEXED_CELL));
+    assertEquals(5, DatabaseUtils.queryNumEntries(db, TrackCellsColumns.TABLE_NAME));
+
+    // Indexed tracks are skipped
+    db.delete(TrackCellsColumns.TABLE_NAME, TrackCellsColumns.CELL + "=?",
+        new String[] { Long.toString(cell) });
+    MyTracksProvider.indexTrackCells(db);
+    assertEquals(3, DatabaseUtils.queryNumEntries(db, TrackCellsColumns.TABLE_NAME));
   }
 
   /**
@@ -196,12 +342,70 @@ public class MyTracksProviderTest extends AndroidTestCase {
   }
 
   /**
-   * Creates a table, containing one column.
+   * Creates a table, containing only the columns needed by the indexes and the
+   * track cells.
    * 
    * @param table the table name
    */
   private void createTable(String table) {
-    db.execSQL("CREATE TABLE " + table + " (test INTEGER)");
+    db.execSQL("CREATE TABLE " + table + " (" + BaseColumns._ID
+        + " INTEGER PRIMARY KEY AUTOINCREMENT, trackid INTEGER, time INTEGER, type INTEGER, "
+        + "latitude INTEGER, longitude INTEGER)");
+  }
+
+  /**
+   * Creates the track point chunks table as created by version 24.
+   */
+  private void createTrackPointChunksTable() {
+    db.execSQL("CREATE TABLE " + TrackPointChunksColumns.TABLE_NAME + " (" + BaseColumns._ID
+        + " INTEGER PRIMARY KEY AUTOINCREMENT, trackid INTEGER, startid INTEGER, "
+        + "stopid INTEGER, numpoints INTEGER, data BLOB)");
+  }
+
+  /**
+   * Inserts a track row directly into the database.
+   * 
+   * @param trackId the track id
+   */
+  private void insertTrack(long trackId) {
+    ContentValues values = new ContentValues();
+    values.put(TracksColumns._ID, trackId);
+    db.insert(TracksColumns.TABLE_NAME, null, values);
+  }
+
+  /**
+   * Gets the number of track cells rows of a cell.
+   * 
+   * @param cell the cell
+   */
+  private int getTrackCellsCount(long cell) {
+    Cursor cursor = null;
+    try {
+      cursor = db.rawQuery("SELECT " + TrackCellsColumns.TRACKID + " FROM "
+          + TrackCellsColumns.TABLE_NAME + " WHERE " + TrackCellsColumns.CELL + "=?",
+          new String[] { Long.toString(cell) });
+      return cursor.getCount();
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+
+  /**
+   * Inserts a track point row directly into the database.
+   * 
+   * @param trackId the track id
+   * @param latitudeE6 the latitude in micro degrees
+   * @param longitudeE6 the longitude in micro degrees
+   */
+  private void insertTrackPoint(long trackId, int latitudeE6, int longitudeE6) {
+    ContentValues values = new ContentValues();
+    values.put(TrackPointsColumns.TRACKID, trackId);
+    values.put(TrackPointsColumns.LATITUDE, latitudeE6);
+    values.put(TrackPointsColumns.LONGITUDE, longitudeE6);
+    values.put(TrackPointsColumns.TIME, 0L);
+    db.insert(TrackPointsColumns.TABLE_NAME, null, values);
   }
 
   /**
@@ -227,6 +431,24 @@ public class MyTracksProviderTest extends AndroidTestCase {
     }
   }
 
+  /**
+   * Returns true if the index exists.
+   * 
+   * @param index the index name
+   */
+  private boolean hasIndex(String index) {
+    Cursor cursor = null;
+    try {
+      cursor = db.rawQuery(
+          "SELECT name FROM sqlite_master WHERE type='index' AND name=?", new String[] { index });
+      return cursor.moveToFirst();
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+
   /**
    * Returns true if the column in the table exists.
    * 
@@ -253,9 +475,19 @@ public class MyTracksProviderTest extends AndroidTestCase {
     dropTable(TracksColumns.TABLE_NAME);
     dropTable(TrackPointsColumns.TABLE_NAME);
     dropTable(WaypointsColumns.TABLE_NAME);
+    dropTable(TrackPointChunksColumns.TABLE_NAME);
+    dropTable(TripStatisticsCheckpointsColumns.TABLE_NAME);
+    dropTable(TrackPointLevelsColumns.TABLE_NAME);
+    dropTable(TrackCellsColumns.TABLE_NAME);
     createTable(TracksColumns.TABLE_NAME);
     createTable(TrackPointsColumns.TABLE_NAME);
     createTable(WaypointsColumns.TABLE_NAME);
+    if (oldVersion >= 24) {
+      createTrackPointChunksTable();
+    }
+    if (oldVersion >= 27) {
+      db.execSQL(TrackCellsColumns.CREATE_TABLE);
+    }
 
     DatabaseHelper databaseHelper = new DatabaseHelper(getContext());
     databaseHelper.onUpgrade(db, oldVersion, MyTracksProvider.DATABASE_VERSION);
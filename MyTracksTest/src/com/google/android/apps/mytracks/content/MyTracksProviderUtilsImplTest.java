@@ -17,6 +17,9 @@ package com.google.android.apps.mytracks.content;
 
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationFactory;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
+import com.google.android.apps.mytracks.content.Sensor.SensorData;
+import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
+import com.google.android.apps.mytracks.content.Sensor.SensorState;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
 import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
 import com.google.android.apps.mytracks.stats.TripStatistics;
@@ -24,13 +27,17 @@ import com.google.android.testing.mocking.AndroidMock;
 import com.google.android.testing.mocking.UsesMocks;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.location.Location;
+import android.os.Debug;
+import android.os.SystemClock;
 import android.test.AndroidTestCase;
 import android.test.RenamingDelegatingContext;
 import android.test.mock.MockContentResolver;
+import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -44,6 +51,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  * @author Youtao Liu
  */
 public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
+  private static final String TAG = MyTracksProviderUtilsImplTest.class.getSimpleName();
+
   private Context context;
   private MyTracksProviderUtils providerUtils;
   
@@ -54,6 +63,7 @@ public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
   private double INITIAL_LATITUDE = 37.0;
   private double INITIAL_LONGITUDE = -57.0;
   private double ALTITUDE_INTERVAL = 2.5;
+  private static final int HEART_RATE = 60;
 
   @Override
   protected void setUp() throws Exception {
@@ -123,6 +133,29 @@ public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
     testIterator(1, 20000, 2000, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
   }
 
+  public void testLocationIterator_boundedMemory() {
+    // Room for a few rows per batch
+    ((MyTracksProviderUtilsImpl) providerUtils).setMaxBatchBytes(1000);
+    testIterator(1, 100, 25, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    testIterator(2, 100, 25, true, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+  }
+
+  public void testLocationIterator_closeWhilePrefetching() {
+    initializeTrack(1, 50);
+    ((MyTracksProviderUtilsImpl) providerUtils).setDefaultCursorBatchSize(10);
+    LocationIterator it = providerUtils.getTrackPointLocationIterator(
+        1, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    for (int i = 0; i < 15; i++) {
+      assertTrue(it.hasNext());
+      it.next();
+    }
+    it.close();
+    assertFalse(it.hasNext());
+
+    // Still able to iterate the whole track
+    testIterator(2, 50, 10, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+  }
+
   private List<Location> testIterator(long trackId, int numPoints, int batchSize,
       boolean descending, LocationFactory locationFactory) {
     long lastPointId = initializeTrack(trackId, numPoints);
@@ -848,6 +881,475 @@ public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
     assertFalse(locationIterator.hasNext());
   }
 
+  /**
+   * Tests the method
+   * {@link MyTracksProviderUtilsImpl#openTrackPointCursor(long, long, boolean)}
+   * over track point rows and compacted track points.
+   */
+  public void testOpenTrackPointCursor() {
+    long trackId = System.currentTimeMillis();
+    insertTrackWithSensorLocations(trackId, 10);
+    long firstId = providerUtils.getFirstTrackPointId(trackId);
+    checkTrackPointCursor(trackId, firstId);
+
+    ((MyTracksProviderUtilsImpl) providerUtils).setChunkSize(4);
+    providerUtils.compactTrackPoints(trackId);
+    checkTrackPointCursor(trackId, firstId);
+  }
+
+  /**
+   * Measures the allocations and the time of reading the speed and the heart
+   * rate of every track point with
+   * {@link MyTracksProviderUtilsImpl#getTrackPointLocationIterator(long, long, boolean, LocationFactory)}
+   * and with
+   * {@link MyTracksProviderUtilsImpl#openTrackPointCursor(long, long, boolean)}.
+   */
+  public void testOpenTrackPointCursor_allocations() {
+    int numPoints = 2000;
+    long trackId = System.currentTimeMillis();
+    insertTrackWithSensorLocations(trackId, numPoints);
+
+    // Warm up the database
+    readWithLocationIterator(trackId);
+    readWithTrackPointCursor(trackId);
+
+    Debug.startAllocCounting();
+    try {
+      Debug.resetThreadAllocCount();
+      long startTime = SystemClock.elapsedRealtime();
+      double iteratorSum = readWithLocationIterator(trackId);
+      long iteratorTime = SystemClock.elapsedRealtime() - startTime;
+      int iteratorAllocations = Debug.getThreadAllocCount();
+
+      Debug.resetThreadAllocCount();
+      startTime = SystemClock.elapsedRealtime();
+      double cursorSum = readWithTrackPointCursor(trackId);
+      long cursorTime = SystemClock.elapsedRealtime() - startTime;
+      int cursorAllocations = Debug.getThreadAllocCount();
+
+      Log.i(TAG, "Location iterator: " + iteratorAllocations + " allocations, " + iteratorTime
+          + " ms. Track point cursor: " + cursorAllocations + " allocations, " + cursorTime
+          + " ms. " + numPoints + " track points.");
+      assertEquals(iteratorSum, cursorSum, 0.01);
+      assertTrue(cursorAllocations < iteratorAllocations);
+    } finally {
+      Debug.stopAllocCounting();
+    }
+  }
+
+  /**
+   * Reads the speed and the heart rate of every track point with a location
+   * iterator. Returns their sum.
+   * 
+   * @param trackId the track id
+   */
+  private double readWithLocationIterator(long trackId) {
+    double sum = 0.0;
+    LocationIterator locationIterator = providerUtils.getTrackPointLocationIterator(
+        trackId, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    try {
+      while (locationIterator.hasNext()) {
+        MyTracksLocation location = (MyTracksLocation) locationIterator.next();
+        sum += location.getSpeed();
+        SensorDataSet sensorDataSet = location.getSensorDataSet();
+        if (sensorDataSet != null && sensorDataSet.hasHeartRate()) {
+          sum += sensorDataSet.getHeartRate().getValue();
+        }
+      }
+    } finally {
+      locationIterator.close();
+    }
+    return sum;
+  }
+
+  /**
+   * Reads the speed and the heart rate of every track point with a track
+   * point cursor. Returns their sum.
+   * 
+   * @param trackId the track id
+   */
+  private double readWithTrackPointCursor(long trackId) {
+    double sum = 0.0;
+    TrackPointCursor trackPointCursor = providerUtils.openTrackPointCursor(trackId, -1L, false);
+    try {
+      while (trackPointCursor.moveToNext()) {
+        sum += trackPointCursor.getSpeed();
+        int heartRate = trackPointCursor.getHeartRate();
+        if (heartRate != -1) {
+          sum += heartRate;
+        }
+      }
+    } finally {
+      trackPointCursor.close();
+    }
+    return sum;
+  }
+
+  /**
+   * Checks the track points returned by a {@link TrackPointCursor} for a track
+   * inserted by {@link #insertTrackWithSensorLocations(long, int)}.
+   * 
+   * @param trackId the track id
+   * @param firstId the first track point id
+   */
+  private void checkTrackPointCursor(long trackId, long firstId) {
+    TrackPointCursor trackPointCursor = providerUtils.openTrackPointCursor(
+        trackId, firstId + 2, false);
+    try {
+      for (int i = 2; i < 10; i++) {
+        assertTrue(trackPointCursor.moveToNext());
+        assertEquals(firstId + i, trackPointCursor.getId());
+        assertEquals((int) ((INITIAL_LATITUDE + (double) i / 10000.0) * 1E6),
+            trackPointCursor.getLatitudeE6());
+        assertEquals((int) ((INITIAL_LONGITUDE - (double) i / 10000.0) * 1E6),
+            trackPointCursor.getLongitudeE6());
+        assertEquals(1000L * i, trackPointCursor.getTimeMillis());
+        assertTrue(trackPointCursor.isValid());
+        assertTrue(trackPointCursor.hasAltitude());
+        assertEquals(i * ALTITUDE_INTERVAL, trackPointCursor.getAltitude());
+        assertEquals(i % 2 == 0, trackPointCursor.hasSensorDataSet());
+        assertEquals(i % 2 == 0 ? HEART_RATE + i : -1, trackPointCursor.getHeartRate());
+        assertEquals(-1, trackPointCursor.getCadence());
+
+        MyTracksLocation location = new MyTracksLocation("");
+        trackPointCursor.fill(location);
+        checkCompactedLocation(i, location);
+        assertEquals(i % 2 == 0, location.getSensorDataSet() != null);
+      }
+      assertFalse(trackPointCursor.moveToNext());
+    } finally {
+      trackPointCursor.close();
+    }
+  }
+
+  /**
+   * Inserts a track with locations. Every other location has a heart rate.
+   * 
+   * @param trackId the track id
+   * @param numPoints the number of locations
+   */
+  private void insertTrackWithSensorLocations(long trackId, int numPoints) {
+    Track track = getTrack(trackId, 0);
+    providerUtils.insertTrack(track);
+    Location[] locations = new Location[numPoints];
+    for (int i = 0; i < numPoints; i++) {
+      Location location = createLocation(i);
+      location.setTime(1000L * i);
+      location.setSpeed(i % 10);
+      SensorDataSet sensorDataSet = i % 2 == 0 ? SensorDataSet.newBuilder()
+          .setHeartRate(SensorData.newBuilder().setValue(HEART_RATE + i)
+              .setState(SensorState.SENDING)).build() : null;
+      locations[i] = new MyTracksLocation(location, sensorDataSet);
+    }
+    providerUtils.bulkInsertTrackPoint(locations, numPoints, trackId);
+  }
+
+  /**
+   * Tests the method {@link MyTracksProviderUtilsImpl#compactTrackPoints(long)}.
+   */
+  public void testCompactTrackPoints() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 10);
+    insertTrackWithLocations(track);
+    long firstId = providerUtils.getFirstTrackPointId(trackId);
+    long lastId = providerUtils.getLastTrackPointId(trackId);
+
+    ((MyTracksProviderUtilsImpl) providerUtils).setChunkSize(4);
+    assertEquals(10, providerUtils.compactTrackPoints(trackId));
+    assertEquals(3, getChunkCount(trackId));
+
+    assertEquals(firstId, providerUtils.getFirstTrackPointId(trackId));
+    assertEquals(lastId, providerUtils.getLastTrackPointId(trackId));
+    checkCompactedLocation(0, providerUtils.getFirstValidTrackPoint(trackId));
+    checkCompactedLocation(9, providerUtils.getLastValidTrackPoint(trackId));
+
+    LocationIterator locationIterator = providerUtils.getTrackPointLocationIterator(
+        trackId, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    for (int i = 0; i < 10; i++) {
+      assertTrue(locationIterator.hasNext());
+      checkCompactedLocation(i, locationIterator.next());
+      assertEquals(firstId + i, locationIterator.getLocationId());
+    }
+    assertFalse(locationIterator.hasNext());
+    locationIterator.close();
+
+    locationIterator = providerUtils.getTrackPointLocationIterator(
+        trackId, firstId + 5, true, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    for (int i = 5; i >= 0; i--) {
+      assertTrue(locationIterator.hasNext());
+      checkCompactedLocation(i, locationIterator.next());
+      assertEquals(firstId + i, locationIterator.getLocationId());
+    }
+    assertFalse(locationIterator.hasNext());
+    locationIterator.close();
+
+    providerUtils.deleteTrack(context, trackId);
+    assertEquals(0, getChunkCount(trackId));
+  }
+
+  /**
+   * Tests the method
+   * {@link MyTracksProviderUtilsImpl#getTrackPointCursor(long, long, int, boolean)}
+   * with compacted track points.
+   */
+  public void testCompactTrackPoints_getTrackPointCursor() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 10);
+    insertTrackWithLocations(track);
+    long firstId = providerUtils.getFirstTrackPointId(trackId);
+    ((MyTracksProviderUtilsImpl) providerUtils).setChunkSize(4);
+    providerUtils.compactTrackPoints(trackId);
+    providerUtils.insertTrackPoint(createLocation(10), trackId);
+
+    Cursor cursor = providerUtils.getTrackPointCursor(trackId, -1L, -1, false);
+    try {
+      assertEquals(11, cursor.getCount());
+      for (int i = 0; i < 11; i++) {
+        assertTrue(cursor.moveToNext());
+        assertEquals(firstId + i, cursor.getLong(cursor.getColumnIndex(TrackPointsColumns._ID)));
+        checkCompactedLocation(i, providerUtils.createTrackPoint(cursor));
+      }
+    } finally {
+      cursor.close();
+    }
+
+    cursor = providerUtils.getTrackPointCursor(trackId, firstId + 10, 3, true);
+    try {
+      assertEquals(3, cursor.getCount());
+      for (int i = 10; i > 7; i--) {
+        assertTrue(cursor.moveToNext());
+        checkCompactedLocation(i, providerUtils.createTrackPoint(cursor));
+      }
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Tests the method {@link MyTracksProviderUtilsImpl#getTrackPointId(long, Location)}
+   * with compacted track points.
+   */
+  public void testCompactTrackPoints_getTrackPointId() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 10);
+    for (int i = 0; i < 10; i++) {
+      track.getLocations().get(i).setTime(1000L * i);
+    }
+    insertTrackWithLocations(track);
+    long firstId = providerUtils.getFirstTrackPointId(trackId);
+    ((MyTracksProviderUtilsImpl) providerUtils).setChunkSize(4);
+    providerUtils.compactTrackPoints(trackId);
+
+    Location location = createLocation(0);
+    for (int i = 0; i < 10; i++) {
+      location.setTime(1000L * i);
+      assertEquals(firstId + i, providerUtils.getTrackPointId(trackId, location));
+    }
+    location.setTime(500L);
+    assertEquals(-1L, providerUtils.getTrackPointId(trackId, location));
+  }
+
+  /**
+   * Tests the method {@link MyTracksProviderUtilsImpl#getLastValidTrackPoint()}
+   * when the last track is compacted.
+   */
+  public void testCompactTrackPoints_getLastValidTrackPoint() {
+    long trackId = System.currentTimeMillis();
+    insertTrackWithLocations(getTrack(trackId, 5));
+    Track track = getTrack(trackId + 1, 10);
+    track.getLocations().get(9).setLatitude(100);
+    insertTrackWithLocations(track);
+    providerUtils.compactTrackPoints(trackId + 1);
+
+    checkCompactedLocation(8, providerUtils.getLastValidTrackPoint());
+  }
+
+  /**
+   * Tests iterating a compacted track with new track points added after the
+   * compaction.
+   */
+  public void testCompactTrackPoints_newTrackPoints() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 10);
+    insertTrackWithLocations(track);
+    ((MyTracksProviderUtilsImpl) providerUtils).setChunkSize(4);
+    providerUtils.compactTrackPoints(trackId);
+
+    Location[] locations = new Location[5];
+    for (int i = 0; i < locations.length; i++) {
+      locations[i] = createLocation(10 + i);
+    }
+    providerUtils.bulkInsertTrackPoint(locations, locations.length, trackId);
+
+    for (boolean descending : new boolean[] { false, true }) {
+      LocationIterator locationIterator = providerUtils.getTrackPointLocationIterator(
+          trackId, -1L, descending, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+      for (int i = 0; i < 15; i++) {
+        assertTrue(locationIterator.hasNext());
+        checkCompactedLocation(descending ? 14 - i : i, locationIterator.next());
+      }
+      assertFalse(locationIterator.hasNext());
+      locationIterator.close();
+    }
+  }
+
+  /**
+   * Tests inserting, getting, and deleting trip statistics checkpoints.
+   */
+  public void testTripStatisticsCheckpoints() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 10);
+    insertTrackWithLocations(track);
+    assertNull(providerUtils.getLastTripStatisticsCheckpoint(trackId, "a", -1L));
+
+    for (long trackPointId = 100L; trackPointId <= 300L; trackPointId += 100L) {
+      providerUtils.insertTripStatisticsCheckpoint(new TripStatisticsCheckpoint(
+          trackId, trackPointId, "a", new byte[] { (byte) (trackPointId / 100L) }));
+    }
+    providerUtils.insertTripStatisticsCheckpoint(
+        new TripStatisticsCheckpoint(trackId, 400L, "b", new byte[] { 4 }));
+
+    TripStatisticsCheckpoint checkpoint = providerUtils.getLastTripStatisticsCheckpoint(
+        trackId, "a", -1L);
+    assertEquals(300L, checkpoint.getTrackPointId());
+    assertEquals(3, checkpoint.getData()[0]);
+    checkpoint = providerUtils.getLastTripStatisticsCheckpoint(trackId, "a", 250L);
+    assertEquals(200L, checkpoint.getTrackPointId());
+    assertEquals(2, checkpoint.getData()[0]);
+    assertEquals(400L,
+        providerUtils.getLastTripStatisticsCheckpoint(trackId, "b", -1L).getTrackPointId());
+    assertNull(providerUtils.getLastTripStatisticsCheckpoint(trackId + 1, "a", -1L));
+
+    providerUtils.deleteTripStatisticsCheckpoints(trackId, 200L);
+    assertEquals(100L,
+        providerUtils.getLastTripStatisticsCheckpoint(trackId, "a", -1L).getTrackPointId());
+    assertNull(providerUtils.getLastTripStatisticsCheckpoint(trackId, "b", -1L));
+
+    // Compaction changes the track points
+    providerUtils.compactTrackPoints(trackId);
+    assertNull(providerUtils.getLastTripStatisticsCheckpoint(trackId, "a", -1L));
+
+    providerUtils.insertTripStatisticsCheckpoint(
+        new TripStatisticsCheckpoint(trackId, 100L, "a", new byte[] { 1 }));
+    providerUtils.deleteTrack(context, trackId);
+    assertNull(providerUtils.getLastTripStatisticsCheckpoint(trackId, "a", -1L));
+  }
+
+  /**
+   * Tests inserting, getting, and deleting track point level blocks.
+   */
+  public void testTrackPointLevelBlocks() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 10);
+    insertTrackWithLocations(track);
+    assertNull(providerUtils.getLastTrackPointLevelBlock(trackId, 1));
+
+    List<TrackPointLevelBlock> blocks = new ArrayList<TrackPointLevelBlock>();
+    blocks.add(new TrackPointLevelBlock(trackId, 1, 1L, 10L, 12L, 5, new byte[] { 1 }));
+    blocks.add(new TrackPointLevelBlock(trackId, 1, 20L, 30L, 32L, 5, new byte[] { 2 }));
+    blocks.add(new TrackPointLevelBlock(trackId, 2, 1L, 30L, 30L, 3, new byte[] { 3 }));
+    providerUtils.insertTrackPointLevelBlocks(blocks);
+
+    assertEquals(2, providerUtils.getTrackPointLevelBlocks(trackId, 1, -1L).size());
+    List<TrackPointLevelBlock> levelBlocks = providerUtils.getTrackPointLevelBlocks(
+        trackId, 1, 15L);
+    assertEquals(1, levelBlocks.size());
+    assertEquals(20L, levelBlocks.get(0).getStartId());
+    TrackPointLevelBlock block = providerUtils.getLastTrackPointLevelBlock(trackId, 1);
+    assertEquals(20L, block.getStartId());
+    assertEquals(30L, block.getStopId());
+    assertEquals(32L, block.getCoveredId());
+    assertEquals(5, block.getNumPoints());
+    assertEquals(2, block.getData()[0]);
+    assertEquals(3, providerUtils.getLastTrackPointLevelBlock(trackId, 2).getData()[0]);
+
+    // Replace the last block of level 1
+    blocks.clear();
+    blocks.add(new TrackPointLevelBlock(trackId, 1, 20L, 40L, 41L, 6, new byte[] { 4 }));
+    providerUtils.insertTrackPointLevelBlocks(blocks);
+    assertEquals(2, providerUtils.getTrackPointLevelBlocks(trackId, 1, -1L).size());
+    block = providerUtils.getLastTrackPointLevelBlock(trackId, 1);
+    assertEquals(40L, block.getStopId());
+    assertEquals(4, block.getData()[0]);
+
+    providerUtils.deleteTrack(context, trackId);
+    assertNull(providerUtils.getLastTrackPointLevelBlock(trackId, 1));
+    assertNull(providerUtils.getLastTrackPointLevelBlock(trackId, 2));
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getTrackIdsNear(double, double, double)}.
+   */
+  public void testGetTrackIdsNear() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 10);
+    insertTrackWithLocations(track);
+
+    // The track runs about 150m from the initial location
+    assertTrue(providerUtils.getTrackIdsNear(
+        INITIAL_LATITUDE + 0.001, INITIAL_LONGITUDE - 0.001, 500.0).contains(trackId));
+    assertFalse(providerUtils.getTrackIdsNear(
+        INITIAL_LATITUDE + 0.1, INITIAL_LONGITUDE, 500.0).contains(trackId));
+
+    // Compacting the track points keeps the track cells
+    providerUtils.compactTrackPoints(trackId);
+    assertTrue(providerUtils.getTrackIdsNear(
+        INITIAL_LATITUDE, INITIAL_LONGITUDE, 500.0).contains(trackId));
+
+    providerUtils.deleteTrack(context, trackId);
+    assertFalse(providerUtils.getTrackIdsNear(
+        INITIAL_LATITUDE, INITIAL_LONGITUDE, 500.0).contains(trackId));
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getTrackIdsNear(double, double, double)}
+   * across the 180th meridian.
+   */
+  public void testGetTrackIdsNear_antimeridian() {
+    Track track = new Track();
+    long trackId = ContentUris.parseId(providerUtils.insertTrack(track));
+    Location location = new Location("gps");
+    location.setLatitude(10.0);
+    location.setLongitude(179.999);
+    location.setTime(System.currentTimeMillis());
+    providerUtils.insertTrackPoint(location, trackId);
+
+    assertTrue(providerUtils.getTrackIdsNear(10.0, -179.999, 500.0).contains(trackId));
+    assertTrue(providerUtils.getTrackIdsNear(10.0, 179.999, 500.0).contains(trackId));
+    assertFalse(providerUtils.getTrackIdsNear(10.0, -179.9, 500.0).contains(trackId));
+
+    providerUtils.deleteTrack(context, trackId);
+  }
+
+  /**
+   * Gets the number of track point chunks of a track.
+   * 
+   * @param trackId the track id
+   */
+  private int getChunkCount(long trackId) {
+    Cursor cursor = context.getContentResolver().query(TrackPointChunksColumns.CONTENT_URI, null,
+        TrackPointChunksColumns.TRACKID + "=?", new String[] { Long.toString(trackId) }, null);
+    try {
+      return cursor.getCount();
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Checks the value of a compacted location. Accuracy is quantized to 0.1.
+   * 
+   * @param i the index of this location which created in the method
+   *          {@link MyTracksProviderUtilsImplTest#getTrack(long, int)}
+   * @param location the location to be checked
+   */
+  private void checkCompactedLocation(int i, Location location) {
+    assertEquals(INITIAL_LATITUDE + (double) i / 10000.0, location.getLatitude());
+    assertEquals(INITIAL_LONGITUDE - (double) i / 10000.0, location.getLongitude());
+    assertEquals((float) i / 100.0f, location.getAccuracy(), 0.05f);
+    assertEquals(i * ALTITUDE_INTERVAL, location.getAltitude());
+  }
+
   /**
    * Simulates a track which is used for testing.
    * 
@@ -227,6 +227,36 @@ public class SearchEngineTest extends AndroidTestCase {
     assertTrackResults(results, nearId, farId, farFarAwayId);
   }
 
+  public void testSearchTrackPassingNearby() {
+    // All results match text, the farthest one passes by the user.
+    long passingId = insertTrack("aa", 0.3);
+    long nearId = insertTrack("ab", 0.1);
+    providerUtils.insertTrackPoint(new Location(HERE), passingId);
+
+    SearchQuery query = new SearchQuery("a", HERE, -1, NOW);
+    ArrayList<ScoredResult> results = new ArrayList<ScoredResult>(engine.search(query));
+
+    // The track passing by comes first.
+    assertTrackResults(results, passingId, nearId);
+  }
+
+  public void testSearchTrackPassingOutsideRadius() {
+    // The farthest track passes through the cells around the user, but not
+    // within the nearby radius.
+    long passingId = insertTrack("aa", 0.3);
+    long nearId = insertTrack("ab", 0.1);
+    Location location = new Location(HERE);
+    location.setLatitude(HERE.getLatitude() + 0.005);
+    location.setLongitude(HERE.getLongitude() + 0.005);
+    providerUtils.insertTrackPoint(location, passingId);
+
+    SearchQuery query = new SearchQuery("a", HERE, -1, NOW);
+    ArrayList<ScoredResult> results = new ArrayList<ScoredResult>(engine.search(query));
+
+    // Distance order.
+    assertTrackResults(results, nearId, passingId);
+  }
+
   public void testSearchWaypointDistance() {
     // All results match text, but they're at difference distances from the user.
     long farFarAwayId = insertWaypoint("aa", 0.3);
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.content.MyTracksProvider.DatabaseHelper;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.Suppress;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Benchmarks finding the tracks passing near a location on a 2000 tracks
+ * database, scanning the track points versus querying the track cells. The
+ * results are logged. The run with long tracks takes a long time on a device
+ * and is suppressed by default.
+ */
+public class TrackCellsBenchmarkTest extends AndroidTestCase {
+
+  private static final String TAG = TrackCellsBenchmarkTest.class.getSimpleName();
+  private static final String DATABASE_NAME = "mytrackscellsbenchmark.db";
+
+  private static final int NUMBER_OF_TRACKS = 2000;
+
+  // Center of the area of the tracks
+  private static final int LATITUDE_E6 = 37000000;
+  private static final int LONGITUDE_E6 = -122000000;
+
+  // Size of the area of the tracks, about 50km
+  private static final int AREA_E6 = 450000;
+
+  // Maximum step between two track points, about 10m
+  private static final int STEP_E6 = 90;
+
+  private static final double RADIUS = 500.0;
+  private static final double METERS_PER_DEGREE = 111320.0;
+
+  // Number of times to run each query
+  private static final int ITERATIONS = 20;
+
+  private SQLiteDatabase db;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    getContext().deleteDatabase(DATABASE_NAME);
+    db = (new DatabaseHelper(getContext(), DATABASE_NAME)).getWritableDatabase();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    db.close();
+    getContext().deleteDatabase(DATABASE_NAME);
+    super.tearDown();
+  }
+
+  @LargeTest
+  public void testTracksNear_2000x200() {
+    runBenchmark(200);
+  }
+
+  @Suppress
+  public void testTracksNear_2000x2000() {
+    runBenchmark(2000);
+  }
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param pointsPerTrack the number of track points per track
+   */
+  private void runBenchmark(int pointsPerTrack) {
+    long[] insertTimes = insertTracks(pointsPerTrack);
+
+    double latitude = LATITUDE_E6 / 1E6;
+    double longitude = LONGITUDE_E6 / 1E6;
+    double deltaLatitude = RADIUS / METERS_PER_DEGREE;
+    double deltaLongitude = deltaLatitude / Math.cos(Math.toRadians(latitude));
+    String scanSql = "SELECT DISTINCT " + TrackPointsColumns.TRACKID + " FROM "
+        + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.LATITUDE + " BETWEEN "
+        + (int) ((latitude - deltaLatitude) * 1E6) + " AND "
+        + (int) ((latitude + deltaLatitude) * 1E6) + " AND " + TrackPointsColumns.LONGITUDE
+        + " BETWEEN " + (int) ((longitude - deltaLongitude) * 1E6) + " AND "
+        + (int) ((longitude + deltaLongitude) * 1E6);
+
+    long[] ranges = TrackCells.getCellRanges(latitude, longitude, RADIUS);
+    StringBuilder cellsSql = new StringBuilder("SELECT DISTINCT " + TrackCellsColumns.TRACKID
+        + " FROM " + TrackCellsColumns.TABLE_NAME + " WHERE ");
+    for (int i = 0; i < ranges.length; i += 2) {
+      if (i > 0) {
+        cellsSql.append(" OR ");
+      }
+      cellsSql.append("(" + TrackCellsColumns.CELL + " BETWEEN " + ranges[i] + " AND "
+          + ranges[i + 1] + ")");
+    }
+
+    Set<Long> scanTrackIds = new HashSet<Long>();
+    Set<Long> cellsTrackIds = new HashSet<Long>();
+    long scanTime = timeQuery(scanSql, scanTrackIds);
+    long cellsTime = timeQuery(cellsSql.toString(), cellsTrackIds);
+
+    // The cells cover the bounding box of the circle
+    assertTrue(cellsTrackIds.containsAll(scanTrackIds));
+
+    Log.i(TAG, NUMBER_OF_TRACKS + " tracks of " + pointsPerTrack + " points, insert: "
+        + insertTimes[0] + " ms, track cells: " + insertTimes[1] + " ms, "
+        + DatabaseUtils.queryNumEntries(db, TrackCellsColumns.TABLE_NAME) + " cells");
+    Log.i(TAG, "Tracks near: scan " + scanTime + " us, " + scanTrackIds.size()
+        + " tracks, track cells " + cellsTime + " us, " + cellsTrackIds.size() + " tracks");
+  }
+
+  /**
+   * Inserts {@link #NUMBER_OF_TRACKS} tracks, each a random walk starting at a
+   * random location of the area. Returns the time spent inserting the track
+   * points and the time spent inserting the track cells, in milliseconds.
+   *
+   * @param pointsPerTrack the number of track points per track
+   */
+  private long[] insertTracks(int pointsPerTrack) {
+    SQLiteStatement pointStatement = db.compileStatement("INSERT INTO "
+        + TrackPointsColumns.TABLE_NAME + " (" + TrackPointsColumns.TRACKID + ", "
+        + TrackPointsColumns.LATITUDE + ", " + TrackPointsColumns.LONGITUDE + ", "
+        + TrackPointsColumns.TIME + ") VALUES (?, ?, ?, ?)");
+    SQLiteStatement cellStatement = db.compileStatement("INSERT OR IGNORE INTO "
+        + TrackCellsColumns.TABLE_NAME + " (" + TrackCellsColumns.TRACKID + ", "
+        + TrackCellsColumns.CELL + ") VALUES (?, ?)");
+    Random random = new Random(0);
+    long pointTime = 0L;
+    long cellTime = 0L;
+    db.beginTransaction();
+    try {
+      for (int trackId = 0; trackId < NUMBER_OF_TRACKS; trackId++) {
+        int latitudeE6 = LATITUDE_E6 + random.nextInt(AREA_E6) - AREA_E6 / 2;
+        int longitudeE6 = LONGITUDE_E6 + random.nextInt(AREA_E6) - AREA_E6 / 2;
+        long lastCell = -1L;
+        for (int i = 0; i < pointsPerTrack; i++) {
+          latitudeE6 += random.nextInt(2 * STEP_E6 + 1) - STEP_E6;
+          longitudeE6 += random.nextInt(2 * STEP_E6 + 1) - STEP_E6;
+
+          long start = System.nanoTime();
+          pointStatement.bindLong(1, trackId);
+          pointStatement.bindLong(2, latitudeE6);
+          pointStatement.bindLong(3, longitudeE6);
+          pointStatement.bindLong(4, i * 1000L);
+          pointStatement.executeInsert();
+          long middle = System.nanoTime();
+          long cell = TrackCells.getCell(latitudeE6, longitudeE6);
+          if (cell != lastCell) {
+            cellStatement.bindLong(1, trackId);
+            cellStatement.bindLong(2, cell);
+            cellStatement.executeInsert();
+            lastCell = cell;
+          }
+          pointTime += middle - start;
+          cellTime += System.nanoTime() - middle;
+        }
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+      pointStatement.close();
+      cellStatement.close();
+    }
+    return new long[] { pointTime / 1000000L, cellTime / 1000000L };
+  }
+
+  /**
+   * Returns the average latency of a query of track ids in microseconds.
+   *
+   * @param sql the sql
+   * @param trackIds the set to fill with the track ids
+   */
+  private long timeQuery(String sql, Set<Long> trackIds) {
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      trackIds.clear();
+      Cursor cursor = db.rawQuery(sql, null);
+      try {
+        while (cursor.moveToNext()) {
+          trackIds.add(cursor.getLong(0));
+        }
+      } finally {
+        cursor.close();
+      }
+    }
+    return (System.nanoTime() - start) / ITERATIONS / 1000L;
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.content.TrackDataHubExecutor.TaskType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link TrackDataHubExecutor}.
+ */
+public class TrackDataHubExecutorTest extends TestCase {
+
+  private TrackDataHubExecutor executor;
+  private final CountDownLatch blocked = new CountDownLatch(1);
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final List<String> names = new ArrayList<String>();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    executor = new TrackDataHubExecutor("TrackDataHubExecutorTest");
+
+    // Block the worker thread until the tasks under test are submitted
+    executor.execute(TaskType.LOAD_TRACK, new Runnable() {
+      @Override
+      public void run() {
+        blocked.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    executor.shutdown();
+    super.tearDown();
+  }
+
+  /**
+   * Tests that tasks run by priority, then in submission order.
+   */
+  public void testExecute_priority() throws Exception {
+    execute(TaskType.LOAD_TRACK, "loadTrack");
+    execute(TaskType.LISTENER, "listener");
+    execute(TaskType.WAYPOINTS_TABLE, "waypoints");
+    execute(TaskType.TRACKS_TABLE, "tracks");
+    execute(TaskType.TRACK_POINTS_TABLE, "trackPoints");
+    execute(TaskType.PREFERENCE, "preference");
+    release.countDown();
+    awaitTasks();
+
+    assertEquals(6, names.size());
+    assertEquals("tracks", names.get(0));
+    assertEquals("trackPoints", names.get(1));
+    assertEquals("waypoints", names.get(2));
+    assertEquals("preference", names.get(3));
+    assertEquals("loadTrack", names.get(4));
+    assertEquals("listener", names.get(5));
+  }
+
+  /**
+   * Tests removing the pending tasks of a type.
+   */
+  public void testRemoveTasks() throws Exception {
+    execute(TaskType.LOAD_TRACK, "loadTrack1");
+    execute(TaskType.LISTENER, "listener");
+    execute(TaskType.LOAD_TRACK, "loadTrack2");
+    executor.removeTasks(TaskType.LOAD_TRACK);
+    execute(TaskType.LOAD_TRACK, "loadTrack3");
+    release.countDown();
+    awaitTasks();
+
+    assertEquals(2, names.size());
+    assertEquals("listener", names.get(0));
+    assertEquals("loadTrack3", names.get(1));
+  }
+
+  /**
+   * Tests that a failing task does not stop the following tasks.
+   */
+  public void testExecute_failure() throws Exception {
+    executor.execute(TaskType.TRACKS_TABLE, new Runnable() {
+      @Override
+      public void run() {
+        throw new IllegalStateException("Test failure");
+      }
+    });
+    execute(TaskType.LISTENER, "listener");
+    release.countDown();
+    awaitTasks();
+
+    assertEquals(1, names.size());
+    assertEquals("listener", names.get(0));
+  }
+
+  /**
+   * Tests the queue latency instrumentation.
+   */
+  public void testQueueLatency() throws Exception {
+    execute(TaskType.TRACKS_TABLE, "tracks");
+    Thread.sleep(50);
+    release.countDown();
+    awaitTasks();
+
+    assertEquals(2, executor.getNumTasks(TaskType.LOAD_TRACK));
+    assertEquals(1, executor.getNumTasks(TaskType.TRACKS_TABLE));
+    assertEquals(0, executor.getNumTasks(TaskType.LISTENER));
+    assertTrue(executor.getMaxQueueLatency(TaskType.TRACKS_TABLE) >= 50L);
+    assertEquals(executor.getMaxQueueLatency(TaskType.TRACKS_TABLE),
+        executor.getAverageQueueLatency(TaskType.TRACKS_TABLE));
+    assertEquals(0L, executor.getAverageQueueLatency(TaskType.LISTENER));
+  }
+
+  /**
+   * Submits a task adding its name to {@link #names}.
+   * 
+   * @param taskType the task type
+   * @param name the name
+   */
+  private void execute(TaskType taskType, final String name) {
+    executor.execute(taskType, new Runnable() {
+      @Override
+      public void run() {
+        synchronized (names) {
+          names.add(name);
+        }
+      }
+    });
+  }
+
+  /**
+   * Waits for the submitted tasks to complete.
+   */
+  private void awaitTasks() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    executor.execute(TaskType.LOAD_TRACK, new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    });
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+  }
+}
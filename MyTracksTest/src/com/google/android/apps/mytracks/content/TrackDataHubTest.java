@@ -22,8 +22,8 @@ import static com.google.android.testing.mocking.AndroidMock.isA;
 
 import com.google.android.apps.mytracks.Constants;
 import com.google.android.apps.mytracks.TrackStubUtils;
-import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationFactory;
-import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
+import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
+import com.google.android.apps.mytracks.content.TrackDataHubExecutor.TaskType;
 import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
 import com.google.android.maps.mytracks.R;
@@ -80,15 +80,16 @@ public class TrackDataHubTest extends AndroidTestCase {
     myTracksProviderUtils = AndroidMock.createMock(MyTracksProviderUtils.class);
     dataSource = AndroidMock.createMock(DataSource.class, context);
     trackDataManager = new TrackDataManager();
-    trackDataHub = new TrackDataHub(
-        context, trackDataManager, myTracksProviderUtils, TARGET_POINTS) {
+    // A cache without capacity reads every track point from the database
+    trackDataHub = new TrackDataHub(context, trackDataManager, myTracksProviderUtils,
+        new TrackPointCache(0), TARGET_POINTS) {
         @Override
       protected DataSource newDataSource() {
         return dataSource;
       }
 
         @Override
-      protected void runInHanderThread(Runnable runnable) {
+      protected void runInExecutor(TaskType taskType, Runnable runnable) {
         // Run everything in the same thread
         runnable.run();
       }
@@ -269,12 +270,12 @@ public class TrackDataHubTest extends AndroidTestCase {
     dataSource.registerContentObserver(
         eq(TrackPointsColumns.CONTENT_URI), capture(contentObserverCapture));
 
-    FixedSizeLocationIterator locationIterator = new FixedSizeLocationIterator(1, 10, 5);
-    expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+    FixedSizeTrackPointCursor trackPointCursor = new FixedSizeTrackPointCursor(1, 10, 5);
+    expect(myTracksProviderUtils.openTrackPointCursor(
+        eq(TRACK_ID), eq(0L), eq(false))).andReturn(trackPointCursor);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(10L);
     trackDataListener1.clearTrackPoints();
-    locationIterator.expectLocationsDelivered(trackDataListener1);
+    trackPointCursor.expectLocationsDelivered(trackDataListener1);
     trackDataListener1.onNewTrackPointsDone();
     replay();
 
@@ -285,12 +286,12 @@ public class TrackDataHubTest extends AndroidTestCase {
     verifyAndReset();
 
     // Register a second listener
-    locationIterator = new FixedSizeLocationIterator(1, 10, 5);
-    expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+    trackPointCursor = new FixedSizeTrackPointCursor(1, 10, 5);
+    expect(myTracksProviderUtils.openTrackPointCursor(
+        eq(TRACK_ID), eq(0L), eq(false))).andReturn(trackPointCursor);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(10L);
     trackDataListener2.clearTrackPoints();
-    locationIterator.expectLocationsDelivered(trackDataListener2);
+    trackPointCursor.expectLocationsDelivered(trackDataListener2);
     trackDataListener2.onNewTrackPointsDone();
     replay();
 
@@ -300,12 +301,12 @@ public class TrackDataHubTest extends AndroidTestCase {
 
     // Deliver more points - should go to both listeners without clearing
     ContentObserver contentObserver = contentObserverCapture.getValue();
-    locationIterator = new FixedSizeLocationIterator(11, 10, 1);
-    expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(11L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+    trackPointCursor = new FixedSizeTrackPointCursor(11, 10, 1);
+    expect(myTracksProviderUtils.openTrackPointCursor(
+        eq(TRACK_ID), eq(11L), eq(false))).andReturn(trackPointCursor);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(20L);
-    locationIterator.expectLocationsDelivered(trackDataListener1);
-    locationIterator.expectLocationsDelivered(trackDataListener2);
+    trackPointCursor.expectLocationsDelivered(trackDataListener1);
+    trackPointCursor.expectLocationsDelivered(trackDataListener2);
     trackDataListener1.onNewTrackPointsDone();
     trackDataListener2.onNewTrackPointsDone();
     replay();
@@ -314,13 +315,12 @@ public class TrackDataHubTest extends AndroidTestCase {
     verifyAndReset();
 
     // Unregister one listener and change track
-    locationIterator = new FixedSizeLocationIterator(101, 10);
-    expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID + 1), eq(0L), eq(false), isA(LocationFactory.class)))
-        .andReturn(locationIterator);
+    trackPointCursor = new FixedSizeTrackPointCursor(101, 10);
+    expect(myTracksProviderUtils.openTrackPointCursor(
+        eq(TRACK_ID + 1), eq(0L), eq(false))).andReturn(trackPointCursor);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID + 1)).andReturn(110L);
     trackDataListener2.clearTrackPoints();
-    locationIterator.expectLocationsDelivered(trackDataListener2);
+    trackPointCursor.expectLocationsDelivered(trackDataListener2);
     trackDataListener2.onNewTrackPointsDone();
     replay();
 
@@ -339,13 +339,13 @@ public class TrackDataHubTest extends AndroidTestCase {
     dataSource.registerContentObserver(
         eq(TrackPointsColumns.CONTENT_URI), capture(contentObserverCapture));
 
-    FixedSizeLocationIterator locationIterator = new FixedSizeLocationIterator(1, 10, 5);
-    expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+    FixedSizeTrackPointCursor trackPointCursor = new FixedSizeTrackPointCursor(1, 10, 5);
+    expect(myTracksProviderUtils.openTrackPointCursor(
+        eq(TRACK_ID), eq(0L), eq(false))).andReturn(trackPointCursor);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(10L);
 
     trackDataListener1.clearTrackPoints();
-    locationIterator.expectLocationsDelivered(trackDataListener1);
+    trackPointCursor.expectLocationsDelivered(trackDataListener1);
     trackDataListener1.onNewTrackPointsDone();
     replay();
 
@@ -366,12 +366,12 @@ public class TrackDataHubTest extends AndroidTestCase {
     // Register again
     dataSource.registerContentObserver(
         eq(TrackPointsColumns.CONTENT_URI), capture(contentObserverCapture));
-    locationIterator = new FixedSizeLocationIterator(1, 10, 5);
-    expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+    trackPointCursor = new FixedSizeTrackPointCursor(1, 10, 5);
+    expect(myTracksProviderUtils.openTrackPointCursor(
+        eq(TRACK_ID), eq(0L), eq(false))).andReturn(trackPointCursor);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(10L);
     trackDataListener1.clearTrackPoints();
-    locationIterator.expectLocationsDelivered(trackDataListener1);
+    trackPointCursor.expectLocationsDelivered(trackDataListener1);
     trackDataListener1.onNewTrackPointsDone();
     replay();
 
@@ -390,12 +390,12 @@ public class TrackDataHubTest extends AndroidTestCase {
     dataSource.registerContentObserver(
         eq(TrackPointsColumns.CONTENT_URI), capture(observerCapture));
 
-    FixedSizeLocationIterator locationIterator = new FixedSizeLocationIterator(1, 10, 5);
-    expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+    FixedSizeTrackPointCursor trackPointCursor = new FixedSizeTrackPointCursor(1, 10, 5);
+    expect(myTracksProviderUtils.openTrackPointCursor(
+        eq(TRACK_ID), eq(0L), eq(false))).andReturn(trackPointCursor);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(10L);
     trackDataListener1.clearTrackPoints();
-    locationIterator.expectLocationsDelivered(trackDataListener1);
+    trackPointCursor.expectLocationsDelivered(trackDataListener1);
     trackDataListener1.onNewTrackPointsDone();
     replay();
 
@@ -416,13 +416,12 @@ public class TrackDataHubTest extends AndroidTestCase {
     // Register the listener after a new track
     dataSource.registerContentObserver(
         eq(TrackPointsColumns.CONTENT_URI), capture(observerCapture));
-    locationIterator = new FixedSizeLocationIterator(1, 10);
-    expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID + 1), eq(0L), eq(false), isA(LocationFactory.class)))
-        .andReturn(locationIterator);
+    trackPointCursor = new FixedSizeTrackPointCursor(1, 10);
+    expect(myTracksProviderUtils.openTrackPointCursor(
+        eq(TRACK_ID + 1), eq(0L), eq(false))).andReturn(trackPointCursor);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID + 1)).andReturn(10L);
     trackDataListener1.clearTrackPoints();
-    locationIterator.expectLocationsDelivered(trackDataListener1);
+    trackPointCursor.expectLocationsDelivered(trackDataListener1);
     trackDataListener1.onNewTrackPointsDone();
     replay();
 
@@ -432,6 +431,49 @@ public class TrackDataHubTest extends AndroidTestCase {
     verifyAndReset();
   }
 
+  /**
+   * Tests track points table update with the inserted id range in the uri.
+   */
+  public void testTrackPointsTableUpdate_idRange() {
+    Capture<ContentObserver> contentObserverCapture = new Capture<ContentObserver>();
+    dataSource.registerContentObserver(
+        eq(TrackPointsColumns.CONTENT_URI), capture(contentObserverCapture));
+
+    FixedSizeTrackPointCursor trackPointCursor = new FixedSizeTrackPointCursor(1, 10);
+    expect(myTracksProviderUtils.openTrackPointCursor(
+        eq(TRACK_ID), eq(0L), eq(false))).andReturn(trackPointCursor);
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(10L);
+    trackDataListener1.clearTrackPoints();
+    trackPointCursor.expectLocationsDelivered(trackDataListener1);
+    trackDataListener1.onNewTrackPointsDone();
+    replay();
+
+    trackDataHub.start();
+    trackDataHub.loadTrack(TRACK_ID);
+    trackDataHub.registerTrackDataListener(
+        trackDataListener1, EnumSet.of(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE));
+    verifyAndReset();
+
+    // Track points of another track, no queries
+    ContentObserver contentObserver = contentObserverCapture.getValue();
+    replay();
+
+    contentObserver.onChange(
+        false, NotificationCoalescer.getTrackPointsUri(TRACK_ID + 1, 11L, 15L));
+    verifyAndReset();
+
+    // Track points of the selected track, no last track point id query
+    trackPointCursor = new FixedSizeTrackPointCursor(16, 5);
+    expect(myTracksProviderUtils.openTrackPointCursor(
+        eq(TRACK_ID), eq(11L), eq(false))).andReturn(trackPointCursor);
+    trackPointCursor.expectLocationsDelivered(trackDataListener1);
+    trackDataListener1.onNewTrackPointsDone();
+    replay();
+
+    contentObserver.onChange(false, NotificationCoalescer.getTrackPointsUri(TRACK_ID, 16L, 20L));
+    verifyAndReset();
+  }
+
   /**
    * Tests track points table update with large track sampling.
    */
@@ -442,20 +484,20 @@ public class TrackDataHubTest extends AndroidTestCase {
 
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(200L);
     AndroidMock.expectLastCall().anyTimes();
-    FixedSizeLocationIterator locationIterator1 = new FixedSizeLocationIterator(
+    FixedSizeTrackPointCursor trackPointCursor1 = new FixedSizeTrackPointCursor(
         1, 200, 4, 25, 71, 120);
-    expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator1);
-    FixedSizeLocationIterator locationIterator2 = new FixedSizeLocationIterator(
+    expect(myTracksProviderUtils.openTrackPointCursor(
+        eq(TRACK_ID), eq(0L), eq(false))).andReturn(trackPointCursor1);
+    FixedSizeTrackPointCursor trackPointCursor2 = new FixedSizeTrackPointCursor(
         1, 200, 4, 25, 71, 120);
-    expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator2);
+    expect(myTracksProviderUtils.openTrackPointCursor(
+        eq(TRACK_ID), eq(0L), eq(false))).andReturn(trackPointCursor2);
 
     trackDataListener1.clearTrackPoints();
-    locationIterator1.expectSampledLocationsDelivered(trackDataListener1, 4, false);
+    trackPointCursor1.expectSampledLocationsDelivered(trackDataListener1, 4, false);
     trackDataListener1.onNewTrackPointsDone();
     trackDataListener2.clearTrackPoints();
-    locationIterator2.expectSampledLocationsDelivered(trackDataListener2, 4, true);
+    trackPointCursor2.expectSampledLocationsDelivered(trackDataListener2, 4, true);
     trackDataListener2.onNewTrackPointsDone();
     replay();
 
@@ -468,6 +510,95 @@ public class TrackDataHubTest extends AndroidTestCase {
     verifyAndReset();
   }
 
+  /**
+   * Tests that a listener of the sampled out track points only does not get
+   * the sampled in track points.
+   */
+  public void testTrackPointsTableUpdate_sampledOutOnly() {
+    Capture<ContentObserver> contentObserverCapture = new Capture<ContentObserver>();
+    dataSource.registerContentObserver(
+        eq(TrackPointsColumns.CONTENT_URI), capture(contentObserverCapture));
+
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(200L);
+    AndroidMock.expectLastCall().anyTimes();
+    FixedSizeTrackPointCursor trackPointCursor1 = new FixedSizeTrackPointCursor(
+        1, 200, 4, 25, 71, 120);
+    expect(myTracksProviderUtils.openTrackPointCursor(
+        eq(TRACK_ID), eq(0L), eq(false))).andReturn(trackPointCursor1);
+    FixedSizeTrackPointCursor trackPointCursor2 = new FixedSizeTrackPointCursor(
+        1, 200, 4, 25, 71, 120);
+    expect(myTracksProviderUtils.openTrackPointCursor(
+        eq(TRACK_ID), eq(0L), eq(false))).andReturn(trackPointCursor2);
+
+    trackDataListener1.clearTrackPoints();
+    trackPointCursor1.expectSampledLocationsDelivered(trackDataListener1, 4, false);
+    trackDataListener1.onNewTrackPointsDone();
+    trackDataListener2.clearTrackPoints();
+    trackPointCursor2.expectSampledOutLocationsDelivered(trackDataListener2, 4);
+    replay();
+
+    trackDataHub.start();
+    trackDataHub.loadTrack(TRACK_ID);
+    trackDataHub.registerTrackDataListener(
+        trackDataListener1, EnumSet.of(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE));
+    trackDataHub.registerTrackDataListener(
+        trackDataListener2, EnumSet.of(TrackDataType.SAMPLED_OUT_TRACK_POINTS_TABLE));
+    verifyAndReset();
+  }
+
+  /**
+   * Tests that one read of the track points samples them for each listener at
+   * its own target number of points.
+   */
+  public void testTrackPointsTableUpdate_listenerTargetNumPoints() {
+    Capture<ContentObserver> contentObserverCapture = new Capture<ContentObserver>();
+    dataSource.registerContentObserver(
+        eq(TrackPointsColumns.CONTENT_URI), capture(contentObserverCapture));
+
+    // Register two listeners
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID + 1)).andReturn(10L);
+    AndroidMock.expectLastCall().anyTimes();
+    FixedSizeTrackPointCursor trackPointCursor1 = new FixedSizeTrackPointCursor(1, 10);
+    expect(myTracksProviderUtils.openTrackPointCursor(
+        eq(TRACK_ID + 1), eq(0L), eq(false))).andReturn(trackPointCursor1);
+    FixedSizeTrackPointCursor trackPointCursor2 = new FixedSizeTrackPointCursor(1, 10);
+    expect(myTracksProviderUtils.openTrackPointCursor(
+        eq(TRACK_ID + 1), eq(0L), eq(false))).andReturn(trackPointCursor2);
+    trackDataListener1.clearTrackPoints();
+    trackPointCursor1.expectLocationsDelivered(trackDataListener1);
+    trackDataListener1.onNewTrackPointsDone();
+    trackDataListener2.clearTrackPoints();
+    trackPointCursor2.expectLocationsDelivered(trackDataListener2);
+    trackDataListener2.onNewTrackPointsDone();
+    replay();
+
+    trackDataHub.start();
+    trackDataHub.loadTrack(TRACK_ID + 1);
+    trackDataHub.registerTrackDataListener(trackDataListener1,
+        EnumSet.of(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE), 2 * TARGET_POINTS);
+    trackDataHub.registerTrackDataListener(
+        trackDataListener2, EnumSet.of(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE));
+    verifyAndReset();
+
+    // Change track, one read for both listeners
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(200L);
+    AndroidMock.expectLastCall().anyTimes();
+    FixedSizeTrackPointCursor trackPointCursor = new FixedSizeTrackPointCursor(
+        1, 200, 4, 25, 71, 120);
+    expect(myTracksProviderUtils.openTrackPointCursor(
+        eq(TRACK_ID), eq(0L), eq(false))).andReturn(trackPointCursor);
+    trackDataListener1.clearTrackPoints();
+    trackPointCursor.expectSampledLocationsDelivered(trackDataListener1, 2, false);
+    trackDataListener1.onNewTrackPointsDone();
+    trackDataListener2.clearTrackPoints();
+    trackPointCursor.expectSampledLocationsDelivered(trackDataListener2, 4, false);
+    trackDataListener2.onNewTrackPointsDone();
+    replay();
+
+    trackDataHub.loadTrack(TRACK_ID);
+    verifyAndReset();
+  }
+
   /**
    * Tests track points table update with resampling.
    */
@@ -477,13 +608,13 @@ public class TrackDataHubTest extends AndroidTestCase {
         eq(TrackPointsColumns.CONTENT_URI), capture(observerCapture));
 
     // Deliver 30 points (no sampling happens)
-    FixedSizeLocationIterator locationIterator = new FixedSizeLocationIterator(1, 30, 5);
-    expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+    FixedSizeTrackPointCursor trackPointCursor = new FixedSizeTrackPointCursor(1, 30, 5);
+    expect(myTracksProviderUtils.openTrackPointCursor(
+        eq(TRACK_ID), eq(0L), eq(false))).andReturn(trackPointCursor);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(30L);
 
     trackDataListener1.clearTrackPoints();
-    locationIterator.expectLocationsDelivered(trackDataListener1);
+    trackPointCursor.expectLocationsDelivered(trackDataListener1);
     trackDataListener1.onNewTrackPointsDone();
     replay();
 
@@ -495,11 +626,11 @@ public class TrackDataHubTest extends AndroidTestCase {
 
     // Now deliver 30 more (incrementally sampled)
     ContentObserver observer = observerCapture.getValue();
-    locationIterator = new FixedSizeLocationIterator(31, 30);
-    expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(31L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+    trackPointCursor = new FixedSizeTrackPointCursor(31, 30);
+    expect(myTracksProviderUtils.openTrackPointCursor(
+        eq(TRACK_ID), eq(31L), eq(false))).andReturn(trackPointCursor);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(60L);
-    locationIterator.expectSampledLocationsDelivered(trackDataListener1, 2, false);
+    trackPointCursor.expectSampledLocationsDelivered(trackDataListener1, 2, false);
     trackDataListener1.onNewTrackPointsDone();
     replay();
 
@@ -507,12 +638,12 @@ public class TrackDataHubTest extends AndroidTestCase {
     verifyAndReset();
 
     // Now another 30 (triggers resampling)
-    locationIterator = new FixedSizeLocationIterator(1, 90);
-    expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+    trackPointCursor = new FixedSizeTrackPointCursor(1, 90);
+    expect(myTracksProviderUtils.openTrackPointCursor(
+        eq(TRACK_ID), eq(0L), eq(false))).andReturn(trackPointCursor);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(90L);
     trackDataListener1.clearTrackPoints();
-    locationIterator.expectSampledLocationsDelivered(trackDataListener1, 2, false);
+    trackPointCursor.expectSampledLocationsDelivered(trackDataListener1, 2, false);
     trackDataListener1.onNewTrackPointsDone();
     replay();
 
@@ -624,21 +755,21 @@ public class TrackDataHubTest extends AndroidTestCase {
   }
 
   /**
-   * Fixed size location iterator.
+   * Fixed size track point cursor.
    * 
    * @author Jimmy Shih
    */
-  private static class FixedSizeLocationIterator implements LocationIterator {
+  private static class FixedSizeTrackPointCursor implements TrackPointCursor {
     private final long startId;
     private final Location[] locations;
     private final Set<Integer> splitIndexSet = new HashSet<Integer>();
     private int currentIndex = -1;
 
-    public FixedSizeLocationIterator(long startId, int size) {
+    public FixedSizeTrackPointCursor(long startId, int size) {
       this(startId, size, null);
     }
 
-    public FixedSizeLocationIterator(long startId, int size, int... splitIndexes) {
+    public FixedSizeTrackPointCursor(long startId, int size, int... splitIndexes) {
       this.startId = startId;
       this.locations = new Location[size];
 
@@ -687,25 +818,127 @@ public class TrackDataHubTest extends AndroidTestCase {
       }
     }
 
-    @Override
-    public boolean hasNext() {
-      return currentIndex < locations.length - 1;
+    public void expectSampledOutLocationsDelivered(
+        TrackDataListener listener, int sampleFrequency) {
+      boolean includeNext = false;
+      for (int i = 0; i < locations.length; i++) {
+        if (splitIndexSet.contains(i)) {
+          includeNext = true;
+        } else if (includeNext || (i % sampleFrequency == 0)) {
+          includeNext = false;
+        } else {
+          listener.onSampledOutTrackPoint(locations[i]);
+        }
+      }
     }
 
     @Override
-    public Location next() {
+    public boolean moveToNext() {
+      if (currentIndex == locations.length - 1) {
+        return false;
+      }
       currentIndex++;
-      return locations[currentIndex];
+      return true;
     }
 
     @Override
-    public void remove() {
-      throw new UnsupportedOperationException();
+    public long getId() {
+      return startId + currentIndex;
     }
 
     @Override
-    public long getLocationId() {
-      return startId + currentIndex;
+    public int getLatitudeE6() {
+      return (int) (locations[currentIndex].getLatitude() * 1E6);
+    }
+
+    @Override
+    public int getLongitudeE6() {
+      return (int) (locations[currentIndex].getLongitude() * 1E6);
+    }
+
+    @Override
+    public long getTimeMillis() {
+      return locations[currentIndex].getTime();
+    }
+
+    @Override
+    public boolean isValid() {
+      return !splitIndexSet.contains(currentIndex);
+    }
+
+    @Override
+    public boolean hasAltitude() {
+      return locations[currentIndex].hasAltitude();
+    }
+
+    @Override
+    public double getAltitude() {
+      return locations[currentIndex].getAltitude();
+    }
+
+    @Override
+    public boolean hasAccuracy() {
+      return locations[currentIndex].hasAccuracy();
+    }
+
+    @Override
+    public float getAccuracy() {
+      return locations[currentIndex].getAccuracy();
+    }
+
+    @Override
+    public boolean hasSpeed() {
+      return locations[currentIndex].hasSpeed();
+    }
+
+    @Override
+    public float getSpeed() {
+      return locations[currentIndex].getSpeed();
+    }
+
+    @Override
+    public boolean hasBearing() {
+      return locations[currentIndex].hasBearing();
+    }
+
+    @Override
+    public float getBearing() {
+      return locations[currentIndex].getBearing();
+    }
+
+    @Override
+    public boolean hasSensorDataSet() {
+      return false;
+    }
+
+    @Override
+    public SensorDataSet getSensorDataSet() {
+      return null;
+    }
+
+    @Override
+    public int getHeartRate() {
+      return -1;
+    }
+
+    @Override
+    public int getCadence() {
+      return -1;
+    }
+
+    @Override
+    public int getPower() {
+      return -1;
+    }
+
+    @Override
+    public void fill(Location location) {
+      location.set(locations[currentIndex]);
+    }
+
+    @Override
+    public Location getLocation() {
+      return locations[currentIndex];
     }
 
     @Override
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import static com.google.android.testing.mocking.AndroidMock.expect;
+
+import com.google.android.apps.mytracks.content.Sensor.SensorData;
+import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
+import com.google.android.apps.mytracks.content.Sensor.SensorState;
+import com.google.android.testing.mocking.AndroidMock;
+import com.google.android.testing.mocking.UsesMocks;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Tests {@link TrackPointCache}.
+ */
+public class TrackPointCacheTest extends AndroidTestCase {
+
+  private static final long TRACK_ID_0 = 1L;
+  private static final long TRACK_ID_1 = 2L;
+
+  private MyTracksProviderUtils myTracksProviderUtils;
+
+  @UsesMocks(MyTracksProviderUtils.class)
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myTracksProviderUtils = AndroidMock.createMock(MyTracksProviderUtils.class);
+  }
+
+  /**
+   * Tests that cached track points are returned from memory and that only the
+   * following track points are read from the database.
+   */
+  public void testOpenTrackPointCursor_hit() {
+    TrackPointCache trackPointCache = new TrackPointCache(100 * TrackPointCache.POINT_BYTES);
+    expect(myTracksProviderUtils.openTrackPointCursor(TRACK_ID_0, 0L, false))
+        .andReturn(new ArrayTrackPointCursor(1L, 5));
+    expect(myTracksProviderUtils.openTrackPointCursor(TRACK_ID_0, 6L, false))
+        .andReturn(new ArrayTrackPointCursor(6L, 2));
+    expect(myTracksProviderUtils.openTrackPointCursor(TRACK_ID_0, 8L, false))
+        .andReturn(new ArrayTrackPointCursor(8L, 0));
+    AndroidMock.replay(myTracksProviderUtils);
+
+    assertIds(trackPointCache.openTrackPointCursor(myTracksProviderUtils, TRACK_ID_0, 0L), 1, 5);
+    assertEquals(0, trackPointCache.getHitCount());
+    assertEquals(1, trackPointCache.getMissCount());
+    assertEquals(5, trackPointCache.getNumCachedPoints());
+
+    assertIds(trackPointCache.openTrackPointCursor(myTracksProviderUtils, TRACK_ID_0, 0L), 1, 7);
+    assertEquals(1, trackPointCache.getHitCount());
+    assertEquals(1, trackPointCache.getMissCount());
+    assertEquals(7, trackPointCache.getNumCachedPoints());
+
+    assertIds(trackPointCache.openTrackPointCursor(myTracksProviderUtils, TRACK_ID_0, 3L), 3, 7);
+    assertEquals(2, trackPointCache.getHitCount());
+    AndroidMock.verify(myTracksProviderUtils);
+  }
+
+  /**
+   * Tests that the cached values are the values read from the database.
+   */
+  public void testOpenTrackPointCursor_values() {
+    TrackPointCache trackPointCache = new TrackPointCache(100 * TrackPointCache.POINT_BYTES);
+    expect(myTracksProviderUtils.openTrackPointCursor(TRACK_ID_0, 0L, false))
+        .andReturn(new ArrayTrackPointCursor(1L, 3));
+    expect(myTracksProviderUtils.openTrackPointCursor(TRACK_ID_0, 4L, false))
+        .andReturn(new ArrayTrackPointCursor(4L, 0));
+    AndroidMock.replay(myTracksProviderUtils);
+
+    close(trackPointCache.openTrackPointCursor(myTracksProviderUtils, TRACK_ID_0, 0L));
+    TrackPointCursor expected = new ArrayTrackPointCursor(1L, 3);
+    TrackPointCursor actual = trackPointCache.openTrackPointCursor(
+        myTracksProviderUtils, TRACK_ID_0, 0L);
+    while (expected.moveToNext()) {
+      assertTrue(actual.moveToNext());
+      assertEquals(expected.getLatitudeE6(), actual.getLatitudeE6());
+      assertEquals(expected.getLongitudeE6(), actual.getLongitudeE6());
+      assertEquals(expected.getTimeMillis(), actual.getTimeMillis());
+      assertEquals(expected.hasAltitude(), actual.hasAltitude());
+      assertEquals(expected.getAltitude(), actual.getAltitude());
+      assertEquals(expected.hasSpeed(), actual.hasSpeed());
+      assertEquals(expected.getSpeed(), actual.getSpeed());
+      assertFalse(actual.hasAccuracy());
+      assertFalse(actual.hasBearing());
+    }
+    assertFalse(actual.moveToNext());
+    actual.close();
+    AndroidMock.verify(myTracksProviderUtils);
+  }
+
+  /**
+   * Tests that the serialized sensor data is cached and returned as read from
+   * the database.
+   */
+  public void testOpenTrackPointCursor_sensorData() {
+    TrackPointCache trackPointCache = new TrackPointCache(100 * TrackPointCache.POINT_BYTES);
+    SensorDataSet sensorDataSet = SensorDataSet.newBuilder()
+        .setCreationTime(1000L)
+        .setHeartRate(SensorData.newBuilder().setState(SensorState.SENDING).setValue(120))
+        .build();
+    byte[] sensorData = sensorDataSet.toByteArray();
+    expect(myTracksProviderUtils.openTrackPointCursor(TRACK_ID_0, 0L, false))
+        .andReturn(new ArrayTrackPointCursor(1L, 2, sensorData));
+    expect(myTracksProviderUtils.openTrackPointCursor(TRACK_ID_0, 3L, false))
+        .andReturn(new ArrayTrackPointCursor(3L, 0));
+    AndroidMock.replay(myTracksProviderUtils);
+
+    close(trackPointCache.openTrackPointCursor(myTracksProviderUtils, TRACK_ID_0, 0L));
+    assertEquals(2 * (TrackPointCache.POINT_BYTES + TrackPointCache.SENSOR_DATA_OVERHEAD_BYTES
+        + sensorData.length), trackPointCache.getNumCachedBytes());
+
+    TrackPointCursor trackPointCursor = trackPointCache.openTrackPointCursor(
+        myTracksProviderUtils, TRACK_ID_0, 0L);
+    assertTrue(trackPointCursor.moveToNext());
+    assertTrue(trackPointCursor.hasSensorDataSet());
+    assertSame(sensorData, AbstractTrackPointCursor.getSensorData(trackPointCursor));
+    assertEquals(sensorDataSet, trackPointCursor.getSensorDataSet());
+    assertEquals(120, trackPointCursor.getHeartRate());
+    close(trackPointCursor);
+    AndroidMock.verify(myTracksProviderUtils);
+  }
+
+  /**
+   * Tests that invalidating the cache reads the track points from the database
+   * again.
+   */
+  public void testInvalidateAll() {
+    TrackPointCache trackPointCache = new TrackPointCache(100 * TrackPointCache.POINT_BYTES);
+    expect(myTracksProviderUtils.openTrackPointCursor(TRACK_ID_0, 0L, false))
+        .andReturn(new ArrayTrackPointCursor(1L, 5));
+    expect(myTracksProviderUtils.openTrackPointCursor(TRACK_ID_0, 0L, false))
+        .andReturn(new ArrayTrackPointCursor(1L, 4));
+    AndroidMock.replay(myTracksProviderUtils);
+
+    close(trackPointCache.openTrackPointCursor(myTracksProviderUtils, TRACK_ID_0, 0L));
+    trackPointCache.invalidateAll();
+    assertEquals(0, trackPointCache.getNumCachedPoints());
+    assertEquals(0, trackPointCache.getNumCachedBytes());
+    assertIds(trackPointCache.openTrackPointCursor(myTracksProviderUtils, TRACK_ID_0, 0L), 1, 4);
+    assertEquals(0, trackPointCache.getHitCount());
+    assertEquals(2, trackPointCache.getMissCount());
+    AndroidMock.verify(myTracksProviderUtils);
+  }
+
+  /**
+   * Tests that the least recently used track is evicted.
+   */
+  public void testEviction() {
+    TrackPointCache trackPointCache = new TrackPointCache(8 * TrackPointCache.POINT_BYTES);
+    expect(myTracksProviderUtils.openTrackPointCursor(TRACK_ID_0, 0L, false))
+        .andReturn(new ArrayTrackPointCursor(1L, 5));
+    expect(myTracksProviderUtils.openTrackPointCursor(TRACK_ID_1, 0L, false))
+        .andReturn(new ArrayTrackPointCursor(6L, 5));
+    expect(myTracksProviderUtils.openTrackPointCursor(TRACK_ID_1, 11L, false))
+        .andReturn(new ArrayTrackPointCursor(11L, 0));
+    expect(myTracksProviderUtils.openTrackPointCursor(TRACK_ID_0, 0L, false))
+        .andReturn(new ArrayTrackPointCursor(1L, 5));
+    AndroidMock.replay(myTracksProviderUtils);
+
+    close(trackPointCache.openTrackPointCursor(myTracksProviderUtils, TRACK_ID_0, 0L));
+    close(trackPointCache.openTrackPointCursor(myTracksProviderUtils, TRACK_ID_1, 0L));
+    assertEquals(5, trackPointCache.getNumCachedPoints());
+    assertIds(trackPointCache.openTrackPointCursor(myTracksProviderUtils, TRACK_ID_1, 0L), 6, 10);
+    assertEquals(1, trackPointCache.getHitCount());
+
+    // Evicts TRACK_ID_1
+    close(trackPointCache.openTrackPointCursor(myTracksProviderUtils, TRACK_ID_0, 0L));
+    assertEquals(5, trackPointCache.getNumCachedPoints());
+    assertEquals(3, trackPointCache.getMissCount());
+    AndroidMock.verify(myTracksProviderUtils);
+  }
+
+  /**
+   * Tests that a track longer than the cache is not cached.
+   */
+  public void testEviction_tooLong() {
+    TrackPointCache trackPointCache = new TrackPointCache(3 * TrackPointCache.POINT_BYTES);
+    expect(myTracksProviderUtils.openTrackPointCursor(TRACK_ID_0, 0L, false))
+        .andReturn(new ArrayTrackPointCursor(1L, 5));
+    AndroidMock.replay(myTracksProviderUtils);
+
+    assertIds(trackPointCache.openTrackPointCursor(myTracksProviderUtils, TRACK_ID_0, 0L), 1, 5);
+    assertEquals(0, trackPointCache.getNumCachedPoints());
+    AndroidMock.verify(myTracksProviderUtils);
+  }
+
+  /**
+   * Asserts a cursor returns consecutive track point ids, then closes it.
+   * 
+   * @param trackPointCursor the cursor
+   * @param firstId the first id
+   * @param lastId the last id
+   */
+  private void assertIds(TrackPointCursor trackPointCursor, long firstId, long lastId) {
+    for (long id = firstId; id <= lastId; id++) {
+      assertTrue(trackPointCursor.moveToNext());
+      assertEquals(id, trackPointCursor.getId());
+    }
+    assertFalse(trackPointCursor.moveToNext());
+    trackPointCursor.close();
+  }
+
+  /**
+   * Reads all the track points of a cursor, then closes it.
+   * 
+   * @param trackPointCursor the cursor
+   */
+  private void close(TrackPointCursor trackPointCursor) {
+    while (trackPointCursor.moveToNext()) {}
+    trackPointCursor.close();
+  }
+
+  /**
+   * A cursor of consecutive track points.
+   */
+  private static class ArrayTrackPointCursor extends AbstractTrackPointCursor {
+    private final long startId;
+    private final int size;
+    private final byte[] sensorData;
+    private int index = -1;
+
+    public ArrayTrackPointCursor(long startId, int size) {
+      this(startId, size, null);
+    }
+
+    public ArrayTrackPointCursor(long startId, int size, byte[] sensorData) {
+      this.startId = startId;
+      this.size = size;
+      this.sensorData = sensorData;
+    }
+
+    @Override
+    protected boolean advance() {
+      if (index + 1 >= size) {
+        return false;
+      }
+      index++;
+      return true;
+    }
+
+    @Override
+    protected byte[] getSensorData() {
+      return sensorData;
+    }
+
+    @Override
+    public long getId() {
+      return startId + index;
+    }
+
+    @Override
+    public int getLatitudeE6() {
+      return 37000000 + (int) getId();
+    }
+
+    @Override
+    public int getLongitudeE6() {
+      return -122000000 - (int) getId();
+    }
+
+    @Override
+    public long getTimeMillis() {
+      return 1000L * getId();
+    }
+
+    @Override
+    public boolean hasAltitude() {
+      return getId() % 2 == 0;
+    }
+
+    @Override
+    public double getAltitude() {
+      return hasAltitude() ? getId() / 10.0 : 0.0;
+    }
+
+    @Override
+    public boolean hasAccuracy() {
+      return false;
+    }
+
+    @Override
+    public float getAccuracy() {
+      return 0.0f;
+    }
+
+    @Override
+    public boolean hasSpeed() {
+      return true;
+    }
+
+    @Override
+    public float getSpeed() {
+      return getId() * 0.5f;
+    }
+
+    @Override
+    public boolean hasBearing() {
+      return false;
+    }
+
+    @Override
+    public float getBearing() {
+      return 0.0f;
+    }
+
+    @Override
+    public boolean hasSensorDataSet() {
+      return sensorData != null;
+    }
+
+    @Override
+    public void close() {}
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
+
+import android.location.Location;
+import android.location.LocationManager;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link TrackPointChunk}.
+ */
+public class TrackPointChunkTest extends TestCase {
+
+  private static final int SIZE = 100;
+
+  /**
+   * Tests encoding and decoding track points.
+   */
+  public void testEncodeDecode() {
+    long[] ids = new long[SIZE];
+    Location[] locations = new Location[SIZE];
+    for (int i = 0; i < SIZE; i++) {
+      ids[i] = 1000L + i + (i > 50 ? 7 : 0);
+      Location location = new Location(LocationManager.GPS_PROVIDER);
+      location.setLatitude(37.422 + i / 100000.0);
+      location.setLongitude(-122.084 - i / 100000.0);
+      location.setTime(1400000000000L + i * 1000L + (i % 3));
+      if (i % 2 == 0) {
+        location.setAltitude(12.3 + i);
+      }
+      location.setAccuracy(5.5f);
+      location.setSpeed(3.25f);
+      location.setBearing(i * 3.5f);
+      locations[i] = location;
+    }
+
+    // Pause marker
+    locations[10] = new Location(LocationManager.GPS_PROVIDER);
+    locations[10].setLatitude(100.0);
+    locations[10].setLongitude(0.0);
+    locations[10].setTime(locations[9].getTime() + 1);
+
+    // Sensor data
+    SensorDataSet sensorDataSet = SensorDataSet.newBuilder().setCreationTime(123L).build();
+    locations[20] = new MyTracksLocation(locations[20], sensorDataSet);
+
+    byte[] data = TrackPointChunk.encode(ids, locations, SIZE);
+    TrackPointChunk chunk = new TrackPointChunk();
+    chunk.decode(data);
+    assertEquals(SIZE, chunk.size());
+
+    for (int i = 0; i < SIZE; i++) {
+      assertEquals(ids[i], chunk.getId(i));
+      Location location = new MyTracksLocation("");
+      chunk.fill(i, location);
+      Location expected = locations[i];
+      assertEquals(expected.getLatitude(), location.getLatitude(), 1E-6);
+      assertEquals(expected.getLongitude(), location.getLongitude(), 1E-6);
+      assertEquals(expected.getTime(), location.getTime());
+      assertEquals(expected.hasAltitude(), location.hasAltitude());
+      assertEquals(expected.getAltitude(), location.getAltitude(), 0.05);
+      assertEquals(expected.hasAccuracy(), location.hasAccuracy());
+      assertEquals(expected.getAccuracy(), location.getAccuracy(), 0.05f);
+      assertEquals(expected.hasSpeed(), location.hasSpeed());
+      assertEquals(expected.getSpeed(), location.getSpeed(), 0.005f);
+      assertEquals(expected.hasBearing(), location.hasBearing());
+      assertEquals(expected.getBearing(), location.getBearing(), 0.05f);
+      if (i == 20) {
+        assertEquals(123L, ((MyTracksLocation) location).getSensorDataSet().getCreationTime());
+      } else {
+        assertNull(((MyTracksLocation) location).getSensorDataSet());
+      }
+    }
+
+    // A 1 Hz track should take a few bytes per track point
+    assertTrue(data.length < SIZE * 16);
+  }
+
+  /**
+   * Tests decoding a truncated chunk.
+   */
+  public void testDecode_truncated() {
+    Location location = new Location(LocationManager.GPS_PROVIDER);
+    location.setLatitude(37.0);
+    location.setLongitude(-122.0);
+    byte[] data = TrackPointChunk.encode(new long[] { 1L }, new Location[] { location }, 1);
+    byte[] truncated = new byte[data.length - 1];
+    System.arraycopy(data, 0, truncated, 0, truncated.length);
+    try {
+      new TrackPointChunk().decode(truncated);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+
+import android.location.Location;
+import android.location.LocationManager;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the {@link TrackPointPyramid}.
+ */
+public class TrackPointPyramidTest extends AndroidTestCase {
+
+  private static final int NUM_POINTS = 5000;
+
+  // Indexes of the segment splits
+  private static final int SPLIT_INDEX1 = 1200;
+  private static final int SPLIT_INDEX2 = 3001;
+
+  private MyTracksProviderUtils providerUtils;
+  private long trackId;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    MockContext context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider provider = new MyTracksProvider();
+    provider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, provider);
+    setContext(context);
+
+    providerUtils = MyTracksProviderUtils.Factory.get(context);
+    providerUtils.deleteAllTracks(context);
+    Track track = new Track();
+    trackId = Long.parseLong(providerUtils.insertTrack(track).getLastPathSegment());
+  }
+
+  /**
+   * Tests {@link TrackPointPyramid#getLevel(long, int)}.
+   */
+  public void testGetLevel() {
+    assertEquals(0, TrackPointPyramid.getLevel(100, 50));
+    assertEquals(0, TrackPointPyramid.getLevel(200, 50));
+    assertEquals(1, TrackPointPyramid.getLevel(201, 50));
+    assertEquals(2, TrackPointPyramid.getLevel(1000, 50));
+    assertEquals(TrackPointPyramid.MAX_LEVEL, TrackPointPyramid.getLevel(Long.MAX_VALUE, 50));
+  }
+
+  /**
+   * Tests that updating the levels as the track grows gives the same levels as
+   * building them at once, and that each level is reduced from the previous
+   * one.
+   */
+  public void testUpdate() {
+    int start = 0;
+    int[] sizes = { 1, 2, 500, 3, 1000, 30, 1200, 1 };
+    for (int size : sizes) {
+      insertTrackPoints(start, size);
+      TrackPointPyramid.update(providerUtils, trackId);
+      start += size;
+    }
+    insertTrackPoints(start, NUM_POINTS - start);
+    TrackPointPyramid.update(providerUtils, trackId);
+
+    List<List<Long>> levels = new ArrayList<List<Long>>();
+    for (int level = 1; level <= TrackPointPyramid.MAX_LEVEL; level++) {
+      levels.add(getLevelIds(level));
+    }
+    providerUtils.deleteTrackPointLevels(trackId);
+    TrackPointPyramid.update(providerUtils, trackId);
+
+    List<Long> trackPointIds = getTrackPointIds();
+    List<Long> finer = trackPointIds;
+    for (int level = 1; level <= TrackPointPyramid.MAX_LEVEL; level++) {
+      List<Long> ids = getLevelIds(level);
+      assertEquals(levels.get(level - 1), ids);
+      assertEquals(trackPointIds.get(0), ids.get(0));
+      assertTrue(finer.containsAll(ids));
+
+      // Each of the 3 segments adds at most its first point, a split and a partial bucket
+      assertTrue(ids.size() <= finer.size() / TrackPointPyramid.LEVEL_FACTOR + 9);
+      finer = ids;
+    }
+  }
+
+  /**
+   * Tests {@link TrackPointPyramid#isBuilt(MyTracksProviderUtils, long, long)}
+   * and {@link TrackPointPyramid#updateInBackground(MyTracksProviderUtils,
+   * long)}.
+   */
+  public void testUpdateInBackground() throws Exception {
+    insertTrackPoints(0, NUM_POINTS);
+    long lastTrackPointId = providerUtils.getLastTrackPointId(trackId);
+    assertFalse(TrackPointPyramid.isBuilt(providerUtils, trackId, lastTrackPointId));
+
+    TrackPointPyramid.updateInBackground(providerUtils, trackId);
+    for (int i = 0; i < 100
+        && !TrackPointPyramid.isBuilt(providerUtils, trackId, lastTrackPointId); i++) {
+      Thread.sleep(50);
+    }
+    assertTrue(TrackPointPyramid.isBuilt(providerUtils, trackId, lastTrackPointId));
+    assertEquals(getTrackPointIds().get(0), getLevelIds(1).get(0));
+  }
+
+  /**
+   * Tests {@link TrackPointPyramid#openTrackPointCursor(MyTracksProviderUtils,
+   * long, int)}.
+   */
+  public void testOpenTrackPointCursor() {
+    insertTrackPoints(0, NUM_POINTS);
+    TrackPointPyramid.update(providerUtils, trackId);
+
+    // Track points not yet reduced are read from the track
+    insertTrackPoints(NUM_POINTS, 10);
+    List<Long> trackPointIds = getTrackPointIds();
+
+    for (int level = 1; level <= 3; level++) {
+      List<Long> ids = new ArrayList<Long>();
+      int numSplits = 0;
+      TrackPointCursor trackPointCursor = TrackPointPyramid.openTrackPointCursor(
+          providerUtils, trackId, level);
+      try {
+        while (trackPointCursor.moveToNext()) {
+          long id = trackPointCursor.getId();
+          if (!ids.isEmpty()) {
+            assertTrue(id > ids.get(ids.size() - 1));
+          }
+          ids.add(id);
+          if (!trackPointCursor.isValid()) {
+            numSplits++;
+          }
+        }
+      } finally {
+        trackPointCursor.close();
+      }
+      assertEquals(2, numSplits);
+      assertEquals(trackPointIds.get(0), ids.get(0));
+      assertEquals(trackPointIds.get(trackPointIds.size() - 1), ids.get(ids.size() - 1));
+      assertTrue(ids.containsAll(getLevelIds(level)));
+      double levelSize = Math.pow(TrackPointPyramid.LEVEL_FACTOR, level);
+      assertTrue(ids.size() < (NUM_POINTS + 10) / levelSize + 10 * level + 10);
+    }
+  }
+
+  /**
+   * Inserts track points. The track goes around a circle, with segment splits
+   * at {@link #SPLIT_INDEX1} and {@link #SPLIT_INDEX2}.
+   * 
+   * @param start the index of the first track point
+   * @param size the number of track points
+   */
+  private void insertTrackPoints(int start, int size) {
+    Location[] locations = new Location[size];
+    for (int i = 0; i < size; i++) {
+      int index = start + i;
+      Location location = new Location(LocationManager.GPS_PROVIDER);
+      if (index == SPLIT_INDEX1 || index == SPLIT_INDEX2) {
+        location.setLatitude(100.0);
+        location.setLongitude(0.0);
+      } else {
+        double angle = index * 2.0 * Math.PI / NUM_POINTS;
+        location.setLatitude(37.0 + 0.01 * Math.sin(angle) + 0.0001 * Math.sin(index));
+        location.setLongitude(-122.0 + 0.01 * Math.cos(angle));
+      }
+      location.setTime(1400000000000L + index * 1000L);
+      locations[i] = location;
+    }
+    providerUtils.bulkInsertTrackPoint(locations, size, trackId);
+  }
+
+  /**
+   * Gets the track point ids of the track.
+   */
+  private List<Long> getTrackPointIds() {
+    List<Long> ids = new ArrayList<Long>();
+    TrackPointCursor trackPointCursor = providerUtils.openTrackPointCursor(trackId, -1L, false);
+    try {
+      while (trackPointCursor.moveToNext()) {
+        ids.add(trackPointCursor.getId());
+      }
+    } finally {
+      trackPointCursor.close();
+    }
+    return ids;
+  }
+
+  /**
+   * Gets the track point ids of a level.
+   * 
+   * @param level the level
+   */
+  private List<Long> getLevelIds(int level) {
+    List<Long> ids = new ArrayList<Long>();
+    TrackPointChunk trackPointChunk = new TrackPointChunk();
+    for (TrackPointLevelBlock block : providerUtils.getTrackPointLevelBlocks(trackId, level, -1L)) {
+      trackPointChunk.decode(block.getData());
+      assertEquals(block.getNumPoints(), trackPointChunk.size());
+      assertTrue(trackPointChunk.size() <= TrackPointPyramid.BLOCK_SIZE);
+      for (int i = 0; i < trackPointChunk.size(); i++) {
+        ids.add(trackPointChunk.getId(i));
+      }
+    }
+    return ids;
+  }
+}
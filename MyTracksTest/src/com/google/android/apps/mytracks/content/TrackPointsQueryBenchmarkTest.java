@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.content.MyTracksProvider.DatabaseHelper;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.Suppress;
+import android.util.Log;
+
+/**
+ * Benchmarks the per track track point lookups before and after adding the
+ * track points indexes. The results are logged. The 1M and 5M rows runs take a
+ * long time on a device and are suppressed by default.
+ */
+public class TrackPointsQueryBenchmarkTest extends AndroidTestCase {
+
+  private static final String TAG = TrackPointsQueryBenchmarkTest.class.getSimpleName();
+  private static final String DATABASE_NAME = "mytracksbenchmark.db";
+
+  // Number of track points per track
+  private static final int POINTS_PER_TRACK = 10000;
+
+  // Number of times to run each query
+  private static final int ITERATIONS = 20;
+
+  private SQLiteDatabase db;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    getContext().deleteDatabase(DATABASE_NAME);
+    db = (new DatabaseHelper(getContext(), DATABASE_NAME)).getWritableDatabase();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    db.close();
+    getContext().deleteDatabase(DATABASE_NAME);
+    super.tearDown();
+  }
+
+  @LargeTest
+  public void testQueryLatency_10k() {
+    runBenchmark(10000);
+  }
+
+  @Suppress
+  public void testQueryLatency_1m() {
+    runBenchmark(1000000);
+  }
+
+  @Suppress
+  public void testQueryLatency_5m() {
+    runBenchmark(5000000);
+  }
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param numberOfPoints the number of track points in the database
+   */
+  private void runBenchmark(int numberOfPoints) {
+    insertTrackPoints(numberOfPoints);
+
+    // Query the last track, the worst case for a full table scan
+    long trackId = (numberOfPoints - 1) / POINTS_PER_TRACK;
+    long time = (numberOfPoints - 1) * 1000L;
+
+    dropIndexes();
+    long[] before = new long[] {
+        timeQuery("SELECT min(_id) FROM trackpoints WHERE trackid=?", trackId),
+        timeQuery("SELECT max(_id) FROM trackpoints WHERE trackid=?", trackId),
+        timeQuery("SELECT max(_id) FROM trackpoints WHERE trackid=? AND time=" + time, trackId),
+        timeQuery("SELECT max(_id) FROM trackpoints WHERE trackid=? AND latitude<=90000000",
+            trackId) };
+
+    db.execSQL(TrackPointsColumns.CREATE_TRACKID_ID_INDEX);
+    db.execSQL(TrackPointsColumns.CREATE_TRACKID_TIME_INDEX);
+    long[] after = new long[] {
+        timeQuery("SELECT _id FROM trackpoints WHERE trackid=? ORDER BY _id LIMIT 1", trackId),
+        timeQuery("SELECT _id FROM trackpoints WHERE trackid=? ORDER BY _id DESC LIMIT 1",
+            trackId),
+        timeQuery("SELECT _id FROM trackpoints WHERE trackid=? AND time=" + time
+            + " ORDER BY _id DESC LIMIT 1", trackId),
+        timeQuery("SELECT _id FROM trackpoints WHERE trackid=? AND latitude<=90000000"
+            + " ORDER BY _id DESC LIMIT 1", trackId) };
+
+    String[] names = new String[] {
+        "firstTrackPointId", "lastTrackPointId", "trackPointId", "lastValidTrackPoint" };
+    for (int i = 0; i < names.length; i++) {
+      Log.i(TAG, numberOfPoints + " rows, " + names[i] + ": before " + before[i] + " us, after "
+          + after[i] + " us");
+    }
+  }
+
+  /**
+   * Inserts track points, {@link #POINTS_PER_TRACK} per track.
+   *
+   * @param numberOfPoints the number of track points
+   */
+  private void insertTrackPoints(int numberOfPoints) {
+    SQLiteStatement statement = db.compileStatement("INSERT INTO " + TrackPointsColumns.TABLE_NAME
+        + " (" + TrackPointsColumns.TRACKID + ", " + TrackPointsColumns.LATITUDE + ", "
+        + TrackPointsColumns.LONGITUDE + ", " + TrackPointsColumns.TIME + ") VALUES (?, ?, ?, ?)");
+    db.beginTransaction();
+    try {
+      for (int i = 0; i < numberOfPoints; i++) {
+        statement.bindLong(1, i / POINTS_PER_TRACK);
+        statement.bindLong(2, 37000000 + i % 1000);
+        statement.bindLong(3, -122000000 + i % 1000);
+        statement.bindLong(4, i * 1000L);
+        statement.executeInsert();
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+      statement.close();
+    }
+  }
+
+  /**
+   * Drops the track points indexes.
+   */
+  private void dropIndexes() {
+    db.execSQL("DROP INDEX IF EXISTS " + TrackPointsColumns.TRACKID_ID_INDEX);
+    db.execSQL("DROP INDEX IF EXISTS " + TrackPointsColumns.TRACKID_TIME_INDEX);
+  }
+
+  /**
+   * Returns the average latency of a query in microseconds.
+   *
+   * @param sql the sql
+   * @param trackId the track id
+   */
+  private long timeQuery(String sql, long trackId) {
+    String[] selectionArgs = new String[] { Long.toString(trackId) };
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      Cursor cursor = db.rawQuery(sql, selectionArgs);
+      try {
+        assertTrue(cursor.moveToFirst());
+      } finally {
+        cursor.close();
+      }
+    }
+    return (System.nanoTime() - start) / ITERATIONS / 1000L;
+  }
+}
@@ -16,11 +16,14 @@
 package com.google.android.apps.mytracks.io.file.exporter;
 
 import com.google.android.apps.mytracks.content.DescriptionGenerator;
+import com.google.android.apps.mytracks.content.MyTracksLocation;
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 
 import android.location.Location;
 
+import java.io.ByteArrayOutputStream;
 import java.util.List;
 import java.util.Vector;
 
@@ -86,6 +89,99 @@ public class KmlTrackWriterTest extends TrackWriterTest {
     assertTagHasPoints(trackTags.get(1), location3, location4);
   }
 
+  /**
+   * Tests that a photo overlay is written after its track, with the heading
+   * from the first track point when there are less than 10 track points before
+   * the photo.
+   */
+  public void testXmlOutput_photoOverlay() throws Exception {
+    track.setId(1L);
+    Waypoint waypoint = new Waypoint();
+    waypoint.setTrackId(1L);
+    waypoint.setLocation(location3);
+    waypoint.setName(WAYPOINT1_NAME);
+    waypoint.setPhotoUrl("content://photos/1");
+
+    KmlTrackWriter kmlTrackWriter = new KmlTrackWriter(
+        getContext(), false, false, new FakeDescriptionGenerator());
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    kmlTrackWriter.prepare(output);
+    kmlTrackWriter.writeHeader(new Track[] { track });
+    kmlTrackWriter.writeBeginWaypoints(track);
+    kmlTrackWriter.writeWaypoint(waypoint);
+    kmlTrackWriter.writeEndWaypoints();
+    kmlTrackWriter.writeBeginTracks();
+    kmlTrackWriter.writeBeginTrack(track, location1);
+    kmlTrackWriter.writeOpenSegment();
+    kmlTrackWriter.writeLocation(location1);
+    kmlTrackWriter.writeLocation(location2);
+    kmlTrackWriter.writeLocation(location3);
+    kmlTrackWriter.writeLocation(location4);
+    kmlTrackWriter.writeCloseSegment();
+    kmlTrackWriter.writeEndTrack(track, location4);
+    kmlTrackWriter.writeEndTracks();
+    kmlTrackWriter.writeFooter();
+    kmlTrackWriter.close();
+
+    Document doc = parseXmlDocument(output.toString());
+    Element docTag = getChildElement(getChildElement(doc, "kml"), "Document");
+    Element photoOverlayTag = getChildElement(docTag, "PhotoOverlay");
+    assertEquals(WAYPOINT1_NAME, getChildTextValue(photoOverlayTag, "name"));
+    Element cameraTag = getChildElement(photoOverlayTag, "Camera");
+    assertEquals(Float.toString(location1.bearingTo(location3)),
+        getChildTextValue(cameraTag, "heading"));
+  }
+
+  /**
+   * Tests that the sensor values of a segment longer than the sensor buffer
+   * are all written, in order.
+   */
+  public void testXmlOutput_spilledSensorData() throws Exception {
+    int numberOfPoints = 2500;
+    KmlTrackWriter kmlTrackWriter = new KmlTrackWriter(
+        getContext(), false, false, new FakeDescriptionGenerator());
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    kmlTrackWriter.prepare(output);
+    kmlTrackWriter.writeHeader(new Track[] { track });
+    kmlTrackWriter.writeBeginTracks();
+    kmlTrackWriter.writeBeginTrack(track, location1);
+    kmlTrackWriter.writeOpenSegment();
+    for (int i = 0; i < numberOfPoints; i++) {
+      MyTracksLocation location = i % 2 == 0 ? location1 : location2;
+      kmlTrackWriter.writeLocation(location);
+    }
+    kmlTrackWriter.writeCloseSegment();
+    kmlTrackWriter.writeEndTrack(track, location2);
+    kmlTrackWriter.writeEndTracks();
+    kmlTrackWriter.writeFooter();
+    kmlTrackWriter.close();
+
+    Document doc = parseXmlDocument(output.toString());
+    Element docTag = getChildElement(getChildElement(doc, "kml"), "Document");
+    List<Element> placemarkTags = getChildElements(docTag, "Placemark", 3);
+    Element multiTrackTag = getChildElement(placemarkTags.get(1), "gx:MultiTrack");
+    Element trackTag = getChildElement(multiTrackTag, "gx:Track");
+    Element schemaDataTag = getChildElement(
+        getChildElement(trackTag, "ExtendedData"), "SchemaData");
+    List<Element> arrayDataTags = getChildElements(schemaDataTag, "gx:SimpleArrayData", 3);
+    for (int i = 0; i < arrayDataTags.size(); i++) {
+      List<Element> valueTags = getChildElements(
+          arrayDataTags.get(i), "gx:value", numberOfPoints);
+      for (int j = 0; j < numberOfPoints; j++) {
+        MyTracksLocation location = j % 2 == 0 ? location1 : location2;
+        int expected;
+        if (i == 0) {
+          expected = location.getSensorDataSet().getPower().getValue();
+        } else if (i == 1) {
+          expected = location.getSensorDataSet().getCadence().getValue();
+        } else {
+          expected = location.getSensorDataSet().getHeartRate().getValue();
+        }
+        assertEquals(Integer.toString(expected), valueTags.get(j).getTextContent());
+      }
+    }
+  }
+
   /**
    * Asserts that the given tag is a placemark with the given properties.
    *
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.exporter;
+
+import com.google.android.apps.mytracks.content.MyTracksLocation;
+import com.google.android.apps.mytracks.content.Sensor;
+import com.google.android.apps.mytracks.content.Track;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.Suppress;
+import android.util.Log;
+
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Benchmarks exporting a generated track with the {@link GpxTrackWriter}, the
+ * {@link KmlTrackWriter}, and the {@link TcxTrackWriter}. The output is
+ * counted and discarded to only measure the writers. The results are logged.
+ * The 500k points run takes a long time on a device and is suppressed by
+ * default.
+ */
+public class TrackWriterBenchmarkTest extends AndroidTestCase {
+
+  private static final String TAG = TrackWriterBenchmarkTest.class.getSimpleName();
+
+  private static final int WARM_UP_POINTS = 1000;
+
+  private Track track;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    track = new Track();
+    track.setName("benchmark");
+    track.setDescription("benchmark");
+    track.setCategory("benchmark");
+  }
+
+  @LargeTest
+  public void testExport_50k() {
+    runBenchmark(50000);
+  }
+
+  @Suppress
+  public void testExport_500k() {
+    runBenchmark(500000);
+  }
+
+  /**
+   * Runs the benchmark.
+   * 
+   * @param numberOfPoints the number of track points
+   */
+  private void runBenchmark(int numberOfPoints) {
+    // Warm up
+    runExport(new GpxTrackWriter(getContext()), WARM_UP_POINTS);
+    runExport(new KmlTrackWriter(getContext(), false, false), WARM_UP_POINTS);
+    runExport(new TcxTrackWriter(getContext()), WARM_UP_POINTS);
+
+    String gpx = runExport(new GpxTrackWriter(getContext()), numberOfPoints);
+    String kml = runExport(new KmlTrackWriter(getContext(), false, false), numberOfPoints);
+    String tcx = runExport(new TcxTrackWriter(getContext()), numberOfPoints);
+    Log.i(TAG, numberOfPoints + " track points. GPX: " + gpx + ". KML: " + kml + ". TCX: " + tcx
+        + ".");
+  }
+
+  /**
+   * Exports a generated track. Returns the throughput and the bytes allocated
+   * per track point.
+   * 
+   * @param trackWriter the track writer
+   * @param numberOfPoints the number of track points
+   */
+  private String runExport(TrackWriter trackWriter, int numberOfPoints) {
+    // The location is reused to only count the allocations of the writer
+    MyTracksLocation location = new MyTracksLocation("benchmark");
+    Sensor.SensorData.Builder power = Sensor.SensorData.newBuilder().setValue(200)
+        .setState(Sensor.SensorState.SENDING);
+    Sensor.SensorData.Builder heartRate = Sensor.SensorData.newBuilder().setValue(150)
+        .setState(Sensor.SensorState.SENDING);
+    location.setSensorDataSet(
+        Sensor.SensorDataSet.newBuilder().setPower(power).setHeartRate(heartRate).build());
+    setLocation(location, 0);
+
+    CountingOutputStream outputStream = new CountingOutputStream();
+    Debug.startAllocCounting();
+    try {
+      Debug.resetThreadAllocSize();
+      long start = SystemClock.elapsedRealtime();
+      trackWriter.prepare(outputStream);
+      trackWriter.writeHeader(new Track[] { track });
+      trackWriter.writeBeginTracks();
+      trackWriter.writeBeginTrack(track, location);
+      trackWriter.writeOpenSegment();
+      for (int i = 0; i < numberOfPoints; i++) {
+        setLocation(location, i);
+        trackWriter.writeLocation(location);
+      }
+      trackWriter.writeCloseSegment();
+      trackWriter.writeEndTrack(track, location);
+      trackWriter.writeEndTracks();
+      trackWriter.writeFooter();
+      trackWriter.close();
+      long time = SystemClock.elapsedRealtime() - start;
+      int allocatedBytes = Debug.getThreadAllocSize();
+      return String.format(Locale.US, "%d ms, %d points/s, %.1f MB, %.1f bytes allocated/point",
+          time, numberOfPoints * 1000L / Math.max(1L, time), outputStream.getCount() / 1e6,
+          allocatedBytes / (double) numberOfPoints);
+    } finally {
+      Debug.stopAllocCounting();
+    }
+  }
+
+  /**
+   * Sets the values of the i-th generated track point.
+   * 
+   * @param location the location
+   * @param i the track point index
+   */
+  private void setLocation(MyTracksLocation location, int i) {
+    location.setLatitude(37.0 + i * 1e-5);
+    location.setLongitude(-122.0 - i * 1e-5);
+    location.setAltitude(100.0 + i % 100 * 0.1);
+    location.setTime(1400000000000L + i * 1000L);
+  }
+
+  /**
+   * An output stream discarding the bytes written, only counting them.
+   */
+  private static class CountingOutputStream extends OutputStream {
+
+    private long count;
+
+    long getCount() {
+      return count;
+    }
+
+    @Override
+    public void write(int oneByte) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) {
+      count += length;
+    }
+  }
+}
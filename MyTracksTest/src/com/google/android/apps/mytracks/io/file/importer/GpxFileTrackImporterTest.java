@@ -105,8 +105,7 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
     AndroidMock.replay(myTracksProviderUtils);
 
     InputStream inputStream = new ByteArrayInputStream(VALID_ONE_TRACK_ONE_SEGMENT_GPX.getBytes());
-    GpxFileTrackImporter gpxFileTrackImporter = new GpxFileTrackImporter(
-        getContext(), myTracksProviderUtils);
+    AbstractFileTrackImporter gpxFileTrackImporter = createTrackImporter();
     long trackId = gpxFileTrackImporter.importFile(inputStream);
     assertEquals(TRACK_ID_0, trackId);
 
@@ -117,6 +116,45 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
     verifyTrack(track.getValue(), TRACK_NAME_0, TRACK_DESCRIPTION_0, time0);
   }
 
+  /**
+   * Tests one track with one segment inserted by a {@link TrackPointWriter}.
+   * The track points are inserted together at the end of the track.
+   */
+  public void testOneTrackOneSegment_trackPointWriter() throws Exception {
+    Capture<Track> track = new Capture<Track>();
+
+    Location location0 = createLocation(0, DATE_FORMAT_0.parse(TRACK_TIME_0).getTime());
+    Location location1 = createLocation(1, DATE_FORMAT_1.parse(TRACK_TIME_1).getTime());
+
+    expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
+        .andReturn(TRACK_ID_0_URI);
+    expect(myTracksProviderUtils.bulkInsertTrackPoint(
+        LocationsMatcher.eqLoc(new Location[] { location0, location1 }), eq(2), eq(TRACK_ID_0)))
+        .andReturn(2);
+    expect(myTracksProviderUtils.getFirstTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_0);
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_1);
+    expect(
+        myTracksProviderUtils.getTrack(PreferencesUtils.getLong(getContext(),
+            R.string.recording_track_id_key))).andStubReturn(null);
+    expectUpdateTrack(track, true, TRACK_ID_0);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    TrackPointWriter trackPointWriter = new TrackPointWriter(myTracksProviderUtils);
+    trackPointWriter.start();
+    InputStream inputStream = new ByteArrayInputStream(VALID_ONE_TRACK_ONE_SEGMENT_GPX.getBytes());
+    AbstractFileTrackImporter gpxFileTrackImporter = createTrackImporter();
+    gpxFileTrackImporter.setTrackPointWriter(trackPointWriter);
+    long trackId = gpxFileTrackImporter.importFile(inputStream);
+    trackPointWriter.close();
+    assertEquals(TRACK_ID_0, trackId);
+
+    AndroidMock.verify(myTracksProviderUtils);
+    long time0 = DATE_FORMAT_0.parse(TRACK_TIME_0).getTime();
+    verifyTrack(track.getValue(), TRACK_NAME_0, TRACK_DESCRIPTION_0, time0);
+    assertEquals(TRACK_POINT_ID_0, track.getValue().getStartId());
+    assertEquals(TRACK_POINT_ID_1, track.getValue().getStopId());
+  }
+
   /**
    * Tests one track with two segments.
    */
@@ -139,8 +177,7 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
     AndroidMock.replay(myTracksProviderUtils);
 
     InputStream inputStream = new ByteArrayInputStream(VALID_ONE_TRACK_TWO_SEGMENTS_GPX.getBytes());
-    GpxFileTrackImporter gpxFileTrackImporter = new GpxFileTrackImporter(
-        getContext(), myTracksProviderUtils);
+    AbstractFileTrackImporter gpxFileTrackImporter = createTrackImporter();
     long trackId = gpxFileTrackImporter.importFile(inputStream);
     assertEquals(TRACK_ID_0, trackId);
 
@@ -178,8 +215,7 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
 
     InputStream inputStream = new ByteArrayInputStream(
         VALID_ONE_TRACK_TWO_SEGMENTS_NO_TIME_GPX.getBytes());
-    GpxFileTrackImporter gpxFileTrackImporter = new GpxFileTrackImporter(
-        getContext(), myTracksProviderUtils);
+    AbstractFileTrackImporter gpxFileTrackImporter = createTrackImporter();
     long trackId = gpxFileTrackImporter.importFile(inputStream);
     assertEquals(TRACK_ID_0, trackId);
     assertEquals(0, track.getValue().getTripStatistics().getTotalTime());
@@ -230,6 +266,13 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
     testInvalidGpx(INVALID_LONGITUDE_GPX);
   }
 
+  /**
+   * Creates the track importer to test.
+   */
+  protected AbstractFileTrackImporter createTrackImporter() {
+    return new GpxFileTrackImporter(getContext(), myTracksProviderUtils);
+  }
+
   private void testInvalidGpx(String xml) throws Exception {
     expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
         .andReturn(TRACK_ID_0_URI);
@@ -248,8 +291,7 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
     AndroidMock.replay(myTracksProviderUtils);
 
     InputStream inputStream = new ByteArrayInputStream(xml.getBytes());
-    GpxFileTrackImporter gpxFileTrackImporter = new GpxFileTrackImporter(
-          getContext(), myTracksProviderUtils);
+    AbstractFileTrackImporter gpxFileTrackImporter = createTrackImporter();
     long trackId = gpxFileTrackImporter.importFile(inputStream);
     assertEquals(-1L, trackId);
     AndroidMock.verify(myTracksProviderUtils);
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+import static com.google.android.testing.mocking.AndroidMock.expect;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TracksColumns;
+import com.google.android.apps.mytracks.util.StringUtils;
+import com.google.android.testing.mocking.AndroidMock;
+import com.google.android.testing.mocking.UsesMocks;
+
+import android.content.ContentUris;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.Suppress;
+import android.util.Log;
+
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Locale;
+
+/**
+ * Benchmarks importing a generated GPX file with the {@link GpxFileTrackImporter}
+ * and the {@link GpxPullFileTrackImporter}. The database is mocked out to only
+ * measure the parsing. Generating the file is included in both measurements.
+ * The results are logged. The 100 MB run takes a long time on a device and is
+ * suppressed by default.
+ */
+public class GpxImportBenchmarkTest extends AndroidTestCase {
+
+  private static final String TAG = GpxImportBenchmarkTest.class.getSimpleName();
+
+  // About 100 bytes per track point
+  private static final int POINTS_PER_MB = 10000;
+
+  // Number of track points generated at a time
+  private static final int POINTS_PER_CHUNK = 1000;
+
+  private MyTracksProviderUtils myTracksProviderUtils;
+
+  @UsesMocks(MyTracksProviderUtils.class)
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myTracksProviderUtils = AndroidMock.createNiceMock(MyTracksProviderUtils.class);
+    expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject())).andStubReturn(
+        ContentUris.appendId(TracksColumns.CONTENT_URI.buildUpon(), 1L).build());
+    AndroidMock.replay(myTracksProviderUtils);
+  }
+
+  @LargeTest
+  public void testImport_10mb() {
+    runBenchmark(10);
+  }
+
+  @Suppress
+  public void testImport_100mb() {
+    runBenchmark(100);
+  }
+
+  /**
+   * Runs the benchmark.
+   * 
+   * @param megabytes the approximate size of the GPX file
+   */
+  private void runBenchmark(int megabytes) {
+    int numberOfPoints = megabytes * POINTS_PER_MB;
+
+    // Warm up
+    runImport(new GpxFileTrackImporter(getContext(), myTracksProviderUtils), POINTS_PER_CHUNK);
+    runImport(new GpxPullFileTrackImporter(getContext(), myTracksProviderUtils), POINTS_PER_CHUNK);
+
+    String sax = runImport(
+        new GpxFileTrackImporter(getContext(), myTracksProviderUtils), numberOfPoints);
+    String pull = runImport(
+        new GpxPullFileTrackImporter(getContext(), myTracksProviderUtils), numberOfPoints);
+    Log.i(TAG, numberOfPoints + " track points. SAX importer: " + sax + ". Pull importer: " + pull
+        + ".");
+  }
+
+  /**
+   * Imports a generated GPX file. Returns the time and the allocations.
+   * 
+   * @param trackImporter the track importer
+   * @param numberOfPoints the number of track points
+   */
+  private String runImport(TrackImporter trackImporter, int numberOfPoints) {
+    GpxInputStream inputStream = new GpxInputStream(numberOfPoints);
+    Debug.startAllocCounting();
+    try {
+      Debug.resetThreadAllocCount();
+      long start = SystemClock.elapsedRealtime();
+      assertEquals(1L, trackImporter.importFile(inputStream));
+      long time = SystemClock.elapsedRealtime() - start;
+      int allocations = Debug.getThreadAllocCount();
+      return String.format(Locale.US, "%d ms, %.1f MB/s, %d allocations", time,
+          inputStream.getBytesRead() / 1000.0 / Math.max(1L, time), allocations);
+    } finally {
+      Debug.stopAllocCounting();
+    }
+  }
+
+  /**
+   * An input stream generating a one track GPX file, a chunk of track points
+   * at a time.
+   */
+  private static class GpxInputStream extends InputStream {
+
+    private final int numberOfPoints;
+    private final StringBuilder builder = new StringBuilder();
+
+    // The next track point to generate, -1 for the header
+    private int nextPoint = -1;
+    private byte[] chunk = new byte[0];
+    private int position;
+    private long bytesRead;
+
+    GpxInputStream(int numberOfPoints) {
+      this.numberOfPoints = numberOfPoints;
+    }
+
+    long getBytesRead() {
+      return bytesRead;
+    }
+
+    @Override
+    public int read() {
+      if (!fill()) {
+        return -1;
+      }
+      bytesRead++;
+      return chunk[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+      if (!fill()) {
+        return -1;
+      }
+      int count = Math.min(length, chunk.length - position);
+      System.arraycopy(chunk, position, buffer, offset, count);
+      position += count;
+      bytesRead += count;
+      return count;
+    }
+
+    /**
+     * Generates the next chunk if the current one is consumed. Returns false
+     * at the end of the file.
+     */
+    private boolean fill() {
+      if (position < chunk.length) {
+        return true;
+      }
+      if (nextPoint > numberOfPoints) {
+        return false;
+      }
+      builder.setLength(0);
+      if (nextPoint == -1) {
+        builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<gpx version=\"1.1\">\n")
+            .append("<trk><name>benchmark</name><desc>benchmark</desc><trkseg>\n");
+        nextPoint = 0;
+      } else if (nextPoint == numberOfPoints) {
+        builder.append("</trkseg></trk>\n</gpx>\n");
+        nextPoint++;
+      } else {
+        int end = Math.min(numberOfPoints, nextPoint + POINTS_PER_CHUNK);
+        for (; nextPoint < end; nextPoint++) {
+          builder.append("<trkpt lat=\"").append(37.0 + nextPoint * 1e-5)
+              .append("\" lon=\"").append(-122.0 - nextPoint * 1e-5)
+              .append("\"><ele>").append(100.0 + nextPoint % 100 * 0.1)
+              .append("</ele><time>")
+              .append(StringUtils.formatDateTimeIso8601(1400000000000L + nextPoint * 1000L))
+              .append("</time></trkpt>\n");
+        }
+      }
+      try {
+        chunk = builder.toString().getBytes("UTF-8");
+      } catch (UnsupportedEncodingException e) {
+        throw new IllegalStateException(e);
+      }
+      position = 0;
+      return true;
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+import static com.google.android.testing.mocking.AndroidMock.eq;
+import static com.google.android.testing.mocking.AndroidMock.expect;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.testing.mocking.AndroidMock;
+import com.google.android.testing.mocking.UsesMocks;
+
+import android.location.Location;
+import android.location.LocationManager;
+import android.test.AndroidTestCase;
+
+import org.easymock.IAnswer;
+
+/**
+ * Tests {@link TrackPointWriter}.
+ */
+public class TrackPointWriterTest extends AndroidTestCase {
+
+  private static final long TRACK_ID_0 = 1L;
+  private static final long TRACK_ID_1 = 2L;
+
+  private MyTracksProviderUtils myTracksProviderUtils;
+  private TrackPointWriter trackPointWriter;
+
+  @UsesMocks(MyTracksProviderUtils.class)
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myTracksProviderUtils = AndroidMock.createMock(MyTracksProviderUtils.class);
+    trackPointWriter = new TrackPointWriter(myTracksProviderUtils);
+  }
+
+  /**
+   * Tests that consecutive batches of the same track are inserted together.
+   */
+  public void testWrite_combinesBatches() throws Exception {
+    expect(myTracksProviderUtils.bulkInsertTrackPoint(
+        LocationsMatcher.eqLoc(new Location[] { createLocation(0), createLocation(1),
+            createLocation(2) }), eq(3), eq(TRACK_ID_0))).andReturn(3);
+    expect(myTracksProviderUtils.bulkInsertTrackPoint(
+        LocationsMatcher.eqLoc(createLocation(3)), eq(1), eq(TRACK_ID_1))).andReturn(1);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    // Queue the batches before starting the writer
+    trackPointWriter.write(TRACK_ID_0, new Location[] { createLocation(0), createLocation(1) }, 2);
+    trackPointWriter.write(TRACK_ID_0, new Location[] { createLocation(2), null }, 1);
+    trackPointWriter.write(TRACK_ID_1, new Location[] { createLocation(3) }, 1);
+    trackPointWriter.start();
+    trackPointWriter.flush();
+    trackPointWriter.close();
+
+    AndroidMock.verify(myTracksProviderUtils);
+    assertFalse(trackPointWriter.hasFailed(TRACK_ID_0));
+    assertFalse(trackPointWriter.hasFailed(TRACK_ID_1));
+  }
+
+  /**
+   * Tests that a failed insert is reported for its track only and the
+   * following batches of the track are dropped.
+   */
+  public void testWrite_failure() throws Exception {
+    expect(myTracksProviderUtils.bulkInsertTrackPoint(
+        (Location[]) AndroidMock.anyObject(), eq(1), eq(TRACK_ID_0)))
+        .andThrow(new IllegalStateException());
+    expect(myTracksProviderUtils.bulkInsertTrackPoint(
+        (Location[]) AndroidMock.anyObject(), eq(1), eq(TRACK_ID_1))).andReturn(1);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    trackPointWriter.start();
+    trackPointWriter.write(TRACK_ID_0, new Location[] { createLocation(0) }, 1);
+    trackPointWriter.flush();
+    trackPointWriter.write(TRACK_ID_0, new Location[] { createLocation(1) }, 1);
+    trackPointWriter.write(TRACK_ID_1, new Location[] { createLocation(2) }, 1);
+    trackPointWriter.close();
+
+    AndroidMock.verify(myTracksProviderUtils);
+    assertTrue(trackPointWriter.hasFailed(TRACK_ID_0));
+    assertFalse(trackPointWriter.hasFailed(TRACK_ID_1));
+  }
+
+  /**
+   * Tests that when the writer thread stops, here interrupted while inserting,
+   * the callers are not blocked, even with more batches than the queue holds,
+   * and all the tracks are reported as failed.
+   */
+  public void testWrite_writerStopped() throws Exception {
+    expect(myTracksProviderUtils.bulkInsertTrackPoint(
+        (Location[]) AndroidMock.anyObject(), eq(1), eq(TRACK_ID_0)))
+        .andAnswer(new IAnswer<Integer>() {
+            @Override
+          public Integer answer() {
+            Thread.currentThread().interrupt();
+            return 1;
+          }
+        });
+    AndroidMock.replay(myTracksProviderUtils);
+
+    trackPointWriter.start();
+    trackPointWriter.write(TRACK_ID_0, new Location[] { createLocation(0) }, 1);
+    trackPointWriter.flush();
+    for (int i = 0; i < 100; i++) {
+      trackPointWriter.write(TRACK_ID_1, new Location[] { createLocation(i) }, 1);
+    }
+    trackPointWriter.flush();
+    trackPointWriter.close();
+
+    AndroidMock.verify(myTracksProviderUtils);
+    assertTrue(trackPointWriter.hasFailed(TRACK_ID_0));
+    assertTrue(trackPointWriter.hasFailed(TRACK_ID_1));
+  }
+
+  /**
+   * Creates a location.
+   * 
+   * @param index the index
+   */
+  private Location createLocation(int index) {
+    Location location = new Location(LocationManager.GPS_PROVIDER);
+    location.setLatitude(40.0 + index);
+    location.setLongitude(-70.0 - index);
+    location.setAltitude(index);
+    location.setTime(1000L * index);
+    return location;
+  }
+}
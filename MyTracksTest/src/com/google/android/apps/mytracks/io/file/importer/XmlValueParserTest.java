@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+import java.util.Locale;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link XmlValueParser}.
+ */
+public class XmlValueParserTest extends TestCase {
+
+  private static final String[] DECIMALS = { "0", "-0", "1", "48.768364", "-122.0840575",
+      " 9.177886\n", "324.0", "+3.25", ".5", "5.", "0.1", "1e3", "1.5E-7", "123456789012345",
+      "12345678901234567", "1e22", "1e23", "4.9e-324", "NaN", "-Infinity", "1d" };
+
+  private static final String[] INVALID_DECIMALS = {
+      "", " ", "-", ".", "abc", "1.2.3", "e5", "1e", "1e+", "1,5" };
+
+  /**
+   * Tests parsing decimals matches {@link Double#parseDouble(String)}.
+   */
+  public void testParseDouble() {
+    for (String decimal : DECIMALS) {
+      assertEquals(decimal, Double.parseDouble(decimal), parseDouble(decimal));
+    }
+    Random random = new Random(0);
+    for (int i = 0; i < 10000; i++) {
+      double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(8));
+      String decimal = String.format(Locale.US, "%." + random.nextInt(10) + "f", value);
+      assertEquals(decimal, Double.parseDouble(decimal), parseDouble(decimal));
+      decimal = Double.toString(value);
+      assertEquals(decimal, Double.parseDouble(decimal), parseDouble(decimal));
+    }
+  }
+
+  /**
+   * Tests parsing invalid decimals.
+   */
+  public void testParseDouble_invalid() {
+    for (String decimal : INVALID_DECIMALS) {
+      try {
+        parseDouble(decimal);
+        fail(decimal);
+      } catch (NumberFormatException e) {
+        // Expected
+      }
+    }
+  }
+
+  /**
+   * Tests parsing a decimal in the middle of a buffer.
+   */
+  public void testParseDouble_range() {
+    char[] buffer = "lat=\"48.768364\"".toCharArray();
+    assertEquals(48.768364, XmlValueParser.parseDouble(buffer, 5, 14), 0.0);
+  }
+
+  private double parseDouble(String value) {
+    return XmlValueParser.parseDouble(value.toCharArray(), 0, value.length());
+  }
+}
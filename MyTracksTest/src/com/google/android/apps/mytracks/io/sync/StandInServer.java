@@ -0,0 +1,288 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.sync;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+
+/**
+ * A stand-in HTTP server accepting a number of requests and reading their
+ * bodies, with a content length or chunked. Optionally rejects a body longer
+ * than a maximum length, like the Drive direct upload. Subclasses can override
+ * {@link #getResponseBody(int)} to answer with a JSON body.
+ */
+class StandInServer extends Thread {
+
+  private final ServerSocket serverSocket;
+  private final int maxBodyLength;
+  private final int maxRequests;
+  private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+  private volatile String requestLine;
+  private volatile String contentType;
+  private volatile String contentEncoding;
+  private volatile boolean complete;
+  private volatile boolean rejected;
+  private int numberOfRequests;
+  private long totalBodyLength;
+
+  StandInServer() throws IOException {
+    this(-1);
+  }
+
+  /**
+   * Constructor for a server accepting one request.
+   * 
+   * @param maxBodyLength the maximum body length. -1 for no maximum
+   */
+  StandInServer(int maxBodyLength) throws IOException {
+    this(maxBodyLength, 1);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param maxBodyLength the maximum body length. -1 for no maximum
+   * @param maxRequests the maximum number of requests to accept
+   */
+  StandInServer(int maxBodyLength, int maxRequests) throws IOException {
+    this.maxBodyLength = maxBodyLength;
+    this.maxRequests = maxRequests;
+    serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+  }
+
+  int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Returns true if the body of the last request was read completely.
+   */
+  boolean isComplete() {
+    return complete;
+  }
+
+  /**
+   * Returns true if the body of the last request was rejected.
+   */
+  boolean isRejected() {
+    return rejected;
+  }
+
+  /**
+   * Gets the request line of the last request, e.g. "PUT /files/id HTTP/1.1".
+   */
+  String getRequestLine() {
+    return requestLine;
+  }
+
+  /**
+   * Gets the content type of the last request.
+   */
+  String getContentType() {
+    return contentType;
+  }
+
+  /**
+   * Gets the content encoding of the last request, e.g. "gzip".
+   */
+  String getContentEncoding() {
+    return contentEncoding;
+  }
+
+  /**
+   * Gets the body of the last request, as sent.
+   */
+  synchronized byte[] getBody() {
+    return body.toByteArray();
+  }
+
+  synchronized int getNumberOfRequests() {
+    return numberOfRequests;
+  }
+
+  /**
+   * Gets the number of body bytes received over all requests.
+   */
+  synchronized long getTotalBodyLength() {
+    return totalBodyLength;
+  }
+
+  void close() throws IOException {
+    serverSocket.close();
+  }
+
+  /**
+   * Gets the JSON response body of a request. Returns null for an empty body.
+   * 
+   * @param request the zero-based request number
+   */
+  protected String getResponseBody(int request) {
+    return null;
+  }
+
+  @Override
+  public void run() {
+    for (int request = 0; request < maxRequests; request++) {
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException e) {
+        // The server was closed
+        return;
+      }
+      synchronized (this) {
+        body.reset();
+        numberOfRequests++;
+      }
+      requestLine = null;
+      contentType = null;
+      contentEncoding = null;
+      complete = false;
+      rejected = false;
+      handleRequest(socket, request);
+    }
+  }
+
+  /**
+   * Reads a request and writes the response.
+   * 
+   * @param socket the socket
+   * @param request the zero-based request number
+   */
+  private void handleRequest(Socket socket, int request) {
+    try {
+      InputStream inputStream = socket.getInputStream();
+      int contentLength = -1;
+      boolean chunked = false;
+      requestLine = readLine(inputStream);
+      String line = readLine(inputStream);
+      while (line != null && line.length() > 0) {
+        String lowerCase = line.toLowerCase(Locale.US);
+        if (lowerCase.startsWith("content-length:")) {
+          contentLength = Integer.parseInt(line.substring(15).trim());
+        } else if (lowerCase.startsWith("transfer-encoding:")) {
+          chunked = lowerCase.contains("chunked");
+        } else if (lowerCase.startsWith("content-type:")) {
+          contentType = line.substring(13).trim();
+        } else if (lowerCase.startsWith("content-encoding:")) {
+          contentEncoding = line.substring(17).trim();
+        }
+        line = readLine(inputStream);
+      }
+      if (chunked) {
+        while (true) {
+          line = readLine(inputStream);
+          if (line == null) {
+            return;
+          }
+          int size = Integer.parseInt(line.split(";")[0].trim(), 16);
+          if (size == 0) {
+            break;
+          }
+          if (!readBody(inputStream, size)) {
+            return;
+          }
+          readLine(inputStream);
+        }
+      } else if (contentLength >= 0 && !readBody(inputStream, contentLength)) {
+        return;
+      }
+      complete = true;
+      String responseBody = getResponseBody(request);
+      byte[] responseBytes = responseBody == null ? new byte[0] : responseBody.getBytes("UTF-8");
+      OutputStream outputStream = socket.getOutputStream();
+      outputStream.write(("HTTP/1.1 200 OK\r\n"
+          + (responseBody == null ? "" : "Content-Type: application/json; charset=UTF-8\r\n")
+          + "Content-Length: " + responseBytes.length + "\r\nConnection: close\r\n\r\n")
+          .getBytes("UTF-8"));
+      outputStream.write(responseBytes);
+      outputStream.flush();
+    } catch (IOException e) {
+      // The client closed the connection
+    } finally {
+      if (rejected) {
+        try {
+          OutputStream outputStream = socket.getOutputStream();
+          outputStream.write(("HTTP/1.1 413 Request Entity Too Large\r\nContent-Length: 0\r\n"
+              + "Connection: close\r\n\r\n").getBytes("UTF-8"));
+          outputStream.flush();
+        } catch (IOException e) {
+          // The client closed the connection
+        }
+      }
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Ignore
+      }
+    }
+  }
+
+  /**
+   * Reads a number of body bytes. Returns false at the end of the stream or if
+   * the body is longer than the maximum length.
+   * 
+   * @param inputStream the input stream
+   * @param count the number of bytes
+   */
+  private boolean readBody(InputStream inputStream, int count) throws IOException {
+    byte[] buffer = new byte[8192];
+    while (count > 0) {
+      int read = inputStream.read(buffer, 0, Math.min(buffer.length, count));
+      if (read == -1) {
+        return false;
+      }
+      synchronized (this) {
+        body.write(buffer, 0, read);
+        totalBodyLength += read;
+        if (maxBodyLength >= 0 && body.size() > maxBodyLength) {
+          rejected = true;
+          return false;
+        }
+      }
+      count -= read;
+    }
+    return true;
+  }
+
+  /**
+   * Reads a line ending with CRLF. Returns null at the end of the stream.
+   * 
+   * @param inputStream the input stream
+   */
+  private String readLine(InputStream inputStream) throws IOException {
+    StringBuilder builder = new StringBuilder();
+    int value;
+    while ((value = inputStream.read()) != -1) {
+      if (value == '\n') {
+        int length = builder.length();
+        if (length > 0 && builder.charAt(length - 1) == '\r') {
+          builder.setLength(length - 1);
+        }
+        return builder.toString();
+      }
+      builder.append((char) value);
+    }
+    return null;
+  }
+}
@@ -0,0 +1,565 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.sync;
+
+import com.google.android.apps.mytracks.content.MyTracksProvider;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.Waypoint;
+import com.google.android.apps.mytracks.io.file.exporter.KmzTrackExporter;
+import com.google.android.apps.mytracks.io.file.exporter.TrackExporter;
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+import com.google.android.apps.mytracks.util.FileUtils;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+
+import android.content.Context;
+import android.location.Location;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests {@link SyncManifest} and the skipping of unchanged tracks in
+ * {@link SyncUtils#updateDriveFile(Drive, File, Context, MyTracksProviderUtils,
+ * Track, boolean)}, syncing to a local stand-in Drive server.
+ */
+public class SyncManifestTest extends AndroidTestCase {
+
+  private static final String TAG = SyncManifestTest.class.getSimpleName();
+  private static final String EXPORT_SETTINGS = "photo_size=1024";
+  private static final long TRACK_ID = 1L;
+  private static final String NAME = "test name";
+  private static final String NEW_NAME = "test new name";
+  private static final String DESCRIPTION = "test description";
+  private static final int NUMBER_OF_POINTS = 100;
+  private static final String DRIVE_ID = "driveId";
+  private static final long DRIVE_MODIFIED_TIME = 1388534400000L;
+  private static final String PHOTO_NAME = "SyncManifestTest.jpg";
+
+  // Five full chunks and a partial chunk
+  private static final int CONTENT_SIZE = 5 * SyncManifest.CHUNK_SIZE + 100;
+
+  private static final byte[] CHANGE_MARKERS = new byte[] {
+      1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20 };
+
+  private Context context;
+  private MyTracksProviderUtils providerUtils;
+  private DriveStandInServer server;
+  private Drive drive;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider provider = new MyTracksProvider();
+    provider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, provider);
+    setContext(context);
+
+    providerUtils = MyTracksProviderUtils.Factory.get(context);
+    providerUtils.deleteAllTracks(context);
+    SyncManifest.deleteAll(context);
+
+    server = new DriveStandInServer();
+    server.start();
+    drive = new Drive.Builder(new NetHttpTransport(), new GsonFactory(), null)
+        .setRootUrl(String.format(Locale.US, "http://127.0.0.1:%d/", server.getPort()))
+        .build();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.close();
+    server.join(10000L);
+    SyncManifest.deleteAll(context);
+    super.tearDown();
+  }
+
+  /**
+   * Tests that the same content has the same manifest.
+   */
+  public void testBuild_sameContent() {
+    SyncManifest manifest1 = build(getContent(), true);
+    SyncManifest manifest2 = build(getContent(), true);
+    assertEquals(6, manifest1.getNumberOfChunks());
+    assertEquals(CONTENT_SIZE, manifest1.getLength());
+    assertEquals(manifest1, manifest2);
+    assertEquals(manifest1.hashCode(), manifest2.hashCode());
+    assertEquals(0, manifest1.getNumberOfChangedChunks(manifest2));
+    assertTrue(manifest1.hasChangeMarkers(CHANGE_MARKERS));
+    assertFalse(manifest1.hasChangeMarkers(new byte[CHANGE_MARKERS.length]));
+  }
+
+  /**
+   * Tests that changing one byte changes one chunk.
+   */
+  public void testBuild_changedByte() {
+    byte[] content = getContent();
+    SyncManifest manifest1 = build(content, true);
+    content[2 * SyncManifest.CHUNK_SIZE + 10]++;
+    SyncManifest manifest2 = build(content, true);
+    assertFalse(manifest1.equals(manifest2));
+    assertEquals(1, manifest1.getNumberOfChangedChunks(manifest2));
+  }
+
+  /**
+   * Tests that appending to the content changes the last chunk and adds
+   * chunks.
+   */
+  public void testBuild_appendedContent() {
+    byte[] content = getContent();
+    byte[] appendedContent = new byte[CONTENT_SIZE + SyncManifest.CHUNK_SIZE];
+    System.arraycopy(content, 0, appendedContent, 0, CONTENT_SIZE);
+    SyncManifest manifest1 = build(content, true);
+    SyncManifest manifest2 = build(appendedContent, true);
+    assertEquals(7, manifest2.getNumberOfChunks());
+    assertEquals(2, manifest1.getNumberOfChangedChunks(manifest2));
+  }
+
+  /**
+   * Tests that there is no manifest when the export fails or does not run, or
+   * when the change markers are unknown.
+   */
+  public void testBuild_exportFailure() throws Exception {
+    assertNull(build(getContent(), false));
+    assertNull(new SyncManifest.Builder(CHANGE_MARKERS).build());
+
+    SyncManifest.Builder builder = new SyncManifest.Builder(null);
+    builder.wrap(new ContentTrackExporter(getContent(), true))
+        .writeTrack(new ByteArrayOutputStream());
+    assertNull(builder.build());
+  }
+
+  /**
+   * Tests that an empty content has one chunk.
+   */
+  public void testBuild_emptyContent() {
+    SyncManifest manifest = build(new byte[0], true);
+    assertEquals(1, manifest.getNumberOfChunks());
+    assertEquals(manifest, build(new byte[0], true));
+  }
+
+  /**
+   * Tests that a saved manifest is only loaded for the same drive file id and
+   * modified time.
+   */
+  public void testSaveLoad() {
+    SyncManifest manifest = build(getContent(), true);
+    manifest.save(context, TRACK_ID, DRIVE_ID, DRIVE_MODIFIED_TIME);
+    SyncManifest loaded = SyncManifest.load(context, TRACK_ID, DRIVE_ID, DRIVE_MODIFIED_TIME);
+    assertEquals(manifest, loaded);
+    assertTrue(loaded.hasChangeMarkers(CHANGE_MARKERS));
+    assertNull(SyncManifest.load(context, TRACK_ID, "otherDriveId", DRIVE_MODIFIED_TIME));
+    assertNull(SyncManifest.load(context, TRACK_ID, DRIVE_ID, DRIVE_MODIFIED_TIME + 1));
+    assertNull(SyncManifest.load(context, TRACK_ID + 1, DRIVE_ID, DRIVE_MODIFIED_TIME));
+
+    SyncManifest.delete(context, TRACK_ID);
+    assertNull(SyncManifest.load(context, TRACK_ID, DRIVE_ID, DRIVE_MODIFIED_TIME));
+  }
+
+  /**
+   * Tests that deleting a track deletes its manifest.
+   */
+  public void testDeleteTrack() {
+    insertTrack(NAME, NUMBER_OF_POINTS);
+    build(getContent(), true).save(context, TRACK_ID, DRIVE_ID, DRIVE_MODIFIED_TIME);
+    assertTrue(FileUtils.getSyncManifestFile(context, TRACK_ID).exists());
+    providerUtils.deleteTrack(context, TRACK_ID);
+    assertFalse(FileUtils.getSyncManifestFile(context, TRACK_ID).exists());
+  }
+
+  /**
+   * Tests that deleting all tracks deletes all manifests.
+   */
+  public void testDeleteAllTracks() {
+    insertTrack(NAME, NUMBER_OF_POINTS);
+    build(getContent(), true).save(context, TRACK_ID, DRIVE_ID, DRIVE_MODIFIED_TIME);
+    providerUtils.deleteAllTracks(context);
+    assertFalse(FileUtils.getSyncManifestFile(context, TRACK_ID).exists());
+  }
+
+  /**
+   * Tests that the change markers change with the track content and the
+   * export settings, but not with the sync columns.
+   */
+  public void testGetChangeMarkers() {
+    assertNull(getChangeMarkers());
+    insertTrack(NAME, NUMBER_OF_POINTS);
+    byte[] markers = getChangeMarkers();
+    assertTrue(Arrays.equals(markers, getChangeMarkers()));
+    assertFalse(Arrays.equals(markers,
+        SyncManifest.getChangeMarkers(providerUtils, TRACK_ID, "photo_size=512")));
+
+    Track track = providerUtils.getTrack(TRACK_ID);
+    track.setDriveId(DRIVE_ID);
+    track.setModifiedTime(DRIVE_MODIFIED_TIME);
+    providerUtils.updateTrack(track);
+    assertTrue(Arrays.equals(markers, getChangeMarkers()));
+
+    track.setDescription(DESCRIPTION);
+    providerUtils.updateTrack(track);
+    markers = assertChanged(markers);
+
+    providerUtils.insertTrackPoint(createLocation(NUMBER_OF_POINTS), TRACK_ID);
+    markers = assertChanged(markers);
+
+    Waypoint waypoint = new Waypoint();
+    waypoint.setTrackId(TRACK_ID);
+    waypoint.setName(NAME);
+    providerUtils.insertWaypoint(waypoint);
+    assertChanged(markers);
+  }
+
+  /**
+   * Tests that the change markers change with the size and the modified time of
+   * a photo, without reading the photo.
+   */
+  public void testGetChangeMarkers_photo() throws Exception {
+    insertTrack(NAME, NUMBER_OF_POINTS);
+    java.io.File photo = new java.io.File(context.getCacheDir(), PHOTO_NAME);
+    try {
+      writePhoto(photo, 100);
+      Waypoint waypoint = new Waypoint();
+      waypoint.setTrackId(TRACK_ID);
+      waypoint.setPhotoUrl(Uri.fromFile(photo).toString());
+      providerUtils.insertWaypoint(waypoint);
+      byte[] markers = getChangeMarkers();
+      assertTrue(Arrays.equals(markers, getChangeMarkers()));
+
+      writePhoto(photo, 200);
+      markers = assertChanged(markers);
+
+      assertTrue(photo.setLastModified(photo.lastModified() - 60000L));
+      assertChanged(markers);
+    } finally {
+      photo.delete();
+    }
+  }
+
+  /**
+   * Tests syncing a track. The first sync uploads the track, a sync of the
+   * unchanged track sends nothing, and a sync of a changed track uploads the
+   * track in full, since Drive cannot update a part of a file.
+   */
+  public void testUpdateDriveFile() throws Exception {
+    insertTrack(NAME, NUMBER_OF_POINTS);
+
+    assertTrue(sync(server.getDriveFile()));
+    assertUploaded(1);
+    long firstSync = server.getTotalBodyLength();
+
+    assertTrue(sync(server.getDriveFile()));
+    assertEquals(1, server.getNumberOfRequests());
+    assertEquals(firstSync, server.getTotalBodyLength());
+
+    providerUtils.insertTrackPoint(createLocation(NUMBER_OF_POINTS), TRACK_ID);
+    assertTrue(sync(server.getDriveFile()));
+    assertUploaded(2);
+
+    Log.i(TAG, "Bytes on the wire: first sync " + firstSync + ", unchanged sync 0, changed sync "
+        + (server.getTotalBodyLength() - firstSync));
+  }
+
+  /**
+   * Tests that a renamed track is uploaded, the track name is in the KML.
+   */
+  public void testUpdateDriveFile_renamedTrack() throws Exception {
+    insertTrack(NAME, NUMBER_OF_POINTS);
+    assertTrue(sync(server.getDriveFile()));
+    assertUploaded(1);
+
+    Track track = providerUtils.getTrack(TRACK_ID);
+    track.setName(NEW_NAME);
+    providerUtils.updateTrack(track);
+    assertTrue(sync(server.getDriveFile()));
+    assertUploaded(2);
+    assertEquals(NEW_NAME + "." + KmzTrackExporter.KMZ_EXTENSION, server.getDriveFile().getTitle());
+  }
+
+  /**
+   * Tests that an unchanged track with a different drive title only updates
+   * the drive file metadata, and that the manifest is saved for the new
+   * modified time of the drive file, so that the next sync sends nothing.
+   */
+  public void testUpdateDriveFile_driveTitle() throws Exception {
+    insertTrack(NAME, NUMBER_OF_POINTS);
+    assertTrue(sync(server.getDriveFile()));
+    assertUploaded(1);
+
+    File driveFile = server.getDriveFile();
+    driveFile.setTitle(NEW_NAME + "." + KmzTrackExporter.KMZ_EXTENSION);
+    assertTrue(sync(driveFile));
+    assertEquals(2, server.getNumberOfRequests());
+    assertFalse(server.getRequestLine().contains("upload"));
+    assertEquals(NAME + "." + KmzTrackExporter.KMZ_EXTENSION, server.getDriveFile().getTitle());
+    assertEquals(server.getDriveModifiedTime(), providerUtils.getTrack(TRACK_ID).getModifiedTime());
+
+    assertTrue(sync(server.getDriveFile()));
+    assertEquals(2, server.getNumberOfRequests());
+  }
+
+  /**
+   * Tests that a drive file modified since the last sync is uploaded, even if
+   * the track is unchanged.
+   */
+  public void testUpdateDriveFile_driveModified() throws Exception {
+    insertTrack(NAME, NUMBER_OF_POINTS);
+    assertTrue(sync(server.getDriveFile()));
+    assertUploaded(1);
+
+    File driveFile = server.getDriveFile();
+    driveFile.setModifiedDate(new DateTime(server.getDriveModifiedTime() + 1000L));
+    assertTrue(sync(driveFile));
+    assertUploaded(2);
+  }
+
+  /**
+   * Syncs the track to the stand-in server.
+   * 
+   * @param driveFile the drive file
+   */
+  private boolean sync(File driveFile) throws IOException {
+    Track track = providerUtils.getTrack(TRACK_ID);
+    return SyncUtils.updateDriveFile(drive, driveFile, context, providerUtils, track, true);
+  }
+
+  /**
+   * Asserts that the last request uploaded the track and that the track has
+   * the modified time of the drive file.
+   * 
+   * @param numberOfRequests the expected number of requests
+   */
+  private void assertUploaded(int numberOfRequests) {
+    assertEquals(numberOfRequests, server.getNumberOfRequests());
+    assertTrue(server.getRequestLine().contains("uploadType=multipart"));
+    assertEquals(server.getDriveModifiedTime(), providerUtils.getTrack(TRACK_ID).getModifiedTime());
+  }
+
+  /**
+   * Asserts that the change markers of the track changed. Returns the new
+   * change markers.
+   * 
+   * @param markers the previous change markers
+   */
+  private byte[] assertChanged(byte[] markers) {
+    byte[] newMarkers = getChangeMarkers();
+    assertNotNull(newMarkers);
+    assertFalse(Arrays.equals(markers, newMarkers));
+    return newMarkers;
+  }
+
+  /**
+   * Gets the change markers of the track.
+   */
+  private byte[] getChangeMarkers() {
+    return SyncManifest.getChangeMarkers(providerUtils, TRACK_ID, EXPORT_SETTINGS);
+  }
+
+  /**
+   * Inserts the track with a number of track points.
+   * 
+   * @param name the track name
+   * @param numberOfPoints the number of track points
+   */
+  private void insertTrack(String name, int numberOfPoints) {
+    Track track = new Track();
+    track.setId(TRACK_ID);
+    track.setName(name);
+    track.setNumberOfPoints(numberOfPoints);
+    providerUtils.insertTrack(track);
+    Location[] locations = new Location[numberOfPoints];
+    for (int i = 0; i < numberOfPoints; i++) {
+      locations[i] = createLocation(i);
+    }
+    providerUtils.bulkInsertTrackPoint(locations, numberOfPoints, TRACK_ID);
+  }
+
+  /**
+   * Creates a location.
+   * 
+   * @param i the index of the location
+   */
+  private Location createLocation(int i) {
+    Location location = new Location("test");
+    location.setLatitude(37.0 + i / 10000.0);
+    location.setLongitude(-122.0 - i / 10000.0);
+    location.setAltitude(i * 2.5);
+    location.setTime(DRIVE_MODIFIED_TIME + i * 1000L);
+    return location;
+  }
+
+  /**
+   * Writes a photo of a number of bytes.
+   * 
+   * @param photo the photo file
+   * @param length the number of bytes
+   */
+  private void writePhoto(java.io.File photo, int length) throws IOException {
+    OutputStream outputStream = new FileOutputStream(photo);
+    try {
+      outputStream.write(new byte[length]);
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  /**
+   * Builds a manifest of a content.
+   * 
+   * @param content the content
+   * @param result the result of the export
+   */
+  private SyncManifest build(byte[] content, boolean result) {
+    SyncManifest.Builder builder = new SyncManifest.Builder(CHANGE_MARKERS);
+    builder.wrap(new ContentTrackExporter(content, result))
+        .writeTrack(new ByteArrayOutputStream());
+    return builder.build();
+  }
+
+  /**
+   * Gets a content of {@link #CONTENT_SIZE} bytes.
+   */
+  private byte[] getContent() {
+    byte[] content = new byte[CONTENT_SIZE];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i * 31 + i / 4096);
+    }
+    return content;
+  }
+
+  /**
+   * A track exporter writing a content in pieces not aligned with the chunks.
+   */
+  private static class ContentTrackExporter implements TrackExporter {
+
+    private final byte[] content;
+    private final boolean result;
+
+    ContentTrackExporter(byte[] content, boolean result) {
+      this.content = content;
+      this.result = result;
+    }
+
+    @Override
+    public boolean writeTrack(OutputStream outputStream) {
+      try {
+        if (content.length > 0) {
+          outputStream.write(content[0]);
+        }
+        for (int i = 1; i < content.length; i += 1000) {
+          outputStream.write(content, i, Math.min(1000, content.length - i));
+        }
+        return result;
+      } catch (IOException e) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * A stand-in Drive server holding one drive file. Answers each update with
+   * the drive file, with the title of the update and a new modified date.
+   */
+  private static class DriveStandInServer extends StandInServer {
+
+    private static final int MAX_REQUESTS = 10;
+    private static final Pattern TITLE_PATTERN = Pattern.compile("\"title\"\\s*:\\s*\"([^\"]*)\"");
+
+    private String title = NAME + "." + KmzTrackExporter.KMZ_EXTENSION;
+    private long modifiedTime = DRIVE_MODIFIED_TIME;
+
+    DriveStandInServer() throws IOException {
+      super(-1, MAX_REQUESTS);
+    }
+
+    /**
+     * Gets the drive file as listed by Drive.
+     */
+    synchronized File getDriveFile() {
+      File driveFile = new File();
+      driveFile.setId(DRIVE_ID);
+      driveFile.setTitle(title);
+      driveFile.setMimeType(SyncUtils.KMZ_MIME_TYPE);
+      driveFile.setModifiedDate(new DateTime(modifiedTime));
+      return driveFile;
+    }
+
+    synchronized long getDriveModifiedTime() {
+      return modifiedTime;
+    }
+
+    @Override
+    protected synchronized String getResponseBody(int request) {
+      try {
+        Matcher matcher = TITLE_PATTERN.matcher(getBodyText());
+        if (matcher.find()) {
+          title = matcher.group(1);
+        }
+      } catch (IOException e) {
+        Log.e(TAG, "Unable to read the request body", e);
+      }
+      modifiedTime += 1000L;
+      return "{\"id\":\"" + DRIVE_ID + "\",\"title\":\"" + title + "\",\"mimeType\":\""
+          + SyncUtils.KMZ_MIME_TYPE + "\",\"modifiedDate\":\""
+          + new DateTime(modifiedTime).toStringRfc3339() + "\"}";
+    }
+
+    /**
+     * Gets the body of the last request as text, uncompressed.
+     */
+    private String getBodyText() throws IOException {
+      byte[] body = getBody();
+      if (!"gzip".equals(getContentEncoding())) {
+        return new String(body, "ISO-8859-1");
+      }
+      InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(body));
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      try {
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+          outputStream.write(buffer, 0, count);
+        }
+      } finally {
+        inputStream.close();
+      }
+      return new String(outputStream.toByteArray(), "ISO-8859-1");
+    }
+  }
+}
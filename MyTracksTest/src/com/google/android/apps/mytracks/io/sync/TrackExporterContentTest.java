@@ -0,0 +1,315 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.sync;
+
+import com.google.android.apps.mytracks.io.file.exporter.TrackExporter;
+import com.google.api.client.googleapis.media.MediaHttpUploader;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.javanet.NetHttpTransport;
+
+import android.test.AndroidTestCase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Tests {@link TrackExporterContent} by uploading to a local stand-in HTTP
+ * server.
+ */
+public class TrackExporterContentTest extends AndroidTestCase {
+
+  private static final String TYPE = "application/vnd.google-earth.kmz";
+
+  // Larger than the pipe and the buffers
+  private static final int CONTENT_SIZE = 1024 * 1024;
+
+  // The maximum body length of the size limited stand-in server
+  private static final int MAX_BODY_LENGTH = CONTENT_SIZE / 4;
+
+  private StandInServer server;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    server = new StandInServer();
+    server.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.close();
+    server.join(10000L);
+    super.tearDown();
+  }
+
+  /**
+   * Tests that the exported track is uploaded.
+   */
+  public void testUpload() throws Exception {
+    byte[] content = getContent();
+    HttpResponse response = upload(
+        new TrackExporterContent(TYPE, new FakeTrackExporter(content, true)));
+    try {
+      assertEquals(200, response.getStatusCode());
+    } finally {
+      response.disconnect();
+    }
+    server.join(10000L);
+    assertTrue(server.isComplete());
+    assertEquals(TYPE, server.getContentType());
+    assertTrue(Arrays.equals(content, server.getBody()));
+  }
+
+  /**
+   * Tests that the length is unknown until the content has been uploaded, then
+   * the number of bytes uploaded.
+   */
+  public void testGetLength() throws Exception {
+    byte[] content = getContent();
+    TrackExporterContent trackExporterContent = new TrackExporterContent(
+        TYPE, new FakeTrackExporter(content, true));
+    assertEquals(-1L, trackExporterContent.getLength());
+    upload(trackExporterContent).disconnect();
+    assertEquals(CONTENT_SIZE, trackExporterContent.getLength());
+  }
+
+  /**
+   * Tests a direct upload by the media uploader, which reads the content length
+   * after the upload.
+   */
+  public void testUpload_directUpload() throws Exception {
+    TrackExporterContent trackExporterContent = new TrackExporterContent(
+        TYPE, new FakeTrackExporter(getContent(), true));
+    MediaHttpUploader mediaHttpUploader = new MediaHttpUploader(
+        trackExporterContent, new NetHttpTransport(), null);
+    mediaHttpUploader.setDirectUploadEnabled(true);
+    HttpResponse response = mediaHttpUploader.upload(new GenericUrl(
+        String.format(Locale.US, "http://127.0.0.1:%d/upload", server.getPort())));
+    try {
+      assertEquals(200, response.getStatusCode());
+    } finally {
+      response.disconnect();
+    }
+    server.join(10000L);
+    assertTrue(server.isComplete());
+    assertEquals(CONTENT_SIZE, mediaHttpUploader.getNumBytesUploaded());
+  }
+
+  /**
+   * Tests that the upload fails when the export fails. The stand-in server only
+   * receives the partial track.
+   */
+  public void testUpload_exportFailure() throws Exception {
+    try {
+      upload(new TrackExporterContent(TYPE, new FakeTrackExporter(getContent(), false)));
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // Expected
+    }
+    server.join(10000L);
+    assertTrue(server.getBody().length < CONTENT_SIZE);
+  }
+
+  /**
+   * Tests that a server with a size limit rejects a content larger than the
+   * limit.
+   */
+  public void testUpload_tooLarge() throws Exception {
+    useSizeLimitedServer();
+    try {
+      HttpResponse response = upload(
+          new TrackExporterContent(TYPE, new FakeTrackExporter(getContent(), true)));
+      response.disconnect();
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // Expected
+    }
+    server.join(10000L);
+    assertTrue(server.isRejected());
+    assertFalse(server.isComplete());
+  }
+
+  /**
+   * Tests that a content with a maximum length fails the upload as soon as the
+   * export is larger, and stops the export.
+   */
+  public void testUpload_maxLength() throws Exception {
+    useSizeLimitedServer();
+    FakeTrackExporter trackExporter = new FakeTrackExporter(getContent(), true);
+    try {
+      upload(new TrackExporterContent(TYPE, trackExporter, MAX_BODY_LENGTH));
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // Expected
+    }
+    assertTrue(trackExporter.awaitDone(10000L));
+    assertFalse(trackExporter.isSuccess());
+    // A plain POST ends the chunked body, the server only receives the start
+    server.join(10000L);
+    assertFalse(server.isRejected());
+    assertTrue(server.getBody().length <= MAX_BODY_LENGTH);
+  }
+
+  /**
+   * Tests that a content within the maximum length is uploaded.
+   */
+  public void testUpload_withinMaxLength() throws Exception {
+    useSizeLimitedServer();
+    byte[] content = new byte[MAX_BODY_LENGTH];
+    System.arraycopy(getContent(), 0, content, 0, MAX_BODY_LENGTH);
+    HttpResponse response = upload(new TrackExporterContent(
+        TYPE, new FakeTrackExporter(content, true), MAX_BODY_LENGTH));
+    try {
+      assertEquals(200, response.getStatusCode());
+    } finally {
+      response.disconnect();
+    }
+    server.join(10000L);
+    assertTrue(server.isComplete());
+    assertTrue(Arrays.equals(content, server.getBody()));
+  }
+
+  /**
+   * Tests that the content can only be read once.
+   */
+  public void testGetInputStream_twice() throws Exception {
+    TrackExporterContent trackExporterContent = new TrackExporterContent(
+        TYPE, new FakeTrackExporter(new byte[0], true));
+    InputStream inputStream = trackExporterContent.getInputStream();
+    try {
+      assertEquals(-1, inputStream.read());
+    } finally {
+      inputStream.close();
+    }
+    assertFalse(trackExporterContent.retrySupported());
+    try {
+      trackExporterContent.getInputStream();
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * Tests that closing the input stream before the end stops the export.
+   */
+  public void testGetInputStream_close() throws Exception {
+    FakeTrackExporter trackExporter = new FakeTrackExporter(getContent(), true);
+    TrackExporterContent trackExporterContent = new TrackExporterContent(TYPE, trackExporter);
+    InputStream inputStream = trackExporterContent.getInputStream();
+    assertTrue(inputStream.read() != -1);
+    inputStream.close();
+    assertTrue(trackExporter.awaitDone(10000L));
+    assertFalse(trackExporter.isSuccess());
+  }
+
+  /**
+   * Replaces the stand-in server with one rejecting bodies longer than
+   * {@link #MAX_BODY_LENGTH}.
+   */
+  private void useSizeLimitedServer() throws Exception {
+    server.close();
+    server.join(10000L);
+    server = new StandInServer(MAX_BODY_LENGTH);
+    server.start();
+  }
+
+  /**
+   * Uploads a content to the stand-in server.
+   * 
+   * @param trackExporterContent the content
+   */
+  private HttpResponse upload(TrackExporterContent trackExporterContent) throws IOException {
+    GenericUrl url = new GenericUrl(
+        String.format(Locale.US, "http://127.0.0.1:%d/upload", server.getPort()));
+    HttpRequest request = new NetHttpTransport().createRequestFactory()
+        .buildPostRequest(url, trackExporterContent);
+    request.setEnableGZipContent(false);
+    request.setNumberOfRetries(0);
+    return request.execute();
+  }
+
+  /**
+   * Gets a content of {@link #CONTENT_SIZE} bytes.
+   */
+  private byte[] getContent() {
+    byte[] content = new byte[CONTENT_SIZE];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i * 31 + i / 4096);
+    }
+    return content;
+  }
+
+  /**
+   * A track exporter writing a fixed content in small pieces. When failing,
+   * only writes the first half of the content.
+   */
+  private static class FakeTrackExporter implements TrackExporter {
+
+    private final byte[] content;
+    private final boolean result;
+    private boolean done;
+    private boolean success;
+
+    FakeTrackExporter(byte[] content, boolean result) {
+      this.content = content;
+      this.result = result;
+    }
+
+    @Override
+    public boolean writeTrack(OutputStream outputStream) {
+      boolean writeSuccess = false;
+      try {
+        int length = result ? content.length : content.length / 2;
+        for (int i = 0; i < length; i += 1000) {
+          if (Thread.interrupted()) {
+            return false;
+          }
+          outputStream.write(content, i, Math.min(1000, length - i));
+        }
+        outputStream.flush();
+        writeSuccess = result;
+        return writeSuccess;
+      } catch (IOException e) {
+        return false;
+      } finally {
+        synchronized (this) {
+          success = writeSuccess;
+          done = true;
+          notifyAll();
+        }
+      }
+    }
+
+    synchronized boolean awaitDone(long timeout) throws InterruptedException {
+      long end = System.currentTimeMillis() + timeout;
+      while (!done && System.currentTimeMillis() < end) {
+        wait(Math.max(1L, end - System.currentTimeMillis()));
+      }
+      return done;
+    }
+
+    synchronized boolean isSuccess() {
+      return success;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.maps;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the {@link PathSimplifier}.
+ */
+public class PathSimplifierTest extends TestCase {
+
+  private static final double TOLERANCE = 0.01;
+
+  private PathSimplifier pathSimplifier;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    pathSimplifier = new PathSimplifier();
+  }
+
+  /**
+   * Tests the world coordinates.
+   */
+  public void testGetXY() {
+    assertEquals(0.0, PathSimplifier.getX(-180.0), 1e-9);
+    assertEquals(0.5, PathSimplifier.getX(0.0), 1e-9);
+    assertEquals(1.0, PathSimplifier.getX(180.0), 1e-9);
+    assertEquals(0.5, PathSimplifier.getY(0.0), 1e-9);
+    assertTrue(PathSimplifier.getY(45.0) < 0.5);
+    assertTrue(PathSimplifier.getY(-45.0) > 0.5);
+    assertEquals(0.0, PathSimplifier.getY(90.0), 1e-6);
+    assertEquals(1.0, PathSimplifier.getY(-90.0), 1e-6);
+  }
+
+  /**
+   * Tests that the tolerance halves with each zoom level.
+   */
+  public void testGetTolerance() {
+    assertEquals(1.0 / 256.0, PathSimplifier.getTolerance(0f), 1e-12);
+    assertEquals(
+        PathSimplifier.getTolerance(10f) / 2, PathSimplifier.getTolerance(11f), 1e-15);
+  }
+
+  /**
+   * Tests that points within the tolerance of a straight line are dropped.
+   */
+  public void testSimplify_line() {
+    double[] xs = { 0.0, 0.1, 0.2, 0.3, 0.4 };
+    double[] ys = { 0.0, 0.001, -0.001, 0.2, 0.0 };
+    int[] output = simplify(xs, ys, null, -1.0, -1.0, 1.0, 1.0);
+    assertOutput(new int[] { 0, 2, 3, 4 }, output);
+  }
+
+  /**
+   * Tests that segment splits are kept.
+   */
+  public void testSimplify_split() {
+    double[] xs = { 0.0, 0.1, 0.2, 0.0, 0.1, 0.2 };
+    double[] ys = { 0.0, 0.0, 0.0, 0.0, 0.0, 0.0 };
+    boolean[] valid = { true, true, true, false, true, true };
+    int[] output = simplify(xs, ys, valid, -1.0, -1.0, 1.0, 1.0);
+    assertOutput(new int[] { 0, 2, PathSimplifier.SPLIT, 4, 5 }, output);
+  }
+
+  /**
+   * Tests that points outside the region are clipped, keeping the segments
+   * crossing the region and the last point.
+   */
+  public void testSimplify_clip() {
+    double[] xs = { 0.0, 0.1, 0.2, 0.3, 0.4, 0.5, 0.6, 0.7 };
+    double[] ys = { 0.0, 0.0, 0.5, 0.0, 0.5, 0.0, 0.5, 0.0 };
+    int[] output = simplify(xs, ys, null, 0.25, -1.0, 0.45, 1.0);
+    assertOutput(new int[] { 2, 3, 4, 5, PathSimplifier.SPLIT, 7 }, output);
+  }
+
+  /**
+   * Tests that a segment crossing the region without a point inside is kept.
+   */
+  public void testSimplify_crossing() {
+    double[] xs = { 0.0, 0.0, 1.0 };
+    double[] ys = { 0.5, 0.0, 1.0 };
+    int[] output = simplify(xs, ys, null, 0.4, 0.4, 0.6, 0.6);
+    assertOutput(new int[] { 1, 2 }, output);
+  }
+
+  /**
+   * Tests that a long path is simplified without overflowing the output.
+   */
+  public void testSimplify_long() {
+    int size = 10000;
+    double[] xs = new double[size];
+    double[] ys = new double[size];
+    for (int i = 0; i < size; i++) {
+      xs[i] = i / (double) size;
+      ys[i] = 0.5 + 0.25 * Math.sin(i * 2 * Math.PI / size);
+    }
+    int[] output = simplify(xs, ys, null, -1.0, -1.0, 2.0, 2.0);
+    assertEquals(0, output[0]);
+    assertEquals(size - 1, output[output.length - 1]);
+    assertTrue(output.length < 100);
+    for (int i = 1; i < output.length; i++) {
+      assertTrue(output[i] > output[i - 1]);
+    }
+  }
+
+  /**
+   * Simplifies a path with {@link #TOLERANCE}.
+   * 
+   * @param xs the world x coordinates
+   * @param ys the world y coordinates
+   * @param valid the valid flags, null if all valid
+   * @param left the region left
+   * @param top the region top
+   * @param right the region right
+   * @param bottom the region bottom
+   * @return the output values
+   */
+  private int[] simplify(double[] xs, double[] ys, boolean[] valid, double left, double top,
+      double right, double bottom) {
+    if (valid == null) {
+      valid = new boolean[xs.length];
+      for (int i = 0; i < valid.length; i++) {
+        valid[i] = true;
+      }
+    }
+    int[] output = new int[2 * xs.length];
+    int count = pathSimplifier.simplify(
+        xs, ys, valid, xs.length, left, top, right, bottom, TOLERANCE, output);
+    int[] result = new int[count];
+    System.arraycopy(output, 0, result, 0, count);
+    return result;
+  }
+
+  /**
+   * Asserts the output values.
+   * 
+   * @param expected the expected values
+   * @param actual the actual values
+   */
+  private void assertOutput(int[] expected, int[] actual) {
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], actual[i]);
+    }
+  }
+}
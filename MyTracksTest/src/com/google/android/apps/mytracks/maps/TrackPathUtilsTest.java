@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.maps;
+
+import static com.google.android.apps.mytracks.maps.TrackPathUtils.MAX_POLYLINE_POINTS;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the polyline chunking of {@link TrackPathUtils}.
+ */
+public class TrackPathUtilsTest extends TestCase {
+
+  /**
+   * Tests a path of exactly {@link TrackPathUtils#MAX_POLYLINE_POINTS}
+   * points.
+   */
+  public void testSplitPath_maxPoints() {
+    List<LatLng> points = getPoints(0, MAX_POLYLINE_POINTS);
+    List<List<LatLng>> polylines = TrackPathUtils.splitPath(null, points);
+
+    assertEquals(1, polylines.size());
+    assertEquals(points, polylines.get(0));
+  }
+
+  /**
+   * Tests a path one point longer than
+   * {@link TrackPathUtils#MAX_POLYLINE_POINTS}.
+   */
+  public void testSplitPath_maxPointsPlusOne() {
+    List<LatLng> points = getPoints(0, MAX_POLYLINE_POINTS + 1);
+    List<List<LatLng>> polylines = TrackPathUtils.splitPath(null, points);
+
+    assertEquals(2, polylines.size());
+    assertEquals(MAX_POLYLINE_POINTS, polylines.get(0).size());
+    assertEquals(2, polylines.get(1).size());
+    assertJoined(points, polylines);
+  }
+
+  /**
+   * Tests paths ending exactly at a polyline boundary, which must not add a
+   * polyline with only the joint point.
+   */
+  public void testSplitPath_boundary() {
+    // Two full polylines sharing one point
+    List<LatLng> points = getPoints(0, 2 * MAX_POLYLINE_POINTS - 1);
+    List<List<LatLng>> polylines = TrackPathUtils.splitPath(null, points);
+    assertEquals(2, polylines.size());
+    assertEquals(MAX_POLYLINE_POINTS, polylines.get(1).size());
+    assertJoined(points, polylines);
+
+    // Appending fills the last polyline exactly
+    List<LatLng> lastPoints = getPoints(0, MAX_POLYLINE_POINTS - 1);
+    points = getPoints(MAX_POLYLINE_POINTS - 1, 1);
+    polylines = TrackPathUtils.splitPath(lastPoints, points);
+    assertEquals(1, polylines.size());
+    assertEquals(getPoints(0, MAX_POLYLINE_POINTS), polylines.get(0));
+  }
+
+  /**
+   * Tests appending to a full polyline. The polyline is kept and the next one
+   * starts at its last point.
+   */
+  public void testSplitPath_appendToFull() {
+    List<LatLng> lastPoints = getPoints(0, MAX_POLYLINE_POINTS);
+    List<LatLng> points = getPoints(MAX_POLYLINE_POINTS, 3);
+    List<List<LatLng>> polylines = TrackPathUtils.splitPath(lastPoints, points);
+
+    assertEquals(2, polylines.size());
+    assertSame(lastPoints, polylines.get(0));
+    assertJoined(getPoints(0, MAX_POLYLINE_POINTS + 3), polylines);
+  }
+
+  /**
+   * Tests that appending paths of various sizes shares the joint points
+   * without gaps or duplicates.
+   */
+  public void testSplitPath_append() {
+    int[] sizes = { 1, 498, 2, 1, 500, 501, 1000, 3 };
+    int start = 0;
+    List<List<LatLng>> paths = new ArrayList<List<LatLng>>();
+    for (int size : sizes) {
+      List<LatLng> lastPoints = paths.isEmpty() ? null : paths.remove(paths.size() - 1);
+      paths.addAll(TrackPathUtils.splitPath(lastPoints, getPoints(start, size)));
+      start += size;
+    }
+    for (List<LatLng> path : paths) {
+      assertTrue(path.size() >= 2 || paths.size() == 1);
+      assertTrue(path.size() <= MAX_POLYLINE_POINTS);
+    }
+    assertJoined(getPoints(0, start), paths);
+  }
+
+  /**
+   * Asserts polylines are a chain, each starting at the last point of the
+   * previous one, covering the points in order.
+   * 
+   * @param points the points
+   * @param polylines the polylines
+   */
+  private void assertJoined(List<LatLng> points, List<List<LatLng>> polylines) {
+    List<LatLng> joined = new ArrayList<LatLng>();
+    for (List<LatLng> polyline : polylines) {
+      if (joined.isEmpty()) {
+        joined.addAll(polyline);
+      } else {
+        assertEquals(joined.get(joined.size() - 1), polyline.get(0));
+        joined.addAll(polyline.subList(1, polyline.size()));
+      }
+    }
+    assertEquals(points, joined);
+  }
+
+  /**
+   * Gets distinct consecutive points.
+   * 
+   * @param start the index of the first point
+   * @param size the number of points
+   */
+  private List<LatLng> getPoints(int start, int size) {
+    List<LatLng> points = new ArrayList<LatLng>(size);
+    for (int i = start; i < start + size; i++) {
+      points.add(new LatLng(i / 1000.0, -i / 1000.0));
+    }
+    return points;
+  }
+}
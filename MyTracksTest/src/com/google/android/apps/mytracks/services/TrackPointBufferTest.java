@@ -0,0 +1,220 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.android.apps.mytracks.services;
+
+import static com.google.android.testing.mocking.AndroidMock.eq;
+import static com.google.android.testing.mocking.AndroidMock.expect;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.io.file.importer.LocationsMatcher;
+import com.google.android.testing.mocking.AndroidMock;
+import com.google.android.testing.mocking.UsesMocks;
+
+import android.database.sqlite.SQLiteException;
+import android.location.Location;
+import android.location.LocationManager;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+
+/**
+ * Tests the {@link TrackPointBuffer}.
+ */
+public class TrackPointBufferTest extends AndroidTestCase {
+
+  private static final long TRACK_ID = 123L;
+  private static final int CAPACITY = 5;
+
+  private File journalFile;
+  private TrackPointBuffer trackPointBuffer;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    journalFile = new File(getContext().getFilesDir(), "test.journal");
+    journalFile.delete();
+    trackPointBuffer = new TrackPointBuffer(journalFile, CAPACITY);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    trackPointBuffer.clear();
+    super.tearDown();
+  }
+
+  /**
+   * Tests adding track points until the buffer is full.
+   */
+  public void testAdd() {
+    assertEquals(-1L, trackPointBuffer.getTrackId());
+    for (int i = 0; i < CAPACITY; i++) {
+      assertFalse(trackPointBuffer.isFull());
+      assertEquals(i + 1, trackPointBuffer.add(TRACK_ID, 10L, createLocation(i)));
+    }
+    assertTrue(trackPointBuffer.isFull());
+    assertEquals(TRACK_ID, trackPointBuffer.getTrackId());
+    assertEquals(10L, trackPointBuffer.getLastTrackPointId());
+    assertEquals(CAPACITY, trackPointBuffer.getNumberOfValidPoints());
+  }
+
+  /**
+   * Tests that adding to a full buffer drops the oldest track points, counts
+   * them, and appends one drop record per dropped track point to the journal
+   * instead of rewriting it.
+   */
+  @UsesMocks(MyTracksProviderUtils.class)
+  public void testAdd_full() {
+    for (int i = 0; i < CAPACITY; i++) {
+      trackPointBuffer.add(TRACK_ID, 10L, createLocation(i));
+    }
+    long headerLength = 16L;
+    long recordLength = (journalFile.length() - headerLength) / CAPACITY;
+    int dropped = 3;
+    for (int i = CAPACITY; i < CAPACITY + dropped; i++) {
+      trackPointBuffer.add(TRACK_ID, 10L, createLocation(i));
+    }
+    assertEquals(CAPACITY, trackPointBuffer.size());
+    assertEquals(CAPACITY, trackPointBuffer.getNumberOfValidPoints());
+    assertEquals(dropped, trackPointBuffer.getNumberOfDroppedPoints());
+    assertEquals(headerLength + (CAPACITY + dropped) * recordLength + dropped,
+        journalFile.length());
+
+    TrackPointBuffer restored = new TrackPointBuffer(journalFile, CAPACITY);
+    assertTrue(restored.restore());
+    assertEquals(CAPACITY, restored.size());
+    assertEquals(TRACK_ID, restored.getTrackId());
+    assertEquals(10L, restored.getLastTrackPointId());
+
+    MyTracksProviderUtils myTracksProviderUtils = AndroidMock.createMock(
+        MyTracksProviderUtils.class);
+    Location[] expected = new Location[CAPACITY];
+    for (int i = 0; i < CAPACITY; i++) {
+      expected[i] = createLocation(i + dropped);
+    }
+    expect(myTracksProviderUtils.bulkInsertTrackPoint(
+        LocationsMatcher.eqLoc(expected), eq(CAPACITY), eq(TRACK_ID))).andReturn(CAPACITY);
+    AndroidMock.replay(myTracksProviderUtils);
+    assertEquals(CAPACITY, restored.flush(myTracksProviderUtils));
+    AndroidMock.verify(myTracksProviderUtils);
+  }
+
+  /**
+   * Tests that a failed flush of a full buffer keeps the track points, a track
+   * point can still be added, and the retried flush inserts the track points.
+   */
+  @UsesMocks(MyTracksProviderUtils.class)
+  public void testFlush_retry() {
+    MyTracksProviderUtils myTracksProviderUtils = AndroidMock.createMock(
+        MyTracksProviderUtils.class);
+    Location[] expected = new Location[CAPACITY];
+    for (int i = 0; i < CAPACITY; i++) {
+      expected[i] = createLocation(i + 1);
+    }
+    expect(myTracksProviderUtils.bulkInsertTrackPoint(
+        (Location[]) AndroidMock.anyObject(), eq(CAPACITY), eq(TRACK_ID)))
+        .andThrow(new SQLiteException());
+    expect(myTracksProviderUtils.bulkInsertTrackPoint(
+        LocationsMatcher.eqLoc(expected), eq(CAPACITY), eq(TRACK_ID))).andReturn(CAPACITY);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    for (int i = 0; i < CAPACITY; i++) {
+      trackPointBuffer.add(TRACK_ID, 10L, createLocation(i));
+    }
+    try {
+      trackPointBuffer.flush(myTracksProviderUtils);
+      fail();
+    } catch (SQLiteException e) {
+      // Expected
+    }
+    assertTrue(trackPointBuffer.isFull());
+    long retryDelay = trackPointBuffer.getFlushRetryDelay();
+    assertTrue(retryDelay > 0L);
+
+    trackPointBuffer.add(TRACK_ID, 10L, createLocation(CAPACITY));
+    assertEquals(CAPACITY, trackPointBuffer.flush(myTracksProviderUtils));
+    assertEquals(0, trackPointBuffer.size());
+    assertFalse(journalFile.exists());
+    AndroidMock.verify(myTracksProviderUtils);
+  }
+
+  /**
+   * Tests adding a track point of a different track.
+   */
+  public void testAdd_differentTrack() {
+    trackPointBuffer.add(TRACK_ID, 10L, createLocation(0));
+    try {
+      trackPointBuffer.add(TRACK_ID + 1, 10L, createLocation(1));
+      fail();
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * Tests restoring the buffer from the journal.
+   */
+  public void testRestore() {
+    Location location = createLocation(0);
+    location.setAltitude(100.0);
+    trackPointBuffer.add(TRACK_ID, 10L, location);
+    Location pause = new Location(LocationManager.GPS_PROVIDER);
+    pause.setLatitude(TrackRecordingService.PAUSE_LATITUDE);
+    pause.setLongitude(0);
+    trackPointBuffer.add(TRACK_ID, 10L, pause);
+
+    // Simulates the process being killed
+    TrackPointBuffer restored = new TrackPointBuffer(journalFile, CAPACITY);
+    assertTrue(restored.restore());
+    assertEquals(2, restored.size());
+    assertEquals(TRACK_ID, restored.getTrackId());
+    assertEquals(10L, restored.getLastTrackPointId());
+    assertEquals(1, restored.getNumberOfValidPoints());
+
+    // New track points are appended to the restored journal
+    restored.add(TRACK_ID, 10L, createLocation(2));
+    TrackPointBuffer restoredAgain = new TrackPointBuffer(journalFile, CAPACITY);
+    assertTrue(restoredAgain.restore());
+    assertEquals(3, restoredAgain.size());
+    restoredAgain.clear();
+  }
+
+  /**
+   * Tests that clearing the buffer deletes the journal.
+   */
+  public void testClear() {
+    trackPointBuffer.add(TRACK_ID, 10L, createLocation(0));
+    assertTrue(journalFile.exists());
+    trackPointBuffer.clear();
+    assertFalse(journalFile.exists());
+    assertEquals(0, trackPointBuffer.size());
+    assertFalse(new TrackPointBuffer(journalFile, CAPACITY).restore());
+  }
+
+  /**
+   * Creates a valid location.
+   *
+   * @param i the index
+   */
+  private Location createLocation(int i) {
+    Location location = new Location(LocationManager.GPS_PROVIDER);
+    location.setLatitude(45.0 + i / 100.0);
+    location.setLongitude(35.0 + i / 100.0);
+    location.setAccuracy(5);
+    location.setSpeed(10);
+    location.setTime(1000L * i);
+    return location;
+  }
+}
@@ -4,6 +4,12 @@
 
 package com.google.android.apps.mytracks.stats;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import junit.framework.TestCase;
 
 /**
@@ -114,4 +120,59 @@ public class DoubleBufferTest extends TestCase {
     }
   }
 
+  /**
+   * Tests that the running average and variance match the ones computed from
+   * the entries.
+   */
+  public void testAverageAndVariance() {
+    DoubleBuffer buffer = new DoubleBuffer(7);
+    double[] values = new double[7];
+    for (int i = 0; i < 1000; i++) {
+      double value = Math.sin(i) * 100.3;
+      buffer.setNext(value);
+      values[i % 7] = value;
+      int count = Math.min(i + 1, 7);
+      double sum = 0;
+      double sumSquares = 0;
+      for (int j = 0; j < count; j++) {
+        sum += values[j];
+        sumSquares += values[j] * values[j];
+      }
+      double average = sum / count;
+      assertEquals(average, buffer.getAverage(), 1e-9);
+      assertEquals(sumSquares / count - average * average, buffer.getVariance(), 1e-6);
+    }
+  }
+
+  /**
+   * Tests that a buffer read from the written data continues like the written
+   * buffer.
+   */
+  public void testWriteToReadFrom() throws IOException {
+    DoubleBuffer buffer = new DoubleBuffer(10);
+    for (int i = 0; i < 13; i++) {
+      buffer.setNext(i);
+    }
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    buffer.writeTo(new DataOutputStream(byteArrayOutputStream));
+
+    DoubleBuffer copy = new DoubleBuffer(10);
+    copy.readFrom(
+        new DataInputStream(new ByteArrayInputStream(byteArrayOutputStream.toByteArray())));
+    assertTrue(copy.isFull());
+    assertEquals(buffer.getAverage(), copy.getAverage());
+    for (int i = 13; i < 20; i++) {
+      buffer.setNext(i);
+      copy.setNext(i);
+      assertEquals(buffer.getAverage(), copy.getAverage());
+    }
+
+    try {
+      new DoubleBuffer(5).readFrom(
+          new DataInputStream(new ByteArrayInputStream(byteArrayOutputStream.toByteArray())));
+      fail();
+    } catch (IOException e) {
+      // Expected
+    }
+  }
 }
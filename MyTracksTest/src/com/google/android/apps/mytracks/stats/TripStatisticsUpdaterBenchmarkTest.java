@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.stats;
+
+import com.google.android.apps.mytracks.util.CalorieUtils.ActivityType;
+import com.google.android.apps.mytracks.util.PreferencesUtils;
+
+import android.location.Location;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.Suppress;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Benchmarks reading the distance and the time of a
+ * {@link TripStatisticsUpdater} after each location of a replayed track, with
+ * the {@link TripStatisticsUpdater#getTripStatistics()} copy and with the
+ * getters. The time and the allocations per location of the reads are
+ * logged. The 100k locations run is suppressed by default.
+ */
+public class TripStatisticsUpdaterBenchmarkTest extends AndroidTestCase {
+
+  private static final String TAG = TripStatisticsUpdaterBenchmarkTest.class.getSimpleName();
+
+  private static final long START_TIME = 1400000000000L;
+
+  @LargeTest
+  public void testRead_10k() {
+    runBenchmark(10000);
+  }
+
+  @Suppress
+  public void testRead_100k() {
+    runBenchmark(100000);
+  }
+
+  /**
+   * Runs the benchmark.
+   * 
+   * @param numberOfLocations the number of locations to replay
+   */
+  private void runBenchmark(int numberOfLocations) {
+    String copy = replay(numberOfLocations, true);
+    String getters = replay(numberOfLocations, false);
+    Log.i(TAG, numberOfLocations + " locations. getTripStatistics: " + copy + ". Getters: "
+        + getters + ".");
+  }
+
+  /**
+   * Replays a track and reads the distance and the time after each location.
+   * Returns the time and the allocations per location of the reads.
+   * 
+   * @param numberOfLocations the number of locations
+   * @param copy true to read from {@link TripStatisticsUpdater#getTripStatistics()}
+   */
+  private String replay(int numberOfLocations, boolean copy) {
+    TripStatisticsUpdater updater = new TripStatisticsUpdater(START_TIME);
+    Location location = new Location("test");
+    double result = 0.0;
+    long time = 0L;
+    long allocations = 0L;
+    Debug.startAllocCounting();
+    try {
+      for (int i = 0; i < numberOfLocations; i++) {
+        location.setAccuracy(1.0f);
+        location.setLatitude(i * .0001);
+        location.setLongitude(45.0);
+        location.setAltitude(i % 100);
+        location.setSpeed(11.1f);
+        location.setTime(START_TIME + i * 1000L);
+        updater.addLocation(location, PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT,
+            false, ActivityType.INVALID, 0.0);
+
+        int startAllocations = Debug.getThreadAllocCount();
+        long start = System.nanoTime();
+        if (copy) {
+          TripStatistics tripStatistics = updater.getTripStatistics();
+          result += tripStatistics.getTotalDistance() + tripStatistics.getTotalTime();
+        } else {
+          result += updater.getTotalDistance() + updater.getTotalTime();
+        }
+        time += System.nanoTime() - start;
+        allocations += Debug.getThreadAllocCount() - startAllocations;
+
+        // The updater keeps the last location, thus use a new one
+        location = new Location(location);
+      }
+    } finally {
+      Debug.stopAllocCounting();
+    }
+    assertTrue(result > 0.0);
+    return String.format(Locale.US, "%d ns, %.2f allocations", time / numberOfLocations,
+        (double) allocations / numberOfLocations);
+  }
+}
@@ -2,11 +2,18 @@
 
 package com.google.android.apps.mytracks.stats;
 
+import com.google.android.apps.mytracks.services.TrackRecordingService;
 import com.google.android.apps.mytracks.util.CalorieUtils.ActivityType;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
 
 import android.location.Location;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import junit.framework.TestCase;
 
 /**
@@ -78,6 +85,79 @@ public class TripStatisticsUpdaterTest extends TestCase {
     addLocations(5, startTime, tripStatistics, 15, 5);
   }
 
+  /**
+   * Tests that the getters of the updater match its trip statistics, across a
+   * pause.
+   */
+  public void testGetters() {
+    long startTime = 1000;
+    tripStatisticsUpdater = new TripStatisticsUpdater(startTime);
+    for (int i = 0; i < 100; i++) {
+      Location location = i == 60 ? getLocation(
+          0, TrackRecordingService.PAUSE_LATITUDE, 0, startTime + i * TEN_SECONDS)
+          : getLocation(i % 7, i * .001, MOVING_SPEED, startTime + i * TEN_SECONDS);
+      tripStatisticsUpdater.addLocation(location,
+          PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT, true, ActivityType.RUNNING,
+          DEFAULT_WEIGHT);
+      TripStatistics tripStatistics = tripStatisticsUpdater.getTripStatistics();
+      assertEquals(tripStatistics.getTotalDistance(), tripStatisticsUpdater.getTotalDistance());
+      assertEquals(tripStatistics.getTotalTime(), tripStatisticsUpdater.getTotalTime());
+      assertEquals(tripStatistics.getMovingTime(), tripStatisticsUpdater.getMovingTime());
+      assertEquals(tripStatistics.getTotalElevationGain(),
+          tripStatisticsUpdater.getTotalElevationGain());
+      assertEquals(tripStatistics.getCalorie(), tripStatisticsUpdater.getCalorie());
+    }
+  }
+
+  /**
+   * Tests that an updater read from a checkpoint gives the same trip statistics
+   * as an updater which added all the locations.
+   */
+  public void testWriteToReadFrom() throws IOException {
+    long startTime = 1000;
+    tripStatisticsUpdater = new TripStatisticsUpdater(startTime);
+    TripStatisticsUpdater resumed = null;
+    for (int i = 0; i < 200; i++) {
+      Location location;
+      if (i == 120) {
+        // Pause marker
+        location = getLocation(0, TrackRecordingService.PAUSE_LATITUDE, 0,
+            startTime + i * TEN_SECONDS);
+      } else {
+        float speed = i % 50 < 40 ? MOVING_SPEED : 0;
+        location = getLocation(i % 7, (i % 50 < 40 ? i : i - i % 50 + 40) * .001, speed,
+            startTime + i * TEN_SECONDS);
+      }
+      tripStatisticsUpdater.addLocation(location,
+          PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT, true, ActivityType.RUNNING,
+          DEFAULT_WEIGHT);
+      if (resumed != null) {
+        resumed.addLocation(location, PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT, true,
+            ActivityType.RUNNING, DEFAULT_WEIGHT);
+      }
+      if (i == 45 || i == 130) {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        tripStatisticsUpdater.writeTo(new DataOutputStream(byteArrayOutputStream));
+        resumed = TripStatisticsUpdater.readFrom(new DataInputStream(
+            new ByteArrayInputStream(byteArrayOutputStream.toByteArray())));
+      }
+    }
+    TripStatistics expected = tripStatisticsUpdater.getTripStatistics();
+    TripStatistics actual = resumed.getTripStatistics();
+    assertEquals(expected.getTotalDistance(), actual.getTotalDistance());
+    assertEquals(expected.getTotalTime(), actual.getTotalTime());
+    assertEquals(expected.getMovingTime(), actual.getMovingTime());
+    assertEquals(expected.getMaxSpeed(), actual.getMaxSpeed());
+    assertEquals(expected.getTotalElevationGain(), actual.getTotalElevationGain());
+    assertEquals(expected.getMinGrade(), actual.getMinGrade());
+    assertEquals(expected.getMaxGrade(), actual.getMaxGrade());
+    assertEquals(expected.getCalorie(), actual.getCalorie());
+    assertEquals(expected.getTop(), actual.getTop());
+    assertEquals(expected.getBottom(), actual.getBottom());
+    assertEquals(tripStatisticsUpdater.getSmoothedElevation(), resumed.getSmoothedElevation());
+    assertEquals(tripStatisticsUpdater.getSmoothedSpeed(), resumed.getSmoothedSpeed());
+  }
+
   /**
    * Tests {@link TripStatisticsUpdater#updateElevation(double)} with constant
    * elevations.
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.util;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmarks the {@link Iso8601Codec} against the {@link SimpleDateFormat}
+ * and regular expression implementation it replaces in {@link StringUtils}.
+ * The time and the allocations per operation are logged.
+ */
+public class Iso8601CodecBenchmarkTest extends AndroidTestCase {
+
+  private static final String TAG = Iso8601CodecBenchmarkTest.class.getSimpleName();
+
+  // Number of times to run each operation
+  private static final int ITERATIONS = 100000;
+
+  private static final long START_TIME = 1400000000000L;
+
+  private static final SimpleDateFormat DATE_TIME_FORMAT = new SimpleDateFormat(
+      "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+  private static final SimpleDateFormat BASE_FORMAT = new SimpleDateFormat(
+      "yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+  private static final Pattern EXTRAS = Pattern.compile(
+      "^(\\.\\d+)?(?:Z|([+-])(\\d{2}):(\\d{2}))?$");
+  static {
+    DATE_TIME_FORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
+    BASE_FORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
+  }
+
+  /**
+   * An operation to benchmark.
+   */
+  private interface Operation {
+
+    /**
+     * Runs the operation for an index. Returns a value depending on the result
+     * so that the operation is not optimized away.
+     * 
+     * @param index the index
+     */
+    long run(int index);
+  }
+
+  @LargeTest
+  public void testFormat() {
+    final StringBuilder builder = new StringBuilder();
+    final char[] buffer = new char[Iso8601Codec.LENGTH];
+    String simpleDateFormat = runOperation(new Operation() {
+        @Override
+      public long run(int index) {
+        return DATE_TIME_FORMAT.format(new Date(START_TIME + index * 1001L)).length();
+      }
+    });
+    String codec = runOperation(new Operation() {
+        @Override
+      public long run(int index) {
+        return Iso8601Codec.format(START_TIME + index * 1001L).length();
+      }
+    });
+    String codecBuilder = runOperation(new Operation() {
+        @Override
+      public long run(int index) {
+        builder.setLength(0);
+        Iso8601Codec.format(START_TIME + index * 1001L, builder);
+        return builder.length();
+      }
+    });
+    String codecBuffer = runOperation(new Operation() {
+        @Override
+      public long run(int index) {
+        return Iso8601Codec.format(START_TIME + index * 1001L, buffer, 0);
+      }
+    });
+    Log.i(TAG, "Format. SimpleDateFormat: " + simpleDateFormat + ". Codec string: " + codec
+        + ". Codec StringBuilder: " + codecBuilder + ". Codec char array: " + codecBuffer + ".");
+  }
+
+  @LargeTest
+  public void testParse() {
+    final String[] times = new String[] { Iso8601Codec.format(START_TIME),
+        "2014-05-13T16:53:20Z", "2014-05-13T16:53:20.1234+02:00" };
+    for (String time : times) {
+      assertEquals(parseLegacy(time), Iso8601Codec.parse(time, 0, time.length()));
+    }
+    String legacy = runOperation(new Operation() {
+        @Override
+      public long run(int index) {
+        return parseLegacy(times[index % times.length]);
+      }
+    });
+    String codec = runOperation(new Operation() {
+        @Override
+      public long run(int index) {
+        String time = times[index % times.length];
+        return Iso8601Codec.parse(time, 0, time.length());
+      }
+    });
+    Log.i(TAG, "Parse. SimpleDateFormat and regex: " + legacy + ". Codec: " + codec + ".");
+  }
+
+  /**
+   * Runs an operation {@link #ITERATIONS} times, after a warm up. Returns the
+   * time and the allocations per operation.
+   * 
+   * @param operation the operation
+   */
+  private String runOperation(Operation operation) {
+    long result = 0L;
+    for (int i = 0; i < ITERATIONS / 10; i++) {
+      result += operation.run(i);
+    }
+    Debug.startAllocCounting();
+    try {
+      Debug.resetThreadAllocCount();
+      long start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        result += operation.run(i);
+      }
+      long time = System.nanoTime() - start;
+      int allocations = Debug.getThreadAllocCount();
+      assertTrue(result != 0L);
+      return String.format(Locale.US, "%d ns, %.1f allocations", time / ITERATIONS,
+          (double) allocations / ITERATIONS);
+    } finally {
+      Debug.stopAllocCounting();
+    }
+  }
+
+  /**
+   * Parses the time like {@link StringUtils#getTime(String)} did before the
+   * {@link Iso8601Codec}.
+   * 
+   * @param xmlDateTime the XML date time string
+   */
+  private static long parseLegacy(String xmlDateTime) {
+    ParsePosition position = new ParsePosition(0);
+    Date date = BASE_FORMAT.parse(xmlDateTime, position);
+    Matcher matcher = EXTRAS.matcher(xmlDateTime.substring(position.getIndex()));
+    assertTrue(matcher.matches());
+    long time = date.getTime();
+    String fractional = matcher.group(1);
+    if (fractional != null) {
+      time += Math.round(Float.parseFloat(fractional) * UnitConversions.S_TO_MS);
+    }
+    if (matcher.group(2) != null) {
+      long offset = (Integer.parseInt(matcher.group(3)) * 60L
+          + Integer.parseInt(matcher.group(4))) * 60000L;
+      time += matcher.group(2).equals("+") ? -offset : offset;
+    }
+    return time;
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.util;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link Iso8601Codec}.
+ */
+public class Iso8601CodecTest extends TestCase {
+
+  private static final String[] INVALID_TIMES = { "", "invalid", "2010-04-22T18:21:00X",
+      "2010-04-22T18:21:00+15:00", "2010-04-22T18:21:00.Z", "2010-04-22T18:21:00+05" };
+
+  private static final int THREADS = 4;
+
+  /**
+   * Tests formatting matches {@link SimpleDateFormat}.
+   */
+  public void testFormat() {
+    SimpleDateFormat simpleDateFormat = new SimpleDateFormat(
+        "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+    simpleDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    Random random = new Random(0);
+    for (int i = 0; i < 10000; i++) {
+      long time = (long) ((random.nextDouble() - 0.3) * 8E12);
+      String expected = simpleDateFormat.format(new Date(time));
+      assertEquals(expected, Iso8601Codec.format(time));
+    }
+    assertEquals("1970-01-01T00:00:00.000Z", Iso8601Codec.format(0L));
+    assertEquals("1969-12-31T23:59:59.999Z", Iso8601Codec.format(-1L));
+    assertEquals("2000-02-29T00:00:00.000Z", Iso8601Codec.format(951782400000L));
+  }
+
+  /**
+   * Tests formatting into a {@link StringBuilder} and a char array.
+   */
+  public void testFormat_buffers() {
+    StringBuilder builder = new StringBuilder("<time>");
+    Iso8601Codec.format(1272942121352L, builder);
+    assertEquals("<time>2010-05-04T03:02:01.352Z", builder.toString());
+
+    char[] buffer = new char[Iso8601Codec.LENGTH + 2];
+    assertEquals(Iso8601Codec.LENGTH + 1, Iso8601Codec.format(1272942121352L, buffer, 1));
+    assertEquals("2010-05-04T03:02:01.352Z", new String(buffer, 1, Iso8601Codec.LENGTH));
+  }
+
+  /**
+   * Tests parsing.
+   */
+  public void testParse() {
+    assertParse(1272942121000L, "2010-05-04T03:02:01");
+    assertParse(1272942121000L, "2010-05-04T03:02:01Z");
+    assertParse(1272942121352L, " 2010-05-04T03:02:01.352Z\n");
+    assertParse(1272942121352L, "2010-05-04T03:02:01.3525Z");
+    assertParse(1272942121353L, "2010-05-04T03:02:01.35251Z");
+    assertParse(1272938521000L, "2010-05-04T03:02:01+01:00");
+    assertParse(1272961921800L, "2010-05-04T03:02:01.8-05:30");
+    assertParse(1330473600000L, "2012-02-29T00:00:00Z");
+    assertParse(1330560000000L, "2012-02-30T00:00:00Z");
+
+    // Parsed by the lenient parser
+    assertParse(1325473445000L, "2012-1-2T3:04:05Z");
+    assertParse(1272942121352L, "2010-05-04T03:02:01.352499999Z");
+  }
+
+  /**
+   * Tests parsing a range of a char sequence.
+   */
+  public void testParse_range() {
+    String text = "<time>2010-05-04T03:02:01Z</time>";
+    assertEquals(1272942121000L, Iso8601Codec.parse(text, 6, text.length() - 7));
+  }
+
+  /**
+   * Tests parsing invalid date times.
+   */
+  public void testParse_invalid() {
+    for (String time : INVALID_TIMES) {
+      try {
+        Iso8601Codec.parse(time, 0, time.length());
+        fail(time);
+      } catch (IllegalArgumentException e) {
+        // Expected
+      }
+    }
+  }
+
+  /**
+   * Tests formatting and parsing concurrently.
+   */
+  public void testThreadSafety() throws InterruptedException {
+    final AtomicInteger failures = new AtomicInteger();
+    Thread[] threads = new Thread[THREADS];
+    for (int i = 0; i < THREADS; i++) {
+      final long seed = i;
+      threads[i] = new Thread() {
+          @Override
+        public void run() {
+          Random random = new Random(seed);
+          StringBuilder builder = new StringBuilder();
+          for (int j = 0; j < 10000; j++) {
+            long time = (long) (random.nextDouble() * 4E12);
+            builder.setLength(0);
+            Iso8601Codec.format(time, builder);
+            if (Iso8601Codec.parse(builder, 0, builder.length()) != time
+                || StringUtils.getTime(StringUtils.formatDateTimeIso8601(time)) != time) {
+              failures.incrementAndGet();
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, failures.get());
+  }
+
+  private void assertParse(long expected, String time) {
+    assertEquals(time, expected, Iso8601Codec.parse(time, 0, time.length()));
+  }
+}
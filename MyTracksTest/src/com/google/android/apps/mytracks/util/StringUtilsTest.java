@@ -20,6 +20,7 @@ import android.test.AndroidTestCase;
 
 import java.util.GregorianCalendar;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Tests for {@link StringUtils}.
@@ -140,6 +141,35 @@ public class StringUtilsTest extends AndroidTestCase {
     assertGetTime("2010-05-04T03:02:01.8-05:30", 2010, 5, 4, 8, 32, 1, 800);
   }
 
+  /**
+   * Tests {@link StringUtils#getTime(String)} and
+   * {@link StringUtils#formatDateTimeIso8601(long)} from several threads, as
+   * when importing files in parallel.
+   */
+  public void testGetTime_threads() throws Exception {
+    final AtomicInteger failures = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      final long offset = i * 86400000L;
+      threads[i] = new Thread() {
+          @Override
+        public void run() {
+          for (int j = 0; j < 2000; j++) {
+            long time = 1273000000000L + offset + j * 1001L;
+            if (StringUtils.getTime(StringUtils.formatDateTimeIso8601(time)) != time) {
+              failures.incrementAndGet();
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, failures.get());
+  }
+
   /**
    * Asserts the {@link StringUtils#getTime(String)} returns the expected
    * values.